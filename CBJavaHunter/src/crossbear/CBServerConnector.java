@@ -0,0 +1,233 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The CBServerConnector opens all HTTPS-connections from the JavaHunter to the Crossbear-Server. All of them share a single SSLContext that only trusts the certificate of the Crossbear-Server (cf.
+ * TrustSingleCertificateTM). Sharing it has two advantages:
+ * - The SSL-sessions are cached. Therefore a new connection can resume a session instead of performing a full handshake.
+ * - HttpsURLConnection keeps idle connections alive and reuses them for later requests. This is only possible for requests that use the same SSLSocketFactory.
+ * 
+ * Please note: Connections can only be reused if the InputStreams of the HttpsURLConnections are read and closed (and the connections are not disconnected).
+ * 
+ * In order to tell how well this works, the CBServerConnector counts the requests, the established connections and the full and resumed handshakes.
+ */
+public class CBServerConnector {
+
+	/**
+	 * SSLSocketFactory that creates its SSLSockets using another SSLSocketFactory and counts the full and resumed handshakes performed by them.
+	 */
+	private class CountingSocketFactory extends SSLSocketFactory {
+
+		// The SSLSocketFactory that is actually used to create the SSLSockets
+		private final SSLSocketFactory factory;
+
+		/**
+		 * Create a new CountingSocketFactory
+		 * 
+		 * @param factory The SSLSocketFactory that is actually used to create the SSLSockets
+		 */
+		public CountingSocketFactory(SSLSocketFactory factory) {
+			this.factory = factory;
+		}
+
+		/**
+		 * Count the connection and register a listener on an SSLSocket that counts its handshakes. A handshake resumed a session if the session is older than the socket.
+		 * 
+		 * @param sock The SSLSocket to watch
+		 * @return sock
+		 */
+		private Socket watch(Socket sock) {
+			connections.incrementAndGet();
+
+			final long socketCreationTime = System.currentTimeMillis();
+			((SSLSocket) sock).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+				@Override
+				public void handshakeCompleted(HandshakeCompletedEvent event) {
+					if (event.getSession().getCreationTime() < socketCreationTime) {
+						resumedHandshakes.incrementAndGet();
+					} else {
+						fullHandshakes.incrementAndGet();
+					}
+				}
+			});
+
+			return sock;
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.SocketFactory#createSocket()
+		 */
+		@Override
+		public Socket createSocket() throws IOException {
+			return watch(factory.createSocket());
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.SocketFactory#createSocket(java.net.InetAddress, int)
+		 */
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return watch(factory.createSocket(host, port));
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.SocketFactory#createSocket(java.net.InetAddress, int, java.net.InetAddress, int)
+		 */
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return watch(factory.createSocket(address, port, localAddress, localPort));
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.ssl.SSLSocketFactory#createSocket(java.net.Socket, java.lang.String, int, boolean)
+		 */
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			return watch(factory.createSocket(s, host, port, autoClose));
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.SocketFactory#createSocket(java.lang.String, int)
+		 */
+		@Override
+		public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+			return watch(factory.createSocket(host, port));
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.SocketFactory#createSocket(java.lang.String, int, java.net.InetAddress, int)
+		 */
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException, UnknownHostException {
+			return watch(factory.createSocket(host, port, localHost, localPort));
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.ssl.SSLSocketFactory#getDefaultCipherSuites()
+		 */
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites();
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.net.ssl.SSLSocketFactory#getSupportedCipherSuites()
+		 */
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites();
+		}
+	}
+
+	// The Hostname and port of the Crossbear server (e.g. crossbear.net.in.tum.de:443)
+	private final String cbServerHostPort;
+
+	// The SSLSocketFactory that is used for all connections to the Crossbear server
+	private final SSLSocketFactory socketFactory;
+
+	// The number of requests that were sent to the Crossbear server
+	private final AtomicInteger requests = new AtomicInteger();
+
+	// The number of connections that were established to the Crossbear server
+	private final AtomicInteger connections = new AtomicInteger();
+
+	// The number of full and resumed SSL-handshakes
+	private final AtomicInteger fullHandshakes = new AtomicInteger(), resumedHandshakes = new AtomicInteger();
+
+	/**
+	 * Create a new CBServerConnector
+	 * 
+	 * @param cbServerHostPort The Hostname and port of the Crossbear server (e.g. crossbear.net.in.tum.de:443)
+	 * @param cbServerCertHash The SHA256-Hash of the certificate that the Crossbear server uses
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyManagementException
+	 */
+	public CBServerConnector(String cbServerHostPort, byte[] cbServerCertHash) throws NoSuchAlgorithmException, KeyManagementException {
+		this.cbServerHostPort = cbServerHostPort;
+
+		// Make sure that the Crossbear server uses the certificate it is supposed to use (prevent Mitm-attacks against Crossbear)
+		SSLContext sc = SSLContext.getInstance("SSL");
+		sc.init(null, new TrustManager[] { new TrustSingleCertificateTM(cbServerCertHash) }, new SecureRandom());
+
+		// Keep the SSL-sessions for a day so they can be resumed even if the Crossbear server is contacted rarely (e.g. by a JavaHunter in daemon mode)
+		sc.getClientSessionContext().setSessionTimeout(24 * 60 * 60);
+		sc.getClientSessionContext().setSessionCacheSize(16);
+
+		this.socketFactory = new CountingSocketFactory(sc.getSocketFactory());
+	}
+
+	/**
+	 * Open a HttpsURLConnection to a page of the Crossbear server. The connection might reuse an idle connection that was opened before.
+	 * 
+	 * @param path The path of the page (e.g. "/getHuntingTaskList.jsp")
+	 * @return The HttpsURLConnection (not yet connected)
+	 * @throws IOException
+	 */
+	public HttpsURLConnection openConnection(String path) throws IOException {
+		requests.incrementAndGet();
+
+		// Open a HttpsURLConnection for the page's URL
+		HttpsURLConnection conn = (HttpsURLConnection) new URL("https://" + cbServerHostPort + path).openConnection();
+
+		// Use the shared SSLSocketFactory
+		conn.setSSLSocketFactory(socketFactory);
+
+		return conn;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CBServerConnector: " + requests.get() + " requests, " + connections.get() + " connections, " + fullHandshakes.get() + " full handshakes, " + resumedHandshakes.get()
+				+ " resumed handshakes";
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+/**
+ * A CachedRoute is an entry of the RouteCache. It contains the hops that were observed on the route to a destination along with the time of the observation.
+ * 
+ * The hops are stored as one String per TTL-value (index 0 being the one for TTL 1). Each String is a "|"-separated list of the IPs that replied for that TTL-value or "" if no IP replied. The list
+ * ends in front of the TTL-value for which the destination itself replied.
+ */
+public class CachedRoute {
+
+	// The hops of the route (one String per TTL-value)
+	private final String[] hops;
+
+	// The time at which the route was observed (in local time)
+	private final long timeOfObservation;
+
+	/**
+	 * Create a new CachedRoute
+	 * 
+	 * @param hops The hops of the route (one String per TTL-value)
+	 * @param timeOfObservation The time at which the route was observed (in local time)
+	 */
+	public CachedRoute(String[] hops, long timeOfObservation) {
+		this.hops = hops;
+		this.timeOfObservation = timeOfObservation;
+	}
+
+	/**
+	 * @return The hops of the route (one String per TTL-value)
+	 */
+	public String[] getHops() {
+		return hops;
+	}
+
+	/**
+	 * @return The time at which the route was observed (in local time)
+	 */
+	public long getTimeOfObservation() {
+		return timeOfObservation;
+	}
+
+}
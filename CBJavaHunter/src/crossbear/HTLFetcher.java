@@ -29,17 +29,17 @@ package crossbear;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
 
 import crossbear.messaging.CurrentServerTime;
 import crossbear.messaging.HuntingTask;
+import crossbear.messaging.HuntingTaskListVersion;
+import crossbear.messaging.HuntingTaskRemoval;
 import crossbear.messaging.Message;
 import crossbear.messaging.PublicIPNotification;
 
@@ -57,6 +57,8 @@ public class HTLFetcher {
 	 * - MESSAGE_TYPE_PUBLIC_IP_NOTIFX
 	 * - MESSAGE_TYPE_CURRENT_SERVER_TIME
 	 * - MESSAGE_TYPE_IPVX_SHA256_TASK
+	 * - MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION
+	 * - MESSAGE_TYPE_HUNTING_TASK_REMOVAL
 	 * 
 	 * @param is The InputStream to extract the Messages from
 	 * @return A Crossbear-Message-Object representing the next message of the Stream or null if there are no more
@@ -71,9 +73,10 @@ public class HTLFetcher {
 			return null;
 		}
 
-		// Verify message type: It has to be either MESSAGE_TYPE_PUBLIC_IP_NOTIFX, MESSAGE_TYPE_CURRENT_SERVER_TIME or MESSAGE_TYPE_IPVX_SHA256_TASK
+		// Verify message type: It has to be either MESSAGE_TYPE_PUBLIC_IP_NOTIFX, MESSAGE_TYPE_CURRENT_SERVER_TIME, MESSAGE_TYPE_IPVX_SHA256_TASK, MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION or MESSAGE_TYPE_HUNTING_TASK_REMOVAL
 		if (messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF4 && messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF6 && messageType != Message.MESSAGE_TYPE_CURRENT_SERVER_TIME
-				&& messageType != Message.MESSAGE_TYPE_IPV4_SHA256_TASK && messageType != Message.MESSAGE_TYPE_IPV6_SHA256_TASK) {
+				&& messageType != Message.MESSAGE_TYPE_IPV4_SHA256_TASK && messageType != Message.MESSAGE_TYPE_IPV6_SHA256_TASK
+				&& messageType != Message.MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION && messageType != Message.MESSAGE_TYPE_HUNTING_TASK_REMOVAL) {
 			
 			throw new IllegalArgumentException("The provided messageType " + messageType + " was not expected");
 		}
@@ -96,62 +99,136 @@ public class HTLFetcher {
 			return new HuntingTask(raw, 4);
 		} else if (messageType == Message.MESSAGE_TYPE_IPV6_SHA256_TASK) {
 			return new HuntingTask(raw, 6);
+		} else if (messageType == Message.MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION) {
+			return new HuntingTaskListVersion(raw);
+		} else if (messageType == Message.MESSAGE_TYPE_HUNTING_TASK_REMOVAL) {
+			return new HuntingTaskRemoval(raw);
 		} else {
 			throw new IllegalArgumentException("The provided messageType " + messageType + " was not expected");
 		}
 	}
 
-	// The Hostname and port of the Crossbear server (e.g. crossbear.net.in.tum.de:443)
-	private String cbServerHostPort;
+	// The CBServerConnector that is used to contact the Crossbear server
+	private CBServerConnector cbServerConnector;
 
-	// The SHA256-Hash of the certificate that the Crossbear server uses
-	private byte[] cbServerCertHash;
+	// The ETag of the last HuntingTask-List that was received from the Crossbear server (null if the server didn't send one)
+	private String lastETag = null;
+
+	// The version of the last HuntingTask-List that was received from the Crossbear server (0 if none is known)
+	private long lastVersion = 0;
+
+	// The HuntingTasks of the last HuntingTask-List that was received from the Crossbear server in the order of their priority (key: TaskID). Changes sent by the server are applied to it.
+	private LinkedHashMap<Integer, HuntingTask> currentTasks = new LinkedHashMap<Integer, HuntingTask>();
 
 	/**
 	 * Create a new HuntingTask-List-Fetcher
 	 * 
-	 * @param cbServerHostPort The Hostname and port of the Crossbear server (e.g. crossbear.net.in.tum.de:443) 
-	 * @param cbServerCertHash The SHA256-Hash of the certificate that the Crossbear server uses
+	 * @param cbServerConnector The CBServerConnector that is used to contact the Crossbear server
+	 */
+	public HTLFetcher(CBServerConnector cbServerConnector) {
+		this.cbServerConnector = cbServerConnector;
+	}
+
+	/**
+	 * Forget the ETag, the version and the HuntingTasks of the last HuntingTask-List so the next call of getHTLFromServer will download the complete HuntingTask-List even if it didn't change.
 	 */
-	public HTLFetcher(String cbServerHostPort, byte[] cbServerCertHash) {
-		this.cbServerHostPort = cbServerHostPort;
-		this.cbServerCertHash = cbServerCertHash;
+	public void forgetLastHTL() {
+		lastETag = null;
+		lastVersion = 0;
+		currentTasks.clear();
 	}
 
 	/**
-	 * Contact the Crossbear server and get the latest HuntingTask-List
+	 * Contact the Crossbear server and get the latest HuntingTask-List. If the server sent an ETag along with the last HuntingTask-List, the download is conditional: In case the HuntingTask-List
+	 * didn't change since then, the server will reply with "304 Not Modified" and nothing is downloaded.
 	 * 
-	 * @return The server's HuntingTask-List as a LinkedList of Crossbear Messages
-	 * @throws KeyManagementException
+	 * Moreover, the server is told the version of the last HuntingTask-List. If it still knows that version it will send only the HuntingTasks that were added, changed or removed since then. These
+	 * changes are applied to the last HuntingTask-List so the caller always receives the complete HuntingTask-List. Its HuntingTasks are ordered by their priority (the server sends the order of
+	 * all HuntingTasks along with the changes).
+	 * 
+	 * Please note: The server sends only a shard of its HuntingTask-List. Which HuntingTasks it contains depends (among others) on the IP-versions that the hunter is able to use.
+	 * 
+	 * @param ipVersions The IP-versions that the hunter is able to use besides the one used to contact the server (e.g. "4,6") or null if they are unknown
+	 * @return The server's HuntingTask-List as a LinkedList of Crossbear Messages or null if it didn't change since the last call
 	 * @throws IOException
-	 * @throws NoSuchAlgorithmException
 	 */
-	public LinkedList<Message> getHTLFromServer() throws KeyManagementException, IOException, NoSuchAlgorithmException {
-
-		// Construct the URL that holds the HuntingTask-List
-		URL url = new URL("https://" + cbServerHostPort + "/getHuntingTaskList.jsp");
+	public LinkedList<Message> getHTLFromServer(String ipVersions) throws IOException {
 
-		// Open a HttpsURLConnection for that url
-		HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+		// Open a HttpsURLConnection for the page that holds the HuntingTask-List
+		HttpsURLConnection conn = cbServerConnector.openConnection("/getHuntingTaskList.jsp?version=" + lastVersion + ((ipVersions != null) ? "&ipVersions=" + ipVersions : ""));
 
-		// Make sure that the Crossbear server uses the certificate it is supposed to use (prevent Mitm-attacks against Crossbear)
-		SSLContext sc = SSLContext.getInstance("SSL");
-		sc.init(null, new TrustManager[] { new TrustSingleCertificateTM(cbServerCertHash) }, new java.security.SecureRandom());
-		conn.setSSLSocketFactory(sc.getSocketFactory());
+		// Ask the server to send the HuntingTask-List compressed and only if it changed
+		conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		if (lastETag != null) {
+			conn.setRequestProperty("If-None-Match", lastETag);
+		}
+		if (conn.getResponseCode() == HttpsURLConnection.HTTP_NOT_MODIFIED) {
+			
+			// Close the (empty) InputStream so the connection can be reused
+			conn.getInputStream().close();
+			return null;
+		}
+		lastETag = conn.getHeaderField("ETag");
 
-		// Get the data that the Crossbear Server sends ...
+		// Get the data that the Crossbear Server sends (decompressing it if necessary) ...
 		InputStream is = conn.getInputStream();
+		String contentEncoding = conn.getContentEncoding();
+		if ("gzip".equalsIgnoreCase(contentEncoding)) {
+			is = new GZIPInputStream(is);
+		} else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+			is = new InflaterInputStream(is);
+		}
 
-		// ... and transform it into a list of Crossbear Messages
+		// ... and transform it into a list of Crossbear Messages (HuntingTasks, HuntingTaskRemovals and the HuntingTaskListVersion are collected separately)
 		LinkedList<Message> re = new LinkedList<Message>();
+		LinkedList<HuntingTask> receivedTasks = new LinkedList<HuntingTask>();
+		LinkedList<HuntingTaskRemoval> removals = new LinkedList<HuntingTaskRemoval>();
+		HuntingTaskListVersion version = null;
 		Message m;
 		while ((m = extractNextMessageFromHTL(is)) != null) {
-			re.add(m);
+			if (m instanceof HuntingTask) {
+				receivedTasks.add((HuntingTask) m);
+			} else if (m instanceof HuntingTaskRemoval) {
+				removals.add((HuntingTaskRemoval) m);
+			} else if (m instanceof HuntingTaskListVersion) {
+				version = (HuntingTaskListVersion) m;
+			} else {
+				re.add(m);
+			}
 		}
 		
 		// Close all opened Streams
 		is.close();
 
+		// Unless the server sent only the changes (servers that don't support versions never do): Start with an empty HuntingTask-List
+		if (version == null || !version.isDelta()) {
+			currentTasks.clear();
+		}
+
+		// Apply the removals and the added or changed HuntingTasks
+		for (HuntingTaskRemoval removal : removals) {
+			currentTasks.remove(removal.getTaskID());
+		}
+		for (HuntingTask task : receivedTasks) {
+			currentTasks.put(task.getTaskID(), task);
+		}
+
+		// Added and changed HuntingTasks don't come in the order of their priority: Restore the order that the server sent (it may have changed for the other HuntingTasks as well)
+		if (version != null && version.isDelta()) {
+			LinkedHashMap<Integer, HuntingTask> orderedTasks = new LinkedHashMap<Integer, HuntingTask>();
+			for (int taskID : version.getTaskOrder()) {
+				HuntingTask task = currentTasks.get(taskID);
+				if (task != null) {
+					orderedTasks.put(taskID, task);
+				}
+			}
+			currentTasks = orderedTasks;
+		}
+		lastVersion = (version == null) ? 0 : version.getVersion();
+
+		// Add the complete list of HuntingTasks to the other Messages
+		re.addAll(currentTasks.values());
+
 		// Return the HuntingTask-List
 		return re;
 	}
@@ -0,0 +1,253 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import crossbear.messaging.Message;
+
+/**
+ * A HopProbe sends all samples for a single TTL-value of a Traceroute. This is done by executing the system's "ping"/"ping6"-command once with a packet count of samplesPerHop (instead of executing
+ * it once per sample) and parsing its output line by line. Each line of the output either states that an intermediate hop replied (i.e. the TTL was exceeded), that the target replied or something
+ * else that is not of interest.
+ * 
+ * The command that will be executed is /bin/ping(6) -c "samples" -i 0.2 -n -W 1 -t "ttl" "ip"
+ * 
+ * HopProbes are executed concurrently by the Tracer. Since the Tracer is only interested in the hops in front of the target it will cancel all HopProbes with higher TTLs as soon as a HopProbe
+ * reached the target.
+ */
+public class HopProbe implements Callable<HopProbe> {
+
+	// Regex that will match all IPs (and more)
+	private static final Pattern ipPat = Pattern.compile("[\\da-f]*([:\\.]+[\\da-f]+)+(::)?", Pattern.CASE_INSENSITIVE);
+
+	// Regex that matches the lines that are printed if a packet's TTL was exceeded
+	private static final Pattern ttlPat = Pattern.compile("TTL|TIME TO LIVE|HOP LIMIT", Pattern.CASE_INSENSITIVE);
+
+	// Regex that matches the lines that are printed if the target replied
+	private static final Pattern replyPat = Pattern.compile("BYTES FROM", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Scan a line of the textual output of a "ping" or "ping6" command for IPs that don't match a reference IP.
+	 * 
+	 * @param pingOutput
+	 *            The textual output of a "ping" or "ping6" command to scan
+	 * @param referenceIP
+	 *            The IP to compare all found IPs with
+	 * @returns Null if no non-matching IP is found or the first non-matching IP
+	 * @throws UnknownHostException
+	 */
+	private static InetAddress getFirstNonMatchIP(String pingOutput, InetAddress referenceIP) throws UnknownHostException {
+
+		// Use the IP-Regex to find all IPs (and some other things like durations: "24.45"ms)
+		Matcher m = ipPat.matcher(pingOutput);
+
+		// Check if all found matches that are actually IPs match the referenceIP
+		while (m.find()) {
+
+			// Get the whole match
+			String candidate = m.group();
+
+			// For each match check if it is a valid IP-Address and if it is compare it with the referenceIP ...
+			if (Message.isValidIPAddress(candidate)) {
+				InetAddress candidateIP = InetAddress.getByName(candidate);
+				if (!candidateIP.equals(referenceIP)) {
+
+					// ... and in case they are not equal return it
+					return candidateIP;
+				}
+			}
+		}
+
+		// If no non-matching IP is found return null
+		return null;
+	}
+
+	// The IP-Address to trace
+	private final InetAddress ip;
+
+	// The version of the IP-Address (4 or 6)
+	private final int ipVersion;
+
+	// The Time-To-Live of the pings that should be sent
+	private final int ttl;
+
+	// The number of pings that should be sent
+	private final int samples;
+
+	// The "ping"-process (null as long as it has not been started)
+	private Process process = null;
+
+	// Flag indicating that the HopProbe has been cancelled
+	private boolean cancelled = false;
+
+	// The IPs of the intermediate hops that replied (without duplicates)
+	private final LinkedList<String> hopIPs = new LinkedList<String>();
+
+	// Flag indicating that at least one of the pings reached the target
+	private volatile boolean targetReached = false;
+
+	/**
+	 * Create a new HopProbe
+	 * 
+	 * @param ip The IP-Address to trace
+	 * @param ipVersion The version of the IP-Address (4 or 6)
+	 * @param ttl The Time-To-Live of the pings that should be sent
+	 * @param samples The number of pings that should be sent
+	 */
+	public HopProbe(InetAddress ip, int ipVersion, int ttl, int samples) {
+		this.ip = ip;
+		this.ipVersion = ipVersion;
+		this.ttl = ttl;
+		this.samples = samples;
+	}
+
+	/**
+	 * Execute the "ping"/"ping6"-command and parse its output
+	 * 
+	 * @return The HopProbe itself (to be used with a CompletionService)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Override
+	public HopProbe call() throws IOException, InterruptedException {
+
+		// Record the probe as Flight Recorder event
+		OperationEvent event = OperationEvent.begin(OperationEvent.TRACEROUTE_PROBE, ip.getHostAddress(), "TTL " + ttl);
+		try {
+
+			// Start the "ping"/"ping6"-command unless the HopProbe has already been cancelled
+			synchronized (this) {
+				if (cancelled) {
+					return this;
+				}
+				ProcessBuilder processBuilder = new ProcessBuilder(new String[] { "/bin/ping" + ((ipVersion == 6) ? "6" : ""), "-c", String.valueOf(samples), "-i", "0.2", "-n", "-W", "1", "-t",
+						String.valueOf(ttl), ip.getHostAddress() });
+				processBuilder.redirectErrorStream(true);
+				process = processBuilder.start();
+			}
+
+			try {
+				// Read the command's output line by line (reading will stop as soon as the process terminates or is destroyed)
+				BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					parseLine(line);
+				}
+				reader.close();
+
+				process.waitFor();
+			} finally {
+				process.destroy();
+			}
+
+			return this;
+
+		} finally {
+			event.commit(getOutcome());
+		}
+	}
+
+	/**
+	 * Cancel the HopProbe. If it is currently executed the "ping"-process will be killed; if it has not yet been started it will never be.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		if (process != null) {
+			process.destroy();
+		}
+	}
+
+	/**
+	 * @return The IPs of the intermediate hops that replied (without duplicates). If the target was reached the list should be ignored.
+	 */
+	public LinkedList<String> getHopIPs() {
+		return hopIPs;
+	}
+
+	/**
+	 * @return A textual description of the result of the HopProbe (e.g. "target reached" or the IPs of the hops that replied)
+	 */
+	private synchronized String getOutcome() {
+		if (targetReached) {
+			return "target reached";
+		} else if (!hopIPs.isEmpty()) {
+			return Tracer.join(hopIPs, '|');
+		} else if (cancelled) {
+			return "cancelled";
+		}
+		return "no reply";
+	}
+
+	/**
+	 * @return The Time-To-Live of the pings that were sent
+	 */
+	public int getTTL() {
+		return ttl;
+	}
+
+	/**
+	 * @return True if at least one of the pings reached the target else false
+	 */
+	public boolean isTargetReached() {
+		return targetReached;
+	}
+
+	/**
+	 * Parse a single line of the output of "ping"/"ping6". Depending on that line it is decided if a ping reached the host, an intermediate hop or neither of them.
+	 * 
+	 * @param line The line to parse
+	 * @throws UnknownHostException
+	 */
+	private void parseLine(String line) throws UnknownHostException {
+
+		// Check if all occurences of IPs inside the line match the IP that was pinged
+		InetAddress firstNonMatchIP = getFirstNonMatchIP(line, ip);
+
+		// If there was only the target's IP in a reply-line then the ping reached the target
+		if ((firstNonMatchIP == null) && replyPat.matcher(line).find()) {
+			targetReached = true;
+
+		// If there was more than one IP in the line and it also contained a pattern indicating that the TTL was exceeded then the ping reached an intermediate hop (don't add duplicates)
+		} else if ((firstNonMatchIP != null) && ttlPat.matcher(line).find()) {
+			String hopIP = firstNonMatchIP.getHostAddress();
+			if (hopIPs.indexOf(hopIP) < 0) {
+				hopIPs.add(hopIP);
+			}
+		}
+	}
+
+}
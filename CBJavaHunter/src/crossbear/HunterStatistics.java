@@ -0,0 +1,124 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The HunterStatistics-class collects performance data while a JavaHunter executes a HuntingTask-List. Since the HuntingTasks are executed concurrently all counters are thread-safe.
+ * 
+ * The collected data is
+ * - the number of HuntingTasks that were executed, skipped and that failed
+ * - the accumulated and the average time spent in each phase of the execution of a HuntingTask
+ * - the throughput in HuntingTasks per minute
+ */
+public class HunterStatistics {
+
+	// The phases of the execution of a HuntingTask
+	public static final int PHASE_CERT_DOWNLOAD = 0;
+	public static final int PHASE_CHAIN_COMPLETION = 1;
+	public static final int PHASE_TRACEROUTE = 2;
+
+	// The names of the phases (used for printing only)
+	private static final String[] phaseNames = { "certificate download", "chain completion", "traceroute" };
+
+	// The accumulated time in nanoseconds spent in each phase
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(phaseNames.length);
+
+	// The number of times each phase was executed
+	private final AtomicLongArray phaseCounts = new AtomicLongArray(phaseNames.length);
+
+	// The number of HuntingTasks that were executed successfully
+	private final AtomicInteger executedTasks = new AtomicInteger();
+
+	// The number of HuntingTasks that were skipped (e.g. because there was no fresh PublicIP for them)
+	private final AtomicInteger skippedTasks = new AtomicInteger();
+
+	// The number of HuntingTasks whose execution failed
+	private final AtomicInteger failedTasks = new AtomicInteger();
+
+	// The time at which the statistics were started (in nanoseconds)
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * Remember that a phase of the execution of a HuntingTask was executed
+	 * 
+	 * @param phase The phase (one of the PHASE_-constants)
+	 * @param nanos The time in nanoseconds that the execution of the phase took
+	 */
+	public void addPhaseTime(int phase, long nanos) {
+		phaseNanos.addAndGet(phase, nanos);
+		phaseCounts.incrementAndGet(phase);
+	}
+
+	/**
+	 * Remember that a HuntingTask was executed successfully
+	 */
+	public void taskExecuted() {
+		executedTasks.incrementAndGet();
+	}
+
+	/**
+	 * Remember that the execution of a HuntingTask failed
+	 */
+	public void taskFailed() {
+		failedTasks.incrementAndGet();
+	}
+
+	/**
+	 * Remember that a HuntingTask was skipped
+	 */
+	public void taskSkipped() {
+		skippedTasks.incrementAndGet();
+	}
+
+	/**
+	 * Get a textual summary of the collected statistics
+	 * 
+	 * @return The summary (multiple lines)
+	 */
+	@Override
+	public String toString() {
+		double elapsedMinutes = (System.nanoTime() - startNanos) / 60e9;
+
+		StringBuilder re = new StringBuilder();
+		re.append(String.format("Executed %d HuntingTasks (%d skipped, %d failed) in %.1f minutes: %.1f tasks/min%n", executedTasks.get(), skippedTasks.get(), failedTasks.get(), elapsedMinutes,
+				(elapsedMinutes > 0) ? executedTasks.get() / elapsedMinutes : 0));
+
+		// Print the total and the average time spent in each phase
+		for (int i = 0; i < phaseNames.length; i++) {
+			long count = phaseCounts.get(i);
+			long totalMillis = phaseNanos.get(i) / 1000000;
+			re.append(String.format("  %-22s %6d x, total %9d ms, avg %7d ms%n", phaseNames[i], count, totalMillis, (count > 0) ? totalMillis / count : 0));
+		}
+
+		return re.toString();
+	}
+
+}
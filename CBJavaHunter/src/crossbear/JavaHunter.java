@@ -27,14 +27,10 @@
 
 package crossbear;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Field;
-import java.net.InetAddress;
-import java.net.URL;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
@@ -47,16 +43,19 @@ import java.security.cert.X509Certificate;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.naming.NamingException;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
 
 import crossbear.messaging.CurrentServerTime;
 import crossbear.messaging.HuntingTask;
@@ -64,13 +63,17 @@ import crossbear.messaging.HuntingTaskReply;
 import crossbear.messaging.HuntingTaskReplyKnownCertChain;
 import crossbear.messaging.HuntingTaskReplyNewCertChain;
 import crossbear.messaging.Message;
-import crossbear.messaging.MessageList;
 import crossbear.messaging.PublicIPNotification;
 
 /**
  * A JavaHunter is a Java-based command-line application that implements the Crossbear-Hunting-functionality. When executed a JavaHunter will connect to the Crossbear-Server to download the current
  * HuntingTask-List. Afterwards it will execute the latter's HuntingTasks in the same way the CBHunter of the Firefox-Add-on would. Finally, the generated HuntingTaskResults will be send to the Crossbear-Server.
  * 
+ * Since the execution of a single HuntingTask is dominated by waiting for the network (most of all by the Traceroute) the HuntingTasks are executed concurrently. The number of HuntingTasks that are
+ * executed at the same time is limited globally and per target.
+ * 
+ * Instead of running once, a JavaHunter can also run as a daemon that polls the HuntingTask-List periodically and only executes HuntingTasks that are new or changed (cf. main).
+ * 
  * @author Thomas Riedmaier
  * 
  */
@@ -79,10 +82,22 @@ public class JavaHunter {
 	// The duration in seconds that a PublicIP will be considered as unchanged (after that duration the current PublicIP will be requested)
 	private final static int pipCacheValidity = 60000;
 	
+	// The directory in which the HuntingTaskReplies are spooled until they have been sent to the Crossbear-Server
+	private final static String spoolDir = "spool";
+	
+	// The size in bytes of the spool's segment files
+	private final static int spoolSegmentSize = 4 * 1024 * 1024;
+	
+	// The time in milliseconds that a JavaHunter that runs once waits for the ResultUploader before it terminates
+	private final static long uploadTimeout = 60000;
+	
 	/**
 	 * Download the current HuntingTask-List from the Crossbear-Server, execute it and send the results back to the server
 	 * 
-	 * @param args Currently not used
+	 * By default this is done once. When started with "--daemon [pollInterval] [pollJitter]" the JavaHunter stays resident and polls the HuntingTask-List every pollInterval seconds (default: 600)
+	 * randomly shifted by up to pollJitter seconds (default: 120). In that case only HuntingTasks that are new or that changed since the last poll are executed.
+	 * 
+	 * @param args Either empty or "--daemon [pollInterval] [pollJitter]"
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
@@ -96,8 +111,16 @@ public class JavaHunter {
 	     */
 	    Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
 	    
-	    // Create a new JavaHunter that will contact the Crossbear-Server using a specific domain and execute the HuntingTasks using the given Traceroute-parameters
-	    JavaHunter jh = new JavaHunter("crossbear.net.in.tum.de",20,5);
+	    // Create a new JavaHunter that will contact the Crossbear-Server using a specific domain and execute the HuntingTasks using the given Traceroute- and concurrency-parameters
+	    JavaHunter jh = new JavaHunter("crossbear.net.in.tum.de",20,5,8,2);
+	    
+	    // In daemon mode: Keep on polling the HuntingTask-List and executing its new HuntingTasks
+	    if (args.length > 0 && args[0].equals("--daemon")) {
+	    	long pollInterval = (args.length > 1) ? Long.parseLong(args[1]) : 600;
+	    	long pollJitter = (args.length > 2) ? Long.parseLong(args[2]) : 120;
+	    	jh.huntContinuously(pollInterval * 1000, pollJitter * 1000);
+	    	return;
+	    }
 	    
 	    // Fetch the HuntingTask-List from the Crossbear-Server and parse it
 	    jh.getAndParseHTL();
@@ -105,71 +128,23 @@ public class JavaHunter {
 	    // Execute the HuntingTask-List and send the generated results to the Crosbear-Server
 	    jh.executeHTL();
 	    
+	    // Give the ResultUploader some time to send the remaining results. Those that can't be sent will be sent by the next run.
+	    jh.awaitUploads(uploadTimeout);
+	    
 	}
 
 	/**
-	 * Put a specific record in the JVM's DNS-cache.
-	 * 
-	 * This code was created by the use of http://stackoverflow.com/questions/1835421/java-dns-cache-viewer
+	 * Get the target of a HuntingTask i.e. the server that is contacted when executing it
 	 * 
-	 * @param domain The domain for which the IP-addresses should be set (e.g. "www.google.com")
-	 * @param addresses The IP-addresses that should be used when connecting to "domain" (e.g. ["1.2.3.4", "5.6.7.8"])
-	 * @throws SecurityException 
-	 * @throws NoSuchFieldException 
-	 * @throws UnknownHostException 
-	 * @throws IllegalAccessException 
-	 * @throws IllegalArgumentException 
-	 * @throws Exception
+	 * @param task The HuntingTask
+	 * @return The target's IP and port (e.g. "1.2.3.4:443")
 	 */
-	private static void setDNSCacheEntry(String domain, InetAddress[] addresses) throws NoSuchFieldException, SecurityException, UnknownHostException, IllegalArgumentException, IllegalAccessException{
-		
-		// Make sure that there is a entry in the local DNS-cache for "domain"
-		InetAddress.getByName(domain);
-		
-		// Get a handle to the JVM-internal DNS-cache using reflection
-		Class<InetAddress> klass = InetAddress.class;
-		Field acf = klass.getDeclaredField("addressCache");
-		acf.setAccessible(true);
-		Object addressCache = acf.get(null);
-		Class<? extends Object> cacheKlass = addressCache.getClass();
-		Field cf = cacheKlass.getDeclaredField("cache");
-		cf.setAccessible(true);
-		
-		// Because of the use of the reflection technique the cache doesn't have the correct type: Cast it into a Map<String, Object>
-		@SuppressWarnings("unchecked")
-		Map<String, Object> cache = (Map<String, Object>) cf.get(addressCache);
-		
-		// Iterate over all entries of the DNS-cache
-		for (Map.Entry<String, Object> hi : cache.entrySet()) {
-			
-			// Dont't do anything if the entry is not for "domain"
-			if(!hi.getKey().equals(domain)) continue;
-			
-			// When "domain"'s entry is finally found: Use reflection to get its type so it can be accessed
-			Object cacheEntry = hi.getValue();
-			Class<? extends Object> cacheEntryKlass = cacheEntry.getClass();
-			
-			// Set the entry's validity to 10 seconds
-			Field expf = cacheEntryKlass.getDeclaredField("expiration");
-			expf.setAccessible(true);
-			expf.set(cacheEntry, System.currentTimeMillis()+10000);
-
-			// Set the entry's addresses
-			Field af = cacheEntryKlass.getDeclaredField("addresses");
-			af.setAccessible(true);
-			af.set(cacheEntry, addresses);
-
-		}	
+	private static String getTarget(HuntingTask task) {
+		return task.getTargetIP().getHostAddress() + ":" + task.getTargetPort();
 	}
 	
-	// The Hostname of the Crossbear-Server (e.g. crossbear.net.in.tum.de)
-	private String cbServerHostName;
-
-	// The SHA256-Hash of the certificate that the Crossbear-Server uses
-	private byte[] cbServerCertHash;
-
 	// The most recent CurrentServerTime-message that was received from the Crossbear-Server (can be used to estimate the server local time)
-	private CurrentServerTime cst = null;
+	private volatile CurrentServerTime cst = null;
 	
 	// The most recent PublicIPNotification-messages that were received from the Crossbear-Server
 	private PublicIPNotification pip4 = null, pip6 = null;
@@ -177,8 +152,14 @@ public class JavaHunter {
 	// The Timestamps stating when the PublicIPNotification-messages have been received (in local time)
 	private Timestamp pip4LU = new Timestamp(0), pip6LU = new Timestamp(0);
 
-	// The list that contains all HuntingTasks that were received from the Crossbear-Server
+	// The list that contains the HuntingTasks of the last received HuntingTask-List that are new or changed (or that haven't been answered yet)
 	private LinkedList<HuntingTask> hts = new LinkedList<HuntingTask>();
+	
+	// The HuntingTasks of the last received HuntingTask-List
+	private LinkedList<HuntingTask> listedTasks = new LinkedList<HuntingTask>();
+	
+	// The byte[]-representations of all HuntingTasks of the last received HuntingTask-List whose HuntingTaskReply has been spooled (key: TaskID). Needed to detect new and changed HuntingTasks.
+	private HashMap<Integer, ByteBuffer> knownTasks = new HashMap<Integer, ByteBuffer>();
 
 	// An object that can be used to fetch PublicIPNotifications from the Crossbear-Server
 	private PIPFetcher pipfetcher;
@@ -186,39 +167,82 @@ public class JavaHunter {
 	// An object that can be used to download the HuntingTask-List from the Crossbear-Server
 	private HTLFetcher htlfetcher;
 	
+	// An object that is used to open all HTTPS-connections to the Crossbear-Server (sharing SSL-sessions and idle connections)
+	private CBServerConnector cbServerConnector;
+	
+	// The durable queue of HuntingTaskReplies that have not been sent to the Crossbear-Server yet
+	private ResultSpool spool;
+	
+	// The background task that sends the HuntingTaskReplies of the spool to the Crossbear-Server
+	private ResultUploader uploader;
+	
 	// An object that can be used to perform Traceroutes
 	private Tracer tracer;
 
 	// A CertificateManager that can be used to complete certificate chains
 	private CertificateManager cm;
 	
+	// The maximal number of HuntingTasks that are executed at the same time
+	private int maxConcurrentTasks;
+	
+	// The maximal number of HuntingTasks with the same target (i.e. the same IP and port) that are executed at the same time
+	private int maxConcurrentTasksPerTarget;
+	
+	// The performance data of the current execution of the HuntingTask-List
+	private HunterStatistics stats;
+	
 	/**
 	 * Create a new JavaHunter
 	 * 
 	 * @param cbServerHostName The Hostname of the Crossbear-Server (e.g. crossbear.net.in.tum.de)
 	 * @param tracerMaxHops Traceroute-parameter: Number of hops that should be taken into account before terminating the Traceroute
 	 * @param tracerSamplesPerHop Traceroute-parameter: Number of samples to be taken per hop (i.e. should be sent with the same TTL)
+	 * @param maxConcurrentTasks The maximal number of HuntingTasks that are executed at the same time
+	 * @param maxConcurrentTasksPerTarget The maximal number of HuntingTasks with the same target (i.e. the same IP and port) that are executed at the same time
 	 * @throws CertificateException
 	 * @throws NoSuchAlgorithmException
 	 * @throws NamingException
 	 * @throws IOException 
 	 * @throws SQLException 
 	 * @throws KeyStoreException 
+	 * @throws KeyManagementException 
 	 */
-	public JavaHunter(String cbServerHostName, int tracerMaxHops, int tracerSamplesPerHop) throws CertificateException, NoSuchAlgorithmException, NamingException, KeyStoreException, SQLException, IOException {
-		this.cbServerHostName = cbServerHostName;
+	public JavaHunter(String cbServerHostName, int tracerMaxHops, int tracerSamplesPerHop, int maxConcurrentTasks, int maxConcurrentTasksPerTarget) throws CertificateException, NoSuchAlgorithmException, NamingException, KeyStoreException, SQLException, IOException, KeyManagementException {
+		this.maxConcurrentTasks = maxConcurrentTasks;
+		this.maxConcurrentTasksPerTarget = maxConcurrentTasksPerTarget;
 
 		// Load the certificate of the Crossbear-Server from the local file system
 		X509Certificate cbServerCert = CertificateManager.loadCertificateFromFile("cbserver.crt");
 
-		// Calculate the SHA256-Hash of the Crossbear-certificate and store it
-		this.cbServerCertHash = CertificateManager.SHA256(cbServerCert.getEncoded());
+		// Calculate the SHA256-Hash of the Crossbear-certificate
+		byte[] cbServerCertHash = CertificateManager.SHA256(cbServerCert.getEncoded());
 		
 		// Initialize the helpers that are needed during hunting 
 		this.pipfetcher = new PIPFetcher(cbServerHostName, cbServerCert);
-		this.htlfetcher = new HTLFetcher(cbServerHostName+":443",cbServerCertHash);
+		this.cbServerConnector = new CBServerConnector(cbServerHostName+":443",cbServerCertHash);
+		this.htlfetcher = new HTLFetcher(cbServerConnector);
 		this.tracer = new Tracer(tracerMaxHops,tracerSamplesPerHop);
 		this.cm = new CertificateManager(null,0, "changeit");
+		
+		// Open the spool (it might contain HuntingTaskReplies of a previous run) and start sending its content to the Crossbear-Server
+		this.spool = new ResultSpool(new File(spoolDir), spoolSegmentSize);
+		this.uploader = new ResultUploader(spool, cbServerConnector);
+		Thread uploaderThread = new Thread(uploader, "ResultUploader");
+		uploaderThread.setDaemon(true);
+		uploaderThread.start();
+	}
+	
+	/**
+	 * Wait until all HuntingTaskReplies of the spool have been sent to the Crossbear-Server
+	 * 
+	 * @param timeout The maximal time in milliseconds to wait
+	 * @throws InterruptedException
+	 */
+	private void awaitUploads(long timeout) throws InterruptedException {
+		if (!spool.awaitEmpty(timeout)) {
+			System.out.println(spool.getPendingRecords() + " HuntingTaskReplies remain in the spool. They will be sent by the next run (unless they are too old by then).");
+		}
+		System.out.println(uploader);
 	}
 	
 	/**
@@ -241,55 +265,108 @@ public class JavaHunter {
 		// Get the concatenation of the md5 hashes of the chain certificates ...
 		String certChainMD5 = CertificateManager.getCertChainMD5(certChainLL);
 		
-		// Calculate the SHA256-hash of the server certificate
-		byte[] serverCertHash = CertificateManager.SHA256(certChain[0].getEncoded());
+		// Get the SHA256-hash of the server certificate
+		String serverCertHash = CertificateDerivatives.get(certChain[0]).getSHA256Hex();
 
 		// Concatenate the hash of the server certificate with the ones of its chain and calculate the SHA256-hash for the result
-		return CertificateManager.SHA256(Message.hexStringToByteArray(Message.byteArrayToHexString(serverCertHash) + certChainMD5));
+		return CertificateManager.SHA256(Message.hexStringToByteArray(serverCertHash + certChainMD5));
 	}
 	
 	/**
 	 * Execute the HuntingTask-List and send the execution results to the Crossbear-Server
 	 * 
+	 * The HuntingTasks are executed by a pool of maxConcurrentTasks threads. A HuntingTask is only handed to the pool if less than maxConcurrentTasksPerTarget HuntingTasks with the same target (i.e.
+	 * the same IP and port) are currently executed. Each HuntingTaskReply is appended to the spool as soon as it is available. The ResultUploader sends it to the Crossbear-Server in the background.
+	 * Therefore the execution of the HuntingTasks doesn't depend on the availability of the server.
+	 * 
 	 * @throws Exception
 	 */
 	private void executeHTL() throws Exception {
 
-		// Create an empty list of HuntingTaskReplies
-		int numOfResults = 0;
-		MessageList htr = new MessageList();
+		// Start collecting performance data
+		stats = new HunterStatistics();
 
-		// Randomize the order of the HuntingTasks
-		Collections.shuffle(hts, new Random());
+		// Execute the HuntingTasks in the order the Crossbear-Server sent them (i.e. the most important ones first)
+		LinkedList<HuntingTask> pendingTasks = new LinkedList<HuntingTask>(hts);
 		
-		// Iterate over all HuntingTasks ...
-		Iterator<HuntingTask> hti = hts.iterator();
-		while (hti.hasNext()) {
+		// Remember which HuntingTasks are currently executed and how many of them are executed for each target
+		HashMap<Future<HuntingTaskReply>, HuntingTask> runningTasks = new HashMap<Future<HuntingTaskReply>, HuntingTask>();
+		HashMap<String, Integer> runningTasksPerTarget = new HashMap<String, Integer>();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentTasks);
+		CompletionService<HuntingTaskReply> completionService = new ExecutorCompletionService<HuntingTaskReply>(executor);
+		try {
+			while (!pendingTasks.isEmpty() || !runningTasks.isEmpty()) {
+
+				// Hand as many HuntingTasks to the thread pool as the concurrency limits allow
+				Iterator<HuntingTask> hti = pendingTasks.iterator();
+				while (runningTasks.size() < maxConcurrentTasks && hti.hasNext()) {
+					final HuntingTask task = hti.next();
+					
+					// Skip HuntingTasks whose target is already busy. They will be executed later.
+					String target = getTarget(task);
+					Integer runningForTarget = runningTasksPerTarget.get(target);
+					if (runningForTarget != null && runningForTarget >= maxConcurrentTasksPerTarget) {
+						continue;
+					}
+					
+					hti.remove();
+					runningTasksPerTarget.put(target, (runningForTarget == null) ? 1 : runningForTarget + 1);
+					runningTasks.put(completionService.submit(new Callable<HuntingTaskReply>() {
+						@Override
+						public HuntingTaskReply call() throws Exception {
+							return executeHuntingTask(task);
+						}
+					}), task);
+				}
 
-			// ... and execute them.
-			HuntingTaskReply htrep = executeHuntingTask(hti.next());
-			
-			// In case the execution was successful store the Result in the list of HuntingTaskReplies
-			if(htrep != null){
-				numOfResults++;
-				htr.add(htrep);
-			}
+				// Wait for the next HuntingTask to finish ...
+				Future<HuntingTaskReply> finished = completionService.take();
+				HuntingTask task = runningTasks.remove(finished);
+				String target = getTarget(task);
+				int runningForTarget = runningTasksPerTarget.get(target) - 1;
+				if (runningForTarget == 0) {
+					runningTasksPerTarget.remove(target);
+				} else {
+					runningTasksPerTarget.put(target, runningForTarget);
+				}
+				
+				// ... and get its result. A failing HuntingTask must not prevent the others from being executed.
+				HuntingTaskReply htrep = null;
+				try {
+					htrep = finished.get();
+				} catch (ExecutionException e) {
+					System.out.println("Execution of Task " + task.getTaskID() + " failed: " + e.getCause());
+					stats.taskFailed();
+				}
 
-			// If 5 or more HuntingTaskReplies are available or if there are no more HuntingTasks: Send the Replies to the Crossbear-Server
-			if (numOfResults >= 5 || (!hti.hasNext() && numOfResults>0) ) {
-				System.out.println("Sending "+numOfResults+" HuntingTaskReplies to the Crossbear-Server");
-				sendHuntingTaskResultsToServer(htr);
-				htr = new MessageList();
-				numOfResults = 0;
+				// In case the execution was successful store the Result in the spool (it will be sent to the Crossbear-Server by the ResultUploader) ...
+				if (htrep != null) {
+					spool.append(htrep.getBytes());
+					stats.taskExecuted();
+					
+					// ... and don't execute the HuntingTask again unless it changes. HuntingTasks that failed or were skipped will be executed again after the next poll.
+					knownTasks.put(task.getTaskID(), ByteBuffer.wrap(task.getBytes()));
+				}
 			}
-
+		} finally {
+			executor.shutdownNow();
 		}
+		
+		// Report the performance data
+		System.out.print(stats);
+		System.out.println(tracer.getRouteCache());
+		System.out.println(cbServerConnector);
+		System.out.println(spool);
+		System.out.println(uploader);
 
 	}
 
 	/**
 	 * Execute a HuntingTask and create a HuntingTaskReply for it
 	 * 
+	 * Please note: This function is called concurrently by the threads of the pool created in executeHTL
+	 * 
 	 * @param task The HuntingTask to execute
 	 * @return A HuntingTaskReply if the execution of the HuntingTask was successful, and null if not
 	 * @throws Exception
@@ -300,25 +377,30 @@ public class JavaHunter {
 		boolean taskIsv4 = (task.getType() == Message.MESSAGE_TYPE_IPV4_SHA256_TASK);
 
 		// Check if there is a fresh PublicIP for that IP-version
-		if (!isFreshPublicIPAvailable(taskIsv4?4:6)){
+		PublicIPNotification pip = getFreshPublicIP(taskIsv4?4:6);
+		if (pip == null){
 			
 			// If not: Return null since it is not possible to execute the HuntingTask
 			System.out.println("Skipping execution of Task "+task.getTaskID()+ " since there is no fresh PublicIP for it");
+			stats.taskSkipped();
 			return null;
 		}
 		
 		System.out.println("Executing Task "+task.getTaskID());
 
-		// Get the CertificateChain for the HuntingTask's target. To do so put the Target's Hostname/IP-combination in the JVM's DNS-cache. A normal connect to that Hostname will then connect to the correct IP while still using SNI. 
-		setDNSCacheEntry(task.getTargetHostName(),new InetAddress[] {task.getTargetIP()});
-		CertificateChainContainer CCC = CertificateManager.getCertChainFromServer(task.getTargetHostName() , task.getTargetPort());
+		// Get the CertificateChain for the HuntingTask's target. To do so connect to the Target's IP directly while sending its Hostname using SNI.
+		long phaseStart = System.nanoTime();
+		CertificateChainContainer CCC = CertificateManager.getCertChainFromServer(task.getTargetHostName(), task.getTargetIP(), task.getTargetPort());
 		X509Certificate[] targetCertChain = CCC.getChain();
+		stats.addPhaseTime(HunterStatistics.PHASE_CERT_DOWNLOAD, System.nanoTime() - phaseStart);
 		
 		// Try to complete the chain
+		phaseStart = System.nanoTime();
 		LinkedList<X509Certificate> completedChain = cm.makeCertChainValid(targetCertChain, 50, true);
 		if(completedChain != null){
 			targetCertChain = completedChain.toArray(new X509Certificate[]{});
 		}
+		stats.addPhaseTime(HunterStatistics.PHASE_CHAIN_COMPLETION, System.nanoTime() - phaseStart);
 
 		// Calculate the Hash of the Target's certificate chain
 		byte[] targetCertChainHash = calculateCertChainHash(targetCertChain);
@@ -334,14 +416,16 @@ public class JavaHunter {
 		}
 
 		// Perform a traceroute for the Target's IP
+		phaseStart = System.nanoTime();
 		String trace = tracer.traceroute(task.getTargetIP(), taskIsv4 ? 4 : 6);
-		trace = Tracer.addOwnPublicIPAndRemovePrivateIPs(taskIsv4 ? pip4.getPublicIP() : pip6.getPublicIP(), trace);
+		trace = Tracer.addOwnPublicIPAndRemovePrivateIPs(pip.getPublicIP(), trace);
+		stats.addPhaseTime(HunterStatistics.PHASE_TRACEROUTE, System.nanoTime() - phaseStart);
 
 		// Build and return either a HuntingTaskReplyKnownCertChain or a HuntingTaskReplyNewCertChain depending on whether the Target's certificate is already well known.
 		if (certIsKnown) {
-			return new HuntingTaskReplyKnownCertChain(task.getTaskID(), this.cst.getCurrentServerTime(), taskIsv4 ? pip4.gethMac() : pip6.gethMac(), targetCertChainHash, trace);
+			return new HuntingTaskReplyKnownCertChain(task.getTaskID(), this.cst.getCurrentServerTime(), pip.gethMac(), targetCertChainHash, trace);
 		} else {
-			return new HuntingTaskReplyNewCertChain(task.getTaskID(), this.cst.getCurrentServerTime(), taskIsv4 ? pip4.gethMac() : pip6.gethMac(), targetCertChain, trace);
+			return new HuntingTaskReplyNewCertChain(task.getTaskID(), this.cst.getCurrentServerTime(), pip.gethMac(), targetCertChain, trace);
 		}
 		
 	}
@@ -350,17 +434,60 @@ public class JavaHunter {
 	 * Download the HuntingTask-List from the Crossbear-Server and parse it. Parsing in this context means:
 	 * - Store the contained CurrentServerTime-message in the global cst-variable
 	 * - Store the contained PublicIPNotification-message in the suitable global pipX-variable (and update its freshness-timestamp)
-	 * - Store the contained HuntingTasks in the global hts-list
+	 * - Store the contained HuntingTasks that are new or that changed since their last HuntingTaskReply was spooled in the global hts-list
+	 * 
+	 * If the HuntingTask-List didn't change since the last call, the hts-list is filled with the HuntingTasks of the last HuntingTask-List that haven't been answered yet (e.g. because their execution
+	 * failed or because there was no fresh PublicIP for them).
 	 * 
+	 * @return True if a HuntingTask-List was received and false if the HuntingTask-List didn't change since the last call
 	 * @throws CertificateException
 	 * @throws NoSuchAlgorithmException
-	 * @throws KeyManagementException
 	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws NoSuchProviderException
+	 * @throws SQLException
 	 */
-	private void getAndParseHTL() throws CertificateException, NoSuchAlgorithmException, KeyManagementException, IOException {
+	private boolean getAndParseHTL() throws CertificateException, NoSuchAlgorithmException, IOException, InvalidKeyException, NoSuchProviderException, SQLException {
 
-		// Download the HuntingTask-List from the Crossbear-Server
-		LinkedList<Message> htl = htlfetcher.getHTLFromServer();
+		// Tell the Crossbear-Server which IP-versions worked the last time (it will only send HuntingTasks whose targets can be reached)
+		String ipVersions = null;
+		if (pip4 != null || pip6 != null) {
+			ipVersions = (pip4 != null ? "4" : "") + (pip4 != null && pip6 != null ? "," : "") + (pip6 != null ? "6" : "");
+		}
+		
+		// Download the HuntingTask-List from the Crossbear-Server (if it changed)
+		LinkedList<Message> htl = htlfetcher.getHTLFromServer(ipVersions);
+		if (htl != null) {
+			parseHTL(htl);
+		}
+		
+		// HuntingTaskReplies that were discarded by the ResultUploader because they were too old never reached the server: Execute their HuntingTasks again
+		Integer discardedTaskID;
+		while ((discardedTaskID = uploader.pollDiscardedTaskID()) != null) {
+			knownTasks.remove(discardedTaskID);
+		}
+
+		// Execute all HuntingTasks of the HuntingTask-List that are new or changed or whose HuntingTaskReply hasn't been spooled yet
+		hts = new LinkedList<HuntingTask>();
+		for (HuntingTask task : listedTasks) {
+			if (!ByteBuffer.wrap(task.getBytes()).equals(knownTasks.get(task.getTaskID()))) {
+				hts.add(task);
+			}
+		}
+		
+		return htl != null;
+	}
+
+	/**
+	 * Parse a HuntingTask-List that was received from the Crossbear-Server (cf. getAndParseHTL)
+	 * 
+	 * @param htl The messages of the HuntingTask-List
+	 */
+	private void parseHTL(LinkedList<Message> htl) {
+		
+		// Start with an empty list of HuntingTasks
+		listedTasks = new LinkedList<HuntingTask>();
+		HashMap<Integer, ByteBuffer> currentTasks = new HashMap<Integer, ByteBuffer>();
 
 		// Iterate over all Messages of the HTL
 		Iterator<Message> mIt = htl.iterator();
@@ -373,38 +500,90 @@ public class JavaHunter {
 			//Store the CurrentServerTime-message in the global cst-variable
 			case Message.MESSAGE_TYPE_CURRENT_SERVER_TIME:
 				cst = (CurrentServerTime) m;
+				uploader.setCurrentServerTime(cst);
 				break;
 				
 			// Store the PublicIPNotification-message in the suitable global pipX-variable (and update its freshness-timestamp)
 			case Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF4:
 				pip4 = (PublicIPNotification) m;
 				pip4LU = new Timestamp(System.currentTimeMillis());
+				tracer.getRouteCache().setPublicIP(pip4.getPublicIP());
 				break;
 			case Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF6:
 				pip6 = (PublicIPNotification) m;
 				pip6LU = new Timestamp(System.currentTimeMillis());
+				tracer.getRouteCache().setPublicIP(pip6.getPublicIP());
 				break;
 			
-			// Store all HuntingTasks in the global hts-list
+			// Store all HuntingTasks in the global listedTasks-list (getAndParseHTL decides which ones are new or changed)
 			case Message.MESSAGE_TYPE_IPV4_SHA256_TASK:
 			case Message.MESSAGE_TYPE_IPV6_SHA256_TASK:
-				hts.add((HuntingTask) m);
+				HuntingTask task = (HuntingTask) m;
+				listedTasks.add(task);
+				
+				// Remember the HuntingTasks that have already been answered (changed HuntingTasks will be detected by comparing their bytes)
+				ByteBuffer knownBytes = knownTasks.get(task.getTaskID());
+				if (knownBytes != null) {
+					currentTasks.put(task.getTaskID(), knownBytes);
+				}
 				break;
 			}
 		}
+		
+		// Forget about all HuntingTasks that are not part of the HuntingTask-List anymore
+		knownTasks = currentTasks;
 	}
 
 	/**
-	 * Check if the currently known PublicIP is still considered fresh. If it is: return true. If not try to obtain a fresh PublicIP from the Crossbear-Server. If that succeeded return true, else false.
+	 * Keep on polling the HuntingTask-List and executing its new and changed HuntingTasks. The time between two polls is pollInterval randomly shifted by up to pollJitter (to keep hunters that were
+	 * started at the same time from polling at the same time).
+	 * 
+	 * Errors don't stop the polling. HuntingTasks whose execution failed (or that were skipped) are executed again after the next poll, even if the HuntingTask-List didn't change. If polling failed,
+	 * all HuntingTasks will be executed again after the next poll.
+	 * 
+	 * @param pollInterval The average time between two polls in milliseconds
+	 * @param pollJitter The maximal deviation from pollInterval in milliseconds
+	 * @throws InterruptedException
+	 */
+	private void huntContinuously(long pollInterval, long pollJitter) throws InterruptedException {
+		Random random = new Random();
+		
+		while (true) {
+			try {
+
+				// Fetch the HuntingTask-List and execute its new and changed HuntingTasks (as well as the ones that haven't been answered yet)
+				boolean received = getAndParseHTL();
+				if (!hts.isEmpty()) {
+					executeHTL();
+				} else if (!received) {
+					System.out.println("The HuntingTask-List didn't change");
+				} else {
+					System.out.println("The HuntingTask-List doesn't contain new or changed HuntingTasks");
+				}
+			} catch (Exception e) {
+				
+				// Make sure the next poll downloads the whole HuntingTask-List and executes all of its HuntingTasks
+				System.out.println("Hunting failed: " + e);
+				knownTasks.clear();
+				htlfetcher.forgetLastHTL();
+			}
+
+			// Wait until the next poll
+			long delay = pollInterval + (long) ((random.nextDouble() * 2 - 1) * pollJitter);
+			Thread.sleep(Math.max(0, delay));
+		}
+	}
+
+	/**
+	 * Check if the currently known PublicIP is still considered fresh. If it is: return it. If not try to obtain a fresh PublicIP from the Crossbear-Server. If that succeeded return it, else null.
+	 * 
+	 * Please note: This function is synchronized since it is called by all threads that execute HuntingTasks. That way the PublicIP is refreshed only once when it becomes stale.
 	 * 
 	 * @param ipVersion The IP-version of the PublicIP
-	 * @return True if the current PublicIP either was fresh or could be refreshed; else false.
+	 * @return The PublicIPNotification of the current PublicIP if it either was fresh or could be refreshed; else null.
 	 * @throws Exception
 	 */
-	private boolean isFreshPublicIPAvailable(int ipVersion) throws Exception {
-		
-		// Flag indicating if the current PublicIP is considered to be fresh
-		boolean freshPubIPAvailable = false;
+	private synchronized PublicIPNotification getFreshPublicIP(int ipVersion) throws Exception {
 
 		// Check for IP-version 4
 		if (ipVersion == 4) {
@@ -417,15 +596,14 @@ public class JavaHunter {
 				pip4 = pipfetcher.getFreshPublicIPNot(4);
 				if (pip4 != null) {
 					
-					// If refreshing succeeded: Store the new PublicIP and the time of its observation
+					// If refreshing succeeded: Store the new PublicIP and the time of its observation (cached routes are dropped if the PublicIP changed)
 					pip4LU = new Timestamp(System.currentTimeMillis());
-					freshPubIPAvailable = true;
+					tracer.getRouteCache().setPublicIP(pip4.getPublicIP());
 				}
-
-			// If it is still fresh: Everything is fine :)
-			} else {
-				freshPubIPAvailable = true;
 			}
+			
+			// Return the PublicIP (null if refreshing failed)
+			return pip4;
 
 		// Check for IP-version 6
 		} else if (ipVersion == 6) {
@@ -438,61 +616,19 @@ public class JavaHunter {
 				pip6 = pipfetcher.getFreshPublicIPNot(6);
 				if (pip6 != null) {
 					
-					// If refreshing succeeded: Store the new PublicIP and the time of its observation
+					// If refreshing succeeded: Store the new PublicIP and the time of its observation (cached routes are dropped if the PublicIP changed)
 					pip6LU = new Timestamp(System.currentTimeMillis());
-					freshPubIPAvailable = true;
+					tracer.getRouteCache().setPublicIP(pip6.getPublicIP());
 				}
-				
-			// If it is still fresh: Everything is fine :)
-			} else {
-				freshPubIPAvailable = true;
 			}
+			
+			// Return the PublicIP (null if refreshing failed)
+			return pip6;
 
 		}
 
-		// Return the status of the freshness of the current PublicIP
-		return freshPubIPAvailable;
-	}
-
-
-	/**
-	 * Send a list of HuntingTaskReplies to the Crossbear-Server
-	 * 
-	 * @param huntingTaskResults The list to send
-	 * @throws InvalidKeyException
-	 * @throws CertificateEncodingException
-	 * @throws NoSuchAlgorithmException
-	 * @throws NoSuchProviderException
-	 * @throws IOException
-	 * @throws SQLException
-	 * @throws KeyManagementException
-	 */
-	private void sendHuntingTaskResultsToServer(MessageList huntingTaskResults) throws InvalidKeyException, CertificateEncodingException, NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException, KeyManagementException {
-
-		// Construct the URL that will receive the HuntingTaskReplies
-		URL url = new URL("https://" + cbServerHostName + ":443/reportHTResults.jsp");
-
-		// Open a HttpsURLConnection for that url
-		HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-
-		// Make sure that the Crossbear server uses the certificate it is supposed to use (prevent Mitm-attacks against Crossbear)
-		SSLContext sc = SSLContext.getInstance("SSL");
-		sc.init(null, new TrustManager[] { new TrustSingleCertificateTM(cbServerCertHash) }, new java.security.SecureRandom());
-		conn.setSSLSocketFactory(sc.getSocketFactory());
-		
-		// Send the HuntingTaskReplies to the server
-		conn.setDoOutput(true);
-		OutputStream out = conn.getOutputStream();
-		out.write(huntingTaskResults.getBytes());
-		out.flush();
-		
-		// Open the InputStream (required to actually send the data)
-		InputStream is = conn.getInputStream();
-		
-		// Close all opened Streams
-		is.close();
-		out.close();
-		
+		// There are no other IP-versions
+		return null;
 	}
 
 }
@@ -42,9 +42,11 @@ import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyManagementException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.sql.SQLException;
@@ -67,11 +69,16 @@ import javax.naming.directory.InitialDirContext;
 
 import crossbear.messaging.Message;
 import crossbear.messaging.PublicIPNotifRequest;
+import crossbear.messaging.PublicIPNotifSessionTicket;
 import crossbear.messaging.PublicIPNotification;
 
 /**
  * This class provides the functionality to obtain a PublicIPNotification of a specific version from the Crossbear server.
  * 
+ * To avoid a RSA operation per request the PIPFetcher asks the server for a session ticket when it sends a RSA-encrypted AES key (cf. PublicIPNotifSessionTicket). As long as the ticket is valid all
+ * further requests (of both IP-versions) present the ticket instead and the server's replies are encrypted with the same AES key. If the server rejects the ticket (e.g. because it was restarted) a new
+ * session is started.
+ * 
  * @author Thomas Riedmaier
  *
  */
@@ -218,9 +225,24 @@ public class PIPFetcher {
 		return rsaOAEPCipher.doFinal(plainText);
 	}
 
+	// The number of milliseconds before the expiry of a session ticket after which it is not used anymore (to compensate for network delays)
+	private static final long ticketExpiryMargin = 60 * 1000;
+
 	// The certificate of the Crossbear-Server
 	private X509Certificate cbServerCert;
 
+	// Source for the nonces that are sent along with session tickets
+	private final SecureRandom random = new SecureRandom();
+
+	// The AES key of the current session (or null if there is none)
+	private byte[] sessionKey;
+
+	// The session ticket of the current session (or null if there is none)
+	private byte[] sessionTicket;
+
+	// The local time after which the session ticket should not be used anymore
+	private long sessionExpiry;
+
 	// The IPv6-address of the Crossbear-Server
 	private Inet6Address sip6;
 
@@ -244,6 +266,51 @@ public class PIPFetcher {
 		
 	}
 
+	/**
+	 * Decrypt and validate the encrypted part of the server's reply to a PublicIPNotifRequest and convert it into a PublicIPNotification
+	 * 
+	 * @param encryptedReply The AES-encrypted concatenation of the PublicIPNotification-message and its hash
+	 * @param aesKey The AES key that was used to encrypt the reply
+	 * @param nonce The nonce that the hash is bound to (empty if the request was not a resumption request)
+	 * @param ipVersion The IP-version of the PublicIPNotification (4 or 6)
+	 * @return The PublicIPNotification contained in the reply
+	 * @throws Exception
+	 */
+	private PublicIPNotification decodeServerReply(byte[] encryptedReply, byte[] aesKey, byte[] nonce, int ipVersion) throws Exception {
+
+		// A valid reply consists of at least an IV and one encrypted block
+		if (encryptedReply.length < 32) {
+			throw new Exception("Decoding a PublicIPNotification failed because the server's reply was too short!");
+		}
+
+		// Decrypt the server's reply ...
+		byte[] decryptedServerReply = AESDecrypt(aesKey, encryptedReply);
+
+		// ... and validate it. The reply has the format PLAINTEXT|SUPPOSED_HASH(32bytes). First: Split the server's reply:
+		byte[] supposedHash = Arrays.copyOfRange(decryptedServerReply, decryptedServerReply.length - 32, decryptedServerReply.length);
+		byte[] plaintext = Arrays.copyOfRange(decryptedServerReply, 0, decryptedServerReply.length - 32);
+		
+		// Calculate the plaintext's REAL hash (which is bound to the nonce)
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update(plaintext);
+		md.update(nonce);
+		byte[] actualHash = md.digest();
+
+		// Compare the actual hash with the supposed hash. If they don't match then somebody tampered with the data
+		if (!Arrays.equals(supposedHash, actualHash)) {
+			throw new Exception("Decoding a PublicIPNotification failed because of an invalid Checksum!");
+		}
+		
+		// Assert that the decrypted plaintext is a MESSAGE_TYPE_PUBLIC_IP_NOTIFX-message
+		if (plaintext[0] != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF4 && plaintext[0] != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF6) {
+			throw new Exception("Decoding a PublicIPNotification failed because of an unexpected message Type!");
+		}
+
+		// Convert the plaintext into a PublicIPNotification-object and return it
+		return new PublicIPNotification(Arrays.copyOfRange(plaintext, 3, plaintext.length), ipVersion);
+
+	}
+
 	/**
 	 * Contact the Crossbear server and get a fresh PublicIPNotification of a specific IP-version
 	 * 
@@ -253,14 +320,40 @@ public class PIPFetcher {
 	 */
 	public PublicIPNotification getFreshPublicIPNot(int ipVersion) throws Exception {
 		
+		// If there is a valid session: Try to reuse its AES key
+		if (sessionTicket != null && System.currentTimeMillis() < sessionExpiry) {
+			
+			// Put the ticket and a random nonce in a PublicIPNotifRequest ...
+			byte[] nonce = new byte[PublicIPNotifRequest.NONCE_LENGTH];
+			random.nextBytes(nonce);
+			PublicIPNotifRequest pipReq = new PublicIPNotifRequest(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST);
+			pipReq.setTicket(sessionTicket);
+			pipReq.setNonce(nonce);
+
+			// And send this request to the server
+			byte[] serverReply = sendPubIPRequestToCBServer(ipVersion, pipReq);
+
+			// In case the server could not be contacted using the specified IP-version: return null
+			if (serverReply == null)
+				return null;
+
+			try {
+				return decodeServerReply(serverReply, sessionKey, nonce, ipVersion);
+			} catch (Exception e) {
+				// The server did not accept the ticket (e.g. because it was restarted in the meantime): Start a new session
+				sessionTicket = null;
+				sessionKey = null;
+			}
+		}
+		
 		// Generate a random AES-256 key
 		SecretKey aesKey = generateRandomAES256Key();
 
 		// Encrypt the key using the Crossbear-Server's public key
 		byte[] rsaEncryptedKey = RSAEncrypt(cbServerCert.getPublicKey(), aesKey.getEncoded());
 
-		// Put the RSA-encrypted AES-key in a PublicIPNotifRequest ...
-		PublicIPNotifRequest pipReq = new PublicIPNotifRequest();
+		// Put the RSA-encrypted AES-key in a PublicIPNotifRequest that asks for a session ticket ...
+		PublicIPNotifRequest pipReq = new PublicIPNotifRequest(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST);
 		pipReq.setRsaEncryptedKey(rsaEncryptedKey);
 
 		// And send this request to the server
@@ -270,29 +363,25 @@ public class PIPFetcher {
 		if (serverReply == null)
 			return null;
 
-		// Decrypt the server's reply ...
-		byte[] decryptedServerReply = AESDecrypt(aesKey.getEncoded(), serverReply);
-
-		// ... and validate it. The reply has the format PLAINTEXT|SUPPOSED_HASH(32bytes). First: Split the server's reply:
-		byte[] supposedHash = Arrays.copyOfRange(decryptedServerReply, decryptedServerReply.length - 32, decryptedServerReply.length);
-		byte[] plaintext = Arrays.copyOfRange(decryptedServerReply, 0, decryptedServerReply.length - 32);
-		
-		// Calculate the plaintext's REAL hash
-		byte[] actualHash = CertificateManager.SHA256(plaintext);
-
-		// Compare the actual hash with the supposed hash. If they don't match then somebody tampered with the data
-		if (!Arrays.equals(supposedHash, actualHash)) {
-			throw new Exception("Decoding a PublicIPNotification failed because of an invalid Checksum!");
+		// The reply has the format PUBLIC_IP_NOTIF_SESSION_TICKET-MESSAGE|ENCRYPTED_REPLY. First: Split off the PublicIPNotifSessionTicket-message
+		if (serverReply.length < 3 || serverReply[0] != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_TICKET) {
+			throw new Exception("Decoding a PublicIPNotification failed because the server did not send a session ticket!");
 		}
-		
-		// Assert that the decrypted plaintext is a MESSAGE_TYPE_PUBLIC_IP_NOTIFX-message
-		if (plaintext[0] != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF4 && plaintext[0] != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF6) {
-			throw new Exception("Decoding a PublicIPNotification failed because of an unexpected message Type!");
+		int ticketMessageLength = Message.byteArrayToInt(Arrays.copyOfRange(serverReply, 1, 3));
+		if (ticketMessageLength < 3 || ticketMessageLength > serverReply.length) {
+			throw new Exception("Decoding a PublicIPNotification failed because of an invalid session ticket length!");
 		}
+		PublicIPNotifSessionTicket ticket = new PublicIPNotifSessionTicket(Arrays.copyOfRange(serverReply, 3, ticketMessageLength));
 
-		// Convert the plaintext into a PublicIPNotification-object and return it
-		return new PublicIPNotification(Arrays.copyOfRange(plaintext, 3, plaintext.length), ipVersion);
+		// Decrypt and validate the PublicIPNotification
+		PublicIPNotification pip = decodeServerReply(Arrays.copyOfRange(serverReply, ticketMessageLength, serverReply.length), aesKey.getEncoded(), new byte[0], ipVersion);
+
+		// Now that the reply proved to be valid: Remember the session for the following requests
+		sessionKey = aesKey.getEncoded();
+		sessionTicket = ticket.getTicket();
+		sessionExpiry = System.currentTimeMillis() + ticket.getLifetime() * 1000L - ticketExpiryMargin;
 
+		return pip;
 	}
 
 	/**
@@ -0,0 +1,383 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The ResultSpool is a durable queue of HuntingTaskReplies that have been generated but not yet been sent to the Crossbear-Server. It decouples the execution of HuntingTasks from the availability of
+ * the server: Replies are appended as soon as they are generated and removed after the server received them (cf. ResultUploader). Replies that could not be sent before the JavaHunter terminated
+ * are sent by the next JavaHunter that uses the same spool directory.
+ * 
+ * The spool consists of segment files ("segment-[sequence number].spool") of fixed size that are memory-mapped. Each segment starts with a header that states the offset up to which its records
+ * have been acknowledged (i.e. received by the server). The header is followed by the records. Each record is the length of its data (4 bytes) followed by the data (the byte[]-representation of a
+ * HuntingTaskReply). A length of 0 marks the end of the records.
+ * 
+ * Records are only appended to the last segment. If it is full, a new segment is created. Segments whose records have all been acknowledged are deleted (except for the last one).
+ * 
+ * Please note: A record's data is forced to the disk before its length is written (and forced as well). Mapped pages are written back in no particular order, so forcing only once could persist
+ * the length of a record whose data never reached the disk. This way a crash can't leave a partially written record in the spool.
+ */
+public class ResultSpool {
+
+	/**
+	 * A single segment file of the spool
+	 */
+	private static class Segment {
+
+		// The segment file
+		private final File file;
+
+		// The sequence number of the segment (segments are read in the order of their sequence numbers)
+		private final long sequenceNumber;
+
+		// The memory-mapped content of the segment file
+		private final MappedByteBuffer buffer;
+
+		// The offset of the first record that has not been acknowledged
+		private int ackedOffset;
+
+		// The offset at which the next record will be appended
+		private int writeOffset;
+
+		/**
+		 * Open a segment file (and create it if it doesn't exist). The offsets are recovered from the file's content.
+		 * 
+		 * @param file The segment file
+		 * @param sequenceNumber The sequence number of the segment
+		 * @param segmentSize The size of the segment file in bytes
+		 * @throws IOException
+		 */
+		public Segment(File file, long sequenceNumber, int segmentSize) throws IOException {
+			this.file = file;
+			this.sequenceNumber = sequenceNumber;
+
+			// Map the file. Once it is mapped the file itself doesn't need to be kept open.
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(segmentSize);
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			} finally {
+				raf.close();
+			}
+
+			// A new segment file consists of zeros only. Its header needs to be initialized.
+			ackedOffset = buffer.getInt(0);
+			if (ackedOffset < headerSize || ackedOffset > segmentSize) {
+				ackedOffset = headerSize;
+				buffer.putInt(0, ackedOffset);
+			}
+
+			// Find the end of the records
+			writeOffset = ackedOffset;
+			while (writeOffset + 4 <= segmentSize) {
+				int length = buffer.getInt(writeOffset);
+				if (length <= 0 || writeOffset + 4 + length > segmentSize) {
+					break;
+				}
+				writeOffset += 4 + length;
+			}
+		}
+
+		/**
+		 * Append a record to the segment and force it to the disk
+		 * 
+		 * @param data The data of the record
+		 * @return True if the record was appended and false if it didn't fit into the segment
+		 */
+		public boolean append(byte[] data) {
+			if (writeOffset + 4 + data.length + 4 > buffer.capacity()) {
+				return false;
+			}
+
+			// Write the data (and the end marker behind it) and force it to the disk first. The pages of a mapped file are written back in no particular order, so the length must not be written before.
+			buffer.position(writeOffset + 4);
+			buffer.put(data);
+			buffer.putInt(writeOffset + 4 + data.length, 0);
+			buffer.force();
+
+			// Only then write the length that makes the record visible to the recovery (a record with length 0 doesn't exist)
+			buffer.putInt(writeOffset, data.length);
+			buffer.force();
+
+			writeOffset += 4 + data.length;
+			return true;
+		}
+
+		/**
+		 * Mark all records up to an offset as acknowledged and force that information to the disk
+		 * 
+		 * @param offset The offset of the first record that has not been acknowledged
+		 */
+		public void acknowledge(int offset) {
+			ackedOffset = offset;
+			buffer.putInt(0, ackedOffset);
+			buffer.force();
+		}
+
+		/**
+		 * Read the data of a record
+		 * 
+		 * @param offset The offset of the record
+		 * @return The record's data
+		 */
+		public byte[] read(int offset) {
+			byte[] data = new byte[buffer.getInt(offset)];
+			buffer.position(offset + 4);
+			buffer.get(data);
+			return data;
+		}
+	}
+
+	// The size of the header of a segment (the offset of the first record that has not been acknowledged)
+	private static final int headerSize = 4;
+
+	// The prefix and the suffix of the names of the segment files
+	private static final String segmentPrefix = "segment-", segmentSuffix = ".spool";
+
+	// The directory that contains the segment files
+	private final File dir;
+
+	// The size of each segment file in bytes
+	private final int segmentSize;
+
+	// The segments of the spool ordered by their sequence numbers. The last one is the one that records are appended to.
+	private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+	// The number of records that have not been acknowledged
+	private int pendingRecords = 0;
+
+	/**
+	 * Open a spool directory (and create it if it doesn't exist). All records that are in the directory's segment files and that have not been acknowledged are part of the spool.
+	 * 
+	 * @param dir The directory that contains the segment files
+	 * @param segmentSize The size of each segment file in bytes (must be big enough to hold the largest record i.e. 64KB)
+	 * @throws IOException
+	 */
+	public ResultSpool(File dir, int segmentSize) throws IOException {
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create spool directory " + dir);
+		}
+
+		// Find the existing segment files and open them in the order of their sequence numbers
+		String[] names = dir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return name.matches(segmentPrefix + "[0-9]+" + segmentSuffix);
+			}
+		});
+		long[] sequenceNumbers = new long[names.length];
+		for (int i = 0; i < names.length; i++) {
+			sequenceNumbers[i] = Long.parseLong(names[i].substring(segmentPrefix.length(), names[i].length() - segmentSuffix.length()));
+		}
+		Arrays.sort(sequenceNumbers);
+
+		for (long sequenceNumber : sequenceNumbers) {
+			Segment segment = new Segment(getSegmentFile(sequenceNumber), sequenceNumber, segmentSize);
+			segments.add(segment);
+			pendingRecords += countRecords(segment, segment.ackedOffset, segment.writeOffset);
+		}
+
+		// Make sure there is a segment to append to and remove the segments that have been completely acknowledged
+		if (segments.isEmpty()) {
+			segments.add(new Segment(getSegmentFile(0), 0, segmentSize));
+		}
+		compact();
+	}
+
+	/**
+	 * Acknowledge the oldest records of the spool (i.e. the server received them). They will not be returned by peek anymore.
+	 * 
+	 * @param numOfRecords The number of records to acknowledge (must not be more than the number of records returned by the last call of peek)
+	 */
+	public synchronized void acknowledge(int numOfRecords) {
+		for (Segment segment : segments) {
+			int offset = segment.ackedOffset;
+			while (numOfRecords > 0 && offset < segment.writeOffset) {
+				offset += 4 + segment.buffer.getInt(offset);
+				numOfRecords--;
+				pendingRecords--;
+			}
+			if (offset != segment.ackedOffset) {
+				segment.acknowledge(offset);
+			}
+			if (numOfRecords == 0) {
+				break;
+			}
+		}
+		compact();
+
+		// Wake up the threads that are waiting for the spool to become empty
+		notifyAll();
+	}
+
+	/**
+	 * Append a record to the spool. When this function returns the record is stored on the disk.
+	 * 
+	 * @param data The data of the record (e.g. the byte[]-representation of a HuntingTaskReply)
+	 * @throws IOException
+	 */
+	public synchronized void append(byte[] data) throws IOException {
+		if (data.length == 0 || headerSize + 4 + data.length + 4 > segmentSize) {
+			throw new IOException("Invalid record length: " + data.length);
+		}
+
+		// If the record doesn't fit into the last segment: Start a new one
+		if (!segments.getLast().append(data)) {
+			long sequenceNumber = segments.getLast().sequenceNumber + 1;
+			Segment segment = new Segment(getSegmentFile(sequenceNumber), sequenceNumber, segmentSize);
+			segments.add(segment);
+			segment.append(data);
+			compact();
+		}
+
+		// Wake up the threads that are waiting for records
+		pendingRecords++;
+		notifyAll();
+	}
+
+	/**
+	 * Delete all segments whose records have been acknowledged completely except for the last segment (records are appended to it)
+	 */
+	private void compact() {
+		while (segments.size() > 1 && segments.getFirst().ackedOffset == segments.getFirst().writeOffset) {
+			Segment segment = segments.removeFirst();
+			if (!segment.file.delete()) {
+				
+				// A segment that couldn't be deleted will be deleted when the spool is opened the next time
+				System.out.println("Could not delete spool segment " + segment.file);
+			}
+		}
+	}
+
+	/**
+	 * Count the records of a segment between two offsets
+	 * 
+	 * @param segment The segment
+	 * @param from The offset of the first record to count
+	 * @param to The offset after the last record to count
+	 * @return The number of records
+	 */
+	private int countRecords(Segment segment, int from, int to) {
+		int count = 0;
+		while (from < to) {
+			from += 4 + segment.buffer.getInt(from);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of records that have not been acknowledged
+	 * 
+	 * @return The number of pending records
+	 */
+	public synchronized int getPendingRecords() {
+		return pendingRecords;
+	}
+
+	/**
+	 * Get the file of a segment
+	 * 
+	 * @param sequenceNumber The segment's sequence number
+	 * @return The segment's file
+	 */
+	private File getSegmentFile(long sequenceNumber) {
+		return new File(dir, segmentPrefix + sequenceNumber + segmentSuffix);
+	}
+
+	/**
+	 * Get the oldest records that have not been acknowledged without removing them from the spool. If there are none, wait until records are appended.
+	 * 
+	 * @param maxRecords The maximal number of records to return
+	 * @param maxBytes The maximal accumulated size of the records to return (at least one record is returned even if it is larger)
+	 * @param timeout The maximal time in milliseconds to wait for records
+	 * @return The oldest records (empty if there were none within the timeout)
+	 * @throws InterruptedException
+	 */
+	public synchronized List<byte[]> peek(int maxRecords, int maxBytes, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (pendingRecords == 0 && System.currentTimeMillis() < end) {
+			wait(Math.max(1, end - System.currentTimeMillis()));
+		}
+
+		// Collect the records in the order they were appended
+		LinkedList<byte[]> re = new LinkedList<byte[]>();
+		int bytes = 0;
+		for (Segment segment : segments) {
+			int offset = segment.ackedOffset;
+			while (re.size() < maxRecords && offset < segment.writeOffset) {
+				byte[] data = segment.read(offset);
+				if (!re.isEmpty() && bytes + data.length > maxBytes) {
+					return re;
+				}
+				re.add(data);
+				bytes += data.length;
+				offset += 4 + data.length;
+			}
+		}
+		return re;
+	}
+
+	/**
+	 * Wait until all records have been acknowledged
+	 * 
+	 * @param timeout The maximal time in milliseconds to wait
+	 * @return True if all records have been acknowledged and false if the timeout expired before
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitEmpty(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (pendingRecords > 0 && System.currentTimeMillis() < end) {
+			wait(Math.max(1, end - System.currentTimeMillis()));
+		}
+		return pendingRecords == 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "ResultSpool: " + pendingRecords + " pending records in " + segments.size() + " segments";
+	}
+
+}
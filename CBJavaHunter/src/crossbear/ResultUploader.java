@@ -0,0 +1,262 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import crossbear.messaging.CurrentServerTime;
+import crossbear.messaging.HuntingTaskReply;
+
+/**
+ * The ResultUploader sends the HuntingTaskReplies of a ResultSpool to the Crossbear-Server. It runs in a background thread of its own so the execution of HuntingTasks never waits for the server.
+ * 
+ * The replies are sent in batches. The size of the batches adapts to the server: It is doubled as long as uploads are fast (i.e. take less than targetUploadTime) and halved if uploads are slow or
+ * fail. After a failed upload the ResultUploader backs off for an exponentially growing (and randomly shifted) time before it retries. The replies of a batch are only removed from the spool after the
+ * server received them.
+ * 
+ * The server doesn't accept replies that are older than HuntingTaskReply.MAX_AGE. Replies that became too old while they were waiting in the spool (e.g. because the server was unavailable or because
+ * they were left by a previous run) are therefore discarded instead of being sent. Their TaskIDs can be fetched by pollDiscardedTaskID so the HuntingTasks can be executed again.
+ */
+public class ResultUploader implements Runnable {
+
+	// The minimal and the maximal number of HuntingTaskReplies that are sent in one batch
+	private static final int minBatchSize = 1, maxBatchSize = 100;
+
+	// The maximal accumulated size in bytes of the HuntingTaskReplies that are sent in one batch
+	private static final int maxBatchBytes = 512 * 1024;
+
+	// The upload time in milliseconds up to which the batch size is increased
+	private static final long targetUploadTime = 2000;
+
+	// The minimal and the maximal time in milliseconds to wait after a failed upload
+	private static final long minBackoff = 1000, maxBackoff = 5 * 60 * 1000;
+
+	// The time in milliseconds by which a reply has to be younger than HuntingTaskReply.MAX_AGE to be sent (it has to arrive at the server before it becomes too old)
+	private static final long maxAgeMargin = 60 * 1000;
+
+	// The spool that contains the HuntingTaskReplies to send
+	private final ResultSpool spool;
+
+	// The CBServerConnector that is used to contact the Crossbear-Server
+	private final CBServerConnector cbServerConnector;
+
+	// The current time of the Crossbear-Server (null as long as it is unknown)
+	private volatile CurrentServerTime cst = null;
+
+	// The TaskIDs of the HuntingTaskReplies that were discarded because they were too old
+	private final ConcurrentLinkedQueue<Integer> discardedTaskIDs = new ConcurrentLinkedQueue<Integer>();
+
+	// The number of HuntingTaskReplies that are sent in the next batch
+	private volatile int batchSize = 5;
+
+	// The time in milliseconds to wait after the next failed upload
+	private long backoff = minBackoff;
+
+	// The number of successful and failed uploads, the number of HuntingTaskReplies that were sent and the accumulated time in milliseconds of the successful uploads
+	private volatile long uploads = 0, failedUploads = 0, uploadedReplies = 0, uploadMillis = 0;
+
+	// The number of HuntingTaskReplies that were discarded because they were too old
+	private volatile long discardedReplies = 0;
+
+	/**
+	 * Create a new ResultUploader
+	 * 
+	 * @param spool The spool that contains the HuntingTaskReplies to send
+	 * @param cbServerConnector The CBServerConnector that is used to contact the Crossbear-Server
+	 */
+	public ResultUploader(ResultSpool spool, CBServerConnector cbServerConnector) {
+		this.spool = spool;
+		this.cbServerConnector = cbServerConnector;
+	}
+
+	/**
+	 * Remove the HuntingTaskReplies at the beginning of a batch that the Crossbear-Server wouldn't accept anymore because they are too old. The spool is ordered by the time of execution, so the replies
+	 * that are too old are always the first ones.
+	 * 
+	 * @param replies The batch of HuntingTaskReplies that was fetched from the spool (the discarded ones are removed from it)
+	 * @return The number of discarded HuntingTaskReplies
+	 */
+	private int discardOutdated(List<byte[]> replies) {
+
+		// Without knowing the server's time it's impossible to tell which replies are too old
+		CurrentServerTime serverTime = cst;
+		if (serverTime == null) {
+			return 0;
+		}
+
+		// Count the replies that are too old
+		long oldest = serverTime.getCurrentServerTime().getTime() - HuntingTaskReply.MAX_AGE + maxAgeMargin;
+		int outdated = 0;
+		while (outdated < replies.size() && HuntingTaskReply.readServerTimeOfExecution(replies.get(outdated)).getTime() < oldest) {
+			discardedTaskIDs.add(HuntingTaskReply.readTaskID(replies.get(outdated)));
+			outdated++;
+		}
+
+		// Remove them from the spool and from the batch
+		if (outdated > 0) {
+			spool.acknowledge(outdated);
+			replies.subList(0, outdated).clear();
+			discardedReplies += outdated;
+			System.out.println("Discarded " + outdated + " HuntingTaskReplies that were too old to be accepted by the Crossbear-Server");
+		}
+
+		return outdated;
+	}
+
+	/**
+	 * Get the TaskID of a HuntingTaskReply that was discarded because it was too old (cf. discardOutdated). The HuntingTask should be executed again.
+	 * 
+	 * @return The TaskID or null if there is none left
+	 */
+	public Integer pollDiscardedTaskID() {
+		return discardedTaskIDs.poll();
+	}
+
+	/**
+	 * Keep on sending the oldest HuntingTaskReplies of the spool to the Crossbear-Server until the thread is interrupted
+	 */
+	@Override
+	public void run() {
+		Random random = new Random();
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+
+				// Wait for HuntingTaskReplies (and drop the ones that the server wouldn't accept anymore)
+				List<byte[]> replies = spool.peek(batchSize, maxBatchBytes, 60000);
+				discardOutdated(replies);
+				if (replies.isEmpty()) {
+					continue;
+				}
+
+				try {
+
+					// Send them to the Crossbear-Server and remove them from the spool afterwards
+					long start = System.currentTimeMillis();
+					sendHuntingTaskResultsToServer(replies);
+					long duration = System.currentTimeMillis() - start;
+					spool.acknowledge(replies.size());
+
+					uploads++;
+					uploadedReplies += replies.size();
+					uploadMillis += duration;
+					backoff = minBackoff;
+
+					// Adapt the batch size: Increase it if a full batch was sent quickly and decrease it if sending was slow
+					if (duration < targetUploadTime && replies.size() == batchSize) {
+						batchSize = Math.min(maxBatchSize, batchSize * 2);
+					} else if (duration > targetUploadTime) {
+						batchSize = Math.max(minBatchSize, batchSize / 2);
+					}
+
+				} catch (IOException e) {
+
+					// Sending failed: Retry with a smaller batch after the backoff time (randomly shifted by up to 50%)
+					failedUploads++;
+					batchSize = Math.max(minBatchSize, batchSize / 2);
+					long delay = backoff / 2 + (long) (random.nextDouble() * backoff);
+					System.out.println("Sending " + replies.size() + " HuntingTaskReplies failed (retrying in " + delay / 1000 + " s): " + e);
+					backoff = Math.min(maxBackoff, backoff * 2);
+					Thread.sleep(delay);
+				}
+			}
+		} catch (InterruptedException e) {
+			// The thread was interrupted: Stop uploading
+		}
+	}
+
+	/**
+	 * Send a list of HuntingTaskReplies to the Crossbear-Server
+	 * 
+	 * @param huntingTaskResults The byte[]-representations of the HuntingTaskReplies to send
+	 * @throws IOException
+	 */
+	private void sendHuntingTaskResultsToServer(List<byte[]> huntingTaskResults) throws IOException {
+
+		// Concatenate the HuntingTaskReplies
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		for (byte[] reply : huntingTaskResults) {
+			buffer.write(reply);
+		}
+
+		// Open a HttpsURLConnection for the page that will receive the HuntingTaskReplies
+		HttpsURLConnection conn = cbServerConnector.openConnection("/reportHTResults.jsp");
+		
+		// Send the HuntingTaskReplies to the server
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(buffer.size());
+		OutputStream out = conn.getOutputStream();
+		buffer.writeTo(out);
+		out.flush();
+		
+		// Make sure the server received them
+		int responseCode = conn.getResponseCode();
+		if (responseCode != HttpsURLConnection.HTTP_OK) {
+			conn.disconnect();
+			throw new IOException("Unexpected response code " + responseCode);
+		}
+
+		// Read the reply entirely so the connection can be reused
+		InputStream is = conn.getInputStream();
+		while (is.read() != -1) {
+		}
+		
+		// Close all opened Streams
+		is.close();
+		out.close();
+	}
+
+	/**
+	 * Tell the ResultUploader the current time of the Crossbear-Server (it is needed to detect HuntingTaskReplies that are too old to be sent)
+	 * 
+	 * @param cst The CurrentServerTime-message that was received from the Crossbear-Server
+	 */
+	public void setCurrentServerTime(CurrentServerTime cst) {
+		this.cst = cst;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ResultUploader: " + uploadedReplies + " replies in " + uploads + " uploads (" + failedUploads + " failed, " + discardedReplies + " replies discarded), avg " + ((uploads > 0) ? uploadMillis / uploads : 0) + " ms/upload, batch size "
+				+ batchSize;
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+* Copyright (c) 2011, Thomas Riedmaier, TU MÃ¼nchen
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions are met:
+*     * Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*     * Redistributions in binary form must reproduce the above copyright
+*       notice, this list of conditions and the following disclaimer in the
+*       documentation and/or other materials provided with the distribution.
+*     * Neither the name of Crossbear nor the
+*       names of its contributors may be used to endorse or promote products
+*       derived from this software without specific prior written permission.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+* DISCLAIMED. IN NO EVENT SHALL THOMAS RIEDMAIER BE LIABLE FOR ANY
+* DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+* (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+* LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+* ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+* (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package crossbear;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many HuntingTasks target IPs that are located in the same networks. The routes to these IPs usually share all but their last few hops. The RouteCache remembers the hops of recently observed
+ * routes keyed by the network prefix of their destination (/24 for IPv4 and /48 for IPv6). The Tracer uses it to probe only the tail of a route whose prefix is already known.
+ * 
+ * The routes depend on the network the hunter is connected to. Therefore the entries of the cache expire after a fixed time and all entries of an IP-version are dropped as soon as the hunter's
+ * PublicIP for that IP-version changes.
+ */
+public class RouteCache {
+
+	/**
+	 * Get the network prefix of an IP-Address that is used as key of the cache: The first three bytes of an IPv4-Address or the first six bytes of an IPv6-Address.
+	 * 
+	 * @param ip The IP-Address
+	 * @return The prefix as Hex-String
+	 */
+	private static String getPrefix(InetAddress ip) {
+		byte[] address = ip.getAddress();
+		int prefixLength = (ip instanceof Inet4Address) ? 3 : 6;
+
+		StringBuilder re = new StringBuilder();
+		for (int i = 0; i < prefixLength; i++) {
+			re.append(Integer.toString((address[i] & 0xff) + 0x100, 16).substring(1));
+		}
+		return re.toString();
+	}
+
+	// The cached routes for IPv4- and IPv6-destinations
+	private final BoundedCache<String, CachedRoute> routes4, routes6;
+
+	// The duration in milliseconds that a route will be considered as unchanged
+	private final long validity;
+
+	// The PublicIPs (IPv4 and IPv6) of the hunter at the time the cached routes were observed
+	private InetAddress publicIP4 = null, publicIP6 = null;
+
+	// The number of successful and unsuccessful lookups
+	private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger();
+
+	/**
+	 * Create a new RouteCache
+	 * 
+	 * @param validity The duration in milliseconds that a route will be considered as unchanged
+	 * @param maxEntries The maximal number of routes to cache per IP-version
+	 */
+	public RouteCache(long validity, int maxEntries) {
+		this.validity = validity;
+		this.routes4 = new BoundedCache<String, CachedRoute>(maxEntries);
+		this.routes6 = new BoundedCache<String, CachedRoute>(maxEntries);
+	}
+
+	/**
+	 * Get the hops of a route that was recently observed for a destination in the same network as "ip"
+	 * 
+	 * @param ip The destination of the route
+	 * @return The hops of the cached route (one line per TTL-value as described in CachedRoute) or null if there is no valid entry
+	 */
+	public String[] get(InetAddress ip) {
+		BoundedCache<String, CachedRoute> routes = (ip instanceof Inet4Address) ? routes4 : routes6;
+		CachedRoute route = routes.get(getPrefix(ip));
+
+		// Only return entries that are still valid
+		if (route == null || route.getTimeOfObservation() < System.currentTimeMillis() - validity) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+		return route.getHops();
+	}
+
+	/**
+	 * Drop all cached routes of an IP-version.
+	 * 
+	 * @param ipVersion The IP-version (4 or 6)
+	 */
+	public void invalidate(int ipVersion) {
+		if (ipVersion == 4) {
+			routes4.clear();
+		} else {
+			routes6.clear();
+		}
+	}
+
+	/**
+	 * Remember the route to a destination
+	 * 
+	 * @param ip The destination of the route
+	 * @param hops The hops of the route (one line per TTL-value as described in CachedRoute)
+	 */
+	public void put(InetAddress ip, String[] hops) {
+		BoundedCache<String, CachedRoute> routes = (ip instanceof Inet4Address) ? routes4 : routes6;
+		routes.put(getPrefix(ip), new CachedRoute(hops, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Inform the cache about the hunter's current PublicIP. If it differs from the one that was known before, the hunter changed its network and all cached routes of that IP-version are dropped.
+	 * 
+	 * @param publicIP The hunter's current PublicIP (as received in a PublicIPNotification)
+	 */
+	public synchronized void setPublicIP(InetAddress publicIP) {
+		if (publicIP instanceof Inet4Address) {
+			if (publicIP4 != null && !publicIP4.equals(publicIP)) {
+				invalidate(4);
+			}
+			publicIP4 = publicIP;
+		} else {
+			if (publicIP6 != null && !publicIP6.equals(publicIP)) {
+				invalidate(6);
+			}
+			publicIP6 = publicIP;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RouteCache: " + hits.get() + " hits, " + misses.get() + " misses, " + (routes4.size() + routes6.size()) + " routes";
+	}
+
+}
@@ -27,28 +27,43 @@
 
 package crossbear;
 
-import java.io.IOException;
-import java.io.SequenceInputStream;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
-import crossbear.messaging.Message;
-
 /**
  * This class provides Traceroute-like functionality. Unfortunately, it is not possible to do so from within Java-code because of limitations of the Java-API.
  * 
- * The current workaround to get around those, is to execute the system's "ping" and "ping6" commands, read their output and use it to simulate Traceroutes. 
+ * The current workaround to get around those, is to execute the system's "ping" and "ping6" commands, read their output and use it to simulate Traceroutes. To keep the duration of a Traceroute
+ * low, all TTL-values are probed concurrently by HopProbes (each of which executes "ping" only once for all of its samples). Moreover, the prefixes of recently observed routes are reused
+ * for other destinations in the same network (cf. RouteCache).
  * 
  * @author Thomas Riedmaier
  *
  */
 public class Tracer {
 
+	// Regex that matches private IPs
+	private static final Pattern privateIPRegex = Pattern.compile("\\A(fe8|fe9|fea|feb|fec|fed|fee|fef|fc|fd|169\\.254\\.|10\\.|172\\.16\\.|172\\.17\\.|172\\.18\\.|172\\.19\\.|172\\.20\\.|172\\.21\\.|172\\.22\\.|172\\.23\\.|172\\.24\\.|172\\.25\\.|172\\.26\\.|172\\.27\\.|172\\.28\\.|172\\.29\\.|172\\.30\\.|172\\.31\\.|192\\.168\\.).*",Pattern.CASE_INSENSITIVE);
+	
+	// The threads that execute the HopProbes. Since most of the time they are waiting for "ping" to terminate, their number is not limited. They are daemon threads so they don't keep the JVM alive.
+	private static final ExecutorService probeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "HopProbe");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	/**
 	 * For the task of locating a Mitm the information of what PublicIP a client is on is very valuable while the information which private IP it uses is of no use at all.
 	 * 
@@ -65,9 +80,6 @@ public class Tracer {
 		LinkedList<String> arrayOfHops = new LinkedList<String>(Arrays.asList(tracerouteOutput.split("\n")));
 		LinkedList<String> cleanedArrayOfHops = new LinkedList<String>();
 
-		// Define a pattern that matches private IPs
-		Pattern privateIPRegex = Pattern.compile("\\A(fe8|fe9|fea|feb|fec|fed|fee|fef|fc|fd|169\\.254\\.|10\\.|172\\.16\\.|172\\.17\\.|172\\.18\\.|172\\.19\\.|172\\.20\\.|172\\.21\\.|172\\.22\\.|172\\.23\\.|172\\.24\\.|172\\.25\\.|172\\.26\\.|172\\.27\\.|172\\.28\\.|172\\.29\\.|172\\.30\\.|172\\.31\\.|192\\.168\\.).*",Pattern.CASE_INSENSITIVE);
-
 		// Go over all HOP-lines ...
 		for (int i = 0; i < arrayOfHops.size(); i++) {
 
@@ -97,45 +109,6 @@ public class Tracer {
 		return ownPublicIP.getHostAddress() + "\n" + join(cleanedArrayOfHops, '\n');
 	}
 
-	/**
-	 * Scan the textual output of a "ping" or "ping6" command for IPs that don't match a reference IP.
-	 * 
-	 * @param pingOutput
-	 *            The textual output of a "ping" or "ping6" command to scan
-	 * @param referenceIP
-	 *            The IP to compare all found IPs with
-	 * @returns Null if no non-matching IP is found or the first non-matching IP
-	 * @throws UnknownHostException
-	 */
-	private static InetAddress getFirstNonMatchIP(String pingOutput, InetAddress referenceIP) throws UnknownHostException {
-
-		// Define a Regex that will match all IPs (and more)
-		Pattern ipPat = Pattern.compile("[\\da-f]*([:\\.]+[\\da-f]+)+(::)?", Pattern.CASE_INSENSITIVE);
-
-		// Use that Regex to find all IPs (and some other things like durations: "24.45"ms)
-		Matcher m = ipPat.matcher(pingOutput);
-
-		// Check if all found matches that are actually IPs match the referenceIP
-		while (m.find()) {
-
-			// Get the whole match
-			String candidate = m.group();
-
-			// For each match check if it is a valid IP-Address and if it is compare it with the referenceIP ...
-			if (Message.isValidIPAddress(candidate)) {
-				InetAddress candidateIP = InetAddress.getByName(candidate);
-				if (!candidateIP.equals(referenceIP)) {
-
-					// ... and in case they are not equal return it
-					return candidateIP;
-				}
-			}
-		}
-
-		// If no non-matching IP is found return null
-		return null;
-	}
-
 	/**
 	 * Join all elements of a LinkedList of type E into a separator-separated String
 	 * 
@@ -145,7 +118,7 @@ public class Tracer {
 	 * @param separator The separator to put between the elements of the list (e.g. '|')
 	 * @return The String-concatenation of all elements of "list" separated by "separator"
 	 */
-	private static <E> String join(LinkedList<E> list, char separator) {
+	static <E> String join(LinkedList<E> list, char separator) {
 		
 		// Create an output buffer
 		StringBuffer buffer = new StringBuffer();
@@ -168,58 +141,16 @@ public class Tracer {
 		return buffer.toString();
 	}
 
-	/**
-	 * Perform a ping on a Unix/Linux system. This is currently done by executing "ping"/"ping6" and reading its output. Depending on that output it is then decided if the ping reached the host, a
-	 * intermediate hop or if an error occurred.
-	 * 
-	 * The command that will be executed is /bin/ping(6) -c 1 -n -W 1 -t "ttl" "ip"
-	 * 
-	 * @param ip
-	 *            The IP-Address to ping
-	 * @param ipVersion
-	 *            The version of the IP-Address (4 or 6)
-	 * @param ttl
-	 *            The Time-To-Live of the ping that should be sent
-	 * @returns "TARGET "+TargetIP if the target was reached, "HOP "+HopIP if an intermediate Host was reached or "NO_REPLY" if an error occurred during the execution of "ping"
-	 * @throws IOException
-	 */
-	private static String ping(InetAddress ip, int ipVersion, int ttl) throws IOException {
 
-		// Execute the "ping"/"ping6"-command
-		ProcessBuilder processBuilder = new ProcessBuilder(new String[] { "/bin/ping" + ((ipVersion == 6) ? "6" : ""), "-c", "1", "-n", "-W", "1", "-t", String.valueOf(ttl), ip.getHostAddress() });
-		Process process = processBuilder.start();
+	// The number of hops at the end of a cached route that are always probed since they are likely to differ for other destinations in the same network
+	private static final int tailHops = 2;
 
-		// Get the command's output
-		String pingOutput = Message.inputStreamToString(new SequenceInputStream(process.getInputStream(),process.getErrorStream()));
-		
-		// Check if all occurences of IPs inside the output match the IP that was pinged
-		InetAddress firstNonMatchIP = getFirstNonMatchIP(pingOutput, ip);
-
-		// Check if either the pattern "TTL" or "TIME TO LIVE" or "HOP LIMIT" appears
-		Pattern ttlPat = Pattern.compile("TTL|TIME TO LIVE|HOP LIMIT", Pattern.CASE_INSENSITIVE);
-		boolean containsTTL = ttlPat.matcher(pingOutput).find();
-
-		// Check if the pattern "0%" (but not 100%) appears -> Indicates "no Packet loss" on unix systems
-		Pattern zeroPercentPat = Pattern.compile("[^0]0%", Pattern.CASE_INSENSITIVE);
-		boolean containsZeroPercent = zeroPercentPat.matcher(pingOutput).find();
-
-		// If there was only the target's IP in the output and if the packet loss was 0% then the ping reached the target
-		if ((firstNonMatchIP == null) && containsZeroPercent) {
-			return "TARGET " + ip.getHostAddress();
-
-		// If there was more than one IP in the output and it also contained a pattern indicating that the TTL was exceeded then the ping reached an intermediate hop
-		} else if ((firstNonMatchIP != null) && containsTTL) {
-			return "HOP " + firstNonMatchIP.getHostAddress();
-
-		// All other cases mean that an error occurred.
-		} else {
-			return "NO_REPLY";
-		}
-
-	}
 	// How many hops should be taken into account before terminating the Traceroute?
 	private int maxHops;
 
+	// The recently observed routes (valid for 30 minutes)
+	private final RouteCache routeCache = new RouteCache(30 * 60 * 1000, 1000);
+
 	// How many samples should be taken per hop (i.e. should be sent with the same TTL)
 	private int samplesPerHop;
 
@@ -235,10 +166,102 @@ public class Tracer {
 	}
 
 	/**
-	 * Perform a Traceroute on an IP. This function will call the Tracer.ping-function with increasing TTL-values. The Trace returned by this function will consist of one line per measured hop. If
+	 * Convert the results of HopProbes into hop lines (one per TTL-value) and append them to the hop lines of the route's prefix. The hop line for a TTL-value is a "|"-seperated list of the IPs that
+	 * replied or "" if no IP replied. The lines end in front of the first HopProbe that reached the target.
+	 * 
+	 * @param prefix The hop lines for the TTL-values that were not probed (i.e. 1 to probes[0].getTTL()-1)
+	 * @param probes The HopProbes for the following TTL-values as returned by probeHops
+	 * @return The hop lines of the whole route
+	 */
+	private static String[] getHopLines(String[] prefix, HopProbe[] probes) {
+		LinkedList<String> re = new LinkedList<String>(Arrays.asList(prefix));
+		for (int i = 0; i < probes.length; i++) {
+
+			// If it reached the Target we are done
+			if (probes[i].isTargetReached()) {
+				break;
+			}
+
+			// For each HOP: Generate a "|"-seperated list of IPs that replied
+			re.add(join(probes[i].getHopIPs(), '|'));
+		}
+
+		return re.toArray(new String[re.size()]);
+	}
+
+	/**
+	 * @return The cache of the recently observed routes
+	 */
+	public RouteCache getRouteCache() {
+		return routeCache;
+	}
+
+	/**
+	 * Probe a range of TTL-values concurrently. As soon as the target replies to a probe, all probes with higher TTL-values are cancelled since they would reach the target as well.
+	 * 
+	 * @param ip
+	 *            The IP-Address to trace
+	 * @param ipVersion
+	 *            The version of the IP-Address (4 or 6)
+	 * @param firstTTL
+	 *            The first TTL-value to probe
+	 * @param lastTTL
+	 *            The last TTL-value to probe
+	 * @return One HopProbe per TTL-value (index 0 being the one for firstTTL). The HopProbes following the first one that reached the target are cancelled and their results must be ignored.
+	 * @throws Exception
+	 */
+	private HopProbe[] probeHops(InetAddress ip, int ipVersion, int firstTTL, int lastTTL) throws Exception {
+		HopProbe[] probes = new HopProbe[lastTTL - firstTTL + 1];
+		
+		// Start probing all TTL-values at once
+		CompletionService<HopProbe> completionService = new ExecutorCompletionService<HopProbe>(probeExecutor);
+		for (int i = 0; i < probes.length; i++) {
+			probes[i] = new HopProbe(ip, ipVersion, firstTTL + i, samplesPerHop);
+			completionService.submit(probes[i]);
+		}
+
+		try {
+			// Wait until all probes up to the first one that reached the target have finished. The results of the probes following it are not needed.
+			boolean[] finished = new boolean[probes.length];
+			int targetIndex = probes.length - 1;
+			int outstanding = probes.length;
+			while (outstanding > 0) {
+				HopProbe probe = completionService.take().get();
+				int index = probe.getTTL() - firstTTL;
+				finished[index] = true;
+
+				// If the probe reached the target: cancel all probes with a higher TTL
+				if (probe.isTargetReached() && index < targetIndex) {
+					targetIndex = index;
+					for (int i = targetIndex + 1; i < probes.length; i++) {
+						probes[i].cancel();
+					}
+				}
+				
+				// Count the probes that still need to finish
+				outstanding = 0;
+				for (int i = 0; i <= targetIndex; i++) {
+					if (!finished[i]) outstanding++;
+				}
+			}
+		} finally {
+			
+			// In case of an error: Make sure no "ping"-process stays alive
+			for (int i = 0; i < probes.length; i++) {
+				probes[i].cancel();
+			}
+		}
+
+		return probes;
+	}
+
+	/**
+	 * Perform a Traceroute on an IP. This function will probe all TTL-values from 1 to maxHops concurrently. The Trace returned by this function will consist of one line per measured hop. If
 	 * more than one IP replied for the same TTL then the line will look like "IP1|IP2|...". If there was no reply from a HOP it won't be listed (and there will be no empty line either). This is
 	 * because of the fact that between two HOPs that reply there could possibly be a lot of HOPs that didn't reply and didn't decrease the TTL-value anyway.
 	 * 
+	 * If a route to another IP of the same network has been observed recently, only its last hops are probed again (cf. traceTail).
+	 * 
 	 * @param ip
 	 *            The IP-Address to trace
 	 * @param ipVersion
@@ -247,42 +270,94 @@ public class Tracer {
 	 * @throws Exception
 	 */
 	public String traceroute(InetAddress ip, int ipVersion) throws Exception {
-		LinkedList<String> re = new LinkedList<String>();
-
-		// Perform pings with an increasing TTL (starting at 1 and ending with self.MaxHops)
-		hopLoop: for (int hopNum = 1; hopNum <= maxHops; hopNum++) {
-
-			LinkedList<String> samplesOfHop = new LinkedList<String>();
-			// For each TTL perform samplesOfHop-many Pings and see if more than one host replies
-			for (int sampleNum = 0; sampleNum < samplesPerHop; sampleNum++) {
-
-				// Perform a ping with a given TTL and see whether it reached the Target, a Hop or no host at all
-				String[] pingResult = ping(ip, ipVersion, hopNum).split(" ");
-				switch (pingResult[0]) {
-				case "HOP":
-					// If it reached a HOP add it to the current Hop's host-list (but don't add duplicates)
-					if (samplesOfHop.indexOf(pingResult[1]) < 0) {
-						samplesOfHop.add(pingResult[1]);
-					}
-					break;
-				case "TARGET":
-					// If it reached the Target we are done
-					break hopLoop;
-				case "NO_REPLY":
-					break;
-				default:
-					throw new Exception("Recieved unexpected ping response: " + Arrays.deepToString(pingResult));
-				}
+
+		// Record the Traceroute as Flight Recorder event
+		OperationEvent event = OperationEvent.begin(OperationEvent.TRACEROUTE, ip.getHostAddress(), "full route");
+		String outcome = "failed";
+		try {
+
+			// Try to reuse the prefix of a recently observed route to the same network
+			String[] hopLines = null;
+			String[] cachedHopLines = routeCache.get(ip);
+			if (cachedHopLines != null) {
+				hopLines = traceTail(ip, ipVersion, cachedHopLines);
+				event.setDetail((hopLines != null) ? "cached prefix reused" : "cached prefix outdated");
 			}
 
-			// For each HOP: Generate a "|"-seperated list of IPs that replied
-			if (samplesOfHop.size() > 0) {
-				re.add(join(samplesOfHop, '|'));
+			// If that was not possible: Probe all TTL-values (starting at 1 and ending with maxHops)
+			if (hopLines == null) {
+				hopLines = getHopLines(new String[0], probeHops(ip, ipVersion, 1, maxHops));
 			}
-		}
 
-		// Finally add the Target's IP to the list of Hops (which will be transformed in a "\n"-seperated list) and return the trace
-		return (join(re, '\n') + '\n' + ip.getHostAddress()).trim();
+			// Remember the route for other IPs of the same network
+			routeCache.put(ip, hopLines);
+
+			// Skip the HOPs that didn't reply
+			LinkedList<String> re = new LinkedList<String>();
+			for (int i = 0; i < hopLines.length; i++) {
+				if (hopLines[i].length() > 0) {
+					re.add(hopLines[i]);
+				}
+			}
+			outcome = re.size() + " of " + hopLines.length + " hops replied";
+
+			// Finally add the Target's IP to the list of Hops (which will be transformed in a "\n"-seperated list) and return the trace
+			return (join(re, '\n') + '\n' + ip.getHostAddress()).trim();
+
+		} finally {
+			event.commit(outcome);
+		}
 	};
 
+	/**
+	 * Perform a Traceroute on an IP for which the route to another IP of the same network is known. Only the TTL-values starting at an anchor hop are probed: the last replying hop that is at least
+	 * tailHops hops in front of the end of the cached route. If the anchor hop still replies with one of the IPs that replied before, the route is assumed to be unchanged up to the anchor and the
+	 * cached hop lines are reused for all TTL-values in front of it.
+	 * 
+	 * @param ip
+	 *            The IP-Address to trace
+	 * @param ipVersion
+	 *            The version of the IP-Address (4 or 6)
+	 * @param cachedHopLines
+	 *            The hop lines of the cached route (as generated by getHopLines)
+	 * @return The hop lines of the route to ip or null if the cached route couldn't be reused (because it is too short or it has changed)
+	 * @throws Exception
+	 */
+	private String[] traceTail(InetAddress ip, int ipVersion, String[] cachedHopLines) throws Exception {
+
+		// Find the last hop that replied
+		int lastReplyingTTL = cachedHopLines.length;
+		while (lastReplyingTTL > 0 && cachedHopLines[lastReplyingTTL - 1].length() == 0) {
+			lastReplyingTTL--;
+		}
+
+		// Find the anchor hop: The last replying hop that is at least tailHops in front of that
+		int anchorTTL = lastReplyingTTL - tailHops;
+		while (anchorTTL > 0 && cachedHopLines[anchorTTL - 1].length() == 0) {
+			anchorTTL--;
+		}
+		if (anchorTTL < 1) {
+			return null;
+		}
+
+		// Probe the anchor and all hops following it
+		HopProbe[] probes = probeHops(ip, ipVersion, anchorTTL, maxHops);
+
+		// Make sure the route didn't change up to the anchor: The anchor must still reply with one of the IPs that replied before
+		if (probes[0].isTargetReached()) {
+			return null;
+		}
+		List<String> anchorIPs = Arrays.asList(cachedHopLines[anchorTTL - 1].split("\\|"));
+		boolean anchorConfirmed = false;
+		for (String hopIP : probes[0].getHopIPs()) {
+			anchorConfirmed |= anchorIPs.contains(hopIP);
+		}
+		if (!anchorConfirmed) {
+			return null;
+		}
+
+		// Reuse the cached hop lines in front of the anchor
+		return getHopLines(Arrays.copyOf(cachedHopLines, anchorTTL - 1), probes);
+	}
+
 }
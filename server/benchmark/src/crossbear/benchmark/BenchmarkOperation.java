@@ -0,0 +1,35 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+/**
+ * A BenchmarkOperation is a single operation whose execution time is measured by the MicroBenchmark-class.
+ */
+public interface BenchmarkOperation {
+
+	/**
+	 * Execute the operation once
+	 *
+	 * @return The result of the operation. It is consumed by the MicroBenchmark-class so the JIT can't eliminate the operation as dead code.
+	 * @throws Exception
+	 */
+	public Object execute() throws Exception;
+
+}
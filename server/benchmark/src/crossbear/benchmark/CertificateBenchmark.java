@@ -0,0 +1,302 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import crossbear.BoundedCache;
+import crossbear.CVRProcessor;
+import crossbear.CertificateDerivatives;
+import crossbear.CertificateManager;
+
+/**
+ * Benchmark of the certificate processing that is performed for each CertVerifyRequest and HuntingTaskReply independent of the database. It measures
+ * - CertificateManager.makeCertChainValid for chains of different length and key size both in correct and in shuffled order
+ * - CertificateManager.validateCertChain for chains of different length
+ * - CertificateManager.getCertChainMD5
+ * - the PEM-encoding of certificates with different key sizes and numbers of Subject Alternative Names
+ * - the judgments of CVRProcessor that only depend on the certificate: domain match, the DER-based search for Common Names, key length and used algorithms
+ *
+ * getCertChainMD5 and the judgments of domain match and key length read the CertificateDerivatives (and the DomainMatcher) of a certificate from the memo caches. Repeating them on the same certificate
+ * therefore only measures cache hits ("warm"). That's why they are also measured with caches that are cleared before each operation ("cold"), which is what happens for a certificate that is seen
+ * for the first time. Clearing the two caches costs well below a microsecond and is included in the cold results.
+ *
+ * The certificates are generated by SyntheticCertificates so the benchmark runs entirely offline. The CertificateManager is created with the JVM's cacerts-keystore; its password can be passed as
+ * first argument (default: "changeit"). Since the chains end with a self-signed root the keystore isn't used for their validation.
+ *
+ * Private methods are invoked via reflection. The overhead of that is in the order of a few nanoseconds and can be neglected for all but the cheapest judgments.
+ *
+ */
+public class CertificateBenchmark {
+
+	// The memo cache of CertificateDerivatives.get
+	private static Object derivativesCache;
+
+	// The memo cache of the DomainMatchers used by CVRProcessor.getJudgmentOfDomainMatch
+	private static Object domainMatcherCache;
+
+	// BoundedCache.clear
+	private static Method clearCache;
+
+	/**
+	 * Remove all entries from the memo caches of CertificateDerivatives and CVRProcessor so the next operation has to calculate everything from scratch
+	 *
+	 * @throws Exception
+	 */
+	private static void clearCaches() throws Exception {
+		invoke(clearCache, derivativesCache);
+		invoke(clearCache, domainMatcherCache);
+	}
+
+	/**
+	 * Get the value of a private static field
+	 *
+	 * @param type The class declaring the field
+	 * @param name The name of the field
+	 * @return The value of the field
+	 * @throws Exception
+	 */
+	private static Object getPrivateStaticField(Class<?> type, String name) throws Exception {
+		Field field = type.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(null);
+	}
+
+	/**
+	 * Get a private method and make it accessible
+	 *
+	 * @param type The class declaring the method
+	 * @param name The name of the method
+	 * @param parameterTypes The types of the method's parameters
+	 * @return The accessible method
+	 * @throws NoSuchMethodException
+	 */
+	private static Method getPrivateMethod(Class<?> type, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+		Method method = type.getDeclaredMethod(name, parameterTypes);
+		method.setAccessible(true);
+		return method;
+	}
+
+	/**
+	 * Invoke a method and unwrap the exceptions it throws
+	 *
+	 * @param method The method to invoke
+	 * @param target The object on which the method is invoked (null for static methods)
+	 * @param args The arguments of the method
+	 * @return The result of the method
+	 * @throws Exception
+	 */
+	private static Object invoke(Method method, Object target, Object... args) throws Exception {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Shuffle the chain certificates (i.e. all but the server certificate) of a certificate chain. Clients don't necessarily send chains in the correct order so makeCertChainValid has to find it.
+	 *
+	 * @param chain The certificate chain
+	 * @param seed The seed of the random permutation
+	 * @return A copy of chain whose chain certificates are in a different order (if there are at least two of them)
+	 */
+	private static X509Certificate[] shuffle(X509Certificate[] chain, long seed) {
+		List<X509Certificate> chainCerts = new LinkedList<X509Certificate>(Arrays.asList(chain).subList(1, chain.length));
+		List<X509Certificate> original = new LinkedList<X509Certificate>(chainCerts);
+		Random random = new Random(seed);
+		while (chainCerts.size() > 1 && chainCerts.equals(original)) {
+			Collections.shuffle(chainCerts, random);
+		}
+
+		X509Certificate[] re = new X509Certificate[chain.length];
+		re[0] = chain[0];
+		for (int i = 1; i < chain.length; i++) {
+			re[i] = chainCerts.get(i - 1);
+		}
+		return re;
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param args The password of the JVM's cacerts-keystore (optional)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final CertificateManager cm = new CertificateManager(null, 0, (args.length > 0) ? args[0] : "changeit");
+
+		// Get the memo caches so they can be cleared for the cold measurements
+		derivativesCache = getPrivateStaticField(CertificateDerivatives.class, "cache");
+		domainMatcherCache = getPrivateStaticField(CVRProcessor.class, "domainMatcherCache");
+		clearCache = BoundedCache.class.getMethod("clear");
+
+		/*
+		 * makeCertChainValid and validateCertChain
+		 */
+		final Method validateCertChain = getPrivateMethod(CertificateManager.class, "validateCertChain", LinkedList.class, boolean.class);
+		for (int length : new int[] { 2, 3, 5 }) {
+			for (int keySize : new int[] { 1024, 2048, 4096 }) {
+
+				// Key sizes other than 2048 are only measured for chains of length 3
+				if (keySize != 2048 && length != 3) {
+					continue;
+				}
+
+				final X509Certificate[] chain = SyntheticCertificates.createChain("chain" + length + ".example.com", length, keySize, 1, "SHA256WithRSAEncryption");
+				final X509Certificate[] shuffledChain = shuffle(chain, length);
+				String suffix = length + " certificates, " + keySize + " bit";
+
+				MicroBenchmark.measure("makeCertChainValid (ordered)  " + suffix, new BenchmarkOperation() {
+					@Override
+					public Object execute() throws Exception {
+						return cm.makeCertChainValid(chain, 50, true);
+					}
+				});
+
+				// Shuffling makes no difference for chains with less than two chain certificates
+				if (length > 2) {
+					MicroBenchmark.measure("makeCertChainValid (shuffled) " + suffix, new BenchmarkOperation() {
+						@Override
+						public Object execute() throws Exception {
+							return cm.makeCertChainValid(shuffledChain, 50, true);
+						}
+					});
+				}
+
+				final LinkedList<X509Certificate> chainList = new LinkedList<X509Certificate>(Arrays.asList(chain));
+				MicroBenchmark.measure("validateCertChain             " + suffix, new BenchmarkOperation() {
+					@Override
+					public Object execute() throws Exception {
+						return invoke(validateCertChain, cm, chainList, true);
+					}
+				});
+
+				if (length == 3 && keySize == 2048) {
+					MicroBenchmark.measure("getCertChainMD5 (warm)        " + suffix, new BenchmarkOperation() {
+						@Override
+						public Object execute() throws Exception {
+							return CertificateManager.getCertChainMD5(chainList);
+						}
+					});
+
+					MicroBenchmark.measure("getCertChainMD5 (cold)        " + suffix, new BenchmarkOperation() {
+						@Override
+						public Object execute() throws Exception {
+							clearCaches();
+							return CertificateManager.getCertChainMD5(chainList);
+						}
+					});
+				}
+			}
+		}
+
+		/*
+		 * PEM-encoding
+		 */
+		final Method getPemEncoding = getPrivateMethod(CertificateDerivatives.class, "getPemEncoding", byte[].class);
+		for (int keySize : new int[] { 1024, 2048, 4096 }) {
+			for (int sanCount : new int[] { 1, 100 }) {
+				final byte[] der = SyntheticCertificates.createChain("pem.example.com", 1, keySize, sanCount, "SHA256WithRSAEncryption")[0].getEncoded();
+				MicroBenchmark.measure("getPemEncoding " + keySize + " bit, " + sanCount + " SANs (" + der.length + " bytes)", new BenchmarkOperation() {
+					@Override
+					public Object execute() throws Exception {
+						return invoke(getPemEncoding, null, der);
+					}
+				});
+			}
+		}
+
+		/*
+		 * Judgments of CVRProcessor
+		 */
+		final Method getJudgmentOfDomainMatch = getPrivateMethod(CVRProcessor.class, "getJudgmentOfDomainMatch", X509Certificate.class, String.class);
+		final Method getJudgmentOfCNs = getPrivateMethod(CVRProcessor.class, "getJudgmentOfCNs", CertificateDerivatives.class);
+		for (int sanCount : new int[] { 1, 10, 100 }) {
+			final X509Certificate cert = SyntheticCertificates.createChain("san" + sanCount + ".example.com", 1, 2048, sanCount, "SHA256WithRSAEncryption")[0];
+			final String host = (sanCount > 1) ? "www" + (sanCount - 1) + ".san" + sanCount + ".example.com" : "san1.example.com";
+			final CertificateDerivatives derivatives = CertificateDerivatives.get(cert);
+
+			MicroBenchmark.measure("getJudgmentOfDomainMatch (warm) " + sanCount + " SANs, last matches", new BenchmarkOperation() {
+				@Override
+				public Object execute() throws Exception {
+					return invoke(getJudgmentOfDomainMatch, null, cert, host);
+				}
+			});
+
+			MicroBenchmark.measure("getJudgmentOfDomainMatch (cold) " + sanCount + " SANs, last matches", new BenchmarkOperation() {
+				@Override
+				public Object execute() throws Exception {
+					clearCaches();
+					return invoke(getJudgmentOfDomainMatch, null, cert, host);
+				}
+			});
+
+			MicroBenchmark.measure("getJudgmentOfCNs (DER CN search) " + sanCount + " SANs", new BenchmarkOperation() {
+				@Override
+				public Object execute() throws Exception {
+
+					// A null result means that the CNs are valid
+					return (invoke(getJudgmentOfCNs, null, derivatives) == null);
+				}
+			});
+		}
+
+		final Method getJudgmentOfKeyLength = getPrivateMethod(CVRProcessor.class, "getJudgmentOfKeyLength", X509Certificate.class);
+		final Method getJudgmentOfUsedAlgorithms = getPrivateMethod(CVRProcessor.class, "getJudgmentOfUsedAlgorithms", X509Certificate.class);
+		for (String signatureAlgorithm : new String[] { "SHA256WithRSAEncryption", "SHA1WithRSAEncryption", "MD5WithRSAEncryption" }) {
+			final X509Certificate cert = SyntheticCertificates.createChain("alg.example.com", 1, 2048, 1, signatureAlgorithm)[0];
+
+			// The key length judgment doesn't depend on the algorithm: measure it once
+			if (signatureAlgorithm.startsWith("SHA256")) {
+				MicroBenchmark.measure("getJudgmentOfKeyLength (warm) 2048 bit", new BenchmarkOperation() {
+					@Override
+					public Object execute() throws Exception {
+						return invoke(getJudgmentOfKeyLength, null, cert);
+					}
+				});
+
+				MicroBenchmark.measure("getJudgmentOfKeyLength (cold) 2048 bit", new BenchmarkOperation() {
+					@Override
+					public Object execute() throws Exception {
+						clearCaches();
+						return invoke(getJudgmentOfKeyLength, null, cert);
+					}
+				});
+			}
+
+			MicroBenchmark.measure("getJudgmentOfUsedAlgorithms " + signatureAlgorithm, new BenchmarkOperation() {
+				@Override
+				public Object execute() throws Exception {
+					return invoke(getJudgmentOfUsedAlgorithms, null, cert);
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import crossbear.DomainMatcher;
+
+/**
+ * Benchmark of the domain matching that is performed by the CVRProcessor when judging whether a certificate is valid for a host. It compares the regular expression based matching that was used
+ * before the DomainMatcher-class was introduced with the DomainMatcher (both when it is created for each request and when it is taken from the cache).
+ *
+ * The benchmark is executed for certificates with 1, 100 and 1000 domain patterns (CN and Subject Alternative Names). For each size two hosts are matched:
+ * - a host that is matched by the last pattern only (worst case for a match)
+ * - a host that isn't matched at all (the typical case of a man-in-the-middle certificate)
+ */
+public class DomainMatchBenchmark {
+
+	// Regex that matches all special chars (copied from the former CVRProcessor.isValidForHost)
+	private static final Pattern specialCharPat = Pattern.compile("([^a-zA-Z0-9])");
+
+	/**
+	 * Generate a list of domain patterns like they can be found in certificates with many Subject Alternative Names. Every third pattern is a wildcard pattern.
+	 *
+	 * @param size The number of patterns to generate
+	 * @return The generated patterns
+	 */
+	private static Vector<String> generateDomainPatterns(int size) {
+		Vector<String> patterns = new Vector<String>();
+		for (int i = 0; i < size; i++) {
+			if (i % 3 == 0) {
+				patterns.add("*.site" + i + ".example" + (i % 7) + ".com");
+			} else {
+				patterns.add("www.site" + i + ".example" + (i % 7) + ".com");
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * Check if one of the domainPatterns matches the host using regular expressions. This is the implementation that was used by the CVRProcessor before the DomainMatcher was introduced.
+	 *
+	 * @param domainPatterns The domain patterns that might match the host
+	 * @param host The host to match
+	 * @return True if one of the pattern matches else false
+	 */
+	private static boolean isValidForHostUsingRegex(Vector<String> domainPatterns, String host) {
+		for (int i = 0; i < domainPatterns.size(); i++) {
+			String escapedCn = specialCharPat.matcher(domainPatterns.get(i)).replaceAll("\\\\$1");
+			String cnAsRegex = escapedCn.replaceAll("\\\\\\*", "[a-zA-Z0-9-_]*");
+			if (Pattern.compile(cnAsRegex, Pattern.CASE_INSENSITIVE).matcher(host).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param args Currently not used
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] sizes = { 1, 100, 1000 };
+
+		for (final int size : sizes) {
+			final Vector<String> patterns = generateDomainPatterns(size);
+			final DomainMatcher cachedMatcher = new DomainMatcher(patterns);
+
+			// The last pattern is a wildcard pattern if (size-1) % 3 == 0
+			final String matchingHost = ((size - 1) % 3 == 0 ? "Login" : "WWW") + ".site" + (size - 1) + ".example" + ((size - 1) % 7) + ".com";
+			final String otherHost = "www.attacker.example.org";
+
+			// Make sure all implementations agree before measuring them
+			if (!isValidForHostUsingRegex(patterns, matchingHost) || !cachedMatcher.matches(matchingHost) || isValidForHostUsingRegex(patterns, otherHost) || cachedMatcher.matches(otherHost)) {
+				throw new IllegalStateException("The implementations disagree for " + size + " patterns");
+			}
+
+			for (final String host : new String[] { matchingHost, otherHost }) {
+				String suffix = size + " patterns, " + (host == matchingHost ? "last matches" : "no match");
+
+				MicroBenchmark.measure("regex                  " + suffix, new BenchmarkOperation() {
+					@Override
+					public Object execute() {
+						return isValidForHostUsingRegex(patterns, host);
+					}
+				});
+
+				MicroBenchmark.measure("DomainMatcher (create) " + suffix, new BenchmarkOperation() {
+					@Override
+					public Object execute() {
+						return new DomainMatcher(patterns).matches(host);
+					}
+				});
+
+				MicroBenchmark.measure("DomainMatcher (cached) " + suffix, new BenchmarkOperation() {
+					@Override
+					public Object execute() {
+						return cachedMatcher.matches(host);
+					}
+				});
+			}
+		}
+	}
+
+}
@@ -0,0 +1,562 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import crossbear.CBServerConnector;
+import crossbear.CertificateManager;
+import crossbear.LatencyHistogram;
+import crossbear.messaging.CertVerifyRequest;
+import crossbear.messaging.Message;
+import crossbear.messaging.PublicIPNotifRequest;
+import crossbear.messaging.PublicIPNotifSessionTicket;
+
+/**
+ * The LoadGenerator drives a locally running Crossbear-Server (both web applications, backed by a local PostgreSQL-database) with a synthetic but realistic mix of requests and reports the throughput
+ * and the latency percentiles of each page. It generates
+ * - CertVerifyRequests for verifyCert.jsp. The requested hosts follow a Zipf-distribution (so popular hosts hit the server's caches), some clients claim to be behind a SSL-proxy and some send a
+ *   forged certificate chain (which makes the server create HuntingTasks).
+ * - PublicIPNotifRequests for getPublicIP.jsp. Each simulated client asks for a session ticket first and presents it for most of its later requests.
+ * - A fleet of SimulatedHunters that poll getHuntingTaskList.jsp and upload batches of HuntingTaskReplies to reportHTResults.jsp.
+ * 
+ * CertVerifyRequests and PublicIPNotifRequests arrive as Poisson-processes with a fixed rate, independent of the server's replies. Their latencies are measured from the time at which they were
+ * supposed to be sent, so a server that falls behind is not flattered by requests that are sent late (coordinated omission).
+ * 
+ * The hosts are served by local StandInTargets and there is a StandInNotary that answers the server's Convergence-queries, so the load test doesn't contact any server on the internet. The SQL-statement
+ * that registers the StandInNotary is printed at startup and has to be executed on the server's database.
+ * 
+ * The requests can be recorded to a file (record=FILE) and replayed later with the same timing (replay=FILE). Replayed requests are sent as recorded, so the HuntingTaskReplies are only accepted if the
+ * server still knows the keys of their PublicIP-HMACs and their timestamps are not too old. Polls of the HuntingTask-List are replayed as unconditional requests for the complete list.
+ * 
+ * The settings are passed as "key=value"-arguments (cf. defaultSettings), e.g. "java -cp ... crossbear.benchmark.LoadGenerator server=localhost:8443 pipServer=localhost:8080 cvrRate=100 duration=300".
+ * The certificate of the Crossbear-Server (serverCert) is needed to authenticate the server and to encrypt the keys of the PublicIPNotifRequests.
+ */
+public class LoadGenerator {
+
+	/**
+	 * The statistics of the requests for one page
+	 */
+	private static class PageStatistics {
+
+		// The latencies of the successful requests
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		// The number of requests that failed
+		private final AtomicLong errors = new AtomicLong();
+	}
+
+	/**
+	 * Something that sends a request when it's supposed to be sent
+	 */
+	private interface RequestSender {
+
+		/**
+		 * Send a request
+		 * 
+		 * @param intendedStart The System.nanoTime() at which the request was supposed to be sent
+		 * @throws Exception
+		 */
+		public void send(long intendedStart) throws Exception;
+	}
+
+	// The settings and their default values
+	private static final String[][] defaultSettings = {
+			// The host and port of the web applications of the Crossbear-Server and the certificate that the server uses
+			{ "server", "localhost:443" }, { "pipServer", "localhost:80" }, { "serverCert", "cbserver.crt" },
+			// The length of the load test in seconds and the number of threads that send the CertVerifyRequests and PublicIPNotifRequests
+			{ "duration", "60" }, { "threads", "64" },
+			// The StandInTargets: address, first port, number of targets and length of their RSA keys
+			{ "targetAddress", "127.0.0.1" }, { "targetPort", "10443" }, { "targets", "10" }, { "targetKeySize", "2048" },
+			// The StandInNotary (notaryPort=0 disables it)
+			{ "notaryHost", "localhost" }, { "notaryPort", "10000" },
+			// CertVerifyRequests per second, number of hosts and exponent of their Zipf-distribution, ratio of clients behind a SSL-proxy and ratio of forged certificate chains
+			{ "cvrRate", "20" }, { "hosts", "1000" }, { "zipfExponent", "1.0" }, { "proxyRatio", "0.1" }, { "forgedRatio", "0.02" },
+			// Number of SimulatedHunters, seconds between their polls and maximal number of HuntingTaskReplies per upload
+			{ "hunters", "20" }, { "pollInterval", "10" }, { "batchSize", "10" },
+			// PublicIPNotifRequests per second, number of clients sending them and ratio of requests that present a session ticket (if the client has one)
+			{ "pipRate", "5" }, { "pipClients", "100" }, { "resumptionRatio", "0.9" },
+			// Files to record the requests to or to replay them from and the speed of the replay
+			{ "record", "" }, { "replay", "" }, { "replaySpeed", "1.0" } };
+
+	/**
+	 * Run the load test (or replay a recorded one)
+	 * 
+	 * @param args The settings in the format "key=value" (cf. defaultSettings)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		// Parse the settings
+		java.util.Properties settings = new java.util.Properties();
+		for (String[] setting : defaultSettings) {
+			settings.setProperty(setting[0], setting[1]);
+		}
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator <= 0 || settings.getProperty(arg.substring(0, separator)) == null) {
+				throw new IllegalArgumentException("Unknown setting: " + arg);
+			}
+			settings.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+
+		// The Bouncy-Castle Crypto-Provider is needed for the RSA-encryption of the PublicIPNotifRequests
+		Security.addProvider(new BouncyCastleProvider());
+
+		// The server's certificate is pinned by its hash, so the server may be contacted by any name (e.g. "localhost")
+		HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
+			@Override
+			public boolean verify(String hostname, SSLSession session) {
+				return true;
+			}
+		});
+
+		LoadGenerator generator = new LoadGenerator(settings);
+		if (settings.getProperty("replay").length() > 0) {
+			generator.replay(settings.getProperty("replay"), Double.parseDouble(settings.getProperty("replaySpeed")));
+		} else {
+			generator.run();
+		}
+	}
+
+	/**
+	 * Read the remainder of an InputStream and close it
+	 * 
+	 * @param is The InputStream (may be null)
+	 * @return The bytes that were read
+	 * @throws IOException
+	 */
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream re = new ByteArrayOutputStream();
+		if (is != null) {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				re.write(buffer, 0, n);
+			}
+			is.close();
+		}
+		return re.toByteArray();
+	}
+
+	/**
+	 * Sleep until a point of time
+	 * 
+	 * @param nanos The System.nanoTime() until which to sleep
+	 * @throws InterruptedException
+	 */
+	public static void sleepUntil(long nanos) throws InterruptedException {
+		long delay = nanos - System.nanoTime();
+		if (delay > 0) {
+			TimeUnit.NANOSECONDS.sleep(delay);
+		}
+	}
+
+	// The settings of the load test
+	private final java.util.Properties settings;
+
+	// The certificate of the Crossbear-Server
+	private final X509Certificate serverCert;
+
+	// The SHA256-hash of the certificate of the Crossbear-Server
+	private final byte[] serverCertHash;
+
+	// The CBServerConnector that sends the requests to the HTTPS-pages (except the ones of the SimulatedHunters)
+	private final CBServerConnector connector;
+
+	// The threads that send the CertVerifyRequests, the PublicIPNotifRequests and the replayed requests
+	private final ExecutorService workers;
+
+	// The statistics of each page (key: path of the page)
+	private final ConcurrentHashMap<String, PageStatistics> statistics = new ConcurrentHashMap<String, PageStatistics>();
+
+	// The RequestLog to which the requests are recorded (null if they are not recorded)
+	private RequestLog requestLog;
+
+	// The System.nanoTime() at which the load test started
+	private long startNanos;
+
+	/**
+	 * Create a new LoadGenerator
+	 * 
+	 * @param settings The settings of the load test
+	 * @throws Exception
+	 */
+	public LoadGenerator(java.util.Properties settings) throws Exception {
+		this.settings = settings;
+		this.serverCert = CertificateManager.loadCertificateFromFile(settings.getProperty("serverCert"));
+		this.serverCertHash = CertificateManager.SHA256(serverCert.getEncoded());
+		this.connector = new CBServerConnector(settings.getProperty("server"), serverCertHash);
+		this.workers = Executors.newFixedThreadPool(getInt("threads"));
+	}
+
+	/**
+	 * @param key The name of a setting
+	 * @return The value of the setting as double
+	 */
+	private double getDouble(String key) {
+		return Double.parseDouble(settings.getProperty(key));
+	}
+
+	/**
+	 * @param key The name of a setting
+	 * @return The value of the setting as int
+	 */
+	private int getInt(String key) {
+		return Integer.parseInt(settings.getProperty(key));
+	}
+
+	/**
+	 * Append a request to the RequestLog (if the requests are recorded)
+	 * 
+	 * @param page The page that is requested (including its parameters)
+	 * @param body The body of the request or null for GET-requests
+	 * @param intendedStart The System.nanoTime() at which the request is supposed to be sent
+	 * @throws IOException
+	 */
+	void log(String page, byte[] body, long intendedStart) throws IOException {
+		if (requestLog != null) {
+			requestLog.write(TimeUnit.NANOSECONDS.toMillis(intendedStart - startNanos), page, body);
+		}
+	}
+
+	/**
+	 * Record the outcome of a request
+	 * 
+	 * @param page The page that was requested (including its parameters)
+	 * @param intendedStart The System.nanoTime() at which the request was supposed to be sent
+	 * @param success True if the request succeeded
+	 */
+	void record(String page, long intendedStart, boolean success) {
+		long latency = System.nanoTime() - intendedStart;
+
+		// Requests are grouped by page regardless of their parameters
+		int parameters = page.indexOf('?');
+		String path = (parameters >= 0) ? page.substring(0, parameters) : page;
+
+		// Get the statistics of the page (creating them if this is its first request)
+		PageStatistics stats = statistics.get(path);
+		if (stats == null) {
+			PageStatistics newStats = new PageStatistics();
+			stats = statistics.putIfAbsent(path, newStats);
+			if (stats == null) {
+				stats = newStats;
+			}
+		}
+
+		if (success) {
+			stats.latencies.record(TimeUnit.NANOSECONDS.toMicros(latency));
+		} else {
+			stats.errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Replay the requests of a RequestLog with their recorded timing and print the statistics
+	 * 
+	 * @param fileName The name of the file that contains the RequestLog
+	 * @param speed The speed of the replay (e.g. 2.0 sends the requests twice as fast as they were recorded)
+	 * @throws Exception
+	 */
+	public void replay(String fileName, double speed) throws Exception {
+		List<RequestLog.Entry> entries = RequestLog.read(fileName);
+		System.out.println("Replaying " + entries.size() + " requests from " + fileName);
+
+		startNanos = System.nanoTime();
+		for (final RequestLog.Entry entry : entries) {
+			final long intendedStart = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(entry.getOffset()) / speed);
+			sleepUntil(intendedStart);
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					send(entry.getPage(), entry.getBody(), intendedStart, false);
+				}
+			});
+		}
+
+		// Wait for the outstanding requests
+		workers.shutdown();
+		workers.awaitTermination(5, TimeUnit.MINUTES);
+		report();
+	}
+
+	/**
+	 * Print the statistics of all pages
+	 */
+	private void report() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		System.out.println(String.format("%-26s %9s %7s %9s %10s %10s %10s %10s %10s", "page", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Map.Entry<String, PageStatistics> entry : new TreeMap<String, PageStatistics>(statistics).entrySet()) {
+			LatencyHistogram latencies = entry.getValue().latencies;
+			System.out.println(String.format("%-26s %9d %7d %9.1f %10.1f %10.1f %10.1f %10.1f %10.1f", entry.getKey(), latencies.getTotal(), entry.getValue().errors.get(), latencies.getTotal() / seconds,
+					latencies.getPercentile(0.5) / 1000.0, latencies.getPercentile(0.9) / 1000.0, latencies.getPercentile(0.99) / 1000.0, latencies.getPercentile(0.999) / 1000.0, latencies.getMax() / 1000.0));
+		}
+	}
+
+	/**
+	 * Run the load test: Start the StandInTargets, the StandInNotary, the SimulatedHunters and the generation of CertVerifyRequests and PublicIPNotifRequests. Print the statistics when the load test
+	 * is over.
+	 * 
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+
+		// Start the stand-in servers
+		System.out.println("Generating the certificates of the StandInTargets");
+		final StandInTargets targets = new StandInTargets(InetAddress.getByName(settings.getProperty("targetAddress")), getInt("targetPort"), getInt("targets"), getInt("targetKeySize"));
+		targets.start();
+		StandInNotary notary = null;
+		if (getInt("notaryPort") > 0) {
+			notary = new StandInNotary(settings.getProperty("notaryHost"), getInt("notaryPort"), targets);
+			notary.start();
+			System.out.println("Register the StandInNotary in the Crossbear-database using: " + notary.getInsertStatement());
+		}
+
+		if (settings.getProperty("record").length() > 0) {
+			requestLog = new RequestLog(settings.getProperty("record"));
+		}
+
+		startNanos = System.nanoTime();
+		long end = startNanos + TimeUnit.SECONDS.toNanos(getInt("duration"));
+
+		// Start the hunters. Each of them uses a CBServerConnector of its own (like a real hunter would do).
+		Thread[] hunters = new Thread[getInt("hunters")];
+		for (int i = 0; i < hunters.length; i++) {
+			CBServerConnector hunterConnector = new CBServerConnector(settings.getProperty("server"), serverCertHash);
+			hunters[i] = new Thread(new SimulatedHunter(this, hunterConnector, targets, i, end, TimeUnit.SECONDS.toMillis(getInt("pollInterval")), getInt("batchSize")), "SimulatedHunter-" + i);
+			hunters[i].start();
+		}
+
+		// Generate the CertVerifyRequests
+		final ZipfDistribution hosts = new ZipfDistribution(getInt("hosts"), getDouble("zipfExponent"));
+		final double proxyRatio = getDouble("proxyRatio");
+		final double forgedRatio = getDouble("forgedRatio");
+		Thread cvrDispatcher = startDispatcher("CertVerifyRequests", getDouble("cvrRate"), end, new RequestSender() {
+			@Override
+			public void send(long intendedStart) throws Exception {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+
+				// Pick a host and the target that serves it
+				int rank = hosts.next(random);
+				int target = rank % targets.getCount();
+
+				// Build the request the way the Crossbear-Firefox-Plugin would do
+				CertVerifyRequest cvr = new CertVerifyRequest();
+				cvr.setOptions((random.nextDouble() < proxyRatio) ? 1 : 0);
+				cvr.setCertChain((random.nextDouble() < forgedRatio) ? targets.getForgedChain(target) : targets.getChain(target));
+				cvr.setHostName("site" + rank + "." + StandInTargets.getDomain(target));
+				cvr.setHostIP(targets.getAddress());
+				cvr.setHostPort(targets.getPort(target));
+
+				LoadGenerator.this.send("/verifyCert.jsp", cvr.getBytes(), intendedStart, true);
+			}
+		});
+
+		// Generate the PublicIPNotifRequests. The session tickets of the clients are stored in pipTickets.
+		final byte[][] pipTickets = new byte[getInt("pipClients")][];
+		final double resumptionRatio = getDouble("resumptionRatio");
+		Thread pipDispatcher = startDispatcher("PublicIPNotifRequests", getDouble("pipRate"), end, new RequestSender() {
+			@Override
+			public void send(long intendedStart) throws Exception {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+
+				// Pick a client
+				int client = random.nextInt(pipTickets.length);
+				byte[] ticket;
+				synchronized (pipTickets) {
+					ticket = pipTickets[client];
+				}
+
+				// If it has a session ticket: Present it (most of the time)
+				if (ticket != null && random.nextDouble() < resumptionRatio) {
+					byte[] nonce = new byte[PublicIPNotifRequest.NONCE_LENGTH];
+					random.nextBytes(nonce);
+					PublicIPNotifRequest pipReq = new PublicIPNotifRequest(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST);
+					pipReq.setTicket(ticket);
+					pipReq.setNonce(nonce);
+					LoadGenerator.this.send("/getPublicIP.jsp", pipReq.getBytes(), intendedStart, true);
+					return;
+				}
+
+				// Else: Send a RSA-encrypted AES-key (like the PIPFetcher does) and ask for a session ticket
+				byte[] aesKey = new byte[32];
+				random.nextBytes(aesKey);
+				Cipher rsaOAEPCipher = Cipher.getInstance("RSA/None/OAEPWithSHA1AndMGF1Padding", "BC");
+				rsaOAEPCipher.init(Cipher.ENCRYPT_MODE, serverCert.getPublicKey());
+				PublicIPNotifRequest pipReq = new PublicIPNotifRequest(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST);
+				pipReq.setRsaEncryptedKey(rsaOAEPCipher.doFinal(aesKey));
+				byte[] reply = LoadGenerator.this.send("/getPublicIP.jsp", pipReq.getBytes(), intendedStart, true);
+
+				// Remember the session ticket for the client's next requests
+				if (reply != null && reply.length > 3 && reply[0] == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_TICKET) {
+					int ticketMessageLength = Message.byteArrayToInt(Arrays.copyOfRange(reply, 1, 3));
+					if (ticketMessageLength > 3 && ticketMessageLength <= reply.length) {
+						PublicIPNotifSessionTicket sessionTicket = new PublicIPNotifSessionTicket(Arrays.copyOfRange(reply, 3, ticketMessageLength));
+						synchronized (pipTickets) {
+							pipTickets[client] = sessionTicket.getTicket();
+						}
+					}
+				}
+			}
+		});
+
+		// Wait until the load test is over and all requests have been answered
+		System.out.println("Running the load test for " + getInt("duration") + " seconds");
+		for (Thread t : hunters) {
+			t.join();
+		}
+		cvrDispatcher.join();
+		pipDispatcher.join();
+		workers.shutdown();
+		workers.awaitTermination(5, TimeUnit.MINUTES);
+
+		// Stop the stand-in servers and close the RequestLog
+		targets.stop();
+		if (notary != null) {
+			notary.stop();
+		}
+		if (requestLog != null) {
+			requestLog.close();
+		}
+
+		report();
+	}
+
+	/**
+	 * Send a request to a page of the Crossbear-Server and record its outcome. getPublicIP.jsp is contacted via HTTP on pipServer, all other pages via HTTPS on server.
+	 * 
+	 * @param page The page to request (including its parameters)
+	 * @param body The body of the request or null for GET-requests
+	 * @param intendedStart The System.nanoTime() at which the request was supposed to be sent
+	 * @param expectContent True if the page always replies with content when the request succeeded (verifyCert.jsp and getPublicIP.jsp reply with nothing if they fail)
+	 * @return The server's reply or null if the request failed
+	 */
+	byte[] send(String page, byte[] body, long intendedStart, boolean expectContent) {
+		byte[] reply = null;
+		try {
+			log(page, body, intendedStart);
+
+			HttpURLConnection conn;
+			if (page.startsWith("/getPublicIP.jsp")) {
+				conn = (HttpURLConnection) new URL("http://" + settings.getProperty("pipServer") + page).openConnection();
+			} else {
+				conn = connector.openConnection(page);
+			}
+			conn.setConnectTimeout(10000);
+			conn.setReadTimeout(60000);
+
+			// Send the body (if there is one)
+			if (body != null) {
+				conn.setDoOutput(true);
+				conn.setFixedLengthStreamingMode(body.length);
+				OutputStream out = conn.getOutputStream();
+				out.write(body);
+				out.close();
+			}
+
+			// Read the reply entirely (so the connection can be reused)
+			int responseCode = conn.getResponseCode();
+			byte[] content = readFully((responseCode >= 400) ? conn.getErrorStream() : conn.getInputStream());
+			if (responseCode < 400 && (!expectContent || content.length > 0)) {
+				reply = content;
+			}
+
+		} catch (IOException e) {
+			// The request failed
+		}
+
+		record(page, intendedStart, reply != null);
+		return reply;
+	}
+
+	/**
+	 * Start a thread that sends requests as a Poisson-process (i.e. with exponentially distributed intervals) until the end of the load test. The requests are sent by the worker threads.
+	 * 
+	 * @param name The name of the thread
+	 * @param rate The mean number of requests per second (the thread stops immediately if it is not positive)
+	 * @param end The System.nanoTime() at which the load test ends
+	 * @param sender The RequestSender that sends the requests
+	 * @return The started thread
+	 */
+	private Thread startDispatcher(String name, final double rate, final long end, final RequestSender sender) {
+		Thread dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long next = System.nanoTime();
+				try {
+					while (rate > 0) {
+
+						// Wait until the next request is due
+						next += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+						if (next >= end) {
+							break;
+						}
+						sleepUntil(next);
+
+						// Let a worker send it
+						final long intendedStart = next;
+						workers.execute(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									sender.send(intendedStart);
+								} catch (Exception e) {
+									e.printStackTrace();
+								}
+							}
+						});
+					}
+				} catch (InterruptedException e) {
+					// The load test was aborted
+				}
+			}
+		}, name);
+		dispatcher.start();
+		return dispatcher;
+	}
+
+}
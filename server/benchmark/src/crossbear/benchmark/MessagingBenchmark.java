@@ -0,0 +1,232 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import crossbear.CertificateManager;
+import crossbear.messaging.CertVerifyRequest;
+import crossbear.messaging.HuntingTask;
+import crossbear.messaging.HuntingTaskReplyKnownCertChain;
+import crossbear.messaging.HuntingTaskReplyNewCertChain;
+import crossbear.messaging.Message;
+import crossbear.messaging.MessageList;
+import crossbear.storage.SQLStorage;
+import crossbear.storage.Storage;
+
+/**
+ * Benchmark of the encoding and decoding of Crossbear-Messages and of the helper functions that are used by them. It measures
+ * - Message.getBytes for a single HuntingTask
+ * - MessageList.getBytes for lists of 10, 1000 and 10000 HuntingTasks
+ * - CertVerifyRequest.readFromStream and CertVerifyRequest.getHash
+ * - the decoding (including validation) of HuntingTaskReplyKnownCertChain- and HuntingTaskReplyNewCertChain-messages
+ * - Message.byteArrayToHexString (compared with the string concatenation that was used before), Message.hexStringToByteArray and Message.HMAC
+ *
+ * The messages contain synthetic certificates (cf. SyntheticCertificates). The database queries that the SQLStorage performs while decoding HuntingTaskReplies are answered by a StubConnection so the
+ * benchmark runs offline and only measures the messaging code. Creating the CertificateManager requires the JVM's cacerts-keystore; its password can be passed as first argument (default:
+ * "changeit").
+ */
+public class MessagingBenchmark {
+
+	/**
+	 * Get The Hex-String representation of a byte[] using string concatenation. This is the implementation that was used by Message.byteArrayToHexString before it was switched to a char[].
+	 *
+	 * @param b An array of Bytes signed or unsigned
+	 * @return The Hex-String representation of b
+	 */
+	private static String byteArrayToHexStringUsingConcatenation(byte[] b) {
+		String result = "";
+		for (int i = 0; i < b.length; i++) {
+			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+		}
+		return result;
+	}
+
+	/**
+	 * Create a HuntingTask-message for a target. Since HuntingTasks are usually read from the database it is created from its byte[]-representation.
+	 *
+	 * @param taskID The ID of the HuntingTask
+	 * @param knownChains The number of well known certificate chain hashes of the HuntingTask
+	 * @return The HuntingTask
+	 * @throws Exception
+	 */
+	private static HuntingTask createHuntingTask(int taskID, int knownChains) throws Exception {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		raw.write(Message.intToByteArray(taskID));
+		raw.write(knownChains);
+		for (int i = 0; i < knownChains; i++) {
+			raw.write(CertificateManager.SHA256(Message.intToByteArray(taskID * 256 + i)));
+		}
+		raw.write(new byte[] { 93, (byte) 184, (byte) (taskID >> 8), (byte) taskID });
+		raw.write(Message.intToByteArray(443), 2, 2);
+		raw.write(("www.site" + taskID + ".example.com").getBytes());
+		return new HuntingTask(raw.toByteArray(), 4);
+	}
+
+	/**
+	 * Strip the header (type and length) from the byte[]-representation of a Message. The result is what the constructors that decode Messages expect.
+	 *
+	 * @param message The Message
+	 * @return The content of the Message
+	 * @throws Exception
+	 */
+	private static byte[] getContent(Message message) throws Exception {
+		byte[] bytes = message.getBytes();
+		return Arrays.copyOfRange(bytes, 3, bytes.length);
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param args The password of the JVM's cacerts-keystore (optional)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String keystorePassword = (args.length > 0) ? args[0] : "changeit";
+
+		// Generate the certificate chain that is sent in the CertVerifyRequest and the HuntingTaskReplyNewCertChain
+		final X509Certificate[] chain = SyntheticCertificates.createChain("www.example.com", 3, 2048, 5, "SHA256WithRSAEncryption");
+		InetAddress targetIP = InetAddress.getByName("93.184.216.34");
+
+		/*
+		 * Message.getBytes and MessageList.getBytes
+		 */
+		final HuntingTask task = createHuntingTask(1, 3);
+		MicroBenchmark.measure("Message.getBytes HuntingTask", new BenchmarkOperation() {
+			@Override
+			public Object execute() throws Exception {
+				return task.getBytes();
+			}
+		});
+		for (int size : new int[] { 10, 1000, 10000 }) {
+			final MessageList list = new MessageList();
+			for (int i = 0; i < size; i++) {
+				list.add(createHuntingTask(i, i % 4));
+			}
+			MicroBenchmark.measure("MessageList.getBytes " + size + " HuntingTasks", new BenchmarkOperation() {
+				@Override
+				public Object execute() throws Exception {
+					return list.getBytes();
+				}
+			});
+		}
+
+		/*
+		 * CertVerifyRequest.readFromStream and CertVerifyRequest.getHash
+		 */
+		CertVerifyRequest request = new CertVerifyRequest();
+		request.setOptions(0);
+		request.setCertChain(chain);
+		request.setHostName("www.example.com");
+		request.setHostIP(targetIP);
+		request.setHostPort(443);
+		final byte[] requestBytes = request.getBytes();
+		MicroBenchmark.measure("CertVerifyRequest.readFromStream", new BenchmarkOperation() {
+			@Override
+			public Object execute() throws Exception {
+				return CertVerifyRequest.readFromStream(new ByteArrayInputStream(requestBytes), "10.0.0.1", "10.0.0.2");
+			}
+		});
+		final CertVerifyRequest parsedRequest = CertVerifyRequest.readFromStream(new ByteArrayInputStream(requestBytes), "10.0.0.1", "10.0.0.2");
+		MicroBenchmark.measure("CertVerifyRequest.getHash", new BenchmarkOperation() {
+			@Override
+			public Object execute() throws Exception {
+				return parsedRequest.getHash();
+			}
+		});
+
+		/*
+		 * Decoding of HuntingTaskReplies (the database is replaced by a StubConnection)
+		 */
+		byte[] hMacKey = new byte[32];
+		new SecureRandom().nextBytes(hMacKey);
+		String observerIP = "10.20.30.40";
+		byte[] pubIPHmac = Message.HMAC(InetAddress.getByName(observerIP).getAddress(), hMacKey);
+		String trace = observerIP + "\n192.168.0.1\n10.0.0.1|10.0.0.2\n172.16.5.9\n" + targetIP.getHostAddress();
+		byte[] chainHash = CertificateManager.SHA256(chain[0].getEncoded());
+
+		StubConnection con = new StubConnection();
+		con.addResult("SELECT * FROM HuntingTasks WHERE Id = ?", new String[] { "Active", "TargetHostName", "TargetPort", "TargetIP" }, new Object[] { true, "www.example.com", 443,
+				targetIP.getHostAddress() });
+		con.addResult("SELECT Key FROM PublicIPHMacKeys WHERE ValidUntil > ?", new String[] { "Key" }, new Object[] { new byte[32] }, new Object[] { hMacKey });
+		con.addResult("SELECT sc.Id FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash = ? LIMIT 1", new String[] { "Id" },
+				new Object[] { 42L });
+		final Storage storage = new SQLStorage(con.getDatabase());
+		final CertificateManager cm = new CertificateManager(null, 0, keystorePassword);
+
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		final byte[] knownCertChainReply = getContent(new HuntingTaskReplyKnownCertChain(1, now, pubIPHmac, chainHash, trace));
+		final byte[] newCertChainReply = getContent(new HuntingTaskReplyNewCertChain(1, now, pubIPHmac, chain, trace));
+		MicroBenchmark.measure("HuntingTaskReplyKnownCertChain decoding", new BenchmarkOperation() {
+			@Override
+			public Object execute() throws Exception {
+				return new HuntingTaskReplyKnownCertChain(knownCertChainReply, storage);
+			}
+		});
+		MicroBenchmark.measure("HuntingTaskReplyNewCertChain decoding", new BenchmarkOperation() {
+			@Override
+			public Object execute() throws Exception {
+				return new HuntingTaskReplyNewCertChain(newCertChainReply, cm, storage);
+			}
+		});
+
+		/*
+		 * Helper functions
+		 */
+		final byte[] hash = CertificateManager.SHA256(requestBytes);
+		final String hashHex = Message.byteArrayToHexString(hash);
+		if (!hashHex.equals(byteArrayToHexStringUsingConcatenation(hash))) {
+			throw new IllegalStateException("The Hex-String implementations disagree");
+		}
+		MicroBenchmark.measure("byteArrayToHexString (concatenation) 32 bytes", new BenchmarkOperation() {
+			@Override
+			public Object execute() {
+				return byteArrayToHexStringUsingConcatenation(hash);
+			}
+		});
+		MicroBenchmark.measure("Message.byteArrayToHexString 32 bytes", new BenchmarkOperation() {
+			@Override
+			public Object execute() {
+				return Message.byteArrayToHexString(hash);
+			}
+		});
+		MicroBenchmark.measure("Message.hexStringToByteArray 32 bytes", new BenchmarkOperation() {
+			@Override
+			public Object execute() {
+				return Message.hexStringToByteArray(hashHex);
+			}
+		});
+		final byte[] ipBytes = InetAddress.getByName(observerIP).getAddress();
+		final byte[] key = hMacKey;
+		MicroBenchmark.measure("Message.HMAC IPv4 address", new BenchmarkOperation() {
+			@Override
+			public Object execute() throws Exception {
+				return Message.HMAC(ipBytes, key);
+			}
+		});
+	}
+
+}
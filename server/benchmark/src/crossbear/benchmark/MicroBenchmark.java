@@ -0,0 +1,121 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The MicroBenchmark-class measures the average execution time of a BenchmarkOperation. Each measurement consists of a warmup phase (to give the JIT the chance to compile the operation) followed by
+ * several measurement rounds. For each round the number of executed operations and the elapsed time are recorded. The result is printed as one line per operation containing
+ * - the mean time per operation in nanoseconds
+ * - the fastest round's time per operation in nanoseconds
+ * - the number of allocated bytes per operation (if the JVM supports measuring it)
+ *
+ * The benchmarks are meant to be run from the command line (e.g. "java -cp bin:../fourhundredfourtythree/build/classes:bcprov-jdk16-146.jar crossbear.benchmark.DomainMatchBenchmark") on an
+ * otherwise idle machine.
+ */
+public class MicroBenchmark {
+
+	// The time in milliseconds that the operation is executed before the measurement starts
+	private static final long warmupMillis = 1000;
+
+	// The time in milliseconds of each measurement round
+	private static final long roundMillis = 500;
+
+	// The number of measurement rounds
+	private static final int rounds = 5;
+
+	// Sink for the results of the operations. Writing to it prevents the JIT from eliminating the measured code.
+	private static volatile int sink;
+
+	/**
+	 * Get the number of bytes that have been allocated by the current thread so far
+	 *
+	 * @return The number of allocated bytes or -1 if the JVM doesn't support measuring it
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Measure the execution time of a BenchmarkOperation and print the result
+	 *
+	 * @param name The name of the operation that is printed along with the result
+	 * @param op The operation to measure
+	 * @throws Exception
+	 */
+	public static void measure(String name, BenchmarkOperation op) throws Exception {
+
+		// Warmup: Execute the operation until the warmup period is over
+		runFor(op, warmupMillis * 1000000);
+
+		// Measure: Execute several rounds and remember the total and the best result
+		long totalOps = 0;
+		long totalNanos = 0;
+		double bestNanosPerOp = Double.MAX_VALUE;
+		long allocatedBefore = getAllocatedBytes();
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			long ops = runFor(op, roundMillis * 1000000);
+			long elapsed = System.nanoTime() - start;
+
+			totalOps += ops;
+			totalNanos += elapsed;
+			bestNanosPerOp = Math.min(bestNanosPerOp, (double) elapsed / ops);
+		}
+		long allocatedAfter = getAllocatedBytes();
+
+		// Print the result
+		String allocation = (allocatedBefore < 0) ? "n/a" : String.valueOf((allocatedAfter - allocatedBefore) / totalOps);
+		System.out.println(String.format("%-60s %14.1f ns/op (best %14.1f) %10s B/op", name, (double) totalNanos / totalOps, bestNanosPerOp, allocation));
+	}
+
+	/**
+	 * Execute an operation until a period of time has passed
+	 *
+	 * @param op The operation to execute
+	 * @param nanos The period of time in nanoseconds
+	 * @return The number of times the operation was executed
+	 * @throws Exception
+	 */
+	private static long runFor(BenchmarkOperation op, long nanos) throws Exception {
+		long end = System.nanoTime() + nanos;
+		long ops = 0;
+		int localSink = 0;
+
+		// Check the time only every few executions to keep the overhead for fast operations low
+		do {
+			for (int i = 0; i < 16; i++) {
+				Object result = op.execute();
+				localSink += (result == null) ? 0 : result.hashCode();
+			}
+			ops += 16;
+		} while (System.nanoTime() < end);
+
+		sink += localSink;
+		return ops;
+	}
+
+}
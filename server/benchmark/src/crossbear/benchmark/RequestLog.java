@@ -0,0 +1,171 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A RequestLog records the requests that the LoadGenerator sends to the Crossbear-Server so that exactly the same load can be replayed later (e.g. to compare two versions of the server).
+ * 
+ * The log is a binary file. Each entry consists of
+ * - the time in milliseconds at which the request was sent relative to the start of the load test (8 bytes)
+ * - the page that was requested (e.g. "/verifyCert.jsp") in modified UTF-8 (cf. DataOutputStream.writeUTF)
+ * - the length of the request's body or -1 for GET-requests (4 bytes)
+ * - the request's body
+ */
+public class RequestLog {
+
+	/**
+	 * A request that was read from a RequestLog
+	 */
+	public static class Entry {
+
+		// The time in milliseconds at which the request was sent relative to the start of the load test
+		private final long offset;
+
+		// The page that was requested
+		private final String page;
+
+		// The body of the request or null for GET-requests
+		private final byte[] body;
+
+		/**
+		 * Create a new Entry
+		 * 
+		 * @param offset The time in milliseconds at which the request was sent relative to the start of the load test
+		 * @param page The page that was requested
+		 * @param body The body of the request or null for GET-requests
+		 */
+		public Entry(long offset, String page, byte[] body) {
+			this.offset = offset;
+			this.page = page;
+			this.body = body;
+		}
+
+		/**
+		 * @return The body of the request or null for GET-requests
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * @return The time in milliseconds at which the request was sent relative to the start of the load test
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return The page that was requested
+		 */
+		public String getPage() {
+			return page;
+		}
+	}
+
+	/**
+	 * Read all requests of a RequestLog
+	 * 
+	 * @param fileName The name of the file that contains the RequestLog
+	 * @return The requests in the order in which they were recorded
+	 * @throws IOException
+	 */
+	public static List<Entry> read(String fileName) throws IOException {
+		List<Entry> re = new LinkedList<Entry>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		try {
+			while (true) {
+
+				// Read the offset of the next entry. If there is none the end of the log has been reached.
+				long offset;
+				try {
+					offset = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+
+				// Read the remainder of the entry
+				String page = in.readUTF();
+				int length = in.readInt();
+				byte[] body = null;
+				if (length >= 0) {
+					body = new byte[length];
+					in.readFully(body);
+				}
+
+				re.add(new Entry(offset, page, body));
+			}
+		} finally {
+			in.close();
+		}
+		return re;
+	}
+
+	// The stream to which the requests are written
+	private final DataOutputStream out;
+
+	/**
+	 * Create a new RequestLog. If the file already exists it will be overwritten.
+	 * 
+	 * @param fileName The name of the file to write the RequestLog to
+	 * @throws IOException
+	 */
+	public RequestLog(String fileName) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+	}
+
+	/**
+	 * Flush and close the RequestLog
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Append a request to the RequestLog
+	 * 
+	 * @param offset The time in milliseconds at which the request was sent relative to the start of the load test
+	 * @param page The page that was requested
+	 * @param body The body of the request or null for GET-requests
+	 * @throws IOException
+	 */
+	public synchronized void write(long offset, String page, byte[] body) throws IOException {
+		out.writeLong(offset);
+		out.writeUTF(page);
+		out.writeInt((body == null) ? -1 : body.length);
+		if (body != null) {
+			out.write(body);
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import crossbear.CBServerConnector;
+import crossbear.CertificateDerivatives;
+import crossbear.CertificateManager;
+import crossbear.HTLFetcher;
+import crossbear.messaging.CurrentServerTime;
+import crossbear.messaging.HuntingTask;
+import crossbear.messaging.HuntingTaskReply;
+import crossbear.messaging.HuntingTaskReplyKnownCertChain;
+import crossbear.messaging.HuntingTaskReplyNewCertChain;
+import crossbear.messaging.Message;
+import crossbear.messaging.PublicIPNotification;
+
+/**
+ * A SimulatedHunter behaves like a JavaHunter in daemon mode as far as the Crossbear-Server can tell: It polls the HuntingTask-List (using a HTLFetcher, i.e. conditionally and asking for deltas),
+ * executes each HuntingTask once and uploads the HuntingTaskReplies in batches to reportHTResults.jsp.
+ * 
+ * Executing a HuntingTask is simulated: Instead of contacting the target and performing a traceroute the SimulatedHunter takes the certificate chain that the StandInTarget serves and a synthetic
+ * trace leading from the hunter's public IP over two documentation-IPs (RFC 5737) to the target. HuntingTasks whose targets are not StandInTargets are skipped.
+ */
+public class SimulatedHunter implements Runnable {
+
+	/**
+	 * Calculate the hash of a certificate chain in the same way as the JavaHunter does (i.e. the hash that is compared with the already known certificate chain hashes of a HuntingTask)
+	 * 
+	 * @param certChain The certificate chain (starting with the server certificate)
+	 * @return The SHA256-hash of the concatenation of the server certificate's SHA256-hash and the MD5-hashes of the chain certificates
+	 * @throws Exception
+	 */
+	private static byte[] calculateCertChainHash(X509Certificate[] certChain) throws Exception {
+		LinkedList<X509Certificate> chainCerts = new LinkedList<X509Certificate>(Arrays.asList(certChain).subList(1, certChain.length));
+		String serverCertHash = CertificateDerivatives.get(certChain[0]).getSHA256Hex();
+		return CertificateManager.SHA256(Message.hexStringToByteArray(serverCertHash + CertificateManager.getCertChainMD5(chainCerts)));
+	}
+
+	// The LoadGenerator that sends the uploads and records the statistics
+	private final LoadGenerator generator;
+
+	// The HTLFetcher that polls the HuntingTask-List
+	private final HTLFetcher htlFetcher;
+
+	// The targets whose certificate chains are reported
+	private final StandInTargets targets;
+
+	// The System.nanoTime() at which the hunter stops
+	private final long end;
+
+	// The time in milliseconds between two polls of the HuntingTask-List (randomly shifted by up to 50%)
+	private final long pollInterval;
+
+	// The maximal number of HuntingTaskReplies that are uploaded in one request
+	private final int batchSize;
+
+	// The part of the synthetic traces between the hunter's public IP and the target
+	private final String hops;
+
+	// The IDs of the HuntingTasks that have already been executed
+	private final Set<Integer> executedTasks = new HashSet<Integer>();
+
+	// Source of the randomness of the poll intervals
+	private final Random random = new Random();
+
+	/**
+	 * Create a new SimulatedHunter
+	 * 
+	 * @param generator The LoadGenerator that sends the uploads and records the statistics
+	 * @param cbServerConnector The CBServerConnector that is used to poll the HuntingTask-List (each hunter should use one of its own)
+	 * @param targets The targets whose certificate chains are reported
+	 * @param index The index of the hunter (determines its synthetic traces)
+	 * @param end The System.nanoTime() at which the hunter stops
+	 * @param pollInterval The time in milliseconds between two polls of the HuntingTask-List
+	 * @param batchSize The maximal number of HuntingTaskReplies that are uploaded in one request
+	 */
+	public SimulatedHunter(LoadGenerator generator, CBServerConnector cbServerConnector, StandInTargets targets, int index, long end, long pollInterval, int batchSize) {
+		this.generator = generator;
+		this.htlFetcher = new HTLFetcher(cbServerConnector);
+		this.targets = targets;
+		this.end = end;
+		this.pollInterval = pollInterval;
+		this.batchSize = batchSize;
+		this.hops = "198.51.100." + (index % 254 + 1) + "\n203.0.113." + (index / 254 % 254 + 1);
+	}
+
+	/**
+	 * Simulate the execution of a HuntingTask
+	 * 
+	 * @param task The HuntingTask
+	 * @param pip The most recent PublicIPNotification that was received from the server
+	 * @param cst The most recent CurrentServerTime that was received from the server
+	 * @return The HuntingTaskReply or null if the target of the HuntingTask is not a StandInTarget
+	 * @throws Exception
+	 */
+	private HuntingTaskReply execute(HuntingTask task, PublicIPNotification pip, CurrentServerTime cst) throws Exception {
+
+		// Only the StandInTargets are known
+		int index = targets.getIndex(task.getTargetPort());
+		if (index < 0 || !targets.getAddress().equals(task.getTargetIP())) {
+			return null;
+		}
+
+		// Check if the target's certificate chain is already well known
+		X509Certificate[] chain = targets.getChain(index);
+		byte[] chainHash = calculateCertChainHash(chain);
+		boolean chainIsKnown = false;
+		for (byte[] knownHash : task.getAlreadyKnownCertChainHashes()) {
+			if (Arrays.equals(chainHash, knownHash)) {
+				chainIsKnown = true;
+				break;
+			}
+		}
+
+		// Build the reply like the JavaHunter does
+		String trace = pip.getPublicIP().getHostAddress() + "\n" + hops + "\n" + task.getTargetIP().getHostAddress();
+		if (chainIsKnown) {
+			return new HuntingTaskReplyKnownCertChain(task.getTaskID(), cst.getCurrentServerTime(), pip.gethMac(), chainHash, trace);
+		} else {
+			return new HuntingTaskReplyNewCertChain(task.getTaskID(), cst.getCurrentServerTime(), pip.gethMac(), chain, trace);
+		}
+	}
+
+	/**
+	 * Poll the HuntingTask-List, execute the new HuntingTasks and upload their replies
+	 * 
+	 * @throws Exception
+	 */
+	private void hunt() throws Exception {
+
+		// Poll the HuntingTask-List (the request is recorded but it can't be replayed as a conditional request)
+		long start = System.nanoTime();
+		generator.log("/getHuntingTaskList.jsp", null, start);
+		List<Message> htl;
+		try {
+			htl = htlFetcher.getHTLFromServer("4");
+			generator.record("/getHuntingTaskList.jsp", start, true);
+		} catch (IOException e) {
+			generator.record("/getHuntingTaskList.jsp", start, false);
+			htlFetcher.forgetLastHTL();
+			return;
+		}
+
+		// The HuntingTask-List didn't change
+		if (htl == null) {
+			return;
+		}
+
+		// Find the PublicIPNotification and the CurrentServerTime ...
+		PublicIPNotification pip = null;
+		CurrentServerTime cst = null;
+		for (Message m : htl) {
+			if (m.getType() == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF4) {
+				pip = (PublicIPNotification) m;
+			} else if (m.getType() == Message.MESSAGE_TYPE_CURRENT_SERVER_TIME) {
+				cst = (CurrentServerTime) m;
+			}
+		}
+		if (pip == null || cst == null) {
+			return;
+		}
+
+		// ... and execute all HuntingTasks that haven't been executed yet
+		List<byte[]> replies = new LinkedList<byte[]>();
+		for (Message m : htl) {
+			if (m.getType() != Message.MESSAGE_TYPE_IPV4_SHA256_TASK || !executedTasks.add(((HuntingTask) m).getTaskID())) {
+				continue;
+			}
+			HuntingTaskReply reply = execute((HuntingTask) m, pip, cst);
+			if (reply != null) {
+				replies.add(reply.getBytes());
+			}
+		}
+
+		// Upload the replies in batches
+		while (!replies.isEmpty()) {
+			ByteArrayOutputStream batch = new ByteArrayOutputStream();
+			for (int i = 0; i < batchSize && !replies.isEmpty(); i++) {
+				batch.write(replies.remove(0));
+			}
+			generator.send("/reportHTResults.jsp", batch.toByteArray(), System.nanoTime(), false);
+		}
+	}
+
+	/**
+	 * Keep on hunting until the end of the load test
+	 */
+	@Override
+	public void run() {
+		try {
+
+			// Start at a random point of time so the hunters don't poll in lockstep
+			LoadGenerator.sleepUntil(System.nanoTime() + (long) (random.nextDouble() * pollInterval) * 1000000);
+
+			while (System.nanoTime() < end) {
+				hunt();
+				LoadGenerator.sleepUntil(Math.min(end, System.nanoTime() + (long) ((0.5 + random.nextDouble()) * pollInterval) * 1000000));
+			}
+
+		} catch (InterruptedException e) {
+			// The load test was aborted
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
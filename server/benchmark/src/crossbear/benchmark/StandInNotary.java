@@ -0,0 +1,195 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import crossbear.CertificateDerivatives;
+
+/**
+ * The StandInNotary is a local HTTPS-server that takes the place of a Convergence Notary (cf. ConvergenceConnector) during load tests. It answers each query like a Notary that has never observed the
+ * fingerprint it was sent: With "409 Conflict" and a JSON-encoded list of the fingerprints it observed for the queried host. For hosts of the StandInTargets that list contains the fingerprint of the
+ * certificate that is actually served by the target (observed since 90 days). For all other hosts it is empty.
+ * 
+ * In order to be queried by the Crossbear-Server the StandInNotary has to be added to the ConvergenceNotaries-table (cf. getInsertStatement).
+ */
+public class StandInNotary implements HttpHandler {
+
+	// The password that protects the private key of the Notary (it is only kept in memory)
+	private static final char[] keyPassword = "loadtest".toCharArray();
+
+	// The time in seconds since which the Notary pretends to have observed the certificates of the StandInTargets
+	private static final long observedSince = 90L * 24 * 60 * 60;
+
+	/**
+	 * Get the Convergence-representation of a SHA1-fingerprint
+	 * 
+	 * @param sha1Hex The SHA1-fingerprint in Hex-String representation (e.g. "56f6a9")
+	 * @return The fingerprint in the representation used by Convergence (e.g. "56:F6:A9")
+	 */
+	private static String toConvergenceFingerprint(String sha1Hex) {
+		StringBuilder re = new StringBuilder(sha1Hex.length() * 3 / 2);
+		for (int i = 0; i < sha1Hex.length(); i += 2) {
+			if (i > 0) {
+				re.append(':');
+			}
+			re.append(sha1Hex, i, i + 2);
+		}
+		return re.toString().toUpperCase();
+	}
+
+	// The certificate of the Notary
+	private final X509Certificate cert;
+
+	// The threads that answer the queries
+	private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	// The host and port under which the Notary can be reached (e.g. "localhost:10000")
+	private final String hostPort;
+
+	// The HTTPS-server that receives the queries
+	private final HttpsServer server;
+
+	// The targets whose certificates the Notary has observed
+	private final StandInTargets targets;
+
+	/**
+	 * Generate the certificate of the Notary and open its HTTPS-server
+	 * 
+	 * @param host The name under which the Crossbear-Server reaches the Notary (e.g. "localhost"). It will be the CN of the Notary's certificate.
+	 * @param port The port on which the Notary listens
+	 * @param targets The targets whose certificates the Notary has observed
+	 * @throws Exception
+	 */
+	public StandInNotary(String host, int port, StandInTargets targets) throws Exception {
+		this.hostPort = host + ":" + port;
+		this.targets = targets;
+
+		// The Notary uses a self-signed certificate. The Crossbear-Server doesn't validate it but compares its hash with the one stored in the ConvergenceNotaries-table.
+		KeyStore keyStore = SyntheticCertificates.createKeyStore(host, 1, 2048, 1, "SHA256WithRSAEncryption", keyPassword);
+		this.cert = (X509Certificate) keyStore.getCertificate("server");
+
+		server = HttpsServer.create(new InetSocketAddress(port), 50);
+		server.setHttpsConfigurator(new HttpsConfigurator(SyntheticCertificates.createSSLContext(keyStore, keyPassword)));
+		server.createContext("/target/", this);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * Get the SQL-statement that makes the Crossbear-Server query this Notary
+	 * 
+	 * @return An INSERT-statement for the ConvergenceNotaries-table
+	 * @throws Exception
+	 */
+	public String getInsertStatement() throws Exception {
+		return "INSERT INTO ConvergenceNotaries(HostPort, CertID) VALUES ('" + hostPort + "', '" + CertificateDerivatives.get(cert).getSHA256Hex() + "');";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.sun.net.httpserver.HttpHandler#handle(com.sun.net.httpserver.HttpExchange)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+
+			// Read the request (i.e. the fingerprint that the Crossbear-Server claims to have observed) entirely
+			InputStream in = exchange.getRequestBody();
+			while (in.read() != -1) {
+			}
+
+			// The queried host is part of the path: "/target/<host>+<port>"
+			String target = exchange.getRequestURI().getPath().substring("/target/".length());
+			int index = -1;
+			int separator = target.lastIndexOf('+');
+			if (separator > 0) {
+				try {
+					index = targets.getIndex(Integer.parseInt(target.substring(separator + 1)));
+				} catch (NumberFormatException e) {
+				}
+			}
+
+			// List the observations of the target's certificate (if it is one of the StandInTargets)
+			JSONArray fingerprintList = new JSONArray();
+			if (index >= 0) {
+				long now = System.currentTimeMillis() / 1000;
+				JSONObject timestamp = new JSONObject();
+				timestamp.put("start", String.valueOf(now - observedSince));
+				timestamp.put("finish", String.valueOf(now));
+
+				JSONObject entry = new JSONObject();
+				entry.put("timestamp", timestamp);
+				entry.put("fingerprint", toConvergenceFingerprint(CertificateDerivatives.get(targets.getChain(index)[0]).getSHA1Hex()));
+				fingerprintList.add(entry);
+			}
+			JSONObject reply = new JSONObject();
+			reply.put("fingerprintList", fingerprintList);
+
+			// Send the reply with the status code that Convergence uses for fingerprints it has never observed
+			byte[] body = reply.toJSONString().getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(409, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Start answering queries
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop answering queries
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,231 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * The StandInTargets are local TLS-servers that take the place of the servers whose certificates are verified by Crossbear. They allow load tests without contacting servers on the internet.
+ * 
+ * Each target listens on a port of its own (firstPort, firstPort+1, ...) and serves a synthetic certificate chain of length three whose server certificate is issued for "*.t<index>.loadtest". A
+ * target only performs the TLS-handshake and closes the connection afterwards since that is all the Crossbear-Server and the Hunters do when they fetch a certificate chain. For each target there is
+ * a second, forged chain for the same name that can be used to simulate a Man-in-the-middle.
+ */
+public class StandInTargets {
+
+	// The password that protects the private keys of the targets (they are only kept in memory)
+	private static final char[] keyPassword = "loadtest".toCharArray();
+
+	// The time in milliseconds after which a handshake is aborted
+	private static final int handshakeTimeout = 10000;
+
+	/**
+	 * Get the domain of a target. All hosts of the domain (e.g. "site1.t0.loadtest") are served by the target.
+	 * 
+	 * @param index The index of the target
+	 * @return The domain of the target (e.g. "t0.loadtest")
+	 */
+	public static String getDomain(int index) {
+		return "t" + index + ".loadtest";
+	}
+
+	// The IP-address on which the targets listen
+	private final InetAddress address;
+
+	// The port of the first target
+	private final int firstPort;
+
+	// The certificate chains that are served by the targets
+	private final X509Certificate[][] chains;
+
+	// The forged certificate chains of the targets
+	private final X509Certificate[][] forgedChains;
+
+	// The server sockets of the targets
+	private final SSLServerSocket[] serverSockets;
+
+	// The threads that perform the handshakes
+	private final ExecutorService handshakeThreads;
+
+	/**
+	 * Generate the certificate chains of the targets and open their server sockets
+	 * 
+	 * @param address The IP-address on which the targets listen
+	 * @param firstPort The port of the first target
+	 * @param count The number of targets
+	 * @param keySize The length of the RSA keys of the certificates in bits
+	 * @throws Exception
+	 */
+	public StandInTargets(InetAddress address, int firstPort, int count, int keySize) throws Exception {
+		this.address = address;
+		this.firstPort = firstPort;
+		this.chains = new X509Certificate[count][];
+		this.forgedChains = new X509Certificate[count][];
+		this.serverSockets = new SSLServerSocket[count];
+
+		for (int i = 0; i < count; i++) {
+			String name = "*." + getDomain(i);
+
+			// Generate the chain that is served by the target along with its private key ...
+			KeyStore keyStore = SyntheticCertificates.createKeyStore(name, 3, keySize, 1, "SHA256WithRSAEncryption", keyPassword);
+			Certificate[] chain = keyStore.getCertificateChain("server");
+			chains[i] = Arrays.copyOf(chain, chain.length, X509Certificate[].class);
+
+			// ... and a chain that looks similar but was issued by somebody else
+			forgedChains[i] = SyntheticCertificates.createChain(name, 3, keySize, 1, "SHA256WithRSAEncryption");
+
+			// Open the target's server socket
+			serverSockets[i] = (SSLServerSocket) SyntheticCertificates.createSSLContext(keyStore, keyPassword).getServerSocketFactory().createServerSocket(firstPort + i, 50, address);
+		}
+
+		// The handshakes are performed by daemon threads so they don't keep the JVM alive
+		handshakeThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "StandInTarget");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Perform the TLS-handshake on a connection and close it afterwards
+	 * 
+	 * @param sock The connection
+	 */
+	private void handshake(SSLSocket sock) {
+		try {
+			sock.setSoTimeout(handshakeTimeout);
+			sock.startHandshake();
+		} catch (IOException e) {
+			// Clients that abort the handshake (e.g. because they don't trust the certificate) are expected
+		} finally {
+			try {
+				sock.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * @return The IP-address on which the targets listen
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @param index The index of a target
+	 * @return The certificate chain that is served by the target (starting with the server certificate)
+	 */
+	public X509Certificate[] getChain(int index) {
+		return chains[index];
+	}
+
+	/**
+	 * @return The number of targets
+	 */
+	public int getCount() {
+		return chains.length;
+	}
+
+	/**
+	 * @param index The index of a target
+	 * @return A forged certificate chain for the target's domain that is not served by the target
+	 */
+	public X509Certificate[] getForgedChain(int index) {
+		return forgedChains[index];
+	}
+
+	/**
+	 * Get the index of the target that listens on a port
+	 * 
+	 * @param port The port
+	 * @return The index of the target or -1 if no target listens on that port
+	 */
+	public int getIndex(int port) {
+		int index = port - firstPort;
+		return (index >= 0 && index < chains.length) ? index : -1;
+	}
+
+	/**
+	 * @param index The index of a target
+	 * @return The port on which the target listens
+	 */
+	public int getPort(int index) {
+		return firstPort + index;
+	}
+
+	/**
+	 * Start accepting connections on all targets. Each target is served by a daemon thread of its own.
+	 */
+	public void start() {
+		for (final SSLServerSocket serverSocket : serverSockets) {
+			Thread acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							final Socket sock = serverSocket.accept();
+							handshakeThreads.execute(new Runnable() {
+								@Override
+								public void run() {
+									handshake((SSLSocket) sock);
+								}
+							});
+						}
+					} catch (IOException e) {
+						// The server socket was closed: Stop accepting connections
+					}
+				}
+			}, "StandInTarget:" + serverSocket.getLocalPort());
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+	}
+
+	/**
+	 * Close the server sockets of all targets
+	 */
+	public void stop() {
+		for (SSLServerSocket serverSocket : serverSockets) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+			}
+		}
+		handshakeThreads.shutdownNow();
+	}
+
+}
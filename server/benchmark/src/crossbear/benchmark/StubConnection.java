@@ -0,0 +1,199 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import crossbear.Database;
+
+/**
+ * A StubConnection is a minimal in-process stand-in for the JDBC connection to the Crossbear database. Instead of executing SQL-statements it answers each query with the rows that have been
+ * registered for the statement using addResult. Updates and inserts are ignored.
+ * 
+ * It is used by benchmarks that measure code which reads from the database as a side effect (e.g. the decoding of HuntingTaskReplies) without measuring the database itself.
+ * 
+ * Please note: Only the subset of the JDBC-API that is used by the Database-class and the ResultSet-getters that take a column label are supported.
+ */
+public class StubConnection implements InvocationHandler {
+
+	/**
+	 * Get the value that a stubbed method returns if there is nothing meaningful to return
+	 * 
+	 * @param type The return type of the method
+	 * @return null, false or 0 depending on "type"
+	 */
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+	/**
+	 * Create a dynamic proxy that implements a JDBC-interface
+	 * 
+	 * @param type The interface to implement
+	 * @param handler The InvocationHandler that implements the interface's methods
+	 * @return The proxy
+	 */
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(StubConnection.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	// The rows that are returned for each registered SQL-statement. The first row contains the column labels.
+	private final Map<String, Object[][]> results = new HashMap<String, Object[][]>();
+
+	/**
+	 * Register the rows that are returned when a SQL-statement is queried
+	 * 
+	 * @param sqlstmt The SQL-statement exactly as it is passed to Database.executeQuery
+	 * @param columns The labels of the columns of the result
+	 * @param rows The rows of the result (each containing one value per column)
+	 */
+	public void addResult(String sqlstmt, String[] columns, Object[]... rows) {
+		Object[][] result = new Object[rows.length + 1][];
+		result[0] = columns;
+		System.arraycopy(rows, 0, result, 1, rows.length);
+		results.put(sqlstmt, result);
+	}
+
+	/**
+	 * @return A new Database-object that uses this StubConnection
+	 */
+	public Database getDatabase() {
+		return new Database(proxy(Connection.class, this));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+	 */
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+		// All statements are prepared statements that know the rows they will return
+		if (method.getName().equals("prepareStatement")) {
+			final Object[][] result = results.get(args[0]);
+			final String sqlstmt = (String) args[0];
+			return proxy(PreparedStatement.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("executeQuery")) {
+						if (result == null) {
+							throw new SQLException("No result has been registered for " + sqlstmt);
+						}
+						return proxy(ResultSet.class, new StubResultSet(result));
+					} else if (method.getName().equals("executeUpdate")) {
+						return 1;
+					}
+					return defaultValue(method.getReturnType());
+				}
+			});
+		}
+
+		// Everything else (e.g. commit or setAutoCommit) is a no-op
+		return defaultValue(method.getReturnType());
+	}
+
+	/**
+	 * A StubResultSet implements the ResultSet-interface for a fixed set of rows
+	 */
+	private static class StubResultSet implements InvocationHandler {
+
+		// The rows of the result. The first row contains the column labels.
+		private final Object[][] rows;
+
+		// The index of the current row (0 before the first call of next)
+		private int current = 0;
+
+		/**
+		 * Create a new StubResultSet
+		 * 
+		 * @param rows The rows of the result. The first row contains the column labels.
+		 */
+		private StubResultSet(Object[][] rows) {
+			this.rows = rows;
+		}
+
+		/**
+		 * Get the value of a column of the current row
+		 * 
+		 * @param label The label of the column (case insensitive)
+		 * @return The value of the column
+		 * @throws SQLException
+		 */
+		private Object getValue(String label) throws SQLException {
+			if (current < 1 || current >= rows.length) {
+				throw new SQLException("The ResultSet is not positioned on a row");
+			}
+			for (int i = 0; i < rows[0].length; i++) {
+				if (((String) rows[0][i]).equalsIgnoreCase(label)) {
+					return rows[current][i];
+				}
+			}
+			throw new SQLException("Unknown column: " + label);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			// Advance to the next row
+			if (name.equals("next")) {
+				current++;
+				return current < rows.length;
+			}
+
+			// Convert the value of a column into the requested type
+			if (name.startsWith("get") && args != null && args.length == 1 && args[0] instanceof String) {
+				Object value = getValue((String) args[0]);
+				Class<?> type = method.getReturnType();
+				if (value == null) {
+					return defaultValue(type);
+				} else if (type == String.class) {
+					return String.valueOf(value);
+				} else if (type == int.class) {
+					return ((Number) value).intValue();
+				} else if (type == long.class) {
+					return ((Number) value).longValue();
+				}
+				return value;
+			}
+
+			// Everything else (e.g. close) is a no-op
+			return defaultValue(method.getReturnType());
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * The SyntheticCertificates-class generates certificate chains for benchmarks so they can run offline and don't depend on the certificates that are currently used by real servers. Each chain
+ * consists of a server certificate for a host followed by intermediate CA certificates and is terminated by a self-signed root certificate. All certificates are valid from yesterday for one year.
+ * 
+ * Chains can also be generated along with the private key of their server certificate so they can be used by local stand-in servers (cf. LoadGenerator).
+ */
+@SuppressWarnings("deprecation")
+public class SyntheticCertificates {
+
+	// The serial number of the next certificate that will be generated
+	private static long nextSerial = 1;
+
+	static {
+		// The certificates are generated using the Bouncy-Castle Crypto-Provider
+		Security.addProvider(new BouncyCastleProvider());
+	}
+
+	/**
+	 * Generate a certificate chain
+	 * 
+	 * @param host The host for which the server certificate is issued (it will be the CN of the server certificate)
+	 * @param length The number of certificates in the chain (at least 1; a chain of length 1 is a self-signed server certificate)
+	 * @param keySize The length of the RSA keys of all certificates in bits
+	 * @param sanCount The number of Subject Alternative Names of the server certificate (the first one is host itself, the others are "www<i>."+host)
+	 * @param signatureAlgorithm The algorithm that is used to sign the certificates (e.g. "SHA256WithRSAEncryption")
+	 * @return The certificate chain starting with the server certificate and ending with the root certificate
+	 * @throws Exception
+	 */
+	public static X509Certificate[] createChain(String host, int length, int keySize, int sanCount, String signatureAlgorithm) throws Exception {
+		return createChain(host, generateKeyPairs(length, keySize), sanCount, signatureAlgorithm);
+	}
+
+	/**
+	 * Generate a certificate chain and put it into a KeyStore along with the private key of its server certificate. The KeyStore can be used to initialize a KeyManagerFactory (cf. createSSLContext).
+	 * 
+	 * @param host The host for which the server certificate is issued (it will be the CN of the server certificate)
+	 * @param length The number of certificates in the chain (at least 1; a chain of length 1 is a self-signed server certificate)
+	 * @param keySize The length of the RSA keys of all certificates in bits
+	 * @param sanCount The number of Subject Alternative Names of the server certificate (the first one is host itself, the others are "www<i>."+host)
+	 * @param signatureAlgorithm The algorithm that is used to sign the certificates (e.g. "SHA256WithRSAEncryption")
+	 * @param password The password that protects the private key within the KeyStore
+	 * @return A KeyStore that contains the chain and its private key under the alias "server"
+	 * @throws Exception
+	 */
+	public static KeyStore createKeyStore(String host, int length, int keySize, int sanCount, String signatureAlgorithm, char[] password) throws Exception {
+		KeyPair[] keys = generateKeyPairs(length, keySize);
+		X509Certificate[] chain = createChain(host, keys, sanCount, signatureAlgorithm);
+
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("server", keys[0].getPrivate(), password, chain);
+		return keyStore;
+	}
+
+	/**
+	 * Create a SSLContext for a server that authenticates itself using the private key and the certificate chain stored in a KeyStore
+	 * 
+	 * @param keyStore The KeyStore (e.g. created by createKeyStore)
+	 * @param password The password that protects the private key within the KeyStore
+	 * @return The initialized SSLContext
+	 * @throws Exception
+	 */
+	public static SSLContext createSSLContext(KeyStore keyStore, char[] password) throws Exception {
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, password);
+
+		SSLContext sc = SSLContext.getInstance("TLS");
+		sc.init(kmf.getKeyManagers(), null, null);
+		return sc;
+	}
+
+	/**
+	 * Generate the RSA key pairs for the certificates of a chain
+	 * 
+	 * @param length The number of certificates in the chain
+	 * @param keySize The length of the RSA keys in bits
+	 * @return One key pair per certificate
+	 * @throws Exception
+	 */
+	private static KeyPair[] generateKeyPairs(int length, int keySize) throws Exception {
+		KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+		keyGen.initialize(keySize);
+		KeyPair[] keys = new KeyPair[length];
+		for (int i = 0; i < length; i++) {
+			keys[i] = keyGen.generateKeyPair();
+		}
+		return keys;
+	}
+
+	/**
+	 * Generate a certificate chain whose certificates contain given keys
+	 * 
+	 * @param host The host for which the server certificate is issued (it will be the CN of the server certificate)
+	 * @param keys The key pairs of the certificates (starting with the one of the server certificate)
+	 * @param sanCount The number of Subject Alternative Names of the server certificate (the first one is host itself, the others are "www<i>."+host)
+	 * @param signatureAlgorithm The algorithm that is used to sign the certificates (e.g. "SHA256WithRSAEncryption")
+	 * @return The certificate chain starting with the server certificate and ending with the root certificate
+	 * @throws Exception
+	 */
+	private static synchronized X509Certificate[] createChain(String host, KeyPair[] keys, int sanCount, String signatureAlgorithm) throws Exception {
+
+		CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+		int length = keys.length;
+
+		// All certificates of the chain have the same validity period (the chain is validated at the end of the server certificate's validity period)
+		Date notBefore = new Date(System.currentTimeMillis() - 24L * 60 * 60 * 1000);
+		Date notAfter = new Date(notBefore.getTime() + 366L * 24 * 60 * 60 * 1000);
+
+		// Generate the certificates starting with the root certificate (which is the last element of the chain)
+		X509Certificate[] chain = new X509Certificate[length];
+		for (int i = length - 1; i >= 0; i--) {
+			X500Principal subject = (i == 0) ? new X500Principal("CN=" + host + ", O=Crossbear Benchmark") : new X500Principal("CN=Crossbear Benchmark CA " + i + ", O=Crossbear Benchmark");
+			X500Principal issuer = (i == length - 1) ? subject : chain[i + 1].getSubjectX500Principal();
+
+			org.bouncycastle.x509.X509V3CertificateGenerator gen = new org.bouncycastle.x509.X509V3CertificateGenerator();
+			gen.setSerialNumber(BigInteger.valueOf(nextSerial++));
+			gen.setSubjectDN(subject);
+			gen.setIssuerDN(issuer);
+			gen.setNotBefore(notBefore);
+			gen.setNotAfter(notAfter);
+			gen.setPublicKey(keys[i].getPublic());
+			gen.setSignatureAlgorithm(signatureAlgorithm);
+
+			// Certificates that sign other certificates need to be CAs ...
+			if (i > 0) {
+				gen.addExtension(X509Extensions.BasicConstraints, true, new BasicConstraints(true));
+
+			// ... and the server certificate has Subject Alternative Names
+			} else if (sanCount > 0) {
+				ASN1Encodable[] names = new ASN1Encodable[sanCount];
+				names[0] = new GeneralName(GeneralName.dNSName, host);
+				for (int j = 1; j < sanCount; j++) {
+					names[j] = new GeneralName(GeneralName.dNSName, "www" + j + "." + host);
+				}
+				gen.addExtension(X509Extensions.SubjectAlternativeName, false, new GeneralNames(new DERSequence(names)));
+			}
+
+			// Sign the certificate with the key of its issuer and parse it again (so it is of the same class as the certificates received by the server)
+			byte[] der = gen.generate(keys[Math.min(i + 1, length - 1)].getPrivate(), "BC").getEncoded();
+			chain[i] = (X509Certificate) certFactory.generateCertificate(new ByteArrayInputStream(der));
+		}
+
+		return chain;
+	}
+
+}
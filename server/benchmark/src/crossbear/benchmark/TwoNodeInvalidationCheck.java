@@ -0,0 +1,219 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.benchmark;
+
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import crossbear.Database;
+import crossbear.Properties;
+import crossbear.storage.CacheEntry;
+import crossbear.storage.CachingStorage;
+import crossbear.storage.InvalidationListener;
+import crossbear.storage.Storage;
+
+/**
+ * The TwoNodeInvalidationCheck simulates two Crossbear servers that share a local PostgreSQL-database and keep LocalCaches (cf. InvalidationListener). It checks that a change that is made on one
+ * node evicts the entry that the other node has cached:
+ * - Node B caches a server certificate, node A replaces it and node B has to return the new certificate (an invalidation of a single key)
+ * - Node B caches the HuntingTask-List, node A invalidates it and node B must not return it anymore (an invalidation of a whole table)
+ *
+ * For each check it prints the time until node B saw the change. That time is bounded by the poll interval of node B's InvalidationListener ("storage.localCache.pollInterval"). A check fails if node
+ * B still returns the old entry after ten poll intervals (but at least two seconds).
+ *
+ * The only argument is the properties-file of the Crossbear server. Both nodes use its "database.url", "database.user" and "database.password"; "logging.dir" is where the InvalidationListeners log
+ * their errors. Please use a database that is not used by a running server: The check writes to the CertCache- and the HuntingTaskListCache-table.
+ */
+public class TwoNodeInvalidationCheck {
+
+	/**
+	 * A condition that a node has to meet eventually
+	 */
+	private interface Condition {
+
+		/**
+		 * @param storage The Storage of the node
+		 * @return True if the condition is met
+		 * @throws Exception
+		 */
+		public boolean isMet(Storage storage) throws Exception;
+	}
+
+	/**
+	 * A simulated Crossbear server: An InvalidationListener with a LocalCache of its own and a CachingStorage that uses that LocalCache
+	 */
+	private static class Node {
+
+		// The InvalidationListener of the node
+		private final InvalidationListener listener;
+
+		// The Storage of the node
+		private final Storage storage;
+
+		/**
+		 * Create a new Node and wait until its InvalidationListener is listening
+		 *
+		 * @param properties The properties of the Crossbear server
+		 * @throws Exception
+		 */
+		private Node(Properties properties) throws Exception {
+			listener = new InvalidationListener(properties);
+			listener.startListening();
+			storage = new CachingStorage(new Database(properties.getProperty("database.url"), properties.getProperty("database.user"), properties.getProperty("database.password")),
+					listener.getLocalCache());
+
+			// Until the InvalidationListener is listening all reads go to the database, which would make the checks pass trivially
+			long deadline = System.currentTimeMillis() + getTimeout();
+			while (!listener.getLocalCache().isEnabled()) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException("The InvalidationListener didn't start listening (cf. fourhundredfourtythree.invalidationListener.error in the logging.dir)");
+				}
+				Thread.sleep(10);
+			}
+		}
+
+		/**
+		 * Stop the node's InvalidationListener and close its Storage
+		 *
+		 * @throws SQLException
+		 */
+		private void close() throws SQLException {
+			listener.stopListening();
+			storage.close();
+		}
+
+		/**
+		 * @return The time in milliseconds after which the node should have applied an invalidation: Ten poll intervals but at least two seconds
+		 */
+		private long getTimeout() {
+			return Math.max(10 * listener.getPollInterval(), 2000);
+		}
+
+		/**
+		 * Wait until the node meets a condition
+		 *
+		 * @param condition The condition
+		 * @param failure The description of the failure if the condition isn't met in time
+		 * @return The time in milliseconds until the condition was met
+		 * @throws Exception
+		 */
+		private long waitFor(Condition condition, String failure) throws Exception {
+			long start = System.nanoTime();
+			long timeout = getTimeout();
+			while (!condition.isMet(storage)) {
+				if ((System.nanoTime() - start) / 1000000 > timeout) {
+					throw new IllegalStateException(failure + " after " + timeout + " ms");
+				}
+				Thread.sleep(1);
+			}
+			return (System.nanoTime() - start) / 1000000;
+		}
+	}
+
+	/**
+	 * Check that node B returns the new server certificate after node A replaced the one that node B has cached
+	 *
+	 * @param a The node that replaces the certificate
+	 * @param b The node that has cached the certificate
+	 * @throws Exception
+	 */
+	private static void checkCertCache(Node a, Node b) throws Exception {
+		final String hostPort = "invalidation-check-" + Long.toHexString(new SecureRandom().nextLong()) + ".example.com:443";
+		final byte[] oldCert = { 1 };
+		final byte[] newCert = { 2 };
+		Timestamp validUntil = new Timestamp(System.currentTimeMillis() + 60 * 1000);
+
+		// Let node B cache the old certificate
+		a.storage.cacheServerCert(hostPort, oldCert, validUntil);
+		CacheEntry entry = b.storage.getCachedServerCert(hostPort);
+		if (entry == null || !Arrays.equals(entry.getData(), oldCert)) {
+			throw new IllegalStateException("Node B didn't read the certificate that node A stored");
+		}
+
+		// Replace it on node A: Node B has to drop its copy and read the new certificate from the database
+		a.storage.cacheServerCert(hostPort, newCert, validUntil);
+		long millis = b.waitFor(new Condition() {
+			@Override
+			public boolean isMet(Storage storage) throws Exception {
+				CacheEntry entry = storage.getCachedServerCert(hostPort);
+				return entry != null && Arrays.equals(entry.getData(), newCert);
+			}
+		}, "Node B still returns the old certificate");
+		System.out.println("CertCache:            node B saw the change after " + millis + " ms");
+	}
+
+	/**
+	 * Check that node B stops returning the HuntingTask-List after node A invalidated the one that node B has cached
+	 *
+	 * @param a The node that invalidates the HuntingTask-List
+	 * @param b The node that has cached the HuntingTask-List
+	 * @throws Exception
+	 */
+	private static void checkHuntingTaskListCache(Node a, Node b) throws Exception {
+		byte[] list = new byte[16];
+		new SecureRandom().nextBytes(list);
+
+		// Let node B cache the HuntingTask-List
+		a.storage.cacheHuntingTaskList(list, new Timestamp(System.currentTimeMillis() + 60 * 1000));
+		CacheEntry entry = b.storage.getCachedHuntingTaskList();
+		if (entry == null || !Arrays.equals(entry.getData(), list)) {
+			throw new IllegalStateException("Node B didn't read the HuntingTask-List that node A stored");
+		}
+
+		// Invalidate it on node A: Node B has to drop its copy and find no HuntingTask-List in the database
+		a.storage.invalidateHuntingTaskListCache();
+		long millis = b.waitFor(new Condition() {
+			@Override
+			public boolean isMet(Storage storage) throws Exception {
+				return storage.getCachedHuntingTaskList() == null;
+			}
+		}, "Node B still returns the invalidated HuntingTask-List");
+		System.out.println("HuntingTaskListCache: node B saw the change after " + millis + " ms");
+	}
+
+	/**
+	 * Run the check
+	 *
+	 * @param args The properties-file of the Crossbear server
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: java -cp ... crossbear.benchmark.TwoNodeInvalidationCheck <crossbear.properties>");
+			System.exit(2);
+		}
+		Properties properties = new Properties(args[0]);
+
+		Node a = new Node(properties);
+		Node b = new Node(properties);
+		try {
+			System.out.println("Poll interval of the InvalidationListeners: " + b.listener.getPollInterval() + " ms");
+			checkCertCache(a, b);
+			checkHuntingTaskListCache(a, b);
+			System.out.println("OK");
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+}
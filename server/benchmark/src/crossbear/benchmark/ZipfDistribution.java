@@ -0,0 +1,75 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A ZipfDistribution draws ranks from 0 to n-1 where the probability of rank k is proportional to 1/(k+1)^exponent. It is used to model the popularity of the hosts that Crossbear clients visit: A
+ * few hosts are requested very often while most hosts are requested rarely.
+ * 
+ * The cumulative probabilities are calculated once so drawing a rank is a binary search.
+ */
+public class ZipfDistribution {
+
+	// The cumulative probability of each rank
+	private final double[] cumulative;
+
+	/**
+	 * Create a new ZipfDistribution
+	 * 
+	 * @param n The number of ranks
+	 * @param exponent The exponent of the distribution (0 means uniform, values around 1 are typical for web traffic)
+	 */
+	public ZipfDistribution(int n, double exponent) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("A ZipfDistribution needs at least one rank");
+		}
+
+		// Sum up the weights of all ranks ...
+		cumulative = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1 / Math.pow(k + 1, exponent);
+			cumulative[k] = sum;
+		}
+
+		// ... and normalize them
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= sum;
+		}
+	}
+
+	/**
+	 * Draw a rank
+	 * 
+	 * @param random The source of randomness
+	 * @return A rank between 0 and n-1
+	 */
+	public int next(Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+
+		// If the value was not found binarySearch returns (-(insertion point) - 1). The insertion point is the rank whose cumulative probability exceeds the value.
+		return Math.min((index >= 0) ? index : -index - 1, cumulative.length - 1);
+	}
+
+}
@@ -29,7 +29,7 @@ CREATE TABLE CertObservations (Id BIGSERIAL, CertID BIGINT REFERENCES ServerCert
 CREATE INDEX Cohash ON CertObservations (CertID);
 CREATE INDEX Cohost ON CertObservations (ServerHostPort);
 
-CREATE TABLE HuntingTasks (Id SERIAL, TargetHostName VARCHAR(2042), TargetIP VARCHAR(40), TargetPort SMALLINT, TimeOfCreation TIMESTAMP, Active BOOLEAN, PRIMARY KEY (Id));
+CREATE TABLE HuntingTasks (Id SERIAL, TargetHostName VARCHAR(2042), TargetIP VARCHAR(40), TargetPort SMALLINT, TimeOfCreation TIMESTAMP, Active BOOLEAN, Severity SMALLINT DEFAULT 0, Results INTEGER DEFAULT 0, PRIMARY KEY (Id));
 
 CREATE TABLE HuntingTaskResults (Id BIGSERIAL, HuntingTaskID INTEGER  REFERENCES HuntingTasks, Trace TEXT, Observation BIGINT REFERENCES CertObservations, PRIMARY KEY (Id));
 CREATE INDEX HTRHTI ON HuntingTaskResults (HuntingTaskID);
@@ -16,7 +16,7 @@
 
     Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
 --%><%@ page
-	import="crossbear.*,crossbear.messaging.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.*"
+	import="crossbear.*,crossbear.storage.*,crossbear.messaging.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.*,java.util.concurrent.RejectedExecutionException"
 	language="java"
 	contentType="application/octet-stream"
 	%><%!
@@ -26,6 +26,12 @@
 	* 
 	* getPublicIP.jsp takes as input a PublicIPNotifRequest-Message which contains a RSA-encrypted AES key, exctracts the latter, generates a
 	* PublicIPNotification-message and encrypts it with the AES key. The generated crypto text is then sent back to the client.
+	*
+	* Clients may also ask for a session ticket along with the PublicIPNotification. By presenting that ticket instead of a RSA-encrypted
+	* AES key they can reuse the AES key for subsequent requests until the ticket expires. That saves the RSA decryption for most requests.
+	*
+	* The RSA decryptions are performed by the crypto workers of the PublicIPNotifProcessor. Requests that exceed the budget of their source IP,
+	* that are obviously malformed or that arrive while the crypto workers are overloaded are rejected with "503 Service Unavailable".
 	*/
 	
 	/*
@@ -52,22 +58,47 @@
 
 			// Load the porperties and settings from the config file
 			properties = new Properties("/opt/apache-tomcat/webapps/crossbear.properties");
+
+			// Apply the settings of the SQL profiler (e.g. the threshold of the slow query log)
+			SQLProfiler.configure(properties);
 					
 			/*
 			* Like mentioned above the PublicIPNotifProcessor needs to load the RSA key on initilization.
 			* This is done here.
 			*/
 			pipnp = new PublicIPNotifProcessor(properties.getProperty("pkey.keyStoreFile"),properties.getProperty("pkey.keyStorePassword"),properties.getProperty("pkey.alias"),properties.getProperty("pkey.password"));
+			
+			// Make the PublicIPNotifProcessor available to systemStatus.jsp
+			getServletContext().setAttribute("crossbear.PublicIPNotifProcessor", pipnp);
 
 		} catch (Exception e) {
 
 			Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/eighty.getPublicIP.init.error", e);
 		}
 	}
+	
+	//Destructor-like functionality: Performed when the page is unloaded
+	public void jspDestroy() {
+		
+		// Stop the crypto workers of the PublicIPNotifProcessor
+		if (pipnp != null) {
+			getServletContext().removeAttribute("crossbear.PublicIPNotifProcessor");
+			pipnp.shutdown();
+		}
+		
+		// Stop listening for cache invalidations (if StorageFactory started the InvalidationListener)
+		InvalidationListener.stop();
+		
+		// Write the exceptions that are still queued and close the log-files
+		Logger.shutdown();
+	}
 	%><%
-	Database db = null;
+	Storage storage = null;
 	
 	try {
+		// The time at which the processing started and the time at which the current stage started (cf. Latencies)
+		long start = System.nanoTime();
+		long t = start;
 		
 		// Crossbear works on binary messages. To send these from the server to the client they need to be written into response.getOutputStream()
 		OutputStream outStream = response.getOutputStream();
@@ -75,19 +106,40 @@
 		//First of all try to decode the PublicIPNotifRequest sent by the client
 		PublicIPNotifRequest pipnr = PublicIPNotifRequest.readFromStream(request.getInputStream(), request.getRemoteAddr());
 		
+		// Reject the request if it is obviously malformed or if its source IP exceeded its budget of RSA decryptions (before opening a database connection for it)
+		pipnp.checkAdmission(pipnr);
+		t = Latencies.record("getPublicIP.parseRequest", t);
+		
+		// Decrypt the AES-key (the RSA decryption is recorded by the PublicIPNotifProcessor). This might require waiting for a crypto worker so it is done before a database connection is opened.
+		byte[] AESKeyBytes = pipnp.getAESKey(pipnr);
+		t = Latencies.record("getPublicIP.getAESKey", t);
 		
-		// Open a database connection
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+		// Open a database connection and keep it only as long as it is needed to generate the PublicIPNotification-message (which requires the current HMAC-key)
+		storage = StorageFactory.open(properties);
+		t = Latencies.record("getPublicIP.openDatabase", t);
+		PublicIPNotification pipn = new PublicIPNotification(pipnr.getRemoteAddr(), storage);
+		storage.close();
+		storage = null;
 		
-		// Decrypt the AES-key, generate a PublicIPNotification-message and encrypt it with the AES-key
-		byte[] reply = pipnp.generateEncryptedPublicIPNotif(pipnr,db);
+		// Encrypt the PublicIPNotification-message with the AES-key
+		byte[] reply = pipnp.generateEncryptedPublicIPNotif(pipnr, AESKeyBytes, pipn);
+		t = Latencies.record("getPublicIP.generateReply", t);
 
 		// Send the result to the client
 		outStream.write(reply);
 				
 		// Finally: Sent the reply to the client (flush the buffer)
 		response.flushBuffer();
+		Latencies.record("getPublicIP.sendReply", t);
+		Latencies.record("getPublicIP.total", start);
 
+	} catch (RejectedExecutionException e) {
+		/*
+		* The request was not admitted or the crypto workers are overloaded. This is not logged since it happens on purpose
+		* and logging it would make a burst of requests even more expensive.
+		*/
+		response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		
 	} catch (Exception e) {
 		/*
 		* None of the calls above catches exceptions. Whenever something went wrong (e.g. with decoding the client's request)
@@ -98,7 +150,7 @@
 		Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/eighty.getPublicIP.processing.error", e);
 			
 	} finally {
-		if (db != null)
-			db.close();
+		if (storage != null)
+			storage.close();
 	}
 %>
\ No newline at end of file
@@ -0,0 +1,13 @@
+<%@ page import="crossbear.*" language="java" contentType="text/plain; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%><%!
+
+	/*
+	* sqlStatus.jsp does not expect any input and returns the statistics of all SQL-statements that were executed by this web application
+	* and its slow query log in a machine-readable plain text format (cf. SQLProfiler.getStatus).
+	*/
+	%><%
+
+// return the statistics of all SQL-statements
+out.print(SystemStatus.getSQLStatus());
+
+%>
\ No newline at end of file
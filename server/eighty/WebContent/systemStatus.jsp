@@ -0,0 +1,32 @@
+<%@ page import="crossbear.*" language="java" contentType="text/html; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%><%!
+
+	/*
+	* systemStatus.jsp does not expect any input and displays an HTML page that visualizes the current load of the getPublicIP.jsp (i.e. of its PublicIPNotifProcessor).
+	* 
+	* The PublicIPNotifProcessor is created by getPublicIP.jsp and shared via the attribute "crossbear.PublicIPNotifProcessor" of the ServletContext.
+	*/
+	%><!DOCTYPE html PUBLIC "-//W3C//DTD HTML 4.01 Transitional//EN" "http://www.w3.org/TR/html4/loose.dtd">
+<html>
+<head>
+<meta http-equiv="Content-Type" content="text/html; charset=ISO-8859-1">
+<title>Current Load Of The Crossbear Public IP Service</title>
+</head>
+<body>
+
+<%
+
+// get the PublicIPNotifProcessor of getPublicIP.jsp
+PublicIPNotifProcessor pipnp = (PublicIPNotifProcessor) application.getAttribute("crossbear.PublicIPNotifProcessor");
+
+// display the HTML encoded representation of its load (if getPublicIP.jsp has already been loaded)
+if (pipnp != null) {
+	out.println(pipnp.getStatusHTML());
+} else {
+	out.println("getPublicIP.jsp has not been loaded yet<br>");
+}
+
+%>
+
+</body>
+</html>
\ No newline at end of file
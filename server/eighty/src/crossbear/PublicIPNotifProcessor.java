@@ -21,6 +21,9 @@ package crossbear;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -33,21 +36,37 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.security.interfaces.RSAPublicKey;
 import java.sql.SQLException;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import crossbear.messaging.Message;
 import crossbear.messaging.PublicIPNotifRequest;
+import crossbear.messaging.PublicIPNotifSessionTicket;
 import crossbear.messaging.PublicIPNotification;
 
 /**
@@ -58,11 +77,54 @@ import crossbear.messaging.PublicIPNotification;
  * 
  * The AES key that is required for the transmission is provided by the client in RSA-encrypted version.
  * 
+ * Since decrypting the AES key is by far the most expensive part of this procedure, clients may ask for a session ticket (cf. PublicIPNotifSessionTicket). The ticket contains the client's AES key
+ * and its expiry date. It is encrypted and authenticated using keys that are randomly generated when the PublicIPNotifProcessor is created and never leave the server. This way the server doesn't
+ * need to remember any sessions: Tickets are simply rejected once they expired or once the server was restarted. In both cases the client falls back to sending a RSA-encrypted key.
+ * 
+ * To keep a burst of requests from saturating all cores of the server (and thereby starving the other Crossbear services on the same machine) the RSA decryptions are not performed on the
+ * request threads. Instead they are performed by a small pool of crypto workers with a bounded queue. Requests are rejected (cf. RejectedExecutionException) if
+ * - their source IP exceeded its budget of RSA decryptions (cf. checkAdmission)
+ * - their RSA-encrypted key can't be a valid crypto text (cf. checkAdmission)
+ * - the queue of the crypto workers is full or the decryption was not finished in time
+ * 
  * @author Thomas Riedmaier
  * 
  */
 public class PublicIPNotifProcessor {
 
+	/**
+	 * A TokenBucket limits the number of RSA decryptions that are performed for a single source IP. It holds up to bucketCapacity tokens and is refilled at a rate of one token per
+	 * bucketRefillInterval milliseconds. Each RSA decryption requires one token.
+	 */
+	private static class TokenBucket {
+
+		// The number of tokens that are currently in the bucket
+		private double tokens = bucketCapacity;
+
+		// The time at which the tokens were last refilled
+		private long lastRefill = System.currentTimeMillis();
+
+		/**
+		 * Refill the bucket and take one token out of it if there is one
+		 * 
+		 * @return True if a token was taken, false if the bucket is empty
+		 */
+		public synchronized boolean tryTake() {
+			long now = System.currentTimeMillis();
+
+			// Refill the bucket according to the time that passed since the last refill
+			tokens = Math.min(bucketCapacity, tokens + (double) (now - lastRefill) / bucketRefillInterval);
+			lastRefill = now;
+
+			// Take a token if there is one
+			if (tokens < 1) {
+				return false;
+			}
+			tokens -= 1;
+			return true;
+		}
+	}
+
 	/**
 	 * Encrypt an array of bytes with the AES/CBC/PKCS7Padding encryption scheme
 	 * 
@@ -97,6 +159,39 @@ public class PublicIPNotifProcessor {
 
 	}
 
+	/**
+	 * Decrypt an array of bytes that was encrypted by AESEncrypt (i.e. the first 16 bytes are the IV)
+	 * 
+	 * Please Note: "AES/CBC/PKCS7Padding" requires the Bouncy-Castle Crypto-Provider to be installed!
+	 * 
+	 * @param AESKeyBytes The key to use
+	 * @param cipherText The IV followed by the AES-encrypted data
+	 * @return The decrypted data
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws NoSuchPaddingException
+	 */
+	private static byte[] AESDecrypt(byte[] AESKeyBytes, byte[] cipherText) throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidAlgorithmParameterException,
+			NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException {
+
+		// The first 16 bytes of the cipherText are the IV
+		IvParameterSpec iv = new IvParameterSpec(cipherText, 0, 16);
+
+		// specify an AES/CBC/PKCS7Padding cipher (requires BouncyCastle Crypto provider)
+		SecretKeySpec skeySpec = new SecretKeySpec(AESKeyBytes, "AES");
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS7Padding", "BC");
+
+		// init the cipher
+		cipher.init(Cipher.DECRYPT_MODE, skeySpec, iv);
+
+		// perform the decryption
+		return cipher.doFinal(cipherText, 16, cipherText.length - 16);
+	}
+
 	/**
 	 * Concatenate two byte arrays: Create a byte array that is large enough to contain both arrays and then copy b1
 	 * to the beginning of the new array and b2 to the end of the larger array.
@@ -127,8 +222,8 @@ public class PublicIPNotifProcessor {
 		// create buffer for iv creation
 		byte[] iv = new byte[length];
 
-		// fill buffer with random data
-		(new Random()).nextBytes(iv);
+		// fill buffer with random data (IVs must not be predictable)
+		ivRandom.nextBytes(iv);
 
 		// use buffer to create a random initialization vector (iv)
 		IvParameterSpec ips = new IvParameterSpec(iv);
@@ -201,6 +296,24 @@ public class PublicIPNotifProcessor {
 
 	}
 
+	/**
+	 * Calculate a SHA256-HMAC over a byte[]
+	 * 
+	 * @param data The data to generate the HMAC on
+	 * @param keyBytes The key to use for the HMAC generation
+	 * @return The HMAC of data (32 bytes)
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws InvalidKeyException
+	 */
+	private static byte[] HMAC(byte[] data, byte[] keyBytes) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+
+		Mac mac = Mac.getInstance("HMac/SHA256", "BC");
+		mac.init(new SecretKeySpec(keyBytes, "HMac/SHA256"));
+
+		return mac.doFinal(data);
+	}
+
 	/**
 	 * Check if a byte[] implements a valid AES256 key.
 	 * 
@@ -256,9 +369,58 @@ public class PublicIPNotifProcessor {
 
 	}
 
+	// The maximum number of RSA decryptions that may be performed for a single source IP in a burst
+	private static final int bucketCapacity = 10;
+
+	// The number of milliseconds after which a source IP gets the budget for another RSA decryption
+	private static final long bucketRefillInterval = 5 * 1000;
+
+	// The maximum number of source IPs for which a TokenBucket is remembered
+	private static final int maxBuckets = 10000;
+
+	// The number of crypto workers. Half of the cores are left to the other services on the machine
+	private static final int cryptoWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	// The maximum number of RSA decryptions waiting for a crypto worker
+	private static final int cryptoQueueCapacity = 64;
+
+	// The maximum number of milliseconds a request thread waits for its RSA decryption
+	private static final long cryptoTimeout = 5 * 1000;
+
+	// The number of seconds over which the RSA operations per second are averaged
+	private static final int rateWindow = 60;
+
+	// The number of milliseconds for which a session ticket is accepted after it has been issued
+	private static final long ticketLifetime = 6 * 60 * 60 * 1000;
+
+	// The source of the IVs for the AES-encryption of PublicIPNotifications and session tickets
+	private static final SecureRandom ivRandom = new SecureRandom();
+
 	//The RSA keypair used by the Crossbear server
 	private final KeyPair crossbearRSAKeyPair;
 
+	// The AES key that is used to encrypt session tickets
+	private final byte[] ticketEncryptionKey = new byte[256 / 8];
+
+	// The key that is used to authenticate session tickets
+	private final byte[] ticketMACKey = new byte[256 / 8];
+
+	// The TokenBuckets of the source IPs that recently requested RSA decryptions
+	private final BoundedCache<InetAddress, TokenBucket> buckets = new BoundedCache<InetAddress, TokenBucket>(maxBuckets);
+
+	// The pool of crypto workers that perform the RSA decryptions
+	private final ThreadPoolExecutor cryptoPool;
+
+	// Counters for the status page: the number of RSA decryptions and of the rejected requests
+	private final AtomicLong rsaOperations = new AtomicLong();
+	private final AtomicLong rejectedMalformed = new AtomicLong();
+	private final AtomicLong rejectedOverloaded = new AtomicLong();
+	private final AtomicLong rejectedRateLimited = new AtomicLong();
+
+	// The number of RSA decryptions per second of the last rateWindow seconds (indexed by second modulo rateWindow) and the second each slot belongs to
+	private final AtomicLongArray rsaOperationsPerSecond = new AtomicLongArray(rateWindow);
+	private final AtomicLongArray rsaOperationsSecond = new AtomicLongArray(rateWindow);
+
 	/**
 	 * Creating a new PublicIPNotifProcessor. During the creation the RSA keypair of the server is loaded from disc since it is required to perform the generateEncryptedPublicIPNotif function. Putting
 	 * this functionality in the constructor speeds up per-page-processing a lot.
@@ -277,15 +439,278 @@ public class PublicIPNotifProcessor {
 
 		// Load the server's RSA keypair from disc
 		crossbearRSAKeyPair = PublicIPNotifProcessor.getKeyPairFromKeystoreFile(keystoreFilePath, keyStorePassword, keyAlias, keyPassword);
+
+		// Generate the keys that protect the session tickets. They are never stored so all tickets become invalid when the server is restarted
+		SecureRandom random = new SecureRandom();
+		random.nextBytes(ticketEncryptionKey);
+		random.nextBytes(ticketMACKey);
+
+		// Create the crypto workers. They are daemon threads so they don't keep the JVM from terminating
+		cryptoPool = new ThreadPoolExecutor(cryptoWorkers, cryptoWorkers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(cryptoQueueCapacity), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PublicIPNotifCryptoWorker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Decide whether a PublicIPNotifRequest should be processed before any expensive operation is performed for it. Requests that don't require a RSA decryption (i.e. resumption requests) are always
+	 * admitted. All others are rejected if their RSA-encrypted key is not smaller than the modulus of the server's key (in which case it can't be a valid crypto text) or if their source IP exceeded
+	 * its budget of RSA decryptions.
+	 * 
+	 * @param pipnr The PublicIPNotifRequest issued by the client
+	 * @throws RejectedExecutionException If the request should not be processed
+	 */
+	public void checkAdmission(PublicIPNotifRequest pipnr) throws RejectedExecutionException {
+
+		// Resumption requests are cheap
+		if (pipnr.getType() == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST) {
+			return;
+		}
+
+		// Reject crypto texts that are not smaller than the modulus
+		BigInteger modulus = ((RSAPublicKey) crossbearRSAKeyPair.getPublic()).getModulus();
+		if (new BigInteger(1, pipnr.getRsaEncryptedKey()).compareTo(modulus) >= 0) {
+			rejectedMalformed.incrementAndGet();
+			throw new RejectedExecutionException("The RSA-encrypted key is not smaller than the modulus.");
+		}
+
+		// Get the TokenBucket of the source IP (or create it if there is none yet) and take a token out of it
+		TokenBucket bucket = buckets.get(pipnr.getRemoteAddr());
+		if (bucket == null) {
+			bucket = buckets.putIfAbsent(pipnr.getRemoteAddr(), new TokenBucket());
+		}
+		if (!bucket.tryTake()) {
+			rejectedRateLimited.incrementAndGet();
+			throw new RejectedExecutionException(pipnr.getRemoteAddr().getHostAddress() + " exceeded its budget of RSA decryptions.");
+		}
+	}
+
+	/**
+	 * Decrypt a RSA-encrypted AES key using one of the crypto workers and wait for the result
+	 * 
+	 * @param rsaEncryptedKey The RSA-encrypted AES key
+	 * @return The decrypted AES key
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws RejectedExecutionException If the queue of the crypto workers is full or the decryption was not finished within cryptoTimeout
+	 */
+	private byte[] decryptAESKey(final byte[] rsaEncryptedKey) throws IllegalBlockSizeException, BadPaddingException, RejectedExecutionException {
+
+		// Queue the decryption (throws a RejectedExecutionException if the queue is full)
+		Future<byte[]> decryption;
+		final long queued = System.nanoTime();
+		try {
+			decryption = cryptoPool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					long t = Latencies.record("getPublicIP.waitForCryptoWorker", queued);
+					byte[] re = RSADecrypt(crossbearRSAKeyPair.getPrivate(), rsaEncryptedKey);
+					Latencies.record("getPublicIP.rsaDecrypt", t);
+					recordRSAOperation();
+					return re;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejectedOverloaded.incrementAndGet();
+			throw e;
+		}
+
+		// Wait for the decryption to finish
+		try {
+			return decryption.get(cryptoTimeout, TimeUnit.MILLISECONDS);
+
+		} catch (TimeoutException | InterruptedException e) {
+			// Don't waste a crypto worker on a request that was given up
+			decryption.cancel(true);
+			rejectedOverloaded.incrementAndGet();
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			throw new RejectedExecutionException("The RSA decryption was not finished in time.", e);
+
+		} catch (ExecutionException e) {
+			// Rethrow what went wrong during the decryption. Crypto texts that were not created using the server's public key cause a BadPaddingException
+			Throwable cause = e.getCause();
+			if (cause instanceof BadPaddingException) {
+				throw (BadPaddingException) cause;
+			} else if (cause instanceof IllegalBlockSizeException) {
+				throw (IllegalBlockSizeException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("The RSA decryption failed unexpectedly.", cause);
+		}
+	}
+
+	/**
+	 * Get a HTML encoded overview of the load of the PublicIPNotifProcessor (i.e. the state of the crypto workers, the rate of RSA decryptions and the number of rejected requests)
+	 * 
+	 * @return A HTML encoded String that describes the load of the PublicIPNotifProcessor
+	 */
+	public String getStatusHTML() {
+
+		// Sum up the RSA operations of the last rateWindow seconds (the current second is not complete and therefore not counted)
+		long now = System.currentTimeMillis() / 1000;
+		long operations = 0;
+		for (int i = 0; i < rateWindow; i++) {
+			long second = rsaOperationsSecond.get(i);
+			if (second < now && second >= now - rateWindow) {
+				operations += rsaOperationsPerSecond.get(i);
+			}
+		}
+
+		String re = "";
+
+		re += "Crypto workers: " + cryptoPool.getActiveCount() + " of " + cryptoWorkers + " busy<br>\r\n";
+
+		re += "Crypto queue depth: " + cryptoPool.getQueue().size() + " of " + cryptoQueueCapacity + "<br>\r\n";
+
+		re += "RSA operations per second (last " + rateWindow + "s): " + String.format("%.2f", (double) operations / rateWindow) + "<br>\r\n";
+
+		re += "RSA operations total: " + rsaOperations.get() + "<br>\r\n";
+
+		re += "Rejected requests (malformed / rate limited / overloaded): " + rejectedMalformed.get() + " / " + rejectedRateLimited.get() + " / " + rejectedOverloaded.get() + "<br>\r\n";
+
+		return re;
+	}
+
+	/**
+	 * Count a RSA decryption for the status page
+	 */
+	private void recordRSAOperation() {
+		rsaOperations.incrementAndGet();
+
+		// Reset the slot of the current second if it still belongs to an older second. If two threads do that at the same time one operation might get lost which is acceptable for a statistic
+		long now = System.currentTimeMillis() / 1000;
+		int slot = (int) (now % rateWindow);
+		if (rsaOperationsSecond.get(slot) != now) {
+			rsaOperationsSecond.set(slot, now);
+			rsaOperationsPerSecond.set(slot, 0);
+		}
+		rsaOperationsPerSecond.incrementAndGet(slot);
 	}
 
 	/**
-	 * Take a PublicIPNotifRequest and decrypt the contained AES-key. Then take the client's public IP and generate a PublicIPNotification-message. Hash the message and encrypt both with the client's
-	 * AES-key. Then return the result.
+	 * Stop the crypto workers. This should be called when the web application is shut down.
+	 */
+	public void shutdown() {
+		cryptoPool.shutdownNow();
+	}
+
+	/**
+	 * Create a session ticket for an AES key. The ticket has the format IV|AES(ticketEncryptionKey, AES_KEY|EXPIRY_DATE)|HMAC(ticketMACKey, IV|AES(...)).
+	 * 
+	 * @param AESKeyBytes The AES key of the client
+	 * @return The session ticket for AESKeyBytes that expires after ticketLifetime
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws NoSuchPaddingException
+	 */
+	private byte[] createTicket(byte[] AESKeyBytes) throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchAlgorithmException,
+			NoSuchProviderException, NoSuchPaddingException {
+
+		// Concatenate the client's key with the ticket's expiry date
+		ByteBuffer content = ByteBuffer.allocate(AESKeyBytes.length + 8);
+		content.put(AESKeyBytes);
+		content.putLong(System.currentTimeMillis() + ticketLifetime);
+
+		// Encrypt the concatenation and append its HMAC
+		byte[] encryptedContent = AESEncrypt(ticketEncryptionKey, content.array());
+		return concatByteArrays(encryptedContent, HMAC(encryptedContent, ticketMACKey));
+	}
+
+	/**
+	 * Extract the client's AES key from a PublicIPNotifRequest. For resumption requests it is taken from the session ticket, for all other requests it is RSA-decrypted.
+	 * 
+	 * Please note: RSA-decrypting the key might require waiting for a crypto worker (cf. decryptAESKey). Don't hold any resources that are shared with other requests (e.g. a database connection)
+	 * while calling this function.
 	 * 
 	 * @param pipnr The PublicIPNotifRequest issued by the client
-	 * @param db The database connection to use (required to add a HMAC to the PublicIPNotification-message)
-	 * @return The AES encrypted concatenation of the PublicIPNotification-message and its hash
+	 * @return The AES key of the client
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws NoSuchPaddingException
+	 */
+	public byte[] getAESKey(PublicIPNotifRequest pipnr) throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchAlgorithmException,
+			NoSuchProviderException, NoSuchPaddingException {
+
+		byte[] AESKeyBytes;
+		if (pipnr.getType() == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST) {
+			AESKeyBytes = openTicket(pipnr.getTicket());
+		} else {
+			// Decrypt the AES-key using one of the crypto workers
+			AESKeyBytes = decryptAESKey(pipnr.getRsaEncryptedKey());
+		}
+
+		// Make sure it is valid
+		if (!isValidAESKey(AESKeyBytes)) {
+			throw new IllegalArgumentException("Decrypting the content of the PublicIPNotifRequest did not result in a valid AES key (length was: "+AESKeyBytes.length+").");
+		}
+
+		return AESKeyBytes;
+	}
+
+	/**
+	 * Check the authenticity and the expiry date of a session ticket and extract the client's AES key from it
+	 * 
+	 * @param ticket The session ticket that was created by createTicket
+	 * @return The AES key contained in the ticket
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws InvalidKeyException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws NoSuchPaddingException
+	 */
+	private byte[] openTicket(byte[] ticket) throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchAlgorithmException,
+			NoSuchProviderException, NoSuchPaddingException {
+
+		// A ticket consists of at least an IV, one encrypted block and a HMAC
+		if (ticket.length < 16 + 16 + 32) {
+			throw new IllegalArgumentException("The session ticket is too short (length was: " + ticket.length + ").");
+		}
+
+		// Split the ticket and make sure it was issued by this server
+		byte[] encryptedContent = Arrays.copyOfRange(ticket, 0, ticket.length - 32);
+		byte[] supposedHMAC = Arrays.copyOfRange(ticket, ticket.length - 32, ticket.length);
+		if (!MessageDigest.isEqual(supposedHMAC, HMAC(encryptedContent, ticketMACKey))) {
+			throw new IllegalArgumentException("The session ticket was not issued by this server.");
+		}
+
+		// Decrypt the ticket and make sure that it has not yet expired
+		ByteBuffer content = ByteBuffer.wrap(AESDecrypt(ticketEncryptionKey, encryptedContent));
+		byte[] AESKeyBytes = new byte[content.remaining() - 8];
+		content.get(AESKeyBytes);
+		if (content.getLong() < System.currentTimeMillis()) {
+			throw new IllegalArgumentException("The session ticket has expired.");
+		}
+
+		return AESKeyBytes;
+	}
+
+	/**
+	 * Take a PublicIPNotification-message that was generated for the client of a PublicIPNotifRequest, hash it and encrypt both with the client's AES-key (cf. getAESKey). Then return the result.
+	 * 
+	 * For resumption requests the hash is calculated over the message concatenated with the client's nonce. This binds the reply to the request and prevents attackers from replaying old replies
+	 * that were encrypted with the same key. For session requests a PublicIPNotifSessionTicket-message is put in front of the encrypted reply.
+	 * 
+	 * @param pipnr The PublicIPNotifRequest issued by the client
+	 * @param AESKeyBytes The AES-key of the client (cf. getAESKey)
+	 * @param pipn The PublicIPNotification containing the public IP of the client
+	 * @return The AES encrypted concatenation of the PublicIPNotification-message and its hash (preceded by a PublicIPNotifSessionTicket-message for session requests)
 	 * @throws InvalidKeyException
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
@@ -297,25 +722,24 @@ public class PublicIPNotifProcessor {
 	 * @throws NoSuchPaddingException
 	 * @throws InvalidAlgorithmParameterException
 	 */
-	public byte[] generateEncryptedPublicIPNotif(PublicIPNotifRequest pipnr, Database db) throws InvalidKeyException, CertificateEncodingException, NoSuchAlgorithmException, NoSuchProviderException,
-			IOException, SQLException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException, InvalidAlgorithmParameterException {
-
-		// Decrypt the AES-key
-		byte[] decryptedRSAKey = RSADecrypt(crossbearRSAKeyPair.getPrivate(), pipnr.getRsaEncryptedKey());
+	public byte[] generateEncryptedPublicIPNotif(PublicIPNotifRequest pipnr, byte[] AESKeyBytes, PublicIPNotification pipn) throws InvalidKeyException, CertificateEncodingException,
+			NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException, InvalidAlgorithmParameterException {
 
-		// Make sure it is valid
-		if (!isValidAESKey(decryptedRSAKey)) {
-			throw new IllegalArgumentException("Decrypting the content of the PublicIPNotifRequest did not result in a valid AES key (length was: "+decryptedRSAKey.length+").");
-		}
-
-		// Generate the PublicIPNotification containing the public IP of the client
-		byte[] messageBytes = new PublicIPNotification(pipnr.getRemoteAddr(), db).getBytes();
+		// Encode the PublicIPNotification
+		byte[] messageBytes = pipn.getBytes();
 
-		// Concatenate it with its hash
-		byte[] replyPayload = concatByteArrays(messageBytes, SHA256(messageBytes));
+		// Concatenate it with its hash (bound to the client's nonce in case of a resumption request)
+		byte[] hashInput = (pipnr.getType() == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST) ? concatByteArrays(messageBytes, pipnr.getNonce()) : messageBytes;
+		byte[] replyPayload = concatByteArrays(messageBytes, SHA256(hashInput));
 
 		// Encrypt the concatenation using the AES-key supplied by the client
-		byte[] encryptedReply = AESEncrypt(decryptedRSAKey, replyPayload);
+		byte[] encryptedReply = AESEncrypt(AESKeyBytes, replyPayload);
+
+		// If the client asked for a session ticket: put it in front of the encrypted reply
+		if (pipnr.getType() == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST) {
+			PublicIPNotifSessionTicket ticket = new PublicIPNotifSessionTicket(createTicket(AESKeyBytes), (int) (ticketLifetime / 1000));
+			encryptedReply = concatByteArrays(ticket.getBytes(), encryptedReply);
+		}
 		
 		// Return the result
 		return encryptedReply;
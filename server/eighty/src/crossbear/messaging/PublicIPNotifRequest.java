@@ -30,11 +30,23 @@ import java.net.InetAddress;
  * A PublicIPNotifRequest is a message that is meant to be sent to the getPublicIP.jsp. It contains a AES256 key encrypted with the server's public RSA key. The AES- key is required to safely send the
  * PublicIPNotification-message to the client over a non-ssl connection.
  * 
+ * There are three types of PublicIPNotifRequests:
+ * - MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST: The content is the RSA-encrypted AES key (256 bytes)
+ * - MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST: Like above but the client asks the server to reply with a PublicIPNotifSessionTicket in front of the encrypted PublicIPNotification
+ * - MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST: The content is a session ticket that was issued by the server (variable length) followed by a random nonce (16 bytes). The server will use the
+ * AES key contained in the ticket and bind the reply to the nonce so it can't be replayed. No RSA operation is necessary for this type of request.
+ * 
  * @author Thomas Riedmaier
  * 
  */
 public class PublicIPNotifRequest extends Message{
 	
+	// The length of the nonce that is sent along with a session ticket
+	public static final int NONCE_LENGTH = 16;
+	
+	// The maximum length of a session ticket that is accepted
+	public static final int MAX_TICKET_LENGTH = 256;
+	
 	/**
 	 * Read a PublicIPNotifRequest from a input stream.
 	 * 
@@ -45,18 +57,19 @@ public class PublicIPNotifRequest extends Message{
 	 */
 	public static PublicIPNotifRequest readFromStream(InputStream in, String remoteAddr) throws IOException {
 
-		PublicIPNotifRequest pipnr = new PublicIPNotifRequest();
-
-		pipnr.setRemoteAddr(InetAddress.getByName(remoteAddr));
-
 		BufferedInputStream bin = new BufferedInputStream(in);
 
-		// Assert message type is MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST
+		// Assert message type is one of the PublicIPNotifRequest-types
 		int messageType = bin.read();
-		if (messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST) {
+		if (messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST && messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST
+				&& messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST) {
 			throw new IllegalArgumentException("The provided messageType " + messageType + " was not expected");
 		}
 
+		PublicIPNotifRequest pipnr = new PublicIPNotifRequest((byte) messageType);
+
+		pipnr.setRemoteAddr(InetAddress.getByName(remoteAddr));
+
 		// Read the message length field
 		byte[] messageLengthB = new byte[2];
 		if(bin.read(messageLengthB, 0, 2) != 2){
@@ -64,13 +77,28 @@ public class PublicIPNotifRequest extends Message{
 		}
 		int messageLength = Message.byteArrayToInt(messageLengthB);
 		
-		// Assert the message length to be the length of a AES256 key + 3 byte header
-		if(messageLength -3 != 2048 / 8){
-			throw new IllegalArgumentException("Read message length \""+messageLength+"\" but expected was \""+ 2048 / 8+3+"\"");
-		}
+		if (messageType == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST) {
 			
-		// Extract and store the RsaEncryptedKey from the stream
-		pipnr.setRsaEncryptedKey(readNBytesFromStream(bin, 2048 / 8));
+			// Assert the message to contain a ticket of reasonable size and a nonce
+			int ticketLength = messageLength - 3 - NONCE_LENGTH;
+			if (ticketLength <= 0 || ticketLength > MAX_TICKET_LENGTH) {
+				throw new IllegalArgumentException("Read message length \"" + messageLength + "\" which is not valid for a resumption request");
+			}
+
+			// Extract and store the ticket and the nonce from the stream
+			pipnr.setTicket(readNBytesFromStream(bin, ticketLength));
+			pipnr.setNonce(readNBytesFromStream(bin, NONCE_LENGTH));
+			
+		} else {
+			
+			// Assert the message length to be the length of a AES256 key + 3 byte header
+			if(messageLength -3 != 2048 / 8){
+				throw new IllegalArgumentException("Read message length \""+messageLength+"\" but expected was \""+ 2048 / 8+3+"\"");
+			}
+			
+			// Extract and store the RsaEncryptedKey from the stream
+			pipnr.setRsaEncryptedKey(readNBytesFromStream(bin, 2048 / 8));
+		}
 		
 		return pipnr;
 	}
@@ -81,11 +109,33 @@ public class PublicIPNotifRequest extends Message{
 	// The rsaEncryptedKey conatined within the message
 	private byte[] rsaEncryptedKey;
 	
+	// The session ticket contained within a resumption request
+	private byte[] ticket;
+	
+	// The nonce contained within a resumption request
+	private byte[] nonce;
+	
 	/**
-	 * Create a new PublicIPNotifRequest-message without any content
+	 * Create a new PublicIPNotifRequest-message of type MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST without any content
 	 */
 	public PublicIPNotifRequest()  {
-		super(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST);
+		this(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST);
+	}
+	
+	/**
+	 * Create a new PublicIPNotifRequest-message of a certain type without any content
+	 * 
+	 * @param type The type of the request (MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST, MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST or MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST)
+	 */
+	public PublicIPNotifRequest(byte type) {
+		super(type);
+	}
+
+	/**
+	 * @return nonce
+	 */
+	public byte[] getNonce() {
+		return nonce;
 	}
 
 	/**
@@ -101,6 +151,21 @@ public class PublicIPNotifRequest extends Message{
 	public byte[] getRsaEncryptedKey() {
 		return rsaEncryptedKey;
 	}
+
+	/**
+	 * @return ticket
+	 */
+	public byte[] getTicket() {
+		return ticket;
+	}
+	
+	/**
+	 * Set nonce
+	 * @param nonce
+	 */
+	public void setNonce(byte[] nonce) {
+		this.nonce = nonce;
+	}
 	
 	/**
 	 * Set remoteAddr
@@ -118,6 +183,14 @@ public class PublicIPNotifRequest extends Message{
 		this.rsaEncryptedKey = rsaEncryptedKey;
 	}
 
+	/**
+	 * Set ticket
+	 * @param ticket
+	 */
+	public void setTicket(byte[] ticket) {
+		this.ticket = ticket;
+	}
+
 	
 	/* (non-Javadoc)
 	 * @see crossbear.Message#writeContent(java.io.OutputStream)
@@ -125,6 +198,12 @@ public class PublicIPNotifRequest extends Message{
 	@Override
 	protected void writeContent(OutputStream out) throws IOException {
 
-		out.write(rsaEncryptedKey);
+		// Resumption requests contain the ticket and the nonce, all others the RSA-encrypted key
+		if (getType() == Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST) {
+			out.write(ticket);
+			out.write(nonce);
+		} else {
+			out.write(rsaEncryptedKey);
+		}
 	}
 }
@@ -0,0 +1,101 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A PublicIPNotifSessionTicket-message is sent by the getPublicIP.jsp in front of the encrypted PublicIPNotification whenever a client issued a PublicIPNotifRequest of type
+ * MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST. The ticket contained in it is opaque to the client: it is the AES key of the client encrypted and authenticated with a key that only the server knows.
+ * By presenting the ticket in a PublicIPNotifRequest of type MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST the client can reuse its AES key until the ticket expires. This way the expensive RSA
+ * decryption on the server (and the RSA encryption on the client) is only performed once per session instead of once per request.
+ * 
+ * The structure of the PublicIPNotifSessionTicket-message is
+ * - Header
+ * - Lifetime of the ticket in seconds (4 bytes)
+ * - Ticket (variable length)
+ */
+public class PublicIPNotifSessionTicket extends Message {
+
+	// The number of seconds for which the server will accept the ticket
+	private final int lifetime;
+
+	// The opaque ticket
+	private final byte[] ticket;
+
+	/**
+	 * Create a PublicIPNotifSessionTicket based on a byte[] that was sent by a server and is supposed to be a valid PublicIPNotifSessionTicket-message. The validity is checked within this function.
+	 * 
+	 * @param raw The byte[] to create the PublicIPNotifSessionTicket from
+	 */
+	public PublicIPNotifSessionTicket(byte[] raw) {
+		super(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_TICKET);
+
+		// Make sure that the input - which is supposed to be a PublicIPNotifSessionTicket-message - contains a lifetime and a non-empty ticket
+		if (raw.length <= 4) {
+			throw new IllegalArgumentException("The raw data array does not have the correct length: " + raw.length);
+		}
+
+		this.lifetime = Message.byteArrayToInt(Arrays.copyOfRange(raw, 0, 4));
+		this.ticket = Arrays.copyOfRange(raw, 4, raw.length);
+	}
+
+	/**
+	 * Create a new Message of Type MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_TICKET
+	 * 
+	 * @param ticket The opaque ticket
+	 * @param lifetime The number of seconds for which the server will accept the ticket
+	 */
+	public PublicIPNotifSessionTicket(byte[] ticket, int lifetime) {
+		super(Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_TICKET);
+
+		this.ticket = ticket;
+		this.lifetime = lifetime;
+	}
+
+	/**
+	 * @return The number of seconds for which the server will accept the ticket
+	 */
+	public int getLifetime() {
+		return lifetime;
+	}
+
+	/**
+	 * @return The opaque ticket
+	 */
+	public byte[] getTicket() {
+		return ticket;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see crossbear.Message#writeContent(java.io.OutputStream)
+	 */
+	@Override
+	protected void writeContent(OutputStream out) throws IOException {
+
+		out.write(Message.intToByteArray(lifetime));
+		out.write(ticket);
+	}
+
+}
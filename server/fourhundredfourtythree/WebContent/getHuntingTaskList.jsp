@@ -24,14 +24,29 @@ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
 SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
---%><%@ page import="crossbear.*,crossbear.messaging.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream,java.net.InetAddress"
+--%><%@ page import="crossbear.*,crossbear.storage.*,crossbear.messaging.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream,java.net.InetAddress"
 	language="java" 
 	contentType="application/octet-stream"
 %><%!
 
 	/*
-	* getHuntingTaskList.jsp doesn't take any input parameters and returns a list of all currently active Hunting Tasks
-	* (Sequence of HuntingTask-messages) combined with a PublicIPNotification-message and a CurrentServerTime-message
+	* getHuntingTaskList.jsp returns a list of all currently active Hunting Tasks (Sequence of HuntingTask-messages) combined with a
+	* PublicIPNotification-message and a CurrentServerTime-message.
+	*
+	* Each client receives only its shard of the Hunting Task list: At most 50 Hunting Tasks that still need results, chosen based
+	* on the client's network and the IP-versions it can use (cf. HuntingTaskListSnapshot.getShard).
+	*
+	* It takes two optional input parameters:
+	* - "version", the version of the Hunting Task list that the client already knows (0 if none). If it is present, the list is
+	*   preceded by a HuntingTaskListVersion-message and contains only the changes since that version (added or changed
+	*   HuntingTask-messages and HuntingTaskRemoval-messages) as long as the server still knows that version. In that case the
+	*   HuntingTaskListVersion-message contains the order of all Hunting Tasks so the client can keep them ordered by priority.
+	* - "ipVersions", the IP-versions that the client is able to use besides the one of its request (e.g. "4,6").
+	*
+	* Each reply carries an ETag that identifies the version of the Hunting Task list. Requests whose If-None-Match-header contains
+	* that ETag are answered with "304 Not Modified". Replies are compressed using gzip or deflate if the client accepts that. The
+	* compressed form of the complete Hunting Task list is cached so only the PublicIPNotification- and the CurrentServerTime-message
+	* need to be compressed for each request.
 	*/
 
 	/*
@@ -49,6 +64,20 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 	// Properties and settings of the Crossbear server
 	private Properties properties;
 
+	// Check if the If-None-Match-header of a request contains an ETag (e.g. "\"1a2b\", \"3c4d\"" or "*")
+	private boolean isETagMatched(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	//Constructor-like functionality: Only performed the first time the page is loaded
 	public void jspInit() {
 
@@ -65,19 +94,39 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 			// Load the porperties and settings from the config file
 			properties = new Properties("/opt/apache-tomcat/webapps/crossbear.properties");
 
+			// Apply the settings of the SQL profiler (e.g. the threshold of the slow query log)
+			SQLProfiler.configure(properties);
+
+			// Start retiring Hunting Tasks that are too old (the ones that have enough results are retired as soon as their last result is stored)
+			HuntingTaskExpiry.start(properties);
+
 		} catch (Exception e) {
 
 			Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.getHuntingTaskList.init.error", e);
 		}
 	}
+
+	//Destructor-like functionality: Performed when the page is unloaded
+	public void jspDestroy() {
+		HuntingTaskExpiry.stop();
+		InvalidationListener.stop();
+
+		// Write the exceptions that are still queued and close the log-files
+		Logger.shutdown();
+	}
 	%><%
-	Database db = null;
+	Storage storage = null;
 
 	try {
+		// The time at which the processing started and the time at which the current stage started (cf. Latencies)
+		long start = System.nanoTime();
+		long t = start;
+		
 		// Crossbear works on binary messages. To send these from the server to the client they need to be written into response.getOutputStream()
 		OutputStream outStream = response.getOutputStream();
 
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+		storage = StorageFactory.open(properties);
+		t = Latencies.record("getHuntingTaskList.openDatabase", t);
 
 		/*
 		* The hunting task list consists of three parts:
@@ -88,15 +137,38 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 		* It is assembled here.
 		*/
 		InetAddress remoteIP = InetAddress.getByName(request.getRemoteAddr());
-		MessageList reply = MessageList.getCurrentHuntingTaskList(remoteIP, cacheValidity, db);
-		reply.add(new PublicIPNotification(remoteIP, db));
+		String versionParam = request.getParameter("version");
+		long knownVersion = (versionParam != null) ? Long.parseLong(versionParam) : -1;
+		String contentEncoding = PrecompressedData.chooseContentEncoding(request.getHeader("Accept-Encoding"));
+		HuntingTaskListSnapshot htl = MessageList.getCurrentHuntingTaskList(remoteIP, request.getParameter("ipVersions"), cacheValidity, storage);
+		t = Latencies.record("getHuntingTaskList.getSnapshot", t);
+
+		// If the client already knows this version of the Hunting Task list there is no need to send it again
+		String eTag = htl.getETag(contentEncoding);
+		response.setHeader("ETag", eTag);
+		response.setHeader("Vary", "Accept-Encoding");
+		if (isETagMatched(request.getHeader("If-None-Match"), eTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			Latencies.record("getHuntingTaskList.total", start);
+			return;
+		}
+
+		MessageList reply = new MessageList();
+		htl.addToMessageList(reply, knownVersion);
+		reply.add(new PublicIPNotification(remoteIP, storage));
 		reply.add(new CurrentServerTime());
+		t = Latencies.record("getHuntingTaskList.assembleReply", t);
 
-		//Send the Hunting Task List to the client
-		outStream.write(reply.getBytes());
+		//Send the Hunting Task List to the client (compressed if the client accepts that)
+		if (contentEncoding != null) {
+			response.setHeader("Content-Encoding", contentEncoding);
+		}
+		outStream.write(reply.getBytes(contentEncoding));
 		
 		// Finally: Sent the reply to the client
 		response.flushBuffer();
+		Latencies.record("getHuntingTaskList.sendReply", t);
+		Latencies.record("getHuntingTaskList.total", start);
 
 	} catch (Exception e) {
 		/*
@@ -108,7 +180,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 		Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.getHuntingTaskList.processing.error", e);
 
 	} finally {
-		if (db != null)
-			db.close();
+		if (storage != null)
+			storage.close();
 	}
 %>
\ No newline at end of file
@@ -0,0 +1,13 @@
+<%@ page import="crossbear.*" language="java" contentType="text/plain; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%><%!
+
+	/*
+	* latencyStatus.jsp does not expect any input and returns the latencies of all stages of the request processing of the pages of this web application
+	* in a machine-readable plain text format (cf. SystemStatus.getLatencyStatus).
+	*/
+	%><%
+
+// return the latencies of all recorded stages
+out.print(SystemStatus.getLatencyStatus());
+
+%>
\ No newline at end of file
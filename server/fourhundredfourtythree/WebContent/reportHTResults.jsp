@@ -24,14 +24,15 @@ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
 SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
---%><%@ page import="crossbear.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream"
+--%><%@ page import="crossbear.*,crossbear.storage.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream"
 	language="java" 
 	contentType="application/octet-stream"
 %><%!
 
 	/*
 	* reportHTResults.jsp takes as input a Sequence of HuntingTaskReply-messages. It checks if they are valid and - in case they are -
-	* stores them in the database. It doesn't have any meaningful output.
+	* stores them in the database. It doesn't have any meaningful output. Invalid replies are skipped, but if the replies couldn't be
+	* stored (e.g. because the database is unavailable) it answers with "503 Service Unavailable" so the client sends them again.
 	*/
 
 	/* 
@@ -61,19 +62,22 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 			// Load the porperties and settings from the config file
 			properties = new Properties("/opt/apache-tomcat/webapps/crossbear.properties");
 
+			// Apply the settings of the SQL profiler (e.g. the threshold of the slow query log)
+			SQLProfiler.configure(properties);
+
 			/*
 			* Like mentioned above the CertificateManager needs to load the local keystore on initilization.
 			* This is done here.
 			* 
 			* In order to be able to look into all certificates that are part of any certificate chain these
-			* certificates need to be put in the database also. This requires a database object.
+			* certificates need to be stored also. This requires a Storage object.
 			*
-			* Since Crossbear uses Transactions there is no such thing as a global Database object. That again is
-			* the reason why a new database connection is created to insert the certificates and closed afterwards.
+			* Since Crossbear uses Transactions there is no such thing as a global Storage object. That again is
+			* the reason why a new Storage is opened to insert the certificates and closed afterwards.
 			*/
-			Database db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-			cm = new CertificateManager(db, 0, properties.getProperty("keystore.password"));
-			db.close();
+			Storage storage = StorageFactory.open(properties);
+			cm = new CertificateManager(storage, 0, properties.getProperty("keystore.password"));
+			storage.close();
 
 
 		} catch (Exception e) {
@@ -84,26 +88,41 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 	}
 	%><%
-	Database db = null;
+	Storage storage = null;
 
 	try {
 
-		//Processing the Hunting Task Result is quite lenghty. Therefore i moved this functionality to the "Hunting Task Result Processor " (HTRProcessor)
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-		HTRProcessor htrp = new HTRProcessor(request.getInputStream(), cm, db);
+		// The time at which the processing started (cf. Latencies)
+		long start = System.nanoTime();
+
+		//Processing the Hunting Task Result is quite lenghty. Therefore i moved this functionality to the "Hunting Task Result Processor " (HTRProcessor). It records the stages of the processing of each reply.
+		storage = StorageFactory.open(properties);
+		HTRProcessor htrp = new HTRProcessor(request.getInputStream(), cm, storage);
+		Latencies.record("reportHTResults.total", start);
 		
 
+	} catch (IllegalArgumentException e) {	
+		/*
+		* The HTRProcessor skips invalid replies on its own. An IllegalArgumentException that reaches this point means that the request
+		* itself couldn't be decoded. Sending it again won't change that. Therefore a dummy reply is sent (it's not very smart to tell
+		* attackers what went wrong).
+		*/
+
+		// For debugging reasons: Log what went wrong
+		Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.reportHTResult.processing.error", e);
+
 	} catch (Exception e) {	
 		/*
-		* None of the calls above catches exceptions. Whenever something went wrong (e.g. with decoding the client's request)
-		* A exception is thrown and cought here. Since it's not very smart to tell attackers what went wrong a dummy reply is sent to them.
+		* Everything else (e.g. the database being unavailable) means that the replies might not have been stored. Tell the client
+		* to keep them and send them again later.
 		*/
 
 		// For debugging reasons: Log what went wrong
 		Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.reportHTResult.processing.error", e);
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
 
 	} finally {
-		if (db != null)
-			db.close();
+		if (storage != null)
+			storage.close();
 	}
 %>
\ No newline at end of file
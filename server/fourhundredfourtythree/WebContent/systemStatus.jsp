@@ -1,4 +1,4 @@
-<%@ page import="crossbear.*" language="java" contentType="text/html; charset=ISO-8859-1"
+<%@ page import="crossbear.*,crossbear.storage.*" language="java" contentType="text/html; charset=ISO-8859-1"
     pageEncoding="ISO-8859-1"%><%!
 
 	/*
@@ -16,6 +16,9 @@
 			// Load the porperties and settings from the config file
 			properties = new Properties("/opt/apache-tomcat/webapps/crossbear.properties");
 
+			// Apply the settings of the SQL profiler (e.g. the threshold of the slow query log)
+			SQLProfiler.configure(properties);
+
 		} catch (Exception e) {
 
 			Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.systemStatus.init.error", e);
@@ -31,15 +34,15 @@
 
 <%
 
-Database db = null;
+Storage storage = null;
 
 try {
 
 	// open a database connection
-	db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+	storage = StorageFactory.open(properties);
 
 	// get the status of the crossbear system and display its HTML encoded representation
-	out.println(SystemStatus.getStatusHTML(db));
+	out.println(SystemStatus.getStatusHTML(storage));
 
 } catch (Exception e) {
 	/*
@@ -51,8 +54,8 @@ try {
 	Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.systemStatus.processing.error", e);
 
 } finally {
-	if (db != null)
-		db.close();
+	if (storage != null)
+		storage.close();
 }
 
 %>
@@ -24,7 +24,7 @@ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
 SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
---%><%@ page import="crossbear.*,crossbear.messaging.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream"
+--%><%@ page import="crossbear.*,crossbear.storage.*,crossbear.messaging.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream"
 	 language="java"
 	contentType="application/octet-stream"
 	%><%!
@@ -86,19 +86,22 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 			// Load the porperties and settings from the config file
 			properties = new Properties("/opt/apache-tomcat/webapps/crossbear.properties");
 
+			// Apply the settings of the SQL profiler (e.g. the threshold of the slow query log)
+			SQLProfiler.configure(properties);
+
 			/*
 			* As mentioned above the CertificateManager needs to load the local keystore on initilization.
 			* This is done here.
 			* 
 			* In order to be able to look into all certificates that are part of any certificate chain these
-			* certificates need to be put in the database also. This requires a database object.
+			* certificates need to be stored also. This requires a Storage object.
 			*
-			* Since Crossbear uses Transactions there is no such thing as a global Database object. That again is
-			* the reason why a new database connection is created to insert the certificates and closed afterwards.
+			* Since Crossbear uses Transactions there is no such thing as a global Storage object. That again is
+			* the reason why a new Storage is opened to insert the certificates and closed afterwards.
 			*/
-			Database db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-			cm = new CertificateManager(db,cacheValidity, properties.getProperty("keystore.password"));
-			db.close();
+			Storage storage = StorageFactory.open(properties);
+			cm = new CertificateManager(storage,cacheValidity, properties.getProperty("keystore.password"));
+			storage.close();
 
 		} catch (Exception e) {
 
@@ -108,18 +111,24 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 	}
 	%><%
-	Database db = null;
+	Storage storage = null;
 	
 	try {
+		// The time at which the processing started and the time at which the current stage started (cf. Latencies)
+		long start = System.nanoTime();
+		long t = start;
+		
 		// Crossbear works on binary messages. To send these from the server to the client they need to be written into response.getOutputStream()
 		OutputStream outStream = response.getOutputStream();
 		
 		//First of all try to decode the CertVerifyRequest sent by the client
 		CertVerifyRequest cvr = CertVerifyRequest.readFromStream(request.getInputStream(), request.getRemoteAddr(), request.getLocalAddr());
+		t = Latencies.record("verifyCert.parseRequest", t);
 
 		//If the decoding succedded open a database connection and create a CVRProcessor
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-		CVRProcessor cvrp = new CVRProcessor(cvr, cm, db);
+		storage = StorageFactory.open(properties);
+		CVRProcessor cvrp = new CVRProcessor(cvr, cm, storage);
+		t = Latencies.record("verifyCert.openDatabase", t);
 		
 		/*
 		* Under certain circumstances the Crossbear Firefox Plug-in sends duplicate requests. 
@@ -131,18 +140,25 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 		* First: try to get the CertVerifyResult from cache
 		*/
 		byte[] reply = cvrp.getCachedCertVerifyResult();
+		t = Latencies.record("verifyCert.readCache", t);
 		
 		if(reply == null){
 
-			// If that failed calculate the reply ...
+			// If that failed calculate the reply (the stages of the processing are recorded by the CVRProcessor) ...
 			reply = cvrp.process().getBytes();
+			t = System.nanoTime();
 			
 			//... and store it in the database
 			cvrp.storeCertVerifyResultInCache(reply,cacheValidity);
+			t = Latencies.record("verifyCert.writeCache", t);
 		}
 
-		// Send the reply to the client
-		outStream.write(reply);
+		// Send the reply to the client (compressed if the client accepts that)
+		String contentEncoding = PrecompressedData.chooseContentEncoding(request.getHeader("Accept-Encoding"));
+		if (contentEncoding != null) {
+			response.setHeader("Content-Encoding", contentEncoding);
+		}
+		outStream.write(PrecompressedData.EMPTY.encode(contentEncoding, reply));
 		
 		// Occasionally purge the cache from old entries
 		pageLoadCounter++;
@@ -154,6 +170,8 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 		
 		// Finally: Sent the reply to the client (flush the out buffer)
 		response.flushBuffer();
+		Latencies.record("verifyCert.sendReply", t);
+		Latencies.record("verifyCert.total", start);
 
 
 	} catch (Exception e) {
@@ -166,7 +184,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 		Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.verifyCert.processing.error", e);
 
 	} finally {
-		if (db != null)
-			db.close();
+		if (storage != null)
+			storage.close();
 	}
 %>
\ No newline at end of file
@@ -0,0 +1,206 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The BoundedCache is a thread-safe in-memory cache that holds at most a fixed number of entries. It is meant to be shared between all requests that are processed by the same JVM (e.g. as a static
+ * member of a class) and is therefore safe to be read and written concurrently.
+ *
+ * If the cache is full the entries are evicted in the order in which they were inserted (an entry that is replaced counts as inserted anew). This is less precise than a LRU-strategy but it doesn't
+ * require any locking on reads.
+ *
+ * Removing an entry only takes it out of the map of entries. Its node stays in the insertion order until it is reached by the eviction (which skips it) or until the insertion order is compacted
+ * because it has become much longer than the number of entries. That way removing is O(1) instead of O(n).
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached values
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * A Node is a single insertion of an entry. It is only part of the cache as long as the map of entries points to it.
+	 */
+	private static class Node<K, V> {
+
+		// The key of the entry
+		private final K key;
+
+		// The value of the entry
+		private final V value;
+
+		/**
+		 * Create a new Node
+		 *
+		 * @param key The key of the entry
+		 * @param value The value of the entry
+		 */
+		public Node(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	// The cached entries
+	private final ConcurrentHashMap<K, Node<K, V>> entries = new ConcurrentHashMap<K, Node<K, V>>();
+
+	// The nodes of the cached entries in the order in which they were inserted (along with the nodes of entries that were removed or replaced in the meantime)
+	private final ConcurrentLinkedQueue<Node<K, V>> insertionOrder = new ConcurrentLinkedQueue<Node<K, V>>();
+
+	// The (approximate) number of nodes in insertionOrder (ConcurrentLinkedQueue.size() is O(n))
+	private final AtomicInteger insertionOrderSize = new AtomicInteger();
+
+	// True while a thread is compacting insertionOrder
+	private final AtomicBoolean compacting = new AtomicBoolean();
+
+	// The maximum number of entries that the cache will hold
+	private final int maxSize;
+
+	/**
+	 * Create a new BoundedCache
+	 *
+	 * @param maxSize The maximum number of entries that the cache will hold
+	 */
+	public BoundedCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The maximum size of a BoundedCache must be positive: " + maxSize);
+		}
+
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Remove all entries from the cache
+	 */
+	public void clear() {
+		entries.clear();
+		insertionOrder.clear();
+		insertionOrderSize.set(0);
+	}
+
+	/**
+	 * Remove the nodes of entries that were removed or replaced from insertionOrder. This is O(n) but since it is only done when insertionOrder has grown to twice the maximum size of the cache, it is
+	 * O(1) per call of put.
+	 */
+	private void compact() {
+
+		// Only one thread needs to compact
+		if (!compacting.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			int removed = 0;
+			Iterator<Node<K, V>> it = insertionOrder.iterator();
+			while (it.hasNext()) {
+				Node<K, V> node = it.next();
+				if (entries.get(node.key) != node) {
+					it.remove();
+					removed++;
+				}
+			}
+			insertionOrderSize.addAndGet(-removed);
+		} finally {
+			compacting.set(false);
+		}
+	}
+
+	/**
+	 * Get an entry from the cache
+	 *
+	 * @param key The key of the entry
+	 * @return The cached value or null if there is none
+	 */
+	public V get(K key) {
+		Node<K, V> node = entries.get(key);
+		return (node != null) ? node.value : null;
+	}
+
+	/**
+	 * Insert an entry into the cache. If this makes the cache exceed its maximum size the oldest entries will be evicted.
+	 *
+	 * @param key The key of the entry
+	 * @param value The value of the entry
+	 */
+	public void put(K key, V value) {
+
+		// Insert the entry and remember the order of insertion
+		Node<K, V> node = new Node<K, V>(key, value);
+		entries.put(key, node);
+		insertionOrder.add(node);
+		insertionOrderSize.incrementAndGet();
+
+		// Evict the oldest entries until the cache isn't too big anymore (nodes of entries that were removed or replaced are skipped)
+		while (entries.size() > maxSize) {
+			Node<K, V> oldest = insertionOrder.poll();
+			if (oldest == null) {
+				break;
+			}
+			insertionOrderSize.decrementAndGet();
+			entries.remove(oldest.key, oldest);
+		}
+
+		// Get rid of the skipped nodes if there are too many of them
+		if (insertionOrderSize.get() > 2 * maxSize) {
+			compact();
+		}
+	}
+
+	/**
+	 * Insert an entry into the cache unless there already is one for the key.
+	 *
+	 * @param key The key of the entry
+	 * @param value The value of the entry
+	 * @return The value that is cached for the key after the call (i.e. either the existing value or the new one)
+	 */
+	public V putIfAbsent(K key, V value) {
+
+		// Check if another thread was faster
+		V existing = get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		// If not: insert the new value
+		put(key, value);
+		return value;
+	}
+
+	/**
+	 * Remove an entry from the cache. Its node is left in insertionOrder and skipped later on.
+	 *
+	 * @param key The key of the entry to remove
+	 */
+	public void remove(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * @return The number of entries that are currently cached
+	 */
+	public int size() {
+		return entries.size();
+	}
+}
@@ -32,14 +32,10 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
-import java.security.interfaces.RSAPublicKey;
 import java.sql.Date;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -60,6 +56,8 @@ import crossbear.messaging.HuntingTask;
 import crossbear.messaging.Message;
 import crossbear.messaging.MessageList;
 import crossbear.messaging.PublicIPNotification;
+import crossbear.storage.CacheEntry;
+import crossbear.storage.Storage;
 
 /**
  * The CVRProcessor takes as input a CertVerifyRequest and judges its certificate based on various criteria. It returns a MessageList consisting of a CertVerifyResult and optionally a
@@ -97,11 +95,27 @@ import crossbear.messaging.PublicIPNotification;
  */
 public class CVRProcessor {
 
-	// Regex to match the commonName-part within a Distinguished Name
-	private static final Pattern cnPat = Pattern.compile("CN=[a-zA-Z0-9\\.\\-\\*]*", Pattern.CASE_INSENSITIVE);
-	
 	// Regex that will match the deprecated algorithms MD2, MD5 (and all others of the MD-family)
 	private static final Pattern deprecatedAlgPat = Pattern.compile("md\\d", Pattern.CASE_INSENSITIVE);
+	
+	// Cache for the DomainMatchers of certificates that have already been judged. The key is the hex-encoded SHA256-hash of the certificate
+	private static final BoundedCache<String, DomainMatcher> domainMatcherCache = new BoundedCache<String, DomainMatcher>(1000);
+
+	/**
+	 * Add a CertJudgment to a CertVerifyResult and finish the OperationEvent that recorded its computation
+	 * 
+	 * @param result The CertVerifyResult to add the judgment to
+	 * @param judgment The CertJudgment to add
+	 * @param event The OperationEvent that was begun before the judgment was computed
+	 */
+	private static void addJudgment(CertVerifyResult result, CertJudgment judgment, OperationEvent event) {
+		result.addJudgment(judgment);
+
+		// Assembling the outcome is only necessary if the event is recorded at all
+		if (event.isRecorded()) {
+			event.commit(judgment.getRating() + ": " + judgment.getText());
+		}
+	}
 
 	/**
 	 * Judge the equality of two certificates. There are three possible outcomes: 
@@ -113,13 +127,14 @@ public class CVRProcessor {
 	 * @param requestCert The certificate of the server observed by a Crossbear client
 	 * @return A CertJudgment reflecting the equality of the two certificates
 	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
 	 */
-	private static CertJudgment getJudgmentOfCertEquality(X509Certificate serverCert, X509Certificate requestCert) throws CertificateEncodingException {
+	private static CertJudgment getJudgmentOfCertEquality(X509Certificate serverCert, X509Certificate requestCert) throws CertificateEncodingException, NoSuchAlgorithmException {
 
 		if (serverCert == null) {
 			return new CertJudgment("<crit>CERTCOMPARE: NO CERT RECEIVED</crit>", -100);
 			
-		} else if (Arrays.equals(serverCert.getEncoded(), requestCert.getEncoded())) {
+		} else if (Arrays.equals(CertificateDerivatives.get(serverCert).getDER(), CertificateDerivatives.get(requestCert).getDER())) {
 			return new CertJudgment("CERTCOMPARE: same", 80);
 			
 		} else {
@@ -155,21 +170,61 @@ public class CVRProcessor {
 	 * - The CN is invalid (most likely because of an attack)
 	 * - The CN is valid but doesn't match the host
 	 * - The CN is valid and matches the host
+	 *
+	 * Since the inspection is expensive its result is cached as a DomainMatcher for each certificate that passed it.
 	 * 
 	 * @param cert The certificate to judge
 	 * @param host The host for wich it claims to be valid
 	 * @return A CertJudgment stating if a certificate is valid vor a host.
 	 * @throws CertificateEncodingException
 	 * @throws CertificateParsingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	private static CertJudgment getJudgmentOfDomainMatch(X509Certificate cert, String host) throws CertificateEncodingException, CertificateParsingException, NoSuchAlgorithmException {
+
+		// Check if the certificate has already been inspected
+		CertificateDerivatives derivatives = CertificateDerivatives.get(cert);
+		String certHash = derivatives.getSHA256Hex();
+		DomainMatcher domainMatcher = domainMatcherCache.get(certHash);
+		
+		// If not: inspect it and remember the result
+		if (domainMatcher == null) {
+			
+			// Certificates with missing or malicious CNs are rare and therefore not cached
+			CertJudgment cnJudgment = getJudgmentOfCNs(derivatives);
+			if (cnJudgment != null) {
+				return cnJudgment;
+			}
+			
+			domainMatcher = domainMatcherCache.putIfAbsent(certHash, new DomainMatcher(derivatives.getDomainPatterns()));
+		}
+
+		// Check if one of the certificates domains equals the host and report the result of that check
+		if (!domainMatcher.matches(host)) {
+			return new CertJudgment("<crit>CERT->DOMAIN: NOT VALID FOR " + host+"</crit>", -70);
+		} else {
+			return new CertJudgment("CERT->DOMAIN: ok", 50);
+		}
+	}
+	
+	/**
+	 * Inspect the Common Names of a certificate. This is done by deep certificate inspection and not by calling high level functions since they might be vulnerable to attacks like the Null Prefix
+	 * Attack (http://www.thoughtcrime.org/papers/null-prefix-attacks.pdf). There are three possible outcomes:
+	 * - The CN could not be found inside the certificate
+	 * - The CN is invalid (most likely because of an attack)
+	 * - The CNs are valid
+	 * 
+	 * @param derivatives The CertificateDerivatives of the certificate to inspect
+	 * @return A CertJudgment if the CN could not be found or is invalid and null if the CNs are valid
 	 */
-	private static CertJudgment getJudgmentOfDomainMatch(X509Certificate cert, String host) throws CertificateEncodingException, CertificateParsingException {
+	private static CertJudgment getJudgmentOfCNs(CertificateDerivatives derivatives) {
 
 		// Search the certificate for all of it's Common Names
 		boolean couldExtractCN = false;
 		Vector<byte[]> cnBytes = new Vector<byte[]>();
 		try {
 			// Cast the certificate into a DERSequence ... 
-			DERSequence seq = (DERSequence) DERSequence.fromByteArray(cert.getEncoded());
+			DERSequence seq = (DERSequence) DERSequence.fromByteArray(derivatives.getDER());
 
 			// ... and search it for Common Names
 			searchSequenceForCNs(seq, cnBytes);
@@ -197,29 +252,7 @@ public class CVRProcessor {
 			return new CertJudgment("<crit>CERT->DOMAIN: CN IS INVALID</crit>", -200);
 		}
 
-		// Get all domains for which the certificate is valid
-		Vector<String> domains = new Vector<String>();
-		
-		// First: Extract the main DN-field from the certificate
-		domains.add(getURLFromDN(cert.getSubjectDN().getName()));
-		
-		// Second: Extract all alternative names from the certificate
-		Collection<List<?>> sans = cert.getSubjectAlternativeNames();
-		if (null != sans) {
-			for (List<?> next : sans) {
-				Object entry = next.get(1);
-				if(entry instanceof String){
-					domains.add((String) entry);
-				}
-			}
-		}
-
-		// Check if one of the certificates domains equals the host and report the result of that check
-		if (!isValidForHost(domains, host)) {
-			return new CertJudgment("<crit>CERT->DOMAIN: NOT VALID FOR " + host+"</crit>", -70);
-		} else {
-			return new CertJudgment("CERT->DOMAIN: ok", 50);
-		}
+		return null;
 	}
 
 	/**
@@ -230,12 +263,16 @@ public class CVRProcessor {
 	 * @param cert
 	 *            The certificate to judge
 	 * @return A CertificateJudgment rating the certificates keylength based on the current keylength suggestion of BSI.
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
 	 */
-	private static CertJudgment getJudgmentOfKeyLength(X509Certificate cert){
+	private static CertJudgment getJudgmentOfKeyLength(X509Certificate cert) throws CertificateEncodingException, NoSuchAlgorithmException{
 		
-		try{
 		// Get the keylength of the Certificate's public key
-		int keylength = ((RSAPublicKey) (cert.getPublicKey())).getModulus().bitLength();
+		int keylength = CertificateDerivatives.get(cert).getKeyLength();
+		if(keylength < 0){
+			return new CertJudgment("KEYLENGTH: no rsa key", 0);
+		}
 		
 		// Rate it deppending on the value of (keylength - 2048).
 		int keylengthRating = (keylength - 2048 <0)? ((2048 - keylength)*(keylength - 2048))/30000:(keylength - 2048)/100;
@@ -247,10 +284,6 @@ public class CVRProcessor {
 			return new CertJudgment("KEYLENGTH: " + keylength + " bit", keylengthRating);
 		}
 		
-		} catch (ClassCastException e){
-			return new CertJudgment("KEYLENGTH: no rsa key", 0);
-		}
-		
 	}
 	
 	/**
@@ -260,52 +293,19 @@ public class CVRProcessor {
 	 * 
 	 * @param cert The certificate for which the period should be determined
 	 * @param hostPort The Hostname and port of the server from which it has been observed by the client e.g. encrypted.google.com:443 
-	 * @param db The database connection to use
+	 * @param storage The Storage to use
 	 * @return A CertificateJudgment stating when was the last continuous observation period of the certificate
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	private static CertJudgment getJudgmentOfLastObservationPeriod(X509Certificate cert, String hostPort, Database db) throws CertificateEncodingException, NoSuchAlgorithmException, InvalidParameterException, SQLException {
-		
-		// Calculate the certificate's SHA256-Hash
-		byte[] certHash = CertificateManager.SHA256(cert.getEncoded());
+	private static CertJudgment getJudgmentOfLastObservationPeriod(X509Certificate cert, String hostPort, Storage storage) throws CertificateEncodingException, NoSuchAlgorithmException, InvalidParameterException, SQLException {
 		
-		// Get all certificate ID's that share that hash
-		String IDs = CertificateManager.getCertIDs(certHash,db);
-
-		// Get the Timestamp of the last observation of the certificate for the host or the current time if it has never been observed (which would result in a LCOP of 0 days)
-		Object[] params = { hostPort };
-		    // WARNING (Ralph): you're interpolating a string
-		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
-		    // And you're using prepared statements, of course
-		ResultSet rs = db.executeQuery("SELECT coalesce(MAX(Timeofobservation), 'NOW') AS Time FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+") AND ObserverType = 'CrossbearServer'", params);
-
-		if (!rs.next()) {
-			throw new SQLException("Query returned invalid result.");
-		}
-
-		// Remember that Timestamp as endOfObservationPeriod
-		Timestamp endOfObservationPeriod = rs.getTimestamp("Time");
-
-		
-		Object[] params2 = { hostPort, hostPort, endOfObservationPeriod };
-		// Get the newest Timestamp of any certificate observation for the host that was not on the current certificate but is older than endOfObservationPeriod (or alternatively a very old dummy timestamp if there is none).
-		String sqlSubQuery = "SELECT coalesce(MAX(TimeOfObservation), TIMESTAMP '1900-01-01 00:00') as Time FROM CertObservations WHERE ServerHostPort = ? AND CertID NOT IN ("+IDs+") AND ObserverType = 'CrossbearServer' and TimeOfObservation < ?";
-		
-		// Get the oldest Timestamp of any observation of the current certificate that is still newer than the Timestamp of the sub-querry
-		    // WARNING (Ralph): you're interpolating a string
-		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
-		    // And you're using prepared statements, of course
-		rs = db.executeQuery("SELECT coalesce(MIN(TimeOfObservation), 'NOW') as Time FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+")  AND ObserverType = 'CrossbearServer' AND TimeOfObservation > (" + sqlSubQuery + ")", params2);
-
-		if (!rs.next()) {
-			throw new SQLException("Query returned invalid result.");
-		}
-
-		// Remember that Timestamp as beginOfObservationPeriod
-		Timestamp beginOfObservationPeriod = rs.getTimestamp("Time");
+		// Get the last period during which the CrossbearServer observed the certificate for the host without interruption (it starts and ends now if the certificate has never been observed which would result in a LCOP of 0 days)
+		Timestamp[] period = storage.getLastObservationPeriod(CertificateDerivatives.get(cert).getSHA256Hex(), hostPort, "CrossbearServer");
+		Timestamp beginOfObservationPeriod = period[0];
+		Timestamp endOfObservationPeriod = period[1];
 
 		// Calculate how many days are between beginOfObservationPeriod and endOfObservationPeriod
 		int observationdays = (int) ((endOfObservationPeriod.getTime() - beginOfObservationPeriod.getTime()) / (24 * 60 * 60 * 1000));
@@ -331,34 +331,17 @@ public class CVRProcessor {
 	 * 
 	 * @param cert The certificate for which the total number of observations should be determined
 	 * @param hostPort The Hostname and port of the server from which it has been observed by the client e.g. encrypted.google.com:443
-	 * @param db The database connection to use
+	 * @param storage The Storage to use
 	 * @return A CertificateJudgment stating how often a certificate has already been observed for a host
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	private static CertJudgment getJudgmentOfTotalNumberOfObservation(X509Certificate cert, String hostPort, Database db) throws CertificateEncodingException, NoSuchAlgorithmException, InvalidParameterException, SQLException {
+	private static CertJudgment getJudgmentOfTotalNumberOfObservation(X509Certificate cert, String hostPort, Storage storage) throws CertificateEncodingException, NoSuchAlgorithmException, InvalidParameterException, SQLException {
 
-		// Calculate the certificate's SHA256-Hash
-		byte[] certHash = CertificateManager.SHA256(cert.getEncoded());
-		
-		// Get all certificate ID's that share that hash
-		String IDs = CertificateManager.getCertIDs(certHash,db);
-		
-		// Get the total number of how often cert has been observed for hostPort by the CrossbearServer
-		Object[] params = { hostPort };
-		    // WARNING (Ralph): you're interpolating a string
-		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
-		    // And you're using prepared statements, of course
-		ResultSet rs = db.executeQuery("SELECT COUNT(Id) as Num FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+") AND ObserverType = 'CrossbearServer'", params);
-		
-		if (!rs.next()) {
-			throw new SQLException("Query returned invalid result.");
-		}
-		
-		// Remember the number and derive a rating from it
-		long nomOfObservations = rs.getLong("Num");
+		// Get the total number of how often cert has been observed for hostPort by the CrossbearServer and derive a rating from it
+		long nomOfObservations = storage.countCertObservations(CertificateDerivatives.get(cert).getSHA256Hex(), hostPort, "CrossbearServer");
 		int rating = (int)(nomOfObservations/30);
 		
 		// Convert the number into its textual representation taking into account that the number might be very big and should be shortened
@@ -393,26 +376,6 @@ public class CVRProcessor {
 		
 	}
 
-	/**
-	 * Extract the commonName-part from a Distinguished Name
-	 * 
-	 * @param dn The Distinguised Name
-	 * @return The commonName-part of the DN
-	 */
-	private static String getURLFromDN(String dn) {
-		
-		// Apply the pattern that matches the CN-part
-		Matcher matcher = cnPat.matcher(dn.replaceAll("\\s", ""));
-		
-		// If it doesn't match then there is nothing to return
-		if (!matcher.find())
-			return "";
-
-		// If it does: retrieve the matching string and return it
-		String match = matcher.group();
-		return match.substring(3, match.length());
-	}
-	
 	/**
 	 * After a certificate was judged and a CertVerifyResult was created it might be of use to create a Hunting Task on the server of the CertVerifyRequest. The decision if this is wanted or not is
 	 * made here.
@@ -468,41 +431,6 @@ public class CVRProcessor {
 		return true;
 	}
 
-	/**
-	 * Check if one of the domainPatterns matches the host
-	 * 
-	 * @param domainPatterns The domain patterns that might match the host (e.g. *.google.com, www.google.com)
-	 * @param host The host to match (e.g. encrypted.google.com)
-	 * @return True if one of the pattern matches else false
-	 */
-	private static boolean isValidForHost(Vector<String> domainPatterns, String host) {
-
-		// Regex that matches all special chars
-		Pattern specialCharPat = Pattern.compile("([^a-zA-Z0-9])");
-		
-		// String that will when compiled as Regex match all non-special chars 
-		String validChars = "[a-zA-Z0-9-_]*";
-
-		for (int i = 0; i < domainPatterns.size(); i++) {
-
-			// Escape all special chars within the CN
-			String escapedCn = specialCharPat.matcher(domainPatterns.get(i)).replaceAll("\\\\$1");
-
-			// Replace "\*" with [a-zA-Z0-9-]*
-			String cnAsRegex = escapedCn.replaceAll("\\\\\\*", validChars);
-
-			// Try to match the pattern with the host and return true on success
-			Pattern domainPat = Pattern.compile(cnAsRegex, Pattern.CASE_INSENSITIVE);
-			Matcher domainMatcher = domainPat.matcher(host);
-			if (domainMatcher.matches()) {
-				return true;
-			}
-		}
-
-		// If no pattern matched return failure
-		return false;
-	}
-
 	/**
 	 * Search the "Subject Alternative Name"-field (OID is 2.5.29.17) for Common Names and add all of them as byte[] to a Vector of byte[]s
 	 * 
@@ -622,20 +550,20 @@ public class CVRProcessor {
 	// The CertificateManager that will be used for processing or storing certificates
 	private CertificateManager cm;
 
-	// The Database connection to use
-	private Database db;
+	// The Storage to use
+	private Storage storage;
 
 	/**
 	 * Create a new CVRProcessor
 	 * 
 	 * @param cvr The CertVerifyRequest that it will process
 	 * @param cm The CertificateManager that it will use for processing or storing certificates
-	 * @param db The Database connection that it will use
+	 * @param storage The Storage that it will use
 	 */
-	public CVRProcessor(CertVerifyRequest cvr, CertificateManager cm, Database db) {
+	public CVRProcessor(CertVerifyRequest cvr, CertificateManager cm, Storage storage) {
 		this.cvr = cvr;
 		this.cm = cm;
-		this.db = db;
+		this.storage = storage;
 	}
 
 	/**
@@ -652,22 +580,9 @@ public class CVRProcessor {
 	 */
 	public byte[] getCachedCertVerifyResult() throws InvalidParameterException, SQLException, CertificateEncodingException, NoSuchAlgorithmException, IOException {
 
-		// The KEY of the CertVerifyResultCache-table is a hash of the corresponding CertVerifyRequest.
-		Object[] params = { Message.byteArrayToHexString(cvr.getHash()) };
-		ResultSet rs = db.executeQuery("SELECT * FROM CertVerifyResultCache WHERE Hash = ? LIMIT 1", params);
-
-		// If the result is empty then there is no cache entry to return
-		if (!rs.next()) {
-			return null;
-		}
-
-		// If the cache entry is not valid anymore then there is nothing to return
-		Timestamp validUntil = rs.getTimestamp("ValidUntil");
-		if (validUntil.before(new Timestamp(System.currentTimeMillis())))
-			return null;
-
-		// If there is a cache entry that is currently valid: return its bytes.
-		return rs.getBytes("Bytes");
+		// The key of the CertVerifyResult cache is a hash of the corresponding CertVerifyRequest. Only entries that are currently valid are returned.
+		CacheEntry entry = storage.getCachedCertVerifyResult(Message.byteArrayToHexString(cvr.getHash()));
+		return (entry != null) ? entry.getData() : null;
 
 	}
 	
@@ -699,11 +614,16 @@ public class CVRProcessor {
 	 */
 	public MessageList process() throws InvalidParameterException, NoSuchAlgorithmException, SQLException, KeyManagementException, InvalidAlgorithmParameterException, KeyStoreException, CertificateException, NoSuchProviderException, IOException, InvalidKeyException {
 
+		// The time at which the current stage started (cf. Latencies)
+		long t = System.nanoTime();
+
 		// Get the certificate that the client sent
-		X509Certificate requestCert = cm.getCertFromRequest(cvr, db);
+		X509Certificate requestCert = cm.getCertFromRequest(cvr, storage);
+		t = Latencies.record("verifyCert.storeRequestCert", t);
 
 		// Try to get the server's real certificate ...
-		 X509Certificate serverCert = cm.getCertForHost(cvr, db);
+		 X509Certificate serverCert = cm.getCertForHost(cvr, storage);
+		t = Latencies.record("verifyCert.fetchServerCert", t);
 
 		//concatenate hostname and hostport to hostport. Hostport is the host's identifier in the database
 		String hostPort = cvr.getHostName()+":"+String.valueOf(cvr.isUserUsingProxy()?443:cvr.getHostPort());
@@ -712,40 +632,65 @@ public class CVRProcessor {
 
 		CertVerifyResult result = new CertVerifyResult();
 
-		// Top line: which is the name for which the certificate was issued
-		result.addJudgment(new CertJudgment("DOMAIN: " + getURLFromDN(requestCert.getSubjectDN().getName()), 0));
+		// Each judgment is recorded as Flight Recorder event. If computing a judgment fails its event is committed as "failed" (cf. finally-block)
+		OperationEvent event = null;
 
-		// Did the server get the same certificate as the client?
-		result.addJudgment(getJudgmentOfCertEquality(serverCert, requestCert));
-
-		// What was the last interval the server observed this certificate?
-		result.addJudgment(getJudgmentOfLastObservationPeriod(requestCert, hostPort, db));
-
-		// How often has the server already observed this certificate?
-		result.addJudgment(getJudgmentOfTotalNumberOfObservation(requestCert, hostPort, db));
-		
-		// What is the period during which Convergence observed the certificate?
-		result.addJudgment(new ConvergenceConnector(db, 1000*60*60*6).getJudgmentOfObservationPeriod(requestCert, hostPort));
-
-		// Has the certificate been issued for the requesting domain?
-		result.addJudgment(getJudgmentOfDomainMatch(requestCert, cvr.getHostName()));
-
-		// Is the certificate currently valid?
-		result.addJudgment(getJudgmentOfCurrentValidity(requestCert));
-
-		// What are the used encryption/hash algorithms? Are they safe? (some algorithms like e.g. md2 and md5 are not considered safe anymore)
-		result.addJudgment(getJudgmentOfUsedAlgorithms(requestCert));
-
-		// What is the length of the key? (NIST suggests at least 2048 until 2030: http://csrc.nist.gov/groups/ST/toolkit/documents/SP800-57Part1-Revision3_May2011.pdf)
-		result.addJudgment(getJudgmentOfKeyLength(requestCert));
+		try {
+			// Top line: which is the name for which the certificate was issued
+			result.addJudgment(new CertJudgment("DOMAIN: " + CertificateDerivatives.get(requestCert).getSubjectCN(), 0));
+
+			// Did the server get the same certificate as the client?
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "CertEquality");
+			addJudgment(result, getJudgmentOfCertEquality(serverCert, requestCert), event);
+			t = Latencies.record("verifyCert.compareCerts", t);
+
+			// What was the last interval the server observed this certificate?
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "LastObservationPeriod");
+			addJudgment(result, getJudgmentOfLastObservationPeriod(requestCert, hostPort, storage), event);
+			t = Latencies.record("verifyCert.judgeLastObservationPeriod", t);
+
+			// How often has the server already observed this certificate?
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "TotalNumberOfObservations");
+			addJudgment(result, getJudgmentOfTotalNumberOfObservation(requestCert, hostPort, storage), event);
+			t = Latencies.record("verifyCert.judgeTotalNumberOfObservations", t);
+		
+			// What is the period during which Convergence observed the certificate?
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "ConvergenceObservationPeriod");
+			addJudgment(result, new ConvergenceConnector(storage, 1000*60*60*6).getJudgmentOfObservationPeriod(requestCert, hostPort), event);
+			t = Latencies.record("verifyCert.queryConvergence", t);
+
+			// Has the certificate been issued for the requesting domain?
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "DomainMatch");
+			addJudgment(result, getJudgmentOfDomainMatch(requestCert, cvr.getHostName()), event);
+
+			// Is the certificate currently valid?
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "CurrentValidity");
+			addJudgment(result, getJudgmentOfCurrentValidity(requestCert), event);
+
+			// What are the used encryption/hash algorithms? Are they safe? (some algorithms like e.g. md2 and md5 are not considered safe anymore)
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "UsedAlgorithms");
+			addJudgment(result, getJudgmentOfUsedAlgorithms(requestCert), event);
+
+			// What is the length of the key? (NIST suggests at least 2048 until 2030: http://csrc.nist.gov/groups/ST/toolkit/documents/SP800-57Part1-Revision3_May2011.pdf)
+			event = OperationEvent.begin(OperationEvent.CERT_JUDGMENT, hostPort, "KeyLength");
+			addJudgment(result, getJudgmentOfKeyLength(requestCert), event);
+			t = Latencies.record("verifyCert.judgeCert", t);
+		} finally {
+			// Has no effect if the event has already been committed by addJudgment
+			if (event != null) {
+				event.commit("failed");
+			}
+		}
 
 		ml.add(result);
 
 		// Is the result such that a Hunting Task should be created?
 		if (huntingTaskShouldBeCreated(cvr, result)) {
 			ml.add(new CurrentServerTime());
-			ml.add(new PublicIPNotification(cvr.getRemoteAddr(), db));
-			ml.add(new HuntingTask(cvr.getHostName(), cvr.getHostIP(), cvr.isUserUsingProxy()?443:cvr.getHostPort(), db));
+			ml.add(new PublicIPNotification(cvr.getRemoteAddr(), storage));
+			// The lower the rating of the certificate the more severe the HuntingTask
+			ml.add(new HuntingTask(cvr.getHostName(), cvr.getHostIP(), cvr.isUserUsingProxy()?443:cvr.getHostPort(), 255 - result.getRating(), storage));
+			Latencies.record("verifyCert.createHuntingTask", t);
 		}
 
 		return ml;
@@ -761,8 +706,7 @@ public class CVRProcessor {
 	 */
 	public void purgeCache() throws InvalidParameterException, SQLException{
 		
-		Object[] params = {new Timestamp(System.currentTimeMillis()) };
-		db.executeUpdate("DELETE FROM CertVerifyResultCache WHERE ValidUntil < ?", params);
+		storage.purgeCertVerifyResultCache();
 		
 	}
 
@@ -781,40 +725,8 @@ public class CVRProcessor {
 	 */
 	public void storeCertVerifyResultInCache(byte[] result, long validity) throws InvalidKeyException, CertificateEncodingException, NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException{
 		
-		SQLException lastSQLException = null;
-
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-				
-				// First: Try to update an existing entry
-				Object[] params = { result, new Timestamp(System.currentTimeMillis() + validity), Message.byteArrayToHexString(cvr.getHash()) };
-				int updatedRows = db.executeUpdate("UPDATE CertVerifyResultCache SET Bytes = ?, ValidUntil = ? WHERE Hash = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO CertVerifyResultCache (Bytes,ValidUntil,Hash) VALUES (?,?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-				
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-				
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+		// Store the bytes of the CertVerifyResult along with the time until which they are valid. The key is a hash of the corresponding CertVerifyRequest.
+		storage.cacheCertVerifyResult(Message.byteArrayToHexString(cvr.getHash()), result, new Timestamp(System.currentTimeMillis() + validity));
 		
 	}
 
@@ -0,0 +1,293 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bouncycastle.util.encoders.Base64;
+
+import crossbear.messaging.Message;
+
+/**
+ * Crossbear refers to certificates by various derived values: its DER-encoding, the SHA256- and the SHA1-hash of the DER-encoding, its PEM-encoding and the MD5-hash of the PEM-encoding. On top of
+ * that the CVRProcessor needs the certificate's Common Name, its Subject Alternative Names and the length of its key.
+ *
+ * Since calculating these values is expensive and the same certificates are processed over and over again (e.g. chain certificates or popular server certificates), all of them are calculated
+ * once per certificate and stored in a CertificateDerivatives-object. These objects are kept in a bounded cache that is keyed by the SHA256-hash of the certificate and shared by all classes that
+ * process certificates (CertificateManager, CVRProcessor, ConvergenceConnector, the hunting-task-reply-messages and the Hunter).
+ *
+ * Please note: The byte[]s returned by the getters are shared and MUST NOT be modified. The cache itself uses private copies as keys, so modifying them can't corrupt the cache.
+ */
+public class CertificateDerivatives {
+
+	// The cached CertificateDerivatives-objects. The key is the SHA256-hash of the certificate's DER-encoding (an array that is only referenced by the key)
+	private static final BoundedCache<ByteBuffer, CertificateDerivatives> cache = new BoundedCache<ByteBuffer, CertificateDerivatives>(2000);
+
+	// Regex to match the commonName-part within a Distinguished Name
+	private static final Pattern cnPat = Pattern.compile("CN=[a-zA-Z0-9\\.\\-\\*]*", Pattern.CASE_INSENSITIVE);
+
+	// The charset in which the PEM-encoding is hashed
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	// Regex that matches all whitespaces within a Distinguished Name
+	private static final Pattern whitespacePat = Pattern.compile("\\s");
+
+	/**
+	 * Get the CertificateDerivatives-object of a certificate. If it is not yet cached it will be calculated and inserted into the cache.
+	 *
+	 * @param cert The certificate to get the CertificateDerivatives-object for
+	 * @return The CertificateDerivatives-object of cert
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static CertificateDerivatives get(X509Certificate cert) throws CertificateEncodingException, NoSuchAlgorithmException {
+
+		// Look up the certificate by the SHA256-hash of its DER-encoding
+		byte[] der = cert.getEncoded();
+		byte[] sha256 = CertificateManager.SHA256(der);
+		ByteBuffer key = ByteBuffer.wrap(sha256);
+		CertificateDerivatives derivatives = cache.get(key);
+
+		// If it is not yet known: calculate its derivatives and cache them. The new object gets a copy of the hash so the key can't be modified by callers of getSHA256
+		if (derivatives == null) {
+			derivatives = cache.putIfAbsent(key, new CertificateDerivatives(cert, der, sha256.clone()));
+		}
+
+		return derivatives;
+	}
+
+	/**
+	 * Get the PEM-representation of a certificate.
+	 *
+	 * Please note: The PEM encoding returned by this function is structured in lines of 64 characters each. Linebreaks are equal to a \n
+	 *
+	 * @param der The DER-encoding of the certificate
+	 * @return The PEM representation of the certificate
+	 */
+	private static String getPemEncoding(byte[] der) {
+
+		// Get the bytes of the certificate and encode them in base64
+		String base64EncodedCert = new String(Base64.encode(der));
+
+		// Write the PEM header
+		int len = base64EncodedCert.length();
+		StringBuilder re = new StringBuilder(len + len / 64 + 64);
+		re.append("-----BEGIN CERTIFICATE-----\n");
+
+		// Write the certificate data in lines of 64 chars
+		for (int i = 0; i < len; i += 64) {
+			re.append(base64EncodedCert, i, Math.min(len, i + 64)).append('\n');
+		}
+
+		// Write the PEM trailer
+		re.append("-----END CERTIFICATE-----");
+
+		// Return the PEM-representation of the certificate
+		return re.toString();
+	}
+
+	/**
+	 * Extract the commonName-part from a Distinguished Name
+	 *
+	 * @param dn The Distinguised Name
+	 * @return The commonName-part of the DN
+	 */
+	private static String getURLFromDN(String dn) {
+
+		// Apply the pattern that matches the CN-part
+		Matcher matcher = cnPat.matcher(whitespacePat.matcher(dn).replaceAll(""));
+
+		// If it doesn't match then there is nothing to return
+		if (!matcher.find())
+			return "";
+
+		// If it does: retrieve the matching string and return it
+		String match = matcher.group();
+		return match.substring(3, match.length());
+	}
+
+	// The certificate itself
+	private final X509Certificate cert;
+
+	// The DER-encoding of the certificate
+	private final byte[] der;
+
+	// The domain patterns of the certificate (CN and Subject Alternative Names). They are extracted on first use since only the CVRProcessor needs them
+	private volatile List<String> domainPatterns;
+
+	// The length of the certificate's RSA key in bits or -1 if it doesn't contain a RSA key
+	private final int keyLength;
+
+	// The PEM-encoding of the certificate
+	private final String pem;
+
+	// The MD5-hash of the PEM-encoding in Hex-String representation
+	private final String pemMD5Hex;
+
+	// The SHA1-hash of the DER-encoding in Hex-String representation
+	private final String sha1Hex;
+
+	// The SHA256-hash of the DER-encoding
+	private final byte[] sha256;
+
+	// The SHA256-hash of the DER-encoding in Hex-String representation
+	private final String sha256Hex;
+
+	// The commonName-part of the certificate's Subject DN
+	private final String subjectCN;
+
+	/**
+	 * Calculate the derivatives of a certificate
+	 *
+	 * @param cert The certificate
+	 * @param der The DER-encoding of the certificate
+	 * @param sha256 The SHA256-hash of the DER-encoding
+	 * @throws NoSuchAlgorithmException
+	 */
+	private CertificateDerivatives(X509Certificate cert, byte[] der, byte[] sha256) throws NoSuchAlgorithmException {
+		this.cert = cert;
+		this.der = der;
+
+		// Calculate the remaining hashes of the DER-encoding
+		this.sha256 = sha256;
+		this.sha256Hex = Message.byteArrayToHexString(sha256);
+		this.sha1Hex = Message.byteArrayToHexString(CertificateManager.SHA1(der));
+
+		// Calculate the PEM-encoding and its hash
+		this.pem = getPemEncoding(der);
+		this.pemMD5Hex = Message.byteArrayToHexString(CertificateManager.MD5(pem.getBytes(utf8)));
+
+		// Extract the Common Name of the Subject
+		this.subjectCN = getURLFromDN(cert.getSubjectDN().getName());
+
+		// Get the keylength of the Certificate's public key
+		this.keyLength = (cert.getPublicKey() instanceof RSAPublicKey) ? ((RSAPublicKey) cert.getPublicKey()).getModulus().bitLength() : -1;
+	}
+
+	/**
+	 * @return The certificate itself
+	 */
+	public X509Certificate getCertificate() {
+		return cert;
+	}
+
+	/**
+	 * @return The DER-encoding of the certificate
+	 */
+	public byte[] getDER() {
+		return der;
+	}
+
+	/**
+	 * Get all domain patterns for which the certificate claims to be valid i.e. the CN of its Subject DN and all of its Subject Alternative Names
+	 *
+	 * @return All domain patterns of the certificate (e.g. *.google.com, www.google.com)
+	 * @throws CertificateParsingException
+	 */
+	public List<String> getDomainPatterns() throws CertificateParsingException {
+
+		// The patterns are extracted on first use. If two threads do that at the same time both will come to the same result
+		if (domainPatterns == null) {
+
+			// Get all domains for which the certificate is valid
+			Vector<String> domains = new Vector<String>();
+
+			// First: Extract the main DN-field from the certificate
+			domains.add(subjectCN);
+
+			// Second: Extract all alternative names from the certificate
+			Collection<List<?>> sans = cert.getSubjectAlternativeNames();
+			if (null != sans) {
+				for (List<?> next : sans) {
+					Object entry = next.get(1);
+					if (entry instanceof String) {
+						domains.add((String) entry);
+					}
+				}
+			}
+
+			domainPatterns = Collections.unmodifiableList(domains);
+		}
+
+		return domainPatterns;
+	}
+
+	/**
+	 * @return The length of the certificate's RSA key in bits or -1 if it doesn't contain a RSA key
+	 */
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	/**
+	 * @return The PEM-encoding of the certificate
+	 */
+	public String getPEM() {
+		return pem;
+	}
+
+	/**
+	 * @return The MD5-hash of the certificate's PEM-encoding in Hex-String representation
+	 */
+	public String getPEMMD5Hex() {
+		return pemMD5Hex;
+	}
+
+	/**
+	 * @return The SHA1-hash of the certificate's DER-encoding in Hex-String representation
+	 */
+	public String getSHA1Hex() {
+		return sha1Hex;
+	}
+
+	/**
+	 * @return The SHA256-hash of the certificate's DER-encoding
+	 */
+	public byte[] getSHA256() {
+		return sha256;
+	}
+
+	/**
+	 * @return The SHA256-hash of the certificate's DER-encoding in Hex-String representation
+	 */
+	public String getSHA256Hex() {
+		return sha256Hex;
+	}
+
+	/**
+	 * @return The commonName-part of the certificate's Subject DN
+	 */
+	public String getSubjectCN() {
+		return subjectCN;
+	}
+
+}
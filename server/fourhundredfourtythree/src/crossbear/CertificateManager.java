@@ -19,6 +19,7 @@
 
 package crossbear;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,6 +27,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
@@ -48,7 +50,6 @@ import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Collections;
@@ -62,10 +63,12 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 
-import org.bouncycastle.util.encoders.Base64;
-
 import crossbear.messaging.CertVerifyRequest;
+import crossbear.messaging.HuntingTask;
 import crossbear.messaging.Message;
+import crossbear.messaging.MessageList;
+import crossbear.storage.CacheEntry;
+import crossbear.storage.Storage;
 
 /**
  * Everything that is connected to processing or storing certificates is done by the CertificateManager.
@@ -107,12 +110,35 @@ public class CertificateManager {
 	 * @throws NoSuchAlgorithmException
 	 */
 	public static CertificateChainContainer getCertChainFromServer(String host, int port) throws KeyManagementException, IOException, NoSuchAlgorithmException {
+		return getCertChainFromServer(host, null, port);
+	}
+
+	/**
+	 * Contact a SSL-enabled server at a specific IP-address and download its certificate chain. The connection is made to that IP-address directly (i.e. without resolving the Hostname) while the
+	 * Hostname is still sent to the server using SNI. This makes it possible to get the certificate chain that a specific server of a host with several IP-addresses uses.
+	 * 
+	 * Please Note: Cf. getCertChainFromServer(String, int) concerning deprecated algorithms.
+	 * 
+	 * @param host The Hostname of the server e.g. "encrypted.google.com"
+	 * @param ip The IP-address of the server or null if the Hostname should be resolved
+	 * @param port The port of the server e.g. 443
+	 * @return The certificate chain of that server starting with the server's certificate and continuing with it's chain certificates (if any are sent) along with the IP from which this chain was received
+	 * @throws KeyManagementException
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static CertificateChainContainer getCertChainFromServer(String host, InetAddress ip, int port) throws KeyManagementException, IOException, NoSuchAlgorithmException {
 
 		IOException lastCaughtException = null;
 
 		// Attempt twice: Once with TLS/SNI (required for SNI systems and preferred mode for flexible systems)
 		// and once with SSL3 using SSLv2Handshake (required for some older systems)
 		for (int numberOfTries = 0; numberOfTries < 2; numberOfTries++) {
+			SSLSocket sock = null;
+
+			// Record each handshake attempt as Flight Recorder event
+			OperationEvent event = OperationEvent.begin(OperationEvent.CERT_CHAIN_FETCH, host + ":" + port, (numberOfTries == 0) ? "TLS" : "SSLv2Hello");
+			String outcome = "failed";
 			try {
 
 				// Force the connection even if the server uses deprecated algorithms
@@ -125,18 +151,35 @@ public class CertificateManager {
 				sc.init(null, trustAllCerts, new java.security.SecureRandom());
 				
 				// Create and open a Socket for the connection
-				SSLSocket sock;
-				if (numberOfTries == 0) {
+				if (numberOfTries == 0 && ip == null) {
 					
 					// Opening the connection has to be done in the createSocket-method or else SNI will not work
 					sock = (SSLSocket) sc.getSocketFactory().createSocket(host, port);
+				} else if (numberOfTries == 0) {
+					
+					// Connect to the IP-address and layer the SSLSocket on top of that connection. The Hostname passed to createSocket is the one that is sent using SNI.
+					Socket plainSock = new Socket();
+					try {
+						plainSock.connect(new InetSocketAddress(ip, port), 3000);
+						sock = (SSLSocket) sc.getSocketFactory().createSocket(plainSock, host, port, true);
+					} finally {
+
+						// Once the SSLSocket exists it closes the connection (autoClose). If it couldn't be created the connection has to be closed here.
+						if (sock == null) {
+							try {
+								plainSock.close();
+							} catch (IOException e) {
+								// Closing failed: Nothing can be done about that
+							}
+						}
+					}
 				} else {
 					
 					// In case the the server doesn't support TLS/SSL3 try to use SSLv2Handshake mode
 					sock = (SSLSocket) new SSLv2EnabledSocketFactory(sc).createSocket();
 					
 					// Opening the connection in an extra call allows to specify the timeout value
-					sock.connect(new InetSocketAddress(host, port), 3000);
+					sock.connect((ip == null) ? new InetSocketAddress(host, port) : new InetSocketAddress(ip, port), 3000);
 				}				
 
 				// Get the server's IP-Address
@@ -148,10 +191,23 @@ public class CertificateManager {
 				// Get the certificate chain provided by the server
 				Certificate certs[] = sock.getSession().getPeerCertificates();
 				
+				outcome = certs.length + " certificates from " + serverAddress.getHostAddress();
 				return new CertificateChainContainer((certs instanceof X509Certificate[]) ? (X509Certificate[]) certs : null, serverAddress);
 
 			} catch (IOException e) {
 				lastCaughtException = e;
+				outcome = OperationEvent.describe(e);
+			} finally {
+				event.commit(outcome);
+				
+				// The connection is not needed anymore once the certificate chain has been received
+				if (sock != null) {
+					try {
+						sock.close();
+					} catch (IOException e) {
+						// Closing failed: Nothing can be done about that
+					}
+				}
 			}
 		}
 
@@ -169,46 +225,20 @@ public class CertificateManager {
 	 * @return The concatenation of the certList's MD5-Hashes in Hex-String representation (e.g. 78A34B9CF....)
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
-	 * @throws UnsupportedEncodingException
 	 */
-	public static String getCertChainMD5(LinkedList<X509Certificate> certList) throws CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException {
+	public static String getCertChainMD5(LinkedList<X509Certificate> certList) throws CertificateEncodingException, NoSuchAlgorithmException {
 		StringBuilder re = new StringBuilder();
 
 		// Go through all Elements of the chain
 		Iterator<X509Certificate> iter = certList.iterator();
 		while (iter.hasNext()) {
-			// Get the PEM-encoding for each certificate, calculate its MD5-hash and append its HEX-String representation to the output
-			re.append(Message.byteArrayToHexString(MD5(getPemEncoding(iter.next()).getBytes("UTF-8"))));
+			// Get the MD5-hash of the PEM-encoding for each certificate and append its HEX-String representation to the output
+			re.append(CertificateDerivatives.get(iter.next()).getPEMMD5Hex());
 		}
 
 		return re.toString();
 	}
 	
-	/**
-	 * Get all IDs of certificates with a certain SHA256DERHash
-	 * 
-	 * @param certHash The hash that the certificates need to share
-	 * @param db The database connection to use
-	 * @return A comma-separated list of the IDs of the certificates that share "certHash" as SHA256DERHash
-	 * @throws InvalidParameterException
-	 * @throws SQLException
-	 */
-	public static String getCertIDs(byte[] certHash, Database db) throws InvalidParameterException, SQLException{
-		
-		// Query the database for the list
-		Object[] params = { Message.byteArrayToHexString(certHash) };
-		ResultSet rs = db.executeQuery("SELECT array_to_string(array_agg(DISTINCT Id),', ') AS IDs FROM ServerCerts WHERE SHA256DERHash = ?", params);
-
-		// If the result is empty then there is no certificate that has that hash -> return an empty String
-		if (!rs.next()) {
-			return "";
-		}
-		
-		// Return the list
-		return rs.getString("IDs");
-	}
-
-
 	/**
 	 * Java comes with a list of trusted CAs stored in a keystore file. This function loads that keystore from disc and returns it.
 	 * 
@@ -238,66 +268,28 @@ public class CertificateManager {
 
 	}
 
-	/**
-	 * Get the PEM-representation of a certificate.
-	 * 
-	 * Please note: The PEM encoding returned by this function is structured in lines of 64 characters each. Linebreaks are equal to a \n
-	 * 
-	 * @param cert
-	 *            The certificate
-	 * @return The PEM representation of cert
-	 * @throws CertificateEncodingException
-	 */
-	private static String getPemEncoding(X509Certificate cert) throws CertificateEncodingException {
-
-		// Get the bytes of the certificate and encode them in base64
-		String base64EncodedCert = new String(Base64.encode(cert.getEncoded()));
-
-		// Write the PEM header
-		String re = "-----BEGIN CERTIFICATE-----\n";
-
-		// Write the certificate data in lines of 64 chars
-		int len = base64EncodedCert.length();
-		for (int i = 0; i < len; i += 64) {
-			re += base64EncodedCert.substring(i, Math.min(len, i + 64)) + "\n";
-		}
-
-		// Write the PEM trailer
-		re += "-----END CERTIFICATE-----";
-
-		// Return the PEM-representation of the certificate
-		return re;
-	}
-	
 	/**
 	 * Try to retrieve a server's certificate from the local cache i.e. the CertCache-table
 	 * 
 	 * @param hostPort
 	 *            The Hostname and port of the server e.g. encrypted.google.com:443
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @return The server's certificate if a cache entry exists that is currently valid else null .
 	 * @throws CertificateException
 	 * @throws SQLException
 	 */
-	private static X509Certificate getServerCertFromCache(String hostPort, Database db) throws CertificateException, SQLException {
-
-		Object[] params = { hostPort };
-		ResultSet rs = db.executeQuery("SELECT * FROM CertCache WHERE HostPort = ? LIMIT 1", params);
+	private static X509Certificate getServerCertFromCache(String hostPort, Storage storage) throws CertificateException, SQLException {
 
-		// If the result is empty then there is no cache entry to return
-		if (!rs.next()) {
+		// If there is no cache entry that is currently valid then there is nothing to return
+		CacheEntry entry = storage.getCachedServerCert(hostPort);
+		if (entry == null) {
 			return null;
 		}
 
-		// If the cache entry is not valid anymore then there is nothing to return
-		Timestamp validUntil = rs.getTimestamp("ValidUntil");
-		if (validUntil.before(new Timestamp(System.currentTimeMillis())))
-			return null;
-
-		// If there is a cache entry that is currently valid: return its certificate.
+		// If there is one: return its certificate.
 		CertificateFactory cf = CertificateFactory.getInstance("X.509");
-		return (X509Certificate) cf.generateCertificate(rs.getBinaryStream("Certificate"));
+		return (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(entry.getData()));
 
 	}
 
@@ -380,18 +372,17 @@ public class CertificateManager {
 	 *            An Identifier for the observer's type (e.g. "CrossbearServer" or "CrossbearCVR")
 	 * @param observerIP
 	 *            The IP from which the observation was made (might be partially anonymized)
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @return The value of the Id-column of the newly created entry in the CertObservations-table
 	 * @throws NumberFormatException 
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	public static long rememberCertObservation(Long certID, String serverHostPort, String serverIP, Timestamp serverTimeOfExecution, String observerType, String observerIP, Database db) throws NumberFormatException, InvalidParameterException, SQLException  {
+	public static long rememberCertObservation(Long certID, String serverHostPort, String serverIP, Timestamp serverTimeOfExecution, String observerType, String observerIP, Storage storage) throws NumberFormatException, InvalidParameterException, SQLException  {
 
 		// Create an entry of the observation in the CertObservations table
-		Object[] params = { certID, serverHostPort, serverIP, serverTimeOfExecution, observerType, observerIP };
-		return Long.valueOf(db.executeInsert("INSERT INTO CertObservations ( CertID, ServerHostPort, ServerIP, TimeOfObservation, ObserverType, ObserverIP) VALUES (?,?,?,?,?,?)", params));
+		return storage.addCertObservation(certID, serverHostPort, serverIP, serverTimeOfExecution, observerType, observerIP);
 
 	}
 	
@@ -432,98 +423,34 @@ public class CertificateManager {
 	 *            Is the certificate to store a chain certificate?
 	 * @param certChainMd5
 	 * 			  The md5-hash of the certificate chain in case the certificate is a server certificate. If it should not be set, then this parameter should be "null"
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @return The ID of the certificate after it has been inserted either into the ChainCerts or into the ServerCerts table. If it was already inserted, the old ID is returned
 	 * @throws SQLException
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
 	 * @throws UnsupportedEncodingException
 	 */
-	private static Long storeCert(X509Certificate cert, boolean isChainCert, String certChainMd5, Database db) throws SQLException, CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException {
-
-		Long re;
-		SQLException lastSQLException = null;
-
-		// Calculate the certificate's SHA256-Hash
-		String certSHA256 = Message.byteArrayToHexString(SHA256(cert.getEncoded()));
-
-		/*
-		 * "Insert-if-not-exists" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The
-		 * only legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try getting that entry and if that succeeded go on. If that
-		 * failed again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-
-				// First: Check if the entry already exists.
-				ResultSet rs;
-				if(isChainCert){
-					Object[] params =  { certSHA256 };
-					rs = db.executeQuery("SELECT Id FROM ChainCerts WHERE SHA256DERHash = ? LIMIT 1", params);
-				} else {
-					if(certChainMd5 == null){
-						Object[] params =  { certSHA256};
-						rs = db.executeQuery("SELECT Id FROM ServerCerts WHERE SHA256DERHash = ? AND CertChainMD5 IS NULL LIMIT 1", params);
-					} else {
-						Object[] params =  { certSHA256 , certChainMd5};
-						rs = db.executeQuery("SELECT Id FROM ServerCerts WHERE SHA256DERHash = ? AND CertChainMD5 = ? LIMIT 1", params);	
-					}
-				}
-
+	private static Long storeCert(X509Certificate cert, boolean isChainCert, String certChainMd5, Storage storage) throws SQLException, CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException {
 
-				// If not add a new entry to the database
-				if (!rs.next()) {
+		// Get the certificate's SHA256-Hash (along with all other values that are derived from it)
+		CertificateDerivatives derivatives = CertificateDerivatives.get(cert);
 
-					String certPem = getPemEncoding(cert);
-					String certSHA1 = Message.byteArrayToHexString(SHA1(cert.getEncoded()));
-					String certPemMd5 = Message.byteArrayToHexString(MD5(certPem.getBytes("UTF-8")));
-					
-					String key;
-					if(isChainCert){
-						Object[] params2 = { certSHA256,certSHA1, cert.getEncoded(), certPemMd5, certPem };
-						key = db.executeInsert("INSERT INTO ChainCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES (?,?,?,?,?)", params2);
-					} else {
-						if(certChainMd5 == null){
-							Object[] params2 = { certSHA256, certSHA1, cert.getEncoded(), certPemMd5, certPem };
-							key = db.executeInsert("INSERT INTO ServerCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES (?,?,?,?,?)", params2);
-						} else {
-							
-							String certChainSHA256 = Message.byteArrayToHexString(SHA256(Message.hexStringToByteArray(certSHA256+certChainMd5)));
-									
-							Object[] params2 = { certSHA256, certSHA1, cert.getEncoded(), certPemMd5, certPem, certChainMd5,certChainSHA256 };
-							key = db.executeInsert("INSERT INTO ServerCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw, CertChainMD5, SHA256ChainHash) VALUES (?,?,?,?,?,?,?)", params2);
-						}
-					}
-
-					// The call to this function actually inserted a entry in the database
-					re = Long.valueOf(key);
-
-				} else {
-
-					// The call to this function did not insert a entry in the database
-					re = Long.valueOf(rs.getString("Id"));
-				}
-
-				// Try to commit the changes
-				db.commit();
-
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return re;
-			} catch (SQLException e) {
+		// Chain certificates are identified by their hash ...
+		if (isChainCert) {
+			return storage.storeChainCert(derivatives);
+		}
 
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
+		// ... server certificates by their hash and the hashes of their certificate chain
+		String certChainSHA256 = null;
+		if (certChainMd5 != null) {
+			certChainSHA256 = Message.byteArrayToHexString(SHA256(Message.hexStringToByteArray(derivatives.getSHA256Hex() + certChainMd5)));
 		}
-		throw lastSQLException;
+		return storage.storeServerCert(derivatives, certChainMd5, certChainSHA256);
 	}
 	
 	/**
-	 * Store the result of a Hunting Task in the HuntingTaskResults-table
+	 * Store the result of a Hunting Task in the HuntingTaskResults-table and count it. If the Hunting Task reached HuntingTask.MAX_RESULTS by that it is retired immediately and the HuntingTask-List cache is invalidated.
 	 * 
 	 * @param taskID
 	 *            The ID of the Hunting Task
@@ -531,15 +458,17 @@ public class CertificateManager {
 	 *            The trace that was observed
 	 * @param observID
 	 *            The ID of the certificate observation that was made
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	public static void storeHuntingTaskResult(int taskID, String trace, Long observID, Database db) throws InvalidParameterException, SQLException {
+	public static void storeHuntingTaskResult(int taskID, String trace, Long observID, Storage storage) throws InvalidParameterException, SQLException {
 
-		Object[] params = { taskID, trace, observID };
-		db.executeInsert("INSERT INTO HuntingTaskResults ( HuntingTaskID, Trace, Observation) VALUES (?,?,?)", params);
+		// Store the result and increment the Hunting Task's result counter. If that retired the Hunting Task the cached HuntingTask-List is outdated
+		if (storage.addHuntingTaskResult(taskID, trace, observID, HuntingTask.MAX_RESULTS)) {
+			MessageList.invalidateHTLCache(storage);
+		}
 
 	}
 	
@@ -553,47 +482,15 @@ public class CertificateManager {
 	 *            The Hostname and port of the server for which the certificate should be stored (e.g. encrypted.google.com:443)
 	 * @param validity
 	 *            The time in milliseconds that the entry should stay valid.
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @throws SQLException
 	 * @throws CertificateEncodingException
 	 */
-	private static void storeServerCertInCache(X509Certificate cert, String hostPort, long validity, Database db) throws SQLException, CertificateEncodingException {
-
-		SQLException lastSQLException = null;
-
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
+	private static void storeServerCertInCache(X509Certificate cert, String hostPort, long validity, Storage storage) throws SQLException, CertificateEncodingException {
 
-				// First: Try to update an existing entry
-				Object[] params = { cert.getEncoded(), new Timestamp(System.currentTimeMillis() + validity), hostPort };
-				int updatedRows = db.executeUpdate("UPDATE CertCache SET Certificate = ?, ValidUntil = ? WHERE HostPort = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO CertCache (Certificate,ValidUntil,HostPort) VALUES (?,?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+		// Store the certificate's DER-encoding along with the time until which it is valid
+		storage.cacheServerCert(hostPort, cert.getEncoded(), new Timestamp(System.currentTimeMillis() + validity));
 
 	}
 
@@ -614,8 +511,8 @@ public class CertificateManager {
 	 * websites don't send complete certificate chains since they assume that the clients know their root certificate. Crossbear tries to store the certificate chain for each certificate it observes.
 	 * However, this is only done when the chain could be validated and that might require the local system's root-CA KeyStore.
 	 * 
-	 * @param db
-	 *            The database connection that will be used to insert the local system's root-CAs into the ChainCerts-table (set this to null if the current system has no database; e.g. if the CertificateManager is instantiated by a Hunter)
+	 * @param storage
+	 *            The Storage that will be used to store the local system's root-CAs as chain certificates (set this to null if the current system has no Storage; e.g. if the CertificateManager is instantiated by a Hunter)
 	 * @param cacheValidity
 	 *            The duration in seconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it.
 	 * @param password The password for accessing the local CA Keystore
@@ -625,29 +522,29 @@ public class CertificateManager {
 	 * @throws CertificateException
 	 * @throws IOException
 	 */
-	public CertificateManager(Database db, int cacheValidity, String password) throws NoSuchAlgorithmException, KeyStoreException, SQLException, CertificateException, IOException {
+	public CertificateManager(Storage storage, int cacheValidity, String password) throws NoSuchAlgorithmException, KeyStoreException, SQLException, CertificateException, IOException {
 
 		// Remember the cacheValidity
 		this.cacheValidity = cacheValidity;
 
 		// Load the local system's root-CA KeyStore and store it in the ChainCerts-table
 		this.localCAKeystore = getLocalCAKeystore(password);
-		if(db != null)addCAsFromLocalCAKeyStoreToDB(db);
+		if(storage != null)addCAsFromLocalCAKeyStoreToDB(storage);
 
 	}
 
 	/**
 	 * Insert all certificates from the localCAKeystore KeyStore into the ChainCerts-table
 	 * 
-	 * @param db
-	 *            The database-connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
 	 * @throws UnsupportedEncodingException
 	 * @throws SQLException
 	 * @throws KeyStoreException
 	 */
-	private void addCAsFromLocalCAKeyStoreToDB(Database db) throws CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException, SQLException, KeyStoreException {
+	private void addCAsFromLocalCAKeyStoreToDB(Storage storage) throws CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException, SQLException, KeyStoreException {
 
 		// Get the names of all keys contained in the localCAKeystore KeyStore
 		Enumeration<String> allKeyAliases = localCAKeystore.aliases();
@@ -660,7 +557,7 @@ public class CertificateManager {
 
 			// store it in the ChainCerts-table
 			if (cert instanceof X509Certificate) {
-				storeCert((X509Certificate) cert, true,null, db);
+				storeCert((X509Certificate) cert, true,null, storage);
 			}
 		}
 
@@ -673,8 +570,8 @@ public class CertificateManager {
 	 * 
 	 * @param cvr
 	 *            The CertVerifyRequest containing the Host's name and port
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @return The Host's certificate or null if it could not be obtained
 	 * @throws InvalidParameterException
 	 * @throws NoSuchAlgorithmException
@@ -686,14 +583,14 @@ public class CertificateManager {
 	 * @throws IOException
 	 * @throws NoSuchProviderException
 	 */
-	public X509Certificate getCertForHost(CertVerifyRequest cvr, Database db) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, InvalidAlgorithmParameterException,
+	public X509Certificate getCertForHost(CertVerifyRequest cvr, Storage storage) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, InvalidAlgorithmParameterException,
 			KeyStoreException, CertificateException, KeyManagementException, IOException, NoSuchProviderException {
 
 		// Concatenate hostname and hostport to hostport. Hostport is the host's identifier in the database
 		String serverHostPort = cvr.getHostName() + ":" + String.valueOf(cvr.isUserUsingProxy()?443:cvr.getHostPort());
 
 		// first try to load the certificate from the local cache
-		X509Certificate serverCert = getServerCertFromCache(serverHostPort, db);
+		X509Certificate serverCert = getServerCertFromCache(serverHostPort, storage);
 		if (null != serverCert)
 			return serverCert;
 
@@ -712,14 +609,14 @@ public class CertificateManager {
 			return null;
 
 		// if that worked store it in the local cache ...
-		storeServerCertInCache(serverCertChain[0], serverHostPort, cacheValidity, db);
+		storeServerCertInCache(serverCertChain[0], serverHostPort, cacheValidity, storage);
 
 		// ... then store the whole chain (if not already stored) ...
-		Long serverCertID = storeCertChain(serverCertChain, db);
+		Long serverCertID = storeCertChain(serverCertChain, storage);
 
 		// ... and remember the observation of the server's cert in the CertObservations table.
 		rememberCertObservation(serverCertID, serverHostPort, CCC.getServerAddress().getHostAddress(), new Timestamp(System.currentTimeMillis()), "CrossbearServer", cvr
-				.getLocalAddr().getHostAddress(), db);
+				.getLocalAddr().getHostAddress(), storage);
 
 		// Finally return the server's cert
 		return serverCertChain[0];
@@ -731,8 +628,8 @@ public class CertificateManager {
 	 * 
 	 * @param cvr
 	 *            The CertVerifyRequest containing the server's certificate observed by the client
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @return The observed certificate
 	 * @throws InvalidParameterException
 	 * @throws NoSuchAlgorithmException
@@ -743,7 +640,7 @@ public class CertificateManager {
 	 * @throws KeyStoreException 
 	 * @throws InvalidAlgorithmParameterException 
 	 */
-	public X509Certificate getCertFromRequest(CertVerifyRequest cvr, Database db) throws InvalidParameterException, NoSuchAlgorithmException, SQLException,
+	public X509Certificate getCertFromRequest(CertVerifyRequest cvr, Storage storage) throws InvalidParameterException, NoSuchAlgorithmException, SQLException,
 			UnsupportedEncodingException, InvalidAlgorithmParameterException, KeyStoreException, CertificateException, NoSuchProviderException {
 
 		// Concatenate hostname and hostport to hostport. Hostport is the host's identifier in the database
@@ -753,11 +650,11 @@ public class CertificateManager {
 		X509Certificate[] requestCertChain = cvr.getCertChain();
 
 		// ... store it in the database (if not already done before) ...
-		Long requestCertID = storeCertChain(requestCertChain, db);
+		Long requestCertID = storeCertChain(requestCertChain, storage);
 
 		// ... and remember it's observation in the CertObservations table
 		rememberCertObservation(requestCertID, serverHostPort, cvr.getHostIP().getHostAddress(), new Timestamp(System.currentTimeMillis()), "CrossbearCVR",
-				cvr.isUserUsingProxy()?cvr.getRemoteAddr().getHostAddress():anonymize(cvr.getRemoteAddr().getHostAddress()), db);
+				cvr.isUserUsingProxy()?cvr.getRemoteAddr().getHostAddress():anonymize(cvr.getRemoteAddr().getHostAddress()), storage);
 
 		// Finally: return it
 		return requestCertChain[0];
@@ -781,35 +678,48 @@ public class CertificateManager {
 	 */
 	public LinkedList<X509Certificate> makeCertChainValid(X509Certificate[] in, int maxPermutations, boolean endMustBeSelfSigned) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, NoSuchProviderException{
 		
-		// Create a Permutation generator of suitable length
-		PermutationGenerator permGen = new PermutationGenerator(in.length - 1);
-		
-		// Set a limit of how many permutations are tried maximally and start trying them (first attempt will be the original order)
-		while (permGen.hasMore() && maxPermutations-->0) {
+		// Record the attempt as Flight Recorder event
+		OperationEvent event = OperationEvent.begin(OperationEvent.CERT_CHAIN_VALIDATION, CertificateDerivatives.get(in[0]).getSubjectCN(), in.length + " certificates");
+		String outcome = "failed";
+		int attempts = 0;
+		try {
 
-			// Create a new cerificate permutation and set it's first element to the host's certificate
-			LinkedList<X509Certificate> certPerm = new LinkedList<X509Certificate>();
-			certPerm.add(in[0]);
+			// Create a Permutation generator of suitable length
+			PermutationGenerator permGen = new PermutationGenerator(in.length - 1);
 
-			// Set the remaining chain according to the current permutation (starting with the original order)
-			int[] permutation = permGen.getNext();
-			for (int i = 0; i < permutation.length; i++) {
-				certPerm.add(in[permutation[i] + 1]);
-			}
+			// Set a limit of how many permutations are tried maximally and start trying them (first attempt will be the original order)
+			while (permGen.hasMore() && maxPermutations-- > 0) {
+				attempts++;
+
+				// Create a new cerificate permutation and set it's first element to the host's certificate
+				LinkedList<X509Certificate> certPerm = new LinkedList<X509Certificate>();
+				certPerm.add(in[0]);
+
+				// Set the remaining chain according to the current permutation (starting with the original order)
+				int[] permutation = permGen.getNext();
+				for (int i = 0; i < permutation.length; i++) {
+					certPerm.add(in[permutation[i] + 1]);
+				}
+
+				// See if this permutation is valid (and if applicable: is its end self-signed )
+				LinkedList<X509Certificate> validatedList = validateCertChain(certPerm, endMustBeSelfSigned);
 
-			// See if this permutation is valid (and if applicable: is its end self-signed )
-			LinkedList<X509Certificate> validatedList = validateCertChain(certPerm, endMustBeSelfSigned);
+				// If it is: return it
+				if (null != validatedList) {
+					outcome = "valid after " + attempts + " permutations";
+					return validatedList;
 
-			// If it is: return it
-			if (null != validatedList) {
-				return validatedList;
+				}
 
 			}
 
+			// If no way was found to make the chain valid: return null
+			outcome = "invalid after " + attempts + " permutations";
+			return null;
+
+		} finally {
+			event.commit(outcome);
 		}
-		
-		// If no way was found to make the chain valid: return null
-		return null;
 	}
 
 	/**
@@ -821,8 +731,8 @@ public class CertificateManager {
 	 * 
 	 * @param certs
 	 *            The certificate chain to store (certs[0] is assumed to be the server's certificate)
-	 * @param db
-	 *            The database connection to use
+	 * @param storage
+	 *            The Storage to use
 	 * @return The ID of the server's certificate after it has been inserted into the ServerCerts table. If it was already inserted, the old ID is returned
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws KeyStoreException
@@ -832,7 +742,7 @@ public class CertificateManager {
 	 * @throws UnsupportedEncodingException
 	 * @throws NoSuchProviderException
 	 */
-	public Long storeCertChain(X509Certificate[] certs, Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException,
+	public Long storeCertChain(X509Certificate[] certs, Storage storage) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException,
 			UnsupportedEncodingException, NoSuchProviderException {
 
 		// See if there is a way in which the certificate chain can be ordered so that it is valid and its end is self-signed. If necessary add a chain terminator from the system's root-CA KeyStore to
@@ -853,11 +763,11 @@ public class CertificateManager {
 
 		// Insert all elements of the certificate chain
 		for (int i = 1; i < certs.length; i++) {
-			storeCert(certs[i], true, null, db);
+			storeCert(certs[i], true, null, storage);
 		}
 		
 		// Insert the server's certificate and return it's ID
-		return storeCert(certs[0], false, certChainMD5, db);
+		return storeCert(certs[0], false, certChainMD5, storage);
 
 	}
 
@@ -28,13 +28,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
 import java.sql.Timestamp;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * This class implements a comfortable wrapper for SQL-Database connections. It provides
  * - easy no-knowledge-creation of database connections
  * - easy to use PreparedStatements (all SQL-commands executed by the use of this class are executed as PreparedStatements -> Protection against SQL-Injection attacks)
  * - transactions
+ * - profiling of all executed statements (cf. SQLProfiler)
+ * - notifications between database connections (cf. PostgreSQL's LISTEN and NOTIFY)
  * 
  * Please Note: Since Crossbear uses transactions, a new Database connection should be used every time a page is being processed!
  * 
@@ -92,10 +96,20 @@ public class Database {
 
 	// The JDBC Connector Class.
 	private static final String dbClassName = "org.postgresql.Driver";
+
+	// The classes of the database driver that provide access to notifications (they are accessed by reflection since the driver is not needed at compile time)
+	private static final String pgConnectionClassName = "org.postgresql.PGConnection";
+	private static final String pgNotificationClassName = "org.postgresql.PGNotification";
 	
 	// The java.sql.Connection that is wrapped by this class
 	private final Connection con;
 	
+	// The statistics of the statements that were executed within the current transaction (empty if auto-commit is enabled)
+	private final Set<SQLProfiler.QueryStatistics> transaction = new HashSet<SQLProfiler.QueryStatistics>();
+	
+	// True if auto-commit is enabled (which is the default for new connections)
+	private boolean autoCommit = true;
+	
 	/**
 	 * Create and open a new connection to the database using the stored login credentials
 	 * 
@@ -120,6 +134,15 @@ public class Database {
 	    
 	}
 	
+	/**
+	 * Create a new Database for an already opened connection (e.g. a stub connection used by benchmarks)
+	 * 
+	 * @param con The connection to the Crossbear database
+	 */
+	public Database(Connection con) {
+		this.con = con;
+	}
+	
 	/* (non-Javadoc)
 	 * @see  java.sql.Connection#close()
 	 */
@@ -132,6 +155,7 @@ public class Database {
 	 */
 	public void commit() throws SQLException{
 		con.commit();
+		transaction.clear();
 	}
 	
 	/**
@@ -145,19 +169,31 @@ public class Database {
 	 */
 	public String executeInsert(String sqlstmt, Object[] params) throws SQLException, InvalidParameterException {
 
-		// Create a new PreparedStatement that will return the KEYs it generated
-		PreparedStatement ps = con.prepareStatement(sqlstmt, PreparedStatement.RETURN_GENERATED_KEYS);
+		// Profile the execution of the statement
+		SQLProfiler.QueryStatistics stats = startProfiling(sqlstmt);
+		long start = System.nanoTime();
+		try {
 
-		// Try to set the parameters
-		setParams(ps, params);
+			// Create a new PreparedStatement that will return the KEYs it generated
+			PreparedStatement ps = con.prepareStatement(sqlstmt, PreparedStatement.RETURN_GENERATED_KEYS);
 
-		// Execute it
-		ps.executeUpdate();
+			// Try to set the parameters
+			setParams(ps, params);
 
-		// Get the id of the inserted row and return it
-		ResultSet keys = ps.getGeneratedKeys();
-		keys.next();
-		return keys.getString(1);
+			// Execute it
+			int rows = ps.executeUpdate();
+
+			// Get the id of the inserted row and return it
+			ResultSet keys = ps.getGeneratedKeys();
+			keys.next();
+			String re = keys.getString(1);
+			SQLProfiler.record(stats, sqlstmt, start, rows, false);
+			return re;
+
+		} catch (SQLException | RuntimeException e) {
+			SQLProfiler.record(stats, sqlstmt, start, 0, true);
+			throw e;
+		}
 
 	}
 	
@@ -172,14 +208,26 @@ public class Database {
 	 */
 	public ResultSet executeQuery(String sqlstmt, Object[] params) throws SQLException,InvalidParameterException{
 		
-		// Create a new PreparedStatement
-		PreparedStatement ps = con.prepareStatement(sqlstmt);
-		
-		// Try to set the parameters
-		setParams(ps, params);
-		
-		// Execute it and return the result of the execution
-		return ps.executeQuery();
+		// Profile the execution of the statement
+		SQLProfiler.QueryStatistics stats = startProfiling(sqlstmt);
+		long start = System.nanoTime();
+		try {
+
+			// Create a new PreparedStatement
+			PreparedStatement ps = con.prepareStatement(sqlstmt);
+
+			// Try to set the parameters
+			setParams(ps, params);
+
+			// Execute it and return the result of the execution (the returned rows are counted while they are read)
+			ResultSet rs = ps.executeQuery();
+			SQLProfiler.record(stats, sqlstmt, start, 0, false);
+			return SQLProfiler.countRows(rs, stats);
+
+		} catch (SQLException | RuntimeException e) {
+			SQLProfiler.record(stats, sqlstmt, start, 0, true);
+			throw e;
+		}
 		
 	}
 	
@@ -194,29 +242,126 @@ public class Database {
 	 */
 	public int executeUpdate(String sqlstmt, Object[] params) throws SQLException,InvalidParameterException{
 		
-		// Create a new PreparedStatement
-		PreparedStatement ps = con.prepareStatement(sqlstmt);
-		
-		// Try to set the parameters
-		setParams(ps, params);
-		
-		// Execute it and return the count of affected rows
-		return ps.executeUpdate();
+		// Profile the execution of the statement
+		SQLProfiler.QueryStatistics stats = startProfiling(sqlstmt);
+		long start = System.nanoTime();
+		try {
+
+			// Create a new PreparedStatement
+			PreparedStatement ps = con.prepareStatement(sqlstmt);
+
+			// Try to set the parameters
+			setParams(ps, params);
+
+			// Execute it and return the count of affected rows
+			int rows = ps.executeUpdate();
+			SQLProfiler.record(stats, sqlstmt, start, rows, false);
+			return rows;
+
+		} catch (SQLException | RuntimeException e) {
+			SQLProfiler.record(stats, sqlstmt, start, 0, true);
+			throw e;
+		}
 		
 	}
 	
+	/**
+	 * Get the payloads of all notifications that have been received on the channels that this connection listens to (cf. listen) since the last call of this function.
+	 * 
+	 * Please note: The database driver only reads notifications while it executes a statement. Therefore this function executes a dummy statement first.
+	 * 
+	 * @return The payloads of the notifications in the order in which they were received (empty if there are none)
+	 * @throws SQLException
+	 */
+	public String[] getNotifications() throws SQLException {
+
+		// Make the driver read the notifications that are pending on the connection
+		executeQuery("SELECT 1", new Object[] {});
+
+		try {
+
+			// Get the notifications from the driver (null if there are none)
+			Object[] notifications = (Object[]) Class.forName(pgConnectionClassName).getMethod("getNotifications").invoke(con.unwrap(Class.forName(pgConnectionClassName)));
+			if (notifications == null) {
+				return new String[0];
+			}
+
+			// Extract their payloads
+			String[] re = new String[notifications.length];
+			for (int i = 0; i < notifications.length; i++) {
+				re[i] = (String) Class.forName(pgNotificationClassName).getMethod("getParameter").invoke(notifications[i]);
+			}
+			return re;
+
+		} catch (ReflectiveOperationException e) {
+			throw new SQLException("The database driver doesn't support notifications", e);
+		}
+	}
+
+	/**
+	 * Start listening to a notification channel. Notifications that are sent on that channel (cf. sendNotification) can be read by calling getNotifications.
+	 * 
+	 * Please note: A connection that listens to a channel should not be used for anything else and must use auto-commit (notifications are only delivered outside of transactions).
+	 * 
+	 * @param channel The name of the channel (e.g. "crossbear_invalidation")
+	 * @throws SQLException
+	 * @throws InvalidParameterException
+	 */
+	public void listen(String channel) throws SQLException, InvalidParameterException {
+
+		// The name of the channel is an identifier and can't be passed as parameter of a PreparedStatement: Make sure it can't be used for SQL-Injection
+		if (!channel.matches("[a-z_][a-z0-9_]*")) {
+			throw new InvalidParameterException("Invalid channel name: " + channel);
+		}
+
+		executeUpdate("LISTEN " + channel, new Object[] {});
+	}
+
 	/* (non-Javadoc)
 	 * @see  java.sql.Connection#rollback()
 	 */
 	public void rollback() throws SQLException{
 		con.rollback();
+		
+		// Count the rollback for all statements of the transaction
+		SQLProfiler.recordRollback(transaction);
+		transaction.clear();
 	}
 	
+	/**
+	 * Send a notification to all connections that listen to a channel (cf. listen). If a transaction is in progress the notification is only sent when the transaction is committed.
+	 * 
+	 * @param channel The name of the channel (e.g. "crossbear_invalidation")
+	 * @param payload The payload of the notification
+	 * @throws SQLException
+	 * @throws InvalidParameterException
+	 */
+	public void sendNotification(String channel, String payload) throws SQLException, InvalidParameterException {
+		Object[] params = { channel, payload };
+		executeQuery("SELECT pg_notify(?, ?)", params);
+	}
+
 	/* (non-Javadoc)
 	 * @see  java.sql.setAutoCommit#rollback(boolean)
 	 */
 	public void setAutoCommit(boolean mode) throws SQLException{
 		con.setAutoCommit(mode);
+		autoCommit = mode;
+		transaction.clear();
+	}
+	
+	/**
+	 * Get the statistics of a statement that is about to be executed and remember them if the statement is part of a transaction
+	 * 
+	 * @param sqlstmt The statement that is about to be executed
+	 * @return The statistics of the statement's fingerprint
+	 */
+	private SQLProfiler.QueryStatistics startProfiling(String sqlstmt) {
+		SQLProfiler.QueryStatistics stats = SQLProfiler.getStatistics(sqlstmt);
+		if (!autoCommit) {
+			transaction.add(stats);
+		}
+		return stats;
 	}
 	
 }
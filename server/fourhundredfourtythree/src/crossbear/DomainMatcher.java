@@ -0,0 +1,198 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * A DomainMatcher decides if a certificate is valid for a host. It is created once for all domain patterns (i.e. the CN and the Subject Alternative Names) of a certificate and can then be used to
+ * match any number of hosts without compiling regular expressions.
+ *
+ * The matching semantics are the following:
+ * - The comparison is case insensitive
+ * - A "*" within a pattern matches any (possibly empty) sequence of the chars a-z, A-Z, 0-9, "-" and "_"
+ * - All other chars of a pattern must be matched literally
+ *
+ * Since a "*" never matches a ".", patterns and hosts are compared label by label. To do so efficiently the patterns are normalized into three groups:
+ * - Patterns without a "*": They are stored in a set and matched by a single lookup
+ * - Patterns with "*" in their first label only (e.g. *.google.com): They are indexed by the part following the first label so only the first label has to be compared
+ * - All other patterns: They are compared label by label
+ */
+public class DomainMatcher {
+
+	/**
+	 * Check if a char may be matched by a "*"
+	 *
+	 * @param c The char to check
+	 * @return True if a "*" may match c else false
+	 */
+	private static boolean isWildcardChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+	}
+
+	/**
+	 * Check if a single label of a host matches a single label of a pattern. Both labels have to be in lower case.
+	 *
+	 * @param pattern The label of the pattern (might contain "*")
+	 * @param label The label of the host
+	 * @return True if the label matches the pattern else false
+	 */
+	private static boolean labelMatches(String pattern, String label) {
+
+		// matches[j] states whether the first j chars of the label are matched by the pattern chars that have been processed so far
+		boolean[] matches = new boolean[label.length() + 1];
+		matches[0] = true;
+
+		for (int i = 0; i < pattern.length(); i++) {
+			char p = pattern.charAt(i);
+
+			if (p == '*') {
+				// A "*" extends every match by any number of wildcard chars
+				for (int j = 1; j <= label.length(); j++) {
+					matches[j] |= matches[j - 1] && isWildcardChar(label.charAt(j - 1));
+				}
+			} else {
+				// A literal char extends a match only if the next char of the label is equal to it
+				for (int j = label.length(); j > 0; j--) {
+					matches[j] = matches[j - 1] && label.charAt(j - 1) == p;
+				}
+				matches[0] = false;
+			}
+		}
+
+		return matches[label.length()];
+	}
+
+	/**
+	 * Convert a String to lower case. Only the chars A-Z are converted which is exactly what a case insensitive java.util.regex.Pattern does.
+	 *
+	 * @param s The String to convert
+	 * @return The lower case version of s
+	 */
+	private static String toLowerCase(String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] >= 'A' && chars[i] <= 'Z') {
+				chars[i] = (char) (chars[i] + ('a' - 'A'));
+			}
+		}
+		return new String(chars);
+	}
+
+	// All patterns that don't contain a "*"
+	private final HashSet<String> exactPatterns = new HashSet<String>();
+
+	// All patterns that contain "*" in their first label only. They are indexed by the part of the pattern that follows the first label (e.g. "google.com" -> ["*"])
+	private final HashMap<String, LinkedList<String>> firstLabelWildcards = new HashMap<String, LinkedList<String>>();
+
+	// All other patterns split into their labels
+	private final LinkedList<String[]> otherWildcards = new LinkedList<String[]>();
+
+	/**
+	 * Create a new DomainMatcher for a set of domain patterns
+	 *
+	 * @param domainPatterns The domain patterns that a host might match (e.g. *.google.com, www.google.com)
+	 */
+	public DomainMatcher(Collection<String> domainPatterns) {
+
+		for (String domainPattern : domainPatterns) {
+			String pattern = toLowerCase(domainPattern);
+
+			// Patterns without "*" can be matched by a simple lookup
+			int firstWildcard = pattern.indexOf('*');
+			if (firstWildcard == -1) {
+				exactPatterns.add(pattern);
+				continue;
+			}
+
+			// Patterns with "*" in their first label only are indexed by the rest of the pattern
+			int firstDot = pattern.indexOf('.');
+			if (firstDot != -1 && firstWildcard < firstDot && pattern.indexOf('*', firstDot) == -1) {
+				String suffix = pattern.substring(firstDot + 1);
+				LinkedList<String> firstLabels = firstLabelWildcards.get(suffix);
+				if (firstLabels == null) {
+					firstLabels = new LinkedList<String>();
+					firstLabelWildcards.put(suffix, firstLabels);
+				}
+				firstLabels.add(pattern.substring(0, firstDot));
+				continue;
+			}
+
+			// All other patterns are compared label by label
+			otherWildcards.add(pattern.split("\\.", -1));
+		}
+	}
+
+	/**
+	 * Check if one of the domain patterns matches the host
+	 *
+	 * @param host The host to match (e.g. encrypted.google.com)
+	 * @return True if one of the patterns matches else false
+	 */
+	public boolean matches(String host) {
+
+		String lowerCaseHost = toLowerCase(host);
+
+		// First: Check if there is a pattern that is equal to the host
+		if (exactPatterns.contains(lowerCaseHost)) {
+			return true;
+		}
+
+		// Second: Check the patterns that have the same suffix as the host
+		int firstDot = lowerCaseHost.indexOf('.');
+		if (firstDot != -1) {
+			LinkedList<String> firstLabels = firstLabelWildcards.get(lowerCaseHost.substring(firstDot + 1));
+			if (firstLabels != null) {
+				String hostFirstLabel = lowerCaseHost.substring(0, firstDot);
+				for (String firstLabel : firstLabels) {
+					if (labelMatches(firstLabel, hostFirstLabel)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		// Third: Compare the host label by label with all remaining patterns
+		if (!otherWildcards.isEmpty()) {
+			String[] hostLabels = lowerCaseHost.split("\\.", -1);
+
+			patternLoop: for (String[] patternLabels : otherWildcards) {
+				if (patternLabels.length != hostLabels.length) {
+					continue;
+				}
+
+				for (int i = 0; i < hostLabels.length; i++) {
+					if (!labelMatches(patternLabels[i], hostLabels[i])) {
+						continue patternLoop;
+					}
+				}
+
+				return true;
+			}
+		}
+
+		// If no pattern matched return failure
+		return false;
+	}
+
+}
@@ -34,11 +34,12 @@ import crossbear.messaging.HuntingTaskReply;
 import crossbear.messaging.HuntingTaskReplyKnownCertChain;
 import crossbear.messaging.HuntingTaskReplyNewCertChain;
 import crossbear.messaging.Message;
+import crossbear.storage.Storage;
 
 
 /**
  * The HTRProcessor takes as input a InputStream whose content is supposed to be an array of HuntingTaskReply-messages. It attempts to decode the messages one-by-one and - in case they are valid -
- * adds them to the database.
+ * adds them to the database. Invalid replies are skipped so they don't keep the valid ones behind them from being stored.
  * 
  * @author Thomas Riedmaier
  * 
@@ -48,9 +49,12 @@ public class HTRProcessor {
 	/**
 	 * Try to decode an InputStream as array of HuntingTaskReply-messages. If that worked check if the HuntingTaskReplies are valid and - in case they are - add them to the database.
 	 * 
+	 * Invalid replies are skipped (their rejection is recorded as OperationEvent). An IllegalArgumentException is only thrown if the InputStream isn't an array of HuntingTaskReply-messages at all. All
+	 * other Exceptions mean that the replies might not have been stored.
+	 * 
 	 * @param in The InputStream to decode
 	 * @param cm The CertificateManager that it will use for processing or storing certificates
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @throws IOException
 	 * @throws InvalidParameterException
 	 * @throws InvalidKeyException
@@ -61,7 +65,7 @@ public class HTRProcessor {
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws KeyStoreException
 	 */
-	public HTRProcessor(InputStream in, CertificateManager cm, Database db) throws IOException, InvalidParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, CertificateException, InvalidAlgorithmParameterException, KeyStoreException {
+	public HTRProcessor(InputStream in, CertificateManager cm, Storage storage) throws IOException, InvalidParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, CertificateException, InvalidAlgorithmParameterException, KeyStoreException {
 		
 		// Try to read an array of crossbear.Message from the InputStream
 		while (true) {
@@ -84,18 +88,43 @@ public class HTRProcessor {
 			int messageLength = Message.byteArrayToInt(messageLengthB);
 
 			
-			// Try to read one message from the input (validation is performed inside the message's constructor)
-			byte[] raw = Message.readNBytesFromStream(in, messageLength-3);
-			HuntingTaskReply reply;
-			if(messageType == Message.MESSAGE_TYPE_TASK_REPLY_KNOWN_CERT){
-				reply = new HuntingTaskReplyKnownCertChain(raw,db);
-			} else{
-				reply = new HuntingTaskReplyNewCertChain(raw,cm,db);
+			// Record the processing of the reply as Flight Recorder event (its host is not known until the reply has been parsed)
+			OperationEvent event = OperationEvent.begin(OperationEvent.HUNTING_TASK_REPLY, null, (messageType == Message.MESSAGE_TYPE_TASK_REPLY_KNOWN_CERT) ? "known certificate" : "new certificate");
+			String outcome = "invalid";
+			try {
+
+				// Try to read one message from the input (validation is performed inside the message's constructor)
+				byte[] raw = Message.readNBytesFromStream(in, messageLength-3);
+				long t = System.nanoTime();
+				HuntingTaskReply reply;
+				if(messageType == Message.MESSAGE_TYPE_TASK_REPLY_KNOWN_CERT){
+					reply = new HuntingTaskReplyKnownCertChain(raw, storage);
+				} else{
+					reply = new HuntingTaskReplyNewCertChain(raw,cm, storage);
+				}
+				t = Latencies.record("reportHTResults.validateReply", t);
+				event.setHost(reply.getServerHostPort());
+				outcome = "storing failed";
+
+				// If the constructor didn't throw any Exceptions: Store the reply in the database
+				reply.storeInDatabase(storage);
+				Latencies.record("reportHTResults.storeReply", t);
+				outcome = "stored for task " + reply.getTaskID();
+
+			} catch (IllegalArgumentException e) {
+
+				// The reply is invalid (e.g. too old or for an unknown task): Skip it and go on with the next one (InvalidParameterException is an IllegalArgumentException as well)
+				outcome = "invalid: " + OperationEvent.describe(e);
+
+			} catch (CertificateException e) {
+
+				// The reply's certificate chain is invalid: Skip it and go on with the next one
+				outcome = "invalid: " + OperationEvent.describe(e);
+
+			} finally {
+				event.commit(outcome);
 			}
 			
-			// If the constructor didn't throw any Exceptions: Store the reply in the database
-			reply.storeInDatabase(db);
-			
 		}
 	}
 }
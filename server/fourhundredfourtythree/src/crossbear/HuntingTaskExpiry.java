@@ -0,0 +1,122 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+
+package crossbear;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import crossbear.messaging.HuntingTask;
+import crossbear.storage.Storage;
+import crossbear.storage.StorageFactory;
+
+/**
+ * The HuntingTaskExpiry periodically retires all HuntingTasks that are older than HuntingTask.MAX_AGE (cf. HuntingTask.retireExpired). It runs in a background thread within the server and
+ * replaces the cron job that used to do that.
+ * 
+ * Please note: HuntingTasks that reached HuntingTask.MAX_RESULTS are retired as soon as their last result is stored (cf. CertificateManager.storeHuntingTaskResult). The HuntingTaskExpiry is only
+ * responsible for the age.
+ * 
+ * There is only one HuntingTaskExpiry per JVM. It is started by the first page that calls start and stopped by the first page that calls stop (i.e. when the web application is shut down).
+ */
+public class HuntingTaskExpiry implements Runnable {
+
+	// The interval in minutes in which expired HuntingTasks are retired
+	private static final long interval = 10;
+
+	// The executor that runs the HuntingTaskExpiry (null if it is not running)
+	private static ScheduledExecutorService executor = null;
+
+	/**
+	 * Start retiring expired HuntingTasks periodically (unless that is already done)
+	 * 
+	 * @param properties The properties of the Crossbear server (needed to open the Storage and to log errors)
+	 */
+	public static synchronized void start(Properties properties) {
+		if (executor != null) {
+			return;
+		}
+
+		// Use a daemon thread so the HuntingTaskExpiry doesn't keep the JVM from terminating
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "HuntingTaskExpiry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleWithFixedDelay(new HuntingTaskExpiry(properties), 0, interval, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Stop retiring expired HuntingTasks
+	 */
+	public static synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	// Properties and settings of the Crossbear server
+	private final Properties properties;
+
+	/**
+	 * Create a new HuntingTaskExpiry
+	 * 
+	 * @param properties The properties of the Crossbear server (needed to open the Storage and to log errors)
+	 */
+	private HuntingTaskExpiry(Properties properties) {
+		this.properties = properties;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		Storage storage = null;
+		try {
+
+			// Retire all expired HuntingTasks
+			storage = StorageFactory.open(properties);
+			HuntingTask.retireExpired(storage);
+
+		} catch (Exception e) {
+
+			// Exceptions must not stop the periodic execution: Log them and try again next time
+			Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.huntingTaskExpiry.error", e);
+		} finally {
+			try {
+				if (storage != null)
+					storage.close();
+			} catch (SQLException e) {
+				Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.huntingTaskExpiry.error", e);
+			}
+		}
+	}
+
+}
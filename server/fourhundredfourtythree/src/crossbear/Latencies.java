@@ -0,0 +1,80 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies keeps a LatencyHistogram for each stage of the request processing of the Crossbear pages (e.g. "verifyCert.fetchServerCert"). The stages are timed by calling record with the time the
+ * stage started. Since record returns the time the stage ended, consecutive stages can be timed like this:
+ * 
+ * long t = System.nanoTime();
+ * ... first stage ...
+ * t = Latencies.record("page.firstStage", t);
+ * ... second stage ...
+ * t = Latencies.record("page.secondStage", t);
+ * 
+ * The percentiles of all stages are available in a machine-readable format via SystemStatus.getLatencyStatus. They are calculated over all requests since the server was started.
+ */
+public class Latencies {
+
+	// The LatencyHistograms of the stages that have been recorded so far
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Get the LatencyHistogram of a stage (or create it if the stage has not been recorded before)
+	 * 
+	 * @param stage The name of the stage
+	 * @return The LatencyHistogram of the stage
+	 */
+	private static LatencyHistogram getHistogram(String stage) {
+		LatencyHistogram histogram = histograms.get(stage);
+		if (histogram == null) {
+			histograms.putIfAbsent(stage, new LatencyHistogram());
+			histogram = histograms.get(stage);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Get all LatencyHistograms sorted by the names of their stages
+	 * 
+	 * @return A map from the names of the stages to their LatencyHistograms
+	 */
+	public static Map<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<String, LatencyHistogram>(histograms);
+	}
+
+	/**
+	 * Record the duration of a stage that started at a certain time and ends now
+	 * 
+	 * @param stage The name of the stage (e.g. "verifyCert.fetchServerCert")
+	 * @param startNanos The value of System.nanoTime() when the stage started
+	 * @return The value of System.nanoTime() now (i.e. when the stage ended)
+	 */
+	public static long record(String stage, long startNanos) {
+		long now = System.nanoTime();
+		getHistogram(stage).record((now - startNanos) / 1000);
+		return now;
+	}
+
+}
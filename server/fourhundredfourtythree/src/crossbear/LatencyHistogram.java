@@ -0,0 +1,146 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram records durations in a fixed set of buckets and estimates their percentiles. Like a HDR-histogram it uses logarithmic buckets that are each divided into subBuckets linear
+ * sub-buckets. This way every recorded value is stored with a relative error of at most 1/subBuckets while the memory needed is independent of the number of recorded values.
+ * 
+ * Durations are stored in microseconds. Recording is lock-free and doesn't allocate any memory so it can be done on the request threads. Reading the percentiles while values are recorded may give
+ * slightly inconsistent results which is acceptable for a statistic.
+ */
+public class LatencyHistogram {
+
+	// The number of bits of a value that are used to determine its sub-bucket
+	private static final int subBucketBits = 4;
+
+	// The number of sub-buckets per bucket
+	private static final int subBuckets = 1 << subBucketBits;
+
+	// The number of bits of the largest value that can be recorded (2^40 microseconds are about 12 days). Larger values are recorded as the largest one.
+	private static final int maxValueBits = 40;
+
+	// The number of buckets (the first bucket holds the values 0 to subBuckets-1, each following bucket holds twice as large values as the previous one)
+	private static final int buckets = maxValueBits - subBucketBits + 1;
+
+	/**
+	 * Get the index of the counter that counts a value
+	 * 
+	 * @param value The value in microseconds
+	 * @return The index of the counter for value
+	 */
+	private static int getIndex(long value) {
+
+		// Small values are counted exactly
+		if (value < subBuckets) {
+			return (int) Math.max(0, value);
+		}
+
+		// Larger values are counted in the bucket of their highest bit and the sub-bucket of the following subBucketBits bits
+		int highestBit = Math.min(63 - Long.numberOfLeadingZeros(value), maxValueBits - 1);
+		int bucket = highestBit - subBucketBits + 1;
+		int subBucket = (int) (Math.min(value >> (highestBit - subBucketBits), 2 * subBuckets - 1) & (subBuckets - 1));
+		return bucket * subBuckets + subBucket;
+	}
+
+	/**
+	 * Get the largest value that is counted by a counter
+	 * 
+	 * @param index The index of the counter
+	 * @return The largest value in microseconds that is counted by the counter with that index
+	 */
+	private static long getHighestValue(int index) {
+		int bucket = index / subBuckets;
+		int subBucket = index % subBuckets;
+
+		// The first bucket counts values exactly
+		if (bucket == 0) {
+			return subBucket;
+		}
+
+		// All other buckets count a range of values
+		return ((long) (subBuckets + subBucket + 1) << (bucket - 1)) - 1;
+	}
+
+	// The counters of the buckets
+	private final AtomicLongArray counts = new AtomicLongArray(buckets * subBuckets);
+
+	// The largest value that was recorded
+	private final AtomicLong max = new AtomicLong();
+
+	// The number of recorded values
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 * @return The largest value in microseconds that was recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimate a percentile of the recorded values. The estimation is the largest value that is counted by the bucket that contains the percentile (but never larger than the largest value that was
+	 * recorded).
+	 * 
+	 * @param percentile The percentile to estimate (e.g. 0.99)
+	 * @return The estimated percentile in microseconds or 0 if no values have been recorded
+	 */
+	public long getPercentile(double percentile) {
+
+		// Find the bucket that contains the value with the requested rank
+		long rank = (long) Math.ceil(percentile * total.get());
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank && seen > 0) {
+				return Math.min(getHighestValue(i), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * Record a duration
+	 * 
+	 * @param micros The duration in microseconds
+	 */
+	public void record(long micros) {
+		counts.incrementAndGet(getIndex(micros));
+		total.incrementAndGet();
+
+		// Update the largest value if necessary
+		long currentMax = max.get();
+		while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+			currentMax = max.get();
+		}
+	}
+
+}
@@ -19,48 +19,456 @@
 
 package crossbear;
 
-import java.io.FileWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The Logger is a class that provides logging of exceptions to files. This is useful since exceptions should not be displayed to the clients. Instead they should be made available to the programmer ;)
  * 
+ * Since every page routes all of its failures (including the ones caused by garbage sent by attackers) into the Logger, logging must not slow down the request threads. Therefore the Logger works
+ * asynchronously:
+ * - dumpExceptionToFile only puts the exception into a ring buffer of preallocated slots. A slot is claimed by atomically increasing the claim sequence, which only happens if a slot is free.
+ * Neither locks nor allocations are involved. If the ring buffer is full the exception is dropped (and counted) instead of waiting for the writer thread.
+ * - A writer thread takes the exceptions out of the ring buffer, formats them and writes them into the log-files. The log-files are kept open and rotated when they exceed maxFileSize.
+ * - Per type of exception at most maxPerWindow exceptions are logged within windowMillis. All others are only counted and the count is written along with the next exception of that type that is
+ * logged.
+ * 
+ * When the web application is shut down, shutdown has to be called. It writes the exceptions that are still queued, closes the log-files and stops the writer thread. Since pages may be unloaded
+ * (and shut down the Logger) while others keep running, the writer thread is started again as soon as the next exception is logged.
+ * 
  * @author Thomas Riedmaier
  *
  */
 public class Logger {
 
 	/**
-	 * Append a Exception's time of generation, its Message and its stackTrace into a log-file
+	 * A Slot of the ring buffer. The slots are allocated once and reused for every exception.
+	 */
+	private static class Slot {
+
+		// The file to log to
+		private String logFileName;
+
+		// The exception to log
+		private Exception exception;
+
+		// The time at which the exception was logged
+		private long time;
+	}
+
+	/**
+	 * The Writer is the thread that writes the exceptions of the ring buffer into the log-files. A new Writer is started whenever an exception is logged while there is none (cf. shutdown).
+	 */
+	private static class Writer extends Thread {
+
+		// True once the Writer has been asked to stop
+		private volatile boolean stopped = false;
+
+		// True while the Writer is (about to start) waiting for the next exception. Only then it needs to be woken up.
+		private volatile boolean waiting = false;
+
+		/**
+		 * Create a new Writer. It is a daemon thread so it doesn't keep the JVM from terminating.
+		 */
+		public Writer() {
+			super("Logger");
+			setDaemon(true);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+
+			// Write the queued exceptions until the Writer is stopped
+			while (!stopped) {
+				if (writeNext()) {
+					continue;
+				}
+
+				// Wait for the next exception (check again after announcing the wait so an exception that was logged in the meantime isn't missed)
+				waiting = true;
+				if (!stopped && !hasNext()) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(pollMillis));
+				}
+				waiting = false;
+			}
+		}
+
+		/**
+		 * Stop the Writer and wake it up in case it is waiting
+		 */
+		public void stopWriting() {
+			stopped = true;
+			LockSupport.unpark(this);
+		}
+
+		/**
+		 * Wake the Writer up if it is waiting for the next exception
+		 */
+		public void wakeUp() {
+			if (waiting) {
+				LockSupport.unpark(this);
+			}
+		}
+	}
+
+	/**
+	 * A RateLimit counts the exceptions of a single type that were logged within the current window and the ones that were suppressed since the last exception of that type was logged.
+	 */
+	private static class RateLimit {
+
+		// The number of exceptions that were admitted within the current window
+		private final AtomicInteger admitted = new AtomicInteger();
+
+		// The number of exceptions that were suppressed since the last exception of that type was written
+		private final AtomicLong suppressed = new AtomicLong();
+
+		// The time at which the current window started
+		private volatile long windowStart;
+
+		/**
+		 * Decide whether an exception of this type should be logged. If two threads start a new window at the same time a few more exceptions than maxPerWindow might be admitted which is
+		 * acceptable.
+		 * 
+		 * @param now The current time
+		 * @return True if the exception should be logged, false if it was suppressed
+		 */
+		public boolean tryAdmit(long now) {
+
+			// Start a new window if the current one is over
+			if (now - windowStart >= windowMillis) {
+				windowStart = now;
+				admitted.set(0);
+			}
+
+			// Admit the exception if the window's budget is not yet used up
+			if (admitted.incrementAndGet() <= maxPerWindow) {
+				return true;
+			}
+			suppressed.incrementAndGet();
+			return false;
+		}
+	}
+
+	// The maximum number of exceptions waiting for the writer thread (a power of two so the slot of a sequence can be calculated by a bit mask)
+	private static final int capacity = 1024;
+
+	// The charset in which the log-files are written (the one that was used by the FileWriter before)
+	private static final Charset charset = Charset.defaultCharset();
+
+	// The number of rotated log-files that are kept (e.g. x.error.1 ... x.error.5)
+	private static final int maxBackups = 5;
+
+	// The size in bytes after which a log-file is rotated
+	private static final long maxFileSize = 10 * 1024 * 1024;
+
+	// The maximum number of exceptions of a single type that are logged within windowMillis
+	private static final int maxPerWindow = 10;
+
+	// The number of milliseconds of each rate limiting window
+	private static final long windowMillis = 1000;
+
+	// The maximum number of milliseconds the writer thread waits for an exception before it checks again
+	private static final long pollMillis = 1000;
+
+	// The maximum number of milliseconds shutdown waits for the writer thread to finish
+	private static final long shutdownMillis = 5000;
+
+	// The slots of the ring buffer
+	private static final Slot[] slots = new Slot[capacity];
+
+	/*
+	 * The sequence of each slot: The slot for claim sequence n is free if its sequence is n and it contains an exception if its sequence is n + 1. Once the exception was taken out of the slot its
+	 * sequence becomes n + capacity (i.e. it is free for the next round).
+	 */
+	private static final AtomicLongArray slotSequences = new AtomicLongArray(capacity);
+
+	// The claim sequence of the next slot to be written by dumpExceptionToFile
+	private static final AtomicLong claimSequence = new AtomicLong();
+
+	// The claim sequence of the next slot to be taken out of the ring buffer (only accessed while holding the lock on channels)
+	private static long readSequence = 0;
+
+	// The writer thread (null if there is none; cf. startWriter)
+	private static volatile Writer writer = null;
+
+	// The number of exceptions that were dropped because the ring buffer was full (since the last time this was written into a log-file)
+	private static final AtomicLong dropped = new AtomicLong();
+
+	// The RateLimits of all types of exceptions that have been logged so far
+	private static final ConcurrentHashMap<Class<?>, RateLimit> rateLimits = new ConcurrentHashMap<Class<?>, RateLimit>();
+
+	// The log-files that are currently open (all accesses are synchronized on it)
+	private static final Map<String, FileChannel> channels = new HashMap<String, FileChannel>();
+
+	static {
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Slot();
+			slotSequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Append a Exception's time of generation, its Message and its stackTrace into a log-file. This is done asynchronously by the writer thread, i.e. the exception is only put into the ring buffer
+	 * (if it is not suppressed by the rate limiting and if the ring buffer is not full).
 	 * 
 	 * @param logFileName The file to log to
 	 * @param e The exception to log
 	 */
 	public static void dumpExceptionToFile(String logFileName, Exception e) {
-		try {
+		long now = System.currentTimeMillis();
+
+		// Get the RateLimit of the exception's type (or create it if this is the first exception of that type)
+		RateLimit rateLimit = rateLimits.get(e.getClass());
+		if (rateLimit == null) {
+			rateLimits.putIfAbsent(e.getClass(), new RateLimit());
+			rateLimit = rateLimits.get(e.getClass());
+		}
+
+		// Check if the exception should be logged at all
+		if (!rateLimit.tryAdmit(now)) {
+			return;
+		}
+
+		// Claim a free slot (or drop the exception if there is none). Nothing is allocated before it is clear that there is room for the exception.
+		long sequence;
+		while (true) {
+			sequence = claimSequence.get();
+			long slotSequence = slotSequences.get((int) sequence & (capacity - 1));
+			if (slotSequence < sequence) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (slotSequence == sequence && claimSequence.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+		}
 
-			// Open the file into which the Exception should be logged
-			FileWriter fstream = new FileWriter(logFileName, true);
+		// Fill the slot and publish it to the writer thread
+		int index = (int) sequence & (capacity - 1);
+		Slot slot = slots[index];
+		slot.logFileName = logFileName;
+		slot.exception = e;
+		slot.time = now;
+		slotSequences.set(index, sequence + 1);
 
-			// The Exception's stackTrace can only be written into a PrintWriter: Create it ...
-			final Writer result = new StringWriter();
-			final PrintWriter printWriter = new PrintWriter(result);
+		// Wake up the writer thread (or start one if the Logger has been shut down)
+		Writer currentWriter = writer;
+		if (currentWriter != null) {
+			currentWriter.wakeUp();
+		} else {
+			startWriter();
+		}
+	}
+
+	/**
+	 * Write all exceptions that are currently queued and close the log-files afterwards
+	 */
+	private static void drain() {
+		while (writeNext()) {
+		}
+
+		// Make sure everything has been written to disk and release the log-files
+		synchronized (channels) {
+			for (FileChannel channel : channels.values()) {
+				try {
+					channel.force(false);
+					channel.close();
+				} catch (IOException e) {
+				}
+			}
+			channels.clear();
+		}
+	}
+
+	/**
+	 * Get the log-file with a certain name. If it is not yet open it is opened in append-mode.
+	 * 
+	 * @param logFileName The name of the log-file
+	 * @return A FileChannel to write into the log-file
+	 * @throws IOException
+	 */
+	private static FileChannel getChannel(String logFileName) throws IOException {
+		FileChannel channel = channels.get(logFileName);
+		if (channel == null) {
+			channel = new FileOutputStream(logFileName, true).getChannel();
+			channels.put(logFileName, channel);
+		}
+		return channel;
+	}
+
+	/**
+	 * Check whether the next slot of the ring buffer contains an exception
+	 * 
+	 * @return True if there is an exception waiting for the writer thread
+	 */
+	private static boolean hasNext() {
+		synchronized (channels) {
+			return slotSequences.get((int) readSequence & (capacity - 1)) == readSequence + 1;
+		}
+	}
+
+	/**
+	 * Rotate a log-file: Close it, rename it to logFileName.1 (after renaming logFileName.1 to logFileName.2 etc.) and delete the oldest backup
+	 * 
+	 * @param logFileName The name of the log-file
+	 * @throws IOException
+	 */
+	private static void rotate(String logFileName) throws IOException {
+
+		// Close the log-file
+		FileChannel channel = channels.remove(logFileName);
+		if (channel != null) {
+			channel.close();
+		}
+
+		// Shift the backups and make the log-file the first one
+		new File(logFileName + "." + maxBackups).delete();
+		for (int i = maxBackups - 1; i >= 1; i--) {
+			new File(logFileName + "." + i).renameTo(new File(logFileName + "." + (i + 1)));
+		}
+		new File(logFileName).renameTo(new File(logFileName + ".1"));
+	}
+
+	/**
+	 * Stop the writer thread: Wait until it wrote the exceptions that are queued, then write the ones that are still left and close all log-files. If an exception is logged after that, a new writer
+	 * thread is started (cf. dumpExceptionToFile), so it doesn't matter if a page that is unloaded shuts down the Logger while other pages keep running.
+	 * 
+	 * This has to be called when the web application is shut down (otherwise queued exceptions are lost and the log-files are not closed).
+	 */
+	public static void shutdown() {
+
+		// Stop the writer thread and give it the chance to finish the exception it is writing
+		Writer stoppedWriter;
+		synchronized (Logger.class) {
+			stoppedWriter = writer;
+			writer = null;
+		}
+		if (stoppedWriter != null) {
+			stoppedWriter.stopWriting();
+			try {
+				stoppedWriter.join(shutdownMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// Write whatever is left and close the log-files
+		drain();
+	}
+
+	/**
+	 * Start a writer thread unless there already is one
+	 */
+	private static synchronized void startWriter() {
+		if (writer == null) {
+			writer = new Writer();
+			writer.start();
+		}
+	}
+
+	/**
+	 * Write an exception into its log-file
+	 * 
+	 * @param logFileName The file to log to
+	 * @param e The exception to log
+	 * @param time The time at which the exception was logged
+	 */
+	private static void write(String logFileName, Exception e, long time) {
+
+		// The log-files are written by the writer thread and by shutdown (all accesses to them are synchronized on channels)
+		synchronized (channels) {
+			try {
+
+				// The Exception's stackTrace can only be written into a PrintWriter: Create it ...
+				StringWriter result = new StringWriter();
+				PrintWriter printWriter = new PrintWriter(result);
 			
-			// ... and write the stackTrace into it.
-			e.printStackTrace(printWriter);
+				// ... and write the stackTrace into it.
+				e.printStackTrace(printWriter);
+
+				// Then write the Exception's time of generation, its Message and its stackTrace into the log-file
+				StringBuilder entry = new StringBuilder();
+				entry.append("\n-------------------" + new Date(time) + "-------------------------\n" + e.getLocalizedMessage() + "\n\n" + result.toString());
+
+				// Add how many exceptions of the same type have been suppressed and how many exceptions have been dropped since the last time
+				long suppressed = rateLimits.get(e.getClass()).suppressed.getAndSet(0);
+				if (suppressed > 0) {
+					entry.append("(" + suppressed + " more exceptions of type " + e.getClass().getName() + " were suppressed)\n");
+				}
+				long droppedCount = dropped.getAndSet(0);
+				if (droppedCount > 0) {
+					entry.append("(" + droppedCount + " exceptions were dropped since the log ring buffer was full)\n");
+				}
+
+				// Write the entry and rotate the log-file if it became too large
+				FileChannel channel = getChannel(logFileName);
+				ByteBuffer buffer = ByteBuffer.wrap(entry.toString().getBytes(charset));
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				if (channel.size() > maxFileSize) {
+					rotate(logFileName);
+				}
+
+			} catch (Exception e2) {
+				// This is already the exception-handling routine. If this function fails also: Don't do anything except reopening the log-file next time :(
+				FileChannel channel = channels.remove(logFileName);
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e3) {
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take the next exception out of the ring buffer and write it into its log-file
+	 * 
+	 * @return True if an exception was written and false if the ring buffer was empty
+	 */
+	private static boolean writeNext() {
 
-			// Then write the Exception's time of generation, its Message and its stackTrace into the log-file
-			fstream.write("\n-------------------" + new Date() + "-------------------------\n" + e.getLocalizedMessage() + "\n\n" + result.toString());
+		// The slots are taken out in the order of their claim sequences (the lock on channels makes sure that only one thread at a time does so)
+		synchronized (channels) {
+			int index = (int) readSequence & (capacity - 1);
+			if (slotSequences.get(index) != readSequence + 1) {
+				return false;
+			}
 
-			// Flush and clos the output stream
-			fstream.flush();
-			fstream.close();
+			// Take the exception out of the slot and release the slot for the next round
+			Slot slot = slots[index];
+			String logFileName = slot.logFileName;
+			Exception e = slot.exception;
+			long time = slot.time;
+			slot.logFileName = null;
+			slot.exception = null;
+			slotSequences.set(index, readSequence + capacity);
+			readSequence++;
 
-		} catch (Exception e2) {
-			// This is already the exception-handling routine. If this function fails also: Don't do anything :(
+			write(logFileName, e, time);
+			return true;
 		}
 	}
 }
@@ -0,0 +1,269 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An OperationEvent records a key operation of Crossbear (e.g. a TLS handshake with a server or the query of a Convergence notary) as a Java Flight Recorder event. Each event carries the duration
+ * of the operation and three text fields:
+ * - host: The host the operation was performed for (e.g. "encrypted.google.com:443")
+ * - detail: Further information on the operation (e.g. the notary that was queried)
+ * - outcome: The result of the operation (e.g. "valid" or the name of the exception that was thrown)
+ * 
+ * This way a continuous recording (e.g. java -XX:StartFlightRecording=...) correlates the CPU, allocation and latency data of the JVM with Crossbear's operations. The events show up in the
+ * category "Crossbear" and are named "crossbear.X" where X is the name of their Type.
+ * 
+ * Crossbear is compiled for Java 7 which doesn't provide the Flight Recorder API (jdk.jfr). Therefore the event types are defined at runtime using jdk.jfr.EventFactory via reflection. On JVMs
+ * without that API (or if the Flight Recorder is not recording an event type) begin returns a shared dummy event so recording costs next to nothing.
+ * 
+ * Usage:
+ * 
+ * OperationEvent event = OperationEvent.begin(OperationEvent.NOTARY_QUERY, hostPort, notaryHost);
+ * String outcome = "failed";
+ * try {
+ *   ... perform the operation ...
+ *   outcome = "...";
+ * } finally {
+ *   event.commit(outcome);
+ * }
+ */
+public class OperationEvent {
+
+	/**
+	 * A Type of OperationEvents (e.g. CERT_CHAIN_FETCH). It holds the jdk.jfr.EventFactory that creates the events of this type (or null if the Flight Recorder API is not available).
+	 */
+	public static class Type {
+
+		// The EventFactory that creates the events of this type
+		private final Object factory;
+
+		/**
+		 * Define a new Type of OperationEvents
+		 * 
+		 * @param name The name of the Type (the Flight Recorder event will be named "crossbear."+name)
+		 * @param label The human readable name of the Type
+		 * @param description A description of the operation
+		 */
+		private Type(String name, String label, String description) {
+			Object f = null;
+			if (jfrAvailable) {
+				try {
+					// Describe the event type: its name, label, description and category ...
+					List<Object> annotations = new ArrayList<Object>();
+					annotations.add(annotationElement.newInstance(nameAnnotation, "crossbear." + name));
+					annotations.add(annotationElement.newInstance(labelAnnotation, label));
+					annotations.add(annotationElement.newInstance(descriptionAnnotation, description));
+					annotations.add(annotationElement.newInstance(categoryAnnotation, new String[] { "Crossbear" }));
+
+					// ... and its fields
+					List<Object> fields = new ArrayList<Object>();
+					for (String field : fieldNames) {
+						Object fieldLabel = annotationElement.newInstance(labelAnnotation, Character.toUpperCase(field.charAt(0)) + field.substring(1));
+						fields.add(valueDescriptor.newInstance(String.class, field, Collections.singletonList(fieldLabel)));
+					}
+
+					f = createFactory.invoke(null, annotations, fields);
+				} catch (Exception e) {
+					// The event type could not be defined: Don't record events of this type
+				}
+			}
+			this.factory = f;
+		}
+	}
+
+	// The names of the fields of each event (in the order of their indices)
+	private static final String[] fieldNames = { "host", "detail", "outcome" };
+
+	// Reflective access to the Flight Recorder API (all null if it is not available)
+	private static final boolean jfrAvailable;
+	private static Constructor<?> annotationElement;
+	private static Constructor<?> valueDescriptor;
+	private static Class<?> nameAnnotation;
+	private static Class<?> labelAnnotation;
+	private static Class<?> descriptionAnnotation;
+	private static Class<?> categoryAnnotation;
+	private static Method createFactory;
+	private static Method newEvent;
+	private static Method isEnabled;
+	private static Method beginEvent;
+	private static Method setField;
+	private static Method commitEvent;
+
+	static {
+		boolean available = false;
+		try {
+			Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+
+			annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+			valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+			nameAnnotation = Class.forName("jdk.jfr.Name");
+			labelAnnotation = Class.forName("jdk.jfr.Label");
+			descriptionAnnotation = Class.forName("jdk.jfr.Description");
+			categoryAnnotation = Class.forName("jdk.jfr.Category");
+			createFactory = eventFactoryClass.getMethod("create", List.class, List.class);
+			newEvent = eventFactoryClass.getMethod("newEvent");
+			isEnabled = eventClass.getMethod("isEnabled");
+			beginEvent = eventClass.getMethod("begin");
+			setField = eventClass.getMethod("set", int.class, Object.class);
+			commitEvent = eventClass.getMethod("commit");
+			available = true;
+		} catch (Exception e) {
+			// The JVM doesn't provide the Flight Recorder API (e.g. Java 7): Events won't be recorded
+		}
+		jfrAvailable = available;
+	}
+
+	// The dummy event that is returned if an event is not recorded
+	private static final OperationEvent disabled = new OperationEvent(null, null, null);
+
+	/*
+	 * The Types of the OperationEvents that are recorded by Crossbear
+	 */
+	public static final Type CERT_CHAIN_FETCH = new Type("CertChainFetch", "Certificate Chain Fetch", "TLS handshake with a server to download its certificate chain");
+	public static final Type CERT_CHAIN_VALIDATION = new Type("CertChainValidation", "Certificate Chain Validation", "Attempt to find an order of a certificate chain that makes it valid");
+	public static final Type CERT_JUDGMENT = new Type("CertJudgment", "Certificate Judgment", "Computation of a single judgment of a certificate verification");
+	public static final Type NOTARY_QUERY = new Type("NotaryQuery", "Convergence Notary Query", "Query of a Convergence notary for its observations of a host");
+	public static final Type HUNTING_TASK_REPLY = new Type("HuntingTaskReply", "Hunting Task Reply", "Validation and storage of a single Hunting Task reply");
+	public static final Type TRACEROUTE = new Type("Traceroute", "Traceroute", "Traceroute to the target of a Hunting Task");
+	public static final Type TRACEROUTE_PROBE = new Type("TracerouteProbe", "Traceroute Probe", "Probe of a single TTL-value of a Traceroute");
+
+	/**
+	 * Begin a new OperationEvent
+	 * 
+	 * @param type The Type of the OperationEvent
+	 * @param host The host the operation is performed for
+	 * @param detail Further information on the operation (may be null)
+	 * @return The new OperationEvent. Call commit once the operation is finished.
+	 */
+	public static OperationEvent begin(Type type, String host, String detail) {
+
+		// Don't do anything if the event type couldn't be defined
+		if (type.factory == null) {
+			return disabled;
+		}
+
+		try {
+			// Create the event and check if it is recorded at all
+			Object event = newEvent.invoke(type.factory);
+			if (!(Boolean) isEnabled.invoke(event)) {
+				return disabled;
+			}
+
+			// Start the timing of the event
+			beginEvent.invoke(event);
+			return new OperationEvent(event, host, detail);
+
+		} catch (Exception e) {
+			return disabled;
+		}
+	}
+
+	// The jdk.jfr.Event (null for the dummy event)
+	private final Object event;
+
+	// The host the operation is performed for
+	private String host;
+
+	// Further information on the operation
+	private String detail;
+
+	// True once the OperationEvent has been committed
+	private boolean committed = false;
+
+	/**
+	 * Create a new OperationEvent
+	 * 
+	 * @param event The jdk.jfr.Event that has already begun
+	 * @param host The host the operation is performed for
+	 * @param detail Further information on the operation
+	 */
+	private OperationEvent(Object event, String host, String detail) {
+		this.event = event;
+		this.host = host;
+		this.detail = detail;
+	}
+
+	/**
+	 * Finish the OperationEvent and record it (if the Flight Recorder is interested in it, e.g. because it exceeds the configured threshold). Committing an OperationEvent a second time has no effect, so a finally-block may commit a fallback outcome unconditionally.
+	 * 
+	 * @param outcome The result of the operation
+	 */
+	public void commit(String outcome) {
+		if (event == null || committed) {
+			return;
+		}
+		committed = true;
+
+		try {
+			// Set the fields and commit the event (which also ends its timing)
+			Object[] values = { host, detail, outcome };
+			for (int i = 0; i < values.length; i++) {
+				setField.invoke(event, i, values[i]);
+			}
+			commitEvent.invoke(event);
+
+		} catch (Exception e) {
+			// Recording the event failed: Nothing can be done about that
+		}
+	}
+
+	/**
+	 * @return True if the OperationEvent will be recorded by the Flight Recorder. This can be used to avoid assembling the outcome of an operation if it isn't needed.
+	 */
+	public boolean isRecorded() {
+		return event != null;
+	}
+
+	/**
+	 * Change the host-field of the OperationEvent (e.g. if the host is not known until the operation has been performed partially)
+	 * 
+	 * @param host The host the operation is performed for
+	 */
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	/**
+	 * Change the detail-field of the OperationEvent (e.g. when further information on the operation becomes available while it is performed)
+	 * 
+	 * @param detail Further information on the operation
+	 */
+	public void setDetail(String detail) {
+		this.detail = detail;
+	}
+
+	/**
+	 * Get a short description of an exception that can be used as outcome
+	 * 
+	 * @param e The exception that was thrown by the operation
+	 * @return The simple name of the exception's class followed by its message
+	 */
+	public static String describe(Throwable e) {
+		return e.getClass().getSimpleName() + ": " + e.getMessage();
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Some replies of the Crossbear server consist of a large part that is the same for many requests (e.g. the HuntingTask-List) followed by a small part that is generated for each request (e.g. the
+ * PublicIPNotification and the CurrentServerTime). A PrecompressedData-object holds such a constant part along with its compressed form. This makes it possible to send gzip- or deflate-encoded
+ * replies while only compressing the small part for each request.
+ * 
+ * This works because a deflate-stream may consist of several blocks that don't refer to each other: The constant part is compressed once into non-final blocks that end on a byte boundary and the
+ * part that is generated for each request is compressed into the final blocks. The checksums of the gzip- and the deflate-format (CRC32 and Adler32) of the constant part are calculated once as well
+ * and are continued over the generated part.
+ */
+public class PrecompressedData {
+
+	// The content encodings that are supported
+	public static final String ENCODING_GZIP = "gzip";
+	public static final String ENCODING_DEFLATE = "deflate";
+
+	// Table for the calculation of the CRC32-checksum (polynomial 0xEDB88320 as used by the gzip-format)
+	private static final int[] crcTable = new int[256];
+	static {
+		for (int n = 0; n < 256; n++) {
+			int c = n;
+			for (int k = 0; k < 8; k++) {
+				c = ((c & 1) != 0) ? 0xEDB88320 ^ (c >>> 1) : c >>> 1;
+			}
+			crcTable[n] = c;
+		}
+	}
+
+	// A PrecompressedData-object without constant part. It can be used to compress replies that don't have a constant part.
+	public static final PrecompressedData EMPTY = new PrecompressedData(new byte[0]);
+
+	/**
+	 * Choose the content encoding for a reply based on the Accept-Encoding-header that the client sent. gzip is preferred over deflate.
+	 * 
+	 * @param acceptEncoding The value of the Accept-Encoding-header (may be null)
+	 * @return ENCODING_GZIP, ENCODING_DEFLATE or null if the client doesn't accept any of them
+	 */
+	public static String chooseContentEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+
+		// Collect the encodings that the client accepts (e.g. "gzip;q=1.0, deflate, identity;q=0")
+		boolean gzipAccepted = false, deflateAccepted = false;
+		for (String encoding : acceptEncoding.toLowerCase().split(",")) {
+			String[] parts = encoding.split(";");
+			String name = parts[0].trim();
+
+			// Encodings with a quality of 0 are not acceptable
+			boolean acceptable = true;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						acceptable = Double.parseDouble(param.substring(2)) > 0;
+					} catch (NumberFormatException e) {
+						acceptable = false;
+					}
+				}
+			}
+
+			gzipAccepted |= acceptable && (name.equals(ENCODING_GZIP) || name.equals("x-gzip"));
+			deflateAccepted |= acceptable && name.equals(ENCODING_DEFLATE);
+		}
+
+		return gzipAccepted ? ENCODING_GZIP : (deflateAccepted ? ENCODING_DEFLATE : null);
+	}
+
+	/**
+	 * Compress data into raw deflate-blocks (i.e. without any header or checksum)
+	 * 
+	 * @param data The data to compress
+	 * @param last True if the blocks should be the last ones of the deflate-stream. If false, the blocks will end on a byte boundary so further blocks can be appended.
+	 * @return The compressed data
+	 */
+	private static byte[] deflateRaw(byte[] data, boolean last) {
+
+		// Non-final blocks are only needed if there is data
+		if (!last && data.length == 0) {
+			return data;
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try {
+			deflater.setInput(data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+			byte[] buffer = new byte[8192];
+
+			if (last) {
+				// Finish the stream
+				deflater.finish();
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				// Flush the data (ending on a byte boundary) without finishing the stream
+				int len;
+				do {
+					len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					out.write(buffer, 0, len);
+				} while (len == buffer.length);
+			}
+
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Continue an Adler32-checksum over additional data
+	 * 
+	 * @param adler The Adler32-checksum of the preceding data
+	 * @param data The additional data
+	 * @return The Adler32-checksum of the preceding data followed by the additional data
+	 */
+	private static long updateAdler32(long adler, byte[] data) {
+		long a = adler & 0xffff;
+		long b = adler >>> 16;
+		for (int i = 0; i < data.length; i++) {
+			a = (a + (data[i] & 0xff)) % 65521;
+			b = (b + a) % 65521;
+		}
+		return (b << 16) | a;
+	}
+
+	/**
+	 * Continue a CRC32-checksum over additional data
+	 * 
+	 * @param crc The CRC32-checksum of the preceding data
+	 * @param data The additional data
+	 * @return The CRC32-checksum of the preceding data followed by the additional data
+	 */
+	private static long updateCRC32(long crc, byte[] data) {
+		int c = ~(int) crc;
+		for (int i = 0; i < data.length; i++) {
+			c = crcTable[(c ^ data[i]) & 0xff] ^ (c >>> 8);
+		}
+		return ~c & 0xffffffffL;
+	}
+
+	/**
+	 * Write a 32-bit value into a stream
+	 * 
+	 * @param out The stream to write to
+	 * @param value The value to write
+	 * @param bigEndian True if the value should be written in big-endian byte order, false for little-endian
+	 */
+	private static void writeInt32(ByteArrayOutputStream out, long value, boolean bigEndian) {
+		for (int i = 0; i < 4; i++) {
+			out.write((int) (value >>> (bigEndian ? 24 - 8 * i : 8 * i)));
+		}
+	}
+
+	// The Adler32-checksum of the constant part
+	private final long adler32;
+
+	// The CRC32-checksum of the constant part
+	private final long crc32;
+
+	// The constant part
+	private final byte[] data;
+
+	// The constant part compressed into non-final deflate-blocks. They are calculated on first use since many clients don't ask for compressed replies.
+	private volatile byte[] deflated;
+
+	/**
+	 * Create a new PrecompressedData-object
+	 * 
+	 * @param data The constant part of the replies
+	 */
+	public PrecompressedData(byte[] data) {
+		this.data = data;
+
+		// Calculate the checksums of the constant part
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		this.crc32 = crc.getValue();
+		Adler32 adler = new Adler32();
+		adler.update(data);
+		this.adler32 = adler.getValue();
+	}
+
+	/**
+	 * Encode a reply consisting of the constant part followed by a part that was generated for the current request
+	 * 
+	 * @param contentEncoding The content encoding to use (ENCODING_GZIP, ENCODING_DEFLATE or null for no encoding)
+	 * @param suffix The part of the reply that was generated for the current request
+	 * @return The encoded reply
+	 */
+	public byte[] encode(String contentEncoding, byte[] suffix) {
+
+		// Without encoding the reply is just the concatenation of both parts
+		if (contentEncoding == null) {
+			byte[] re = new byte[data.length + suffix.length];
+			System.arraycopy(data, 0, re, 0, data.length);
+			System.arraycopy(suffix, 0, re, data.length, suffix.length);
+			return re;
+		}
+
+		// The compressed constant part is the same for gzip and deflate. It is calculated on first use. If two threads do that at the same time both will come to the same result
+		byte[] deflatedData = deflated;
+		if (deflatedData == null) {
+			deflatedData = deflateRaw(data, false);
+			deflated = deflatedData;
+		}
+		byte[] deflatedSuffix = deflateRaw(suffix, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(deflatedData.length + deflatedSuffix.length + 18);
+
+		if (contentEncoding.equals(ENCODING_GZIP)) {
+
+			// gzip: Header (no flags, no modification time, unknown OS), deflate-blocks, CRC32 and length of the uncompressed data (both little-endian)
+			out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff }, 0, 10);
+			out.write(deflatedData, 0, deflatedData.length);
+			out.write(deflatedSuffix, 0, deflatedSuffix.length);
+			writeInt32(out, updateCRC32(crc32, suffix), false);
+			writeInt32(out, data.length + suffix.length, false);
+
+		} else if (contentEncoding.equals(ENCODING_DEFLATE)) {
+
+			// deflate (i.e. the zlib-format): Header (32K window, best compression), deflate-blocks and Adler32 of the uncompressed data (big-endian)
+			out.write(new byte[] { 0x78, (byte) 0xda }, 0, 2);
+			out.write(deflatedData, 0, deflatedData.length);
+			out.write(deflatedSuffix, 0, deflatedSuffix.length);
+			writeInt32(out, updateAdler32(adler32, suffix), true);
+
+		} else {
+			throw new IllegalArgumentException("The content encoding " + contentEncoding + " is not supported");
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return The constant part of the replies
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The SQLProfiler collects statistics on all SQL-statements that are executed by the Database-class. Since many statements contain values that were concatenated into them (e.g. "IN (1,2,3)" or
+ * "LIMIT 50"), statements are normalized into fingerprints first: All literals are replaced by "?", lists of literals are replaced by a single "?" and whitespaces are collapsed.
+ * 
+ * For each fingerprint the SQLProfiler records
+ * - the number of executions and failed executions
+ * - a LatencyHistogram of the execution times (not including the time to iterate over the returned rows)
+ * - the number of rows that were returned (SELECT) or affected (INSERT, UPDATE, DELETE)
+ * - the number of times a transaction that contained the statement was rolled back (i.e. the retries of the commit/rollback-loops of the callers)
+ * 
+ * Statements that take longer than slowQueryThreshold are additionally remembered in the slow query log (the last maxSlowQueries ones). All of this is available in a machine-readable format via
+ * SystemStatus.getSQLStatus.
+ */
+public class SQLProfiler {
+
+	/**
+	 * The statistics of a single fingerprint
+	 */
+	public static class QueryStatistics {
+
+		// The number of executions of the statement
+		private final AtomicLong calls = new AtomicLong();
+
+		// The number of executions that failed
+		private final AtomicLong errors = new AtomicLong();
+
+		// The fingerprint of the statement
+		private final String fingerprint;
+
+		// The execution times of the statement
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		// The number of times a transaction containing the statement was rolled back
+		private final AtomicLong rollbacks = new AtomicLong();
+
+		// The number of rows returned or affected by the statement
+		private final AtomicLong rows = new AtomicLong();
+
+		// The sum of all execution times in microseconds
+		private final AtomicLong totalMicros = new AtomicLong();
+
+		/**
+		 * Create new (empty) statistics for a fingerprint
+		 * 
+		 * @param fingerprint The fingerprint of the statement
+		 */
+		private QueryStatistics(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	// The maximum number of fingerprints. Statements with fingerprints beyond that are recorded as otherFingerprint
+	private static final int maxFingerprints = 1000;
+
+	// The fingerprint that is used once maxFingerprints has been reached
+	private static final String otherFingerprint = "(other statements)";
+
+	// The number of entries in the slow query log
+	private static final int maxSlowQueries = 100;
+
+	// The maximum number of characters of a statement that are stored in the slow query log
+	private static final int maxSlowQueryLength = 500;
+
+	// Regular expressions to normalize statements: String literals, numeric literals, lists of placeholders and whitespaces
+	private static final Pattern stringLiteralPat = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern numberLiteralPat = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+	private static final Pattern placeholderListPat = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+	private static final Pattern whitespacePat = Pattern.compile("\\s+");
+
+	// Cache for the fingerprints of the statements that have been executed recently. The key is the statement
+	private static final BoundedCache<String, String> fingerprints = new BoundedCache<String, String>(1000);
+
+	// The statistics of all fingerprints
+	private static final ConcurrentHashMap<String, QueryStatistics> statistics = new ConcurrentHashMap<String, QueryStatistics>();
+
+	// The slow query log (oldest entry first). Access must be synchronized on the list
+	private static final LinkedList<String> slowQueries = new LinkedList<String>();
+
+	// The execution time in milliseconds above which a statement is put in the slow query log
+	private static volatile long slowQueryThreshold = 1000;
+
+	/**
+	 * Read the settings of the SQLProfiler from the Crossbear properties. Currently this is only "database.slowQueryThreshold" (in milliseconds). If it is not set the default of 1000 ms is used.
+	 * 
+	 * @param properties The properties of the Crossbear server
+	 */
+	public static void configure(Properties properties) {
+		String threshold = properties.getProperty("database.slowQueryThreshold");
+		if (threshold != null) {
+			slowQueryThreshold = Long.parseLong(threshold.trim());
+		}
+	}
+
+	/**
+	 * Wrap a ResultSet in a way that the rows that are read from it are counted for a statement
+	 * 
+	 * @param rs The ResultSet to wrap
+	 * @param stats The statistics of the statement that returned the ResultSet
+	 * @return A ResultSet that behaves exactly like rs but counts the rows
+	 */
+	public static ResultSet countRows(final ResultSet rs, final QueryStatistics stats) {
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				try {
+					Object re = method.invoke(rs, args);
+
+					// Every successful call of next() is a row
+					if (re == Boolean.TRUE && method.getName().equals("next")) {
+						stats.rows.incrementAndGet();
+					}
+					return re;
+
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Normalize a SQL-statement into its fingerprint
+	 * 
+	 * e.g. "SELECT * FROM t WHERE Id IN (1,2,3) AND Name = 'x' LIMIT 50" -> "SELECT * FROM t WHERE Id IN ? AND Name = ? LIMIT ?"
+	 * 
+	 * @param sqlstmt The statement to normalize
+	 * @return The fingerprint of the statement
+	 */
+	public static String getFingerprint(String sqlstmt) {
+		String fingerprint = fingerprints.get(sqlstmt);
+		if (fingerprint == null) {
+			fingerprint = stringLiteralPat.matcher(sqlstmt).replaceAll("?");
+			fingerprint = numberLiteralPat.matcher(fingerprint).replaceAll("?");
+			fingerprint = placeholderListPat.matcher(fingerprint).replaceAll("?");
+			fingerprint = whitespacePat.matcher(fingerprint).replaceAll(" ").trim();
+			fingerprint = fingerprints.putIfAbsent(sqlstmt, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Get the statistics of a statement's fingerprint (or create them if the fingerprint has not been seen before)
+	 * 
+	 * @param sqlstmt The statement
+	 * @return The statistics of the statement's fingerprint
+	 */
+	public static QueryStatistics getStatistics(String sqlstmt) {
+		String fingerprint = getFingerprint(sqlstmt);
+		QueryStatistics stats = statistics.get(fingerprint);
+		if (stats == null) {
+
+			// Don't let statements that can't be normalized properly fill up the memory
+			if (statistics.size() >= maxFingerprints) {
+				fingerprint = otherFingerprint;
+			}
+			statistics.putIfAbsent(fingerprint, new QueryStatistics(fingerprint));
+			stats = statistics.get(fingerprint);
+		}
+		return stats;
+	}
+
+	/**
+	 * Return the statistics of all fingerprints and the slow query log in a machine-readable format:
+	 * - One line per fingerprint (sorted by the total execution time, largest first) containing the number of calls, errors, rows and rollbacks, the total execution time in milliseconds and the
+	 * 50th, 99th and 99.9th percentile of the execution time in microseconds followed by the fingerprint. The values are separated by tabs.
+	 * - One line per entry of the slow query log containing the date of execution, the execution time in milliseconds and the statement (also separated by tabs).
+	 * 
+	 * The lines of each part are preceded by a comment line that names the columns.
+	 * 
+	 * @return The statistics of all fingerprints and the slow query log as plain text
+	 */
+	public static String getStatus() {
+		List<QueryStatistics> all = new ArrayList<QueryStatistics>(statistics.values());
+		Collections.sort(all, new Comparator<QueryStatistics>() {
+			@Override
+			public int compare(QueryStatistics o1, QueryStatistics o2) {
+				return Long.compare(o2.totalMicros.get(), o1.totalMicros.get());
+			}
+		});
+
+		StringBuilder re = new StringBuilder("# calls\terrors\trows\trollbacks\ttotal_ms\tp50_us\tp99_us\tp999_us\tfingerprint\n");
+		for (QueryStatistics stats : all) {
+			re.append(stats.calls.get()).append('\t').append(stats.errors.get()).append('\t').append(stats.rows.get()).append('\t').append(stats.rollbacks.get()).append('\t')
+					.append(stats.totalMicros.get() / 1000).append('\t').append(stats.latency.getPercentile(0.5)).append('\t').append(stats.latency.getPercentile(0.99)).append('\t')
+					.append(stats.latency.getPercentile(0.999)).append('\t').append(stats.fingerprint).append('\n');
+		}
+
+		re.append("# slow queries (threshold ").append(slowQueryThreshold).append(" ms): date\tduration_ms\tstatement\n");
+		synchronized (slowQueries) {
+			for (String entry : slowQueries) {
+				re.append(entry).append('\n');
+			}
+		}
+
+		return re.toString();
+	}
+
+	/**
+	 * Record an execution of a statement
+	 * 
+	 * @param stats The statistics of the statement's fingerprint (cf. getStatistics)
+	 * @param sqlstmt The statement
+	 * @param startNanos The value of System.nanoTime() when the execution started
+	 * @param rows The number of rows affected by the statement (0 for queries since their rows are counted while they are read, cf. countRows)
+	 * @param failed True if the execution failed
+	 */
+	public static void record(QueryStatistics stats, String sqlstmt, long startNanos, long rows, boolean failed) {
+		long micros = (System.nanoTime() - startNanos) / 1000;
+
+		stats.calls.incrementAndGet();
+		stats.totalMicros.addAndGet(micros);
+		stats.latency.record(micros);
+		stats.rows.addAndGet(rows);
+		if (failed) {
+			stats.errors.incrementAndGet();
+		}
+
+		// Put the statement in the slow query log if it took too long
+		if (micros / 1000 >= slowQueryThreshold) {
+			String statement = whitespacePat.matcher(sqlstmt).replaceAll(" ");
+			if (statement.length() > maxSlowQueryLength) {
+				statement = statement.substring(0, maxSlowQueryLength) + "...";
+			}
+			String entry = new Date() + "\t" + (micros / 1000) + "\t" + statement;
+
+			synchronized (slowQueries) {
+				slowQueries.addLast(entry);
+				if (slowQueries.size() > maxSlowQueries) {
+					slowQueries.removeFirst();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record that a transaction was rolled back
+	 * 
+	 * @param transaction The statistics of the fingerprints of all statements that were executed within the transaction
+	 */
+	public static void recordRollback(Collection<QueryStatistics> transaction) {
+		for (QueryStatistics stats : transaction) {
+			stats.rollbacks.incrementAndGet();
+		}
+	}
+
+}
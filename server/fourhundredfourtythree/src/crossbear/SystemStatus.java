@@ -20,9 +20,11 @@
 package crossbear;
 
 import java.security.InvalidParameterException;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Map;
+
+import crossbear.storage.Storage;
 
 /**
  * The SystemStatus class defines an interface to access information on the current status of the Crossbear system.
@@ -36,64 +38,76 @@ public class SystemStatus {
 	/**
 	 * Get and return the number of Hunting Tasks that are currently active
 	 * 
-	 * @param db The database connection to use
+	 * @param storage The Storage to use
 	 * @return A status text containing the information of how many Hunting Tasks are currently active
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	public static String getActiveHuntingTasks(Database db) throws InvalidParameterException, SQLException{
-		
-		// Perform a query to get the number of active Hunting Tasks
-		Object[] params = { };
-		ResultSet rs = db.executeQuery("SELECT COUNT(*) AS c FROM HuntingTasks WHERE active = 'true'", params);
+	public static String getActiveHuntingTasks(Storage storage) throws InvalidParameterException, SQLException{
 		
-		// If the result is empty then something went wrong
-		if (!rs.next()) {
-			throw new SQLException("ResultSet was empty!");
-		}
-		
-		// Return the number of active Hunting Tasks
-		return "Active Hunting Tasks: "+rs.getString("c");
+		// Get and return the number of active Hunting Tasks
+		return "Active Hunting Tasks: "+storage.countActiveHuntingTasks();
 	}
 	
 	/**
 	 * Estimate and return the number of Hunters that are currently active (i.e. numbers of IPs that requested the Hunting Task list up to half an hour ago)
 	 * 
-	 * @param db The database connection to use
+	 * @param storage The Storage to use
 	 * @return A status text containing the information of how many Hunters are currently active
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	public static String getActiveHunters(Database db) throws InvalidParameterException, SQLException{
+	public static String getActiveHunters(Storage storage) throws InvalidParameterException, SQLException{
 		
-		// Perform a query to get the number of active Hunters
-		Object[] params = {new Timestamp(System.currentTimeMillis()-30*60*1000) };
-		ResultSet rs = db.executeQuery("SELECT COUNT(DISTINCT RequestingIP) AS c FROM HuntingTaskRequests WHERE TimeOfRequest > ?", params);
+		// Get and return the number of active Hunters
+		return "Active Hunters: "+storage.countHuntingTaskRequesters(new Timestamp(System.currentTimeMillis()-30*60*1000));
 		
-		// If the result is empty then something went wrong
-		if (!rs.next()) {
-			throw new SQLException("ResultSet was empty!");
+	}
+	
+	/**
+	 * Return the latencies of all stages of the request processing that have been recorded so far (cf. Latencies) in a machine-readable format. There is one line per stage containing the stage's
+	 * name, the number of recorded requests and the 50th, 99th and 99.9th percentile as well as the maximum of the stage's duration in microseconds. The values are separated by spaces. The first line
+	 * is a comment that names the columns.
+	 * 
+	 * e.g. "verifyCert.fetchServerCert 1234 85000 410000 950000 1200000"
+	 * 
+	 * @return The latencies of all stages as plain text
+	 */
+	public static String getLatencyStatus() {
+		StringBuilder re = new StringBuilder("# stage count p50_us p99_us p999_us max_us\n");
+
+		for (Map.Entry<String, LatencyHistogram> entry : Latencies.getHistograms().entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			re.append(entry.getKey()).append(' ').append(histogram.getTotal()).append(' ').append(histogram.getPercentile(0.5)).append(' ').append(histogram.getPercentile(0.99)).append(' ')
+					.append(histogram.getPercentile(0.999)).append(' ').append(histogram.getMax()).append('\n');
 		}
-		
-		// Return the number of active Hunters
-		return "Active Hunters: "+rs.getString("c");
-		
+
+		return re.toString();
+	}
+	
+	/**
+	 * Return the statistics of all SQL-statements that have been executed so far and the slow query log in a machine-readable format (cf. SQLProfiler.getStatus)
+	 * 
+	 * @return The statistics of all SQL-statements as plain text
+	 */
+	public static String getSQLStatus() {
+		return SQLProfiler.getStatus();
 	}
 	
 	/**
 	 * Return an HTML encoded overview of the current status of the Crossbear system
 	 * 
-	 * @param db The database connection to use
+	 * @param storage The Storage to use
 	 * @return An HTML encoded String that describes the current status of the Crossbear system
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	public static String getStatusHTML(Database db) throws InvalidParameterException, SQLException{
+	public static String getStatusHTML(Storage storage) throws InvalidParameterException, SQLException{
 		String re = "";
 		
-		re += getActiveHuntingTasks(db) + "<br>\r\n";
+		re += getActiveHuntingTasks(storage) + "<br>\r\n";
 		
-		re += getActiveHunters(db) + "<br>\r\n";
+		re += getActiveHunters(storage) + "<br>\r\n";
 		
 		return re;
 	}
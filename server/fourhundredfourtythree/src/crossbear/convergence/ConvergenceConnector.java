@@ -28,7 +28,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.sql.Date;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.HashSet;
@@ -44,10 +43,11 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import crossbear.CertJudgment;
-import crossbear.CertificateManager;
-import crossbear.Database;
+import crossbear.CertificateDerivatives;
+import crossbear.OperationEvent;
 import crossbear.TrustSingleCertificateTM;
 import crossbear.messaging.Message;
+import crossbear.storage.Storage;
 
 /**
  * The Convergence Project (http://convergence.io/) which was initially created by Moxie Marlinspike provides a functionality that is quite similar to Crossbear's Protector-functionality: Comparison based
@@ -93,51 +93,63 @@ public class ConvergenceConnector {
 	 */
 	private static String contactNotary(ConvergenceNotary notary, String hostPort) throws IOException, KeyManagementException, NoSuchAlgorithmException {
 
-		// Construct a fake fingerprint to send to the Notary (currently the Hex-String representation of "ConvergenceIsGreat:)")
-		String data = "fingerprint=43:6F:6E:76:65:72:67:65:6E:63:65:49:73:47:72:65:61:74:3A:29"; 
-
-		// Build the url to connect to based on the Notary and the certificate's host
-		URL url = new URL("https://" + notary.getHostPort() + "/target/" + hostPort.replace(":", "+"));
-		
-		// Open a HttpsURLConnection for that url
-		HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-
-		/*
-		 * Set a TrustManager on that connection that forces the use of the Notary's certificate. If the Notary sends any certificate that differs from the one that it is supposed to have (according
-		 * to the ConvergenceNotaries-table) an Exception will be thrown. This protects against Man-in-the-middle attacks placed between the Crossbear server and the Notary.
-		 */
-		SSLContext sc = SSLContext.getInstance("SSL");
-		sc.init(null, new TrustManager[] { new TrustSingleCertificateTM(Message.hexStringToByteArray(notary.getCertSHA256Hash())) }, new java.security.SecureRandom());
-		conn.setSSLSocketFactory(sc.getSocketFactory());
-
-		// Set the timeout during which the Notary has to reply
-		conn.setConnectTimeout(3000);
-		
-		// POST the fake fingerprint to the Notary
-		conn.setDoOutput(true);
-		OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-		wr.write(data);
-		wr.flush();
-
-		// Get the Notary's response. Since Convergence replies with a 409-error if it has never observed a certificate conn.getInputStream() will be null. The way to get the Notarys reply in that case is to use conn.getErrorStream().
-		InputStream is;
-		if (conn.getResponseCode() >= 400) {
-			is = conn.getErrorStream();
+		// Record the query as Flight Recorder event
+		OperationEvent event = OperationEvent.begin(OperationEvent.NOTARY_QUERY, hostPort, notary.getHostPort());
+		String outcome = "failed";
+		try {
 
-		} else {
-			// This line should never be executed since we send a fake fingerprint that should never belong to an actually observed certificate. But who knows ...
-			is = conn.getInputStream();
-		}
+			// Construct a fake fingerprint to send to the Notary (currently the Hex-String representation of "ConvergenceIsGreat:)")
+			String data = "fingerprint=43:6F:6E:76:65:72:67:65:6E:63:65:49:73:47:72:65:61:74:3A:29"; 
+
+			// Build the url to connect to based on the Notary and the certificate's host
+			URL url = new URL("https://" + notary.getHostPort() + "/target/" + hostPort.replace(":", "+"));
 
-		// Read the Notary's reply and store it
-		String response = Message.inputStreamToString(is);
+			// Open a HttpsURLConnection for that url
+			HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
 
-		// Close all opened streams
-		wr.close();
+			/*
+			 * Set a TrustManager on that connection that forces the use of the Notary's certificate. If the Notary sends any certificate that differs from the one that it is supposed to have (according
+			 * to the ConvergenceNotaries-table) an Exception will be thrown. This protects against Man-in-the-middle attacks placed between the Crossbear server and the Notary.
+			 */
+			SSLContext sc = SSLContext.getInstance("SSL");
+			sc.init(null, new TrustManager[] { new TrustSingleCertificateTM(Message.hexStringToByteArray(notary.getCertSHA256Hash())) }, new java.security.SecureRandom());
+			conn.setSSLSocketFactory(sc.getSocketFactory());
 
-		// Return the Notary's reply
-		return response;
+			// Set the timeout during which the Notary has to reply
+			conn.setConnectTimeout(3000);
+
+			// POST the fake fingerprint to the Notary
+			conn.setDoOutput(true);
+			OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
+			wr.write(data);
+			wr.flush();
+
+			// Get the Notary's response. Since Convergence replies with a 409-error if it has never observed a certificate conn.getInputStream() will be null. The way to get the Notarys reply in that case is to use conn.getErrorStream().
+			InputStream is;
+			if (conn.getResponseCode() >= 400) {
+				is = conn.getErrorStream();
+
+			} else {
+				// This line should never be executed since we send a fake fingerprint that should never belong to an actually observed certificate. But who knows ...
+				is = conn.getInputStream();
+			}
 
+			// Read the Notary's reply and store it
+			String response = Message.inputStreamToString(is);
+			outcome = "HTTP " + conn.getResponseCode() + ", " + response.length() + " chars";
+
+			// Close all opened streams
+			wr.close();
+
+			// Return the Notary's reply
+			return response;
+
+		} catch (IOException e) {
+			outcome = OperationEvent.describe(e);
+			throw e;
+		} finally {
+			event.commit(outcome);
+		}
 	}
 
 	/**
@@ -243,8 +255,8 @@ public class ConvergenceConnector {
 		return re;
 	}
 
-	// The Database connection to use
-	private Database db;
+	// The Storage to use
+	private Storage storage;
 
 	/* 
 	 * Crossbear wants to keep the load on Convergence as low as possible. Therefore it caches all information it receives from Convergence. 
@@ -255,11 +267,11 @@ public class ConvergenceConnector {
 	/**
 	 * Establish a new Connection to the Convergence Project
 	 * 
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @param refreshInterval The time interval that will minimally pass between two identical requests to Convergence (in ms)
 	 */
-	public ConvergenceConnector(Database db, int refreshInterval) {
-		this.db = db;
+	public ConvergenceConnector(Storage storage, int refreshInterval) {
+		this.storage = storage;
 		this.refreshInterval = refreshInterval;
 	}
 
@@ -273,21 +285,18 @@ public class ConvergenceConnector {
 	 */
 	private ConvergenceCertObservation getCCOFromCache(String hostPort, String certSHA1) throws SQLException {
 
-		Object[] params = { hostPort, certSHA1 };
-		ResultSet rs = db.executeQuery("SELECT * FROM ConvergenceCertObservations WHERE ServerHostPort = ? AND SHA1Hash = ? LIMIT 1", params);
-
-		// If the result is empty then there is no cache entry to return
-		if (!rs.next()) {
+		// If there is no cache entry then there is nothing to return
+		ConvergenceCertObservation cco = storage.getConvergenceCertObservation(hostPort, certSHA1);
+		if (cco == null) {
 			return null;
 		}
 
 		// If the cache entry is not valid anymore (and should be refreshed) then there is nothing to return
-		Timestamp lastUpdate = rs.getTimestamp("LastUpdate");
-		if (lastUpdate.before(new Timestamp(System.currentTimeMillis() - this.refreshInterval)))
+		if (cco.getLastUpdate().before(new Timestamp(System.currentTimeMillis() - this.refreshInterval)))
 			return null;
 
-		// If there is a cache entry that is currently valid: return it as ConvergenceCertObservation
-		return new ConvergenceCertObservation(rs.getString("ServerHostPort"), rs.getString("SHA1Hash"), rs.getTimestamp("FirstObservation"), rs.getTimestamp("LastObservation"), lastUpdate);
+		// If there is a cache entry that is currently valid: return it
+		return cco;
 	}
 
 	/**
@@ -299,8 +308,13 @@ public class ConvergenceConnector {
 	private HashSet<ConvergenceCertObservation> getCCOsForHostPort(String hostPort) {
 
 		try {
-			// Get a random ConvergenceNotary from the ConvergenceNotaries-table
-			ConvergenceNotary notary = getRandomConvergenceNotary();
+			// Get a random ConvergenceNotary
+			ConvergenceNotary notary = storage.getRandomConvergenceNotary();
+
+			// If there is no ConvergenceNotary Crossbear could use then there is nobody to ask
+			if (notary == null) {
+				return null;
+			}
 
 			// Contact it and ask it about ConvergenceCertObservations for "hostPort"
 			String notaryAnswer = contactNotary(notary, hostPort);
@@ -330,8 +344,8 @@ public class ConvergenceConnector {
 	 */
 	public CertJudgment getJudgmentOfObservationPeriod(X509Certificate cert, String hostPort) throws SQLException, CertificateEncodingException, NoSuchAlgorithmException {
 
-		// Calculate the certificate's SHA1-hash. It will be used as the certificate's identifier in all Convergence-related functions and SQL-tables
-		String certSHA1 = Message.byteArrayToHexString(CertificateManager.SHA1(cert.getEncoded()));
+		// Get the certificate's SHA1-hash. It will be used as the certificate's identifier in all Convergence-related functions and SQL-tables
+		String certSHA1 = CertificateDerivatives.get(cert).getSHA1Hex();
 
 		// Try to get the information about when Convergence observed "cert" for "hostPort" from the local cache (i.e. the ConvergenceCertObservations-table)
 		ConvergenceCertObservation cco = getCCOFromCache(hostPort, certSHA1);
@@ -369,26 +383,6 @@ public class ConvergenceConnector {
 		return getJudgmentForCCO(cco);
 	}
 
-	/**
-	 * Select a random ConvergenceNotary from the ConvergenceNotaries-table and return it
-	 * 
-	 * @return A random ConvergenceNotary from the ConvergenceNotaries-table
-	 * @throws SQLException
-	 */
-	private ConvergenceNotary getRandomConvergenceNotary() throws SQLException {
-		
-		// Reqeust a random Notary from the ConvergenceNotaries-table
-		ResultSet rs = db.executeQuery("SELECT * FROM ConvergenceNotaries ORDER BY RANDOM() LIMIT 1", new Object[] {});
-
-		// If the result is empty then there is no ConvergenceNotary Crossbear could use
-		if (!rs.next()) {
-			return null;
-		}
-
-		// Build a ConvergenceNotary-based on the reply from the database and return it
-		return new ConvergenceNotary(rs.getString("HostPort"), rs.getString("CertID"));
-	}
-
 	/**
 	 * Store a ConvergenceCertObservation in the local cache (i.e. the ConvergenceCertObservations-table). The local ConvergenceCertObservation-cache is used to reduce the network traffic generated by
 	 * Crossbear, to reduce the load on Convergence and to speed up the average response time of Certificate Verification Requests.
@@ -398,42 +392,7 @@ public class ConvergenceConnector {
 	 */
 	private void storeCCOInCache(ConvergenceCertObservation cco) throws SQLException {
 
-		SQLException lastSQLException = null;
-
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-
-				// First: Try to update an existing entry
-				Object[] params = { cco.getFirstObservation(), cco.getLastObservation(), cco.getLastUpdate(), cco.getHostPort(), cco.getCertHash() };
-				int updatedRows = db
-						.executeUpdate("UPDATE ConvergenceCertObservations SET FirstObservation = ?, LastObservation = ?, LastUpdate = ? WHERE ServerHostPort = ? AND SHA1Hash = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO ConvergenceCertObservations (FirstObservation,LastObservation,LastUpdate,ServerHostPort,SHA1Hash) VALUES (?,?,?,?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
-
+		storage.storeConvergenceCertObservation(cco);
 	}
 
 	
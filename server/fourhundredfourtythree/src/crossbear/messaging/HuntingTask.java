@@ -26,12 +26,12 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Vector;
 
-import crossbear.Database;
+import crossbear.storage.HuntingTaskEntry;
+import crossbear.storage.Storage;
 
 /**
  * HuntingTask-messages are sent from the Crossbear server to the Crossbear client(s). Upon receiving a HuntingTask-message a client will contact the scan-target and download its certificate chain.
@@ -55,27 +55,44 @@ import crossbear.Database;
  */
 public class HuntingTask extends Message {
 
+	// The number of results after which a HuntingTask is retired
+	public static final int MAX_RESULTS = 30;
+
+	// The age in milliseconds after which a HuntingTask is retired
+	public static final long MAX_AGE = 3 * 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Retire all HuntingTasks that are older than MAX_AGE. If there were any, the HuntingTask-List cache is invalidated.
+	 * 
+	 * @param storage The Storage to use
+	 * @return The number of HuntingTasks that were retired
+	 * @throws SQLException
+	 */
+	public static int retireExpired(Storage storage) throws SQLException {
+		int retired = storage.retireHuntingTasks(new Timestamp(System.currentTimeMillis() - MAX_AGE));
+		if (retired > 0) {
+			MessageList.invalidateHTLCache(storage);
+		}
+		return retired;
+	}
+
 	/**
 	 * Get all HuntingTasks from the HuntingTasks-table that are currently active
 	 * 
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @return A Vector that contains all currently active HuntingTasks
 	 * @throws UnknownHostException
 	 * @throws SQLException
 	 * @throws NoSuchAlgorithmException 
 	 */
-	public static Vector<HuntingTask> getAllActive(Database db) throws UnknownHostException, SQLException, NoSuchAlgorithmException {
+	public static Vector<HuntingTask> getAllActive(Storage storage) throws UnknownHostException, SQLException, NoSuchAlgorithmException {
 		
 		// Create a empty result vector
 		Vector<HuntingTask> re = new Vector<HuntingTask>();
 		
-		// Query the Database for all currently active HuntingTasks
-		Object[] params = {  };
-		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTasks WHERE Active = 'true'", params);
-		
-		// Iterate through all entries of the result of the database query and add them to the result vector.
-		while(rs.next()){
-			re.add(new HuntingTask(rs.getInt("Id"),rs.getString("TargetHostName"),InetAddress.getByName(rs.getString("TargetIP")),rs.getInt("TargetPort"),db));
+		// Iterate through all currently active HuntingTasks and add them to the result vector.
+		for (HuntingTaskEntry entry : storage.getActiveHuntingTasks()) {
+			re.add(new HuntingTask(entry.getId(), entry.getTargetHostName(), InetAddress.getByName(entry.getTargetIP()), entry.getTargetPort(), storage));
 		}
 		
 		// Return the result
@@ -162,11 +179,11 @@ public class HuntingTask extends Message {
 	 * @param targetHostName The value of the "TargetHostName"-field
 	 * @param targetIP The value of the "TargetIP"-field
 	 * @param targetPort The value of the "TargetPort"-field
-	 * @param db The Database connection to use for further operations
+	 * @param storage The Storage to use for further operations
 	 * @throws SQLException 
 	 * @throws NoSuchAlgorithmException 
 	 */
-	private HuntingTask(int taskID, String targetHostName, InetAddress targetIP, int targetPort, Database db) throws SQLException, NoSuchAlgorithmException {
+	private HuntingTask(int taskID, String targetHostName, InetAddress targetIP, int targetPort, Storage storage) throws SQLException, NoSuchAlgorithmException {
 		super((targetIP instanceof Inet6Address) ? Message.MESSAGE_TYPE_IPV6_SHA256_TASK : Message.MESSAGE_TYPE_IPV4_SHA256_TASK);
 		
 		this.targetHostName = targetHostName;
@@ -175,22 +192,26 @@ public class HuntingTask extends Message {
 		this.taskID = taskID;
 		
 		// Calculate and store the hashes of the well known certificate chains for this HuntingTask 
-		this.alreadyKnownCertChainHashes = calculateKnownCertificateChainHashes(3, db);
+		this.alreadyKnownCertChainHashes = calculateKnownCertificateChainHashes(3, storage);
 	}
 
 	/**
 	 * Get the scan-target's HuntingTask from the HuntingTask-table. If there is no active HuntingTask for it: create it first.
 	 * 
+	 * The severity of the HuntingTask states how suspicious the observation was that caused its creation. HuntingTasks with a high severity are preferred when the HuntingTask-List is assembled. If
+	 * the HuntingTask already exists its severity is raised to the given severity (if that is higher).
+	 * 
 	 * Please note: This function assumes that the input has already been checked for validity (e.g. hostname not too long, IP not null, etc ...)
 	 * 
 	 * @param targetHostName The Hostname of the scan-target
 	 * @param targetIP The IP of the scan-target
 	 * @param targetPort The port of the scan-target
-	 * @param db The Database connection to use for further operations
+	 * @param severity The severity of the HuntingTask (0 to 255)
+	 * @param storage The Storage to use for further operations
 	 * @throws SQLException
 	 * @throws NoSuchAlgorithmException 
 	 */
-	public HuntingTask(String targetHostName, InetAddress targetIP, int targetPort, Database db) throws SQLException, NoSuchAlgorithmException {
+	public HuntingTask(String targetHostName, InetAddress targetIP, int targetPort, int severity, Storage storage) throws SQLException, NoSuchAlgorithmException {
 		super((targetIP instanceof Inet6Address) ? Message.MESSAGE_TYPE_IPV6_SHA256_TASK : Message.MESSAGE_TYPE_IPV4_SHA256_TASK);
 
 
@@ -199,41 +220,38 @@ public class HuntingTask extends Message {
 		this.targetPort = targetPort;
 
 		// Get the TaskID for this HuntingTask (and if there is no active HuntingTask for this scan-target create a database entry for it)
-		int taskID = getExistingTaskID(db);
+		int taskID = getExistingTaskID(storage);
 		if (-1 != taskID) {
 			this.taskID = taskID;
+			raiseSeverity(severity, storage);
 		} else {
-			this.taskID = createNewTask(db);
+			this.taskID = createNewTask(severity, storage);
 		}
 
 
 		// Calculate and store the hashes of the well known certificate chains for this HuntingTask
-		this.alreadyKnownCertChainHashes = calculateKnownCertificateChainHashes(3, db);
+		this.alreadyKnownCertChainHashes = calculateKnownCertificateChainHashes(3, storage);
 	}
 
 	/**
 	 * Get the SHA256Hashes of all well known certificates chains for this HuntingTask. A certificate chain is well known for a hunting task if it has been observed for the HuntingTask's scan-target.
 	 * 
 	 * @param max The maximum number of hashes to be returned.
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @return An array of SHA256Hashes - one for each well known certificate chain for the current HuntingTask (limited by the "max" parameter)
 	 * @throws SQLException
 	 * @throws NoSuchAlgorithmException 
 	 */
-	private byte[][] calculateKnownCertificateChainHashes(int max, Database db) throws SQLException, NoSuchAlgorithmException {
+	private byte[][] calculateKnownCertificateChainHashes(int max, Storage storage) throws SQLException, NoSuchAlgorithmException {
 
 		// Create a empty result vector
 		Vector<byte[]> re = new Vector<byte[]>();
 
-		// Get the SHA256ChainHash of all certificates that have ever been observed for the scan-target. Order them by their most recent observation.
-		Object[] params = { targetHostName + ":" + String.valueOf(targetPort) };
-		ResultSet rs = db.executeQuery("SELECT sc.SHA256ChainHash , Max(co.TimeOfObservation) as LastSeen FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash IS NOT NULL GROUP BY sc.SHA256ChainHash ORDER BY LastSeen DESC LIMIT "+String.valueOf(max), params);
-
-		// Store up to "max" hashes in the result vector (number of results generated by the SQL-Query is limited)
-		while(rs.next()) {
+		// Get the SHA256ChainHash of all certificates that have ever been observed for the scan-target (up to "max" of them). They are ordered by their most recent observation.
+		for (String hash : storage.getKnownCertChainHashes(targetHostName + ":" + String.valueOf(targetPort), max)) {
 			
-			// Get the byte[]-representation of the SHA256ChainHash-field
-			re.add(hexStringToByteArray(rs.getString("SHA256ChainHash")));
+			// Get the byte[]-representation of the SHA256ChainHash
+			re.add(hexStringToByteArray(hash));
 		}
 
 		// Return the result as an array
@@ -243,16 +261,14 @@ public class HuntingTask extends Message {
 	/**
 	 * Create a new entry in the HuntingTasks-table representing the current HuntingTask.
 	 * 
-	 * @param db The Database connection to use
+	 * @param severity The severity of the HuntingTask (0 to 255)
+	 * @param storage The Storage to use
 	 * @return The ID of the newly created HuntingTask
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	private int createNewTask(Database db) throws InvalidParameterException, SQLException {
-		Object[] params = { targetHostName, targetIP, targetPort,new Timestamp(System.currentTimeMillis()) };
-		String key = db.executeInsert("INSERT INTO HuntingTasks (TargetHostName, TargetIP, TargetPort, TimeOfCreation, Active) VALUES (?,?,?,?, 'true')", params);
-
-		return Integer.valueOf(key);
+	private int createNewTask(int severity, Storage storage) throws InvalidParameterException, SQLException {
+		return storage.createHuntingTask(targetHostName, targetIP, targetPort, new Timestamp(System.currentTimeMillis()), severity);
 	}
 
 	/**
@@ -266,21 +282,12 @@ public class HuntingTask extends Message {
 	 * Assume that a HuntingTask exists that has the same properties like the ones that are stored within the current object. If this assumption is true this function will return the ID of that
 	 * HuntingTask and -1 if the assumption is wrong.
 	 * 
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @return The ID of the HuntingTask having the same properties of the current object or -1 if there is none.
 	 * @throws SQLException
 	 */
-	private int getExistingTaskID(Database db) throws SQLException  {
-
-		Object[] params = { targetHostName, targetIP, targetPort };
-		ResultSet rs = db.executeQuery("SELECT Id FROM HuntingTasks WHERE TargetHostName = ? AND TargetIP = ? AND TargetPort = ? AND Active = 'true' ORDER BY Id DESC LIMIT 1", params);
-
-		if (rs.next()) {
-			return rs.getInt("Id");
-		} else {
-			return -1;
-		}
-
+	private int getExistingTaskID(Storage storage) throws SQLException  {
+		return storage.getActiveHuntingTaskID(targetHostName, targetIP, targetPort);
 	}
 
 	/**
@@ -311,6 +318,17 @@ public class HuntingTask extends Message {
 		return taskID;
 	}
 
+	/**
+	 * Raise the severity of the current HuntingTask in the HuntingTasks-table (if it is lower than the new severity)
+	 * 
+	 * @param severity The new severity of the HuntingTask (0 to 255)
+	 * @param storage The Storage to use
+	 * @throws SQLException
+	 */
+	private void raiseSeverity(int severity, Storage storage) throws SQLException {
+		storage.raiseHuntingTaskSeverity(taskID, severity);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -0,0 +1,415 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.cert.CertificateEncodingException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import crossbear.BoundedCache;
+import crossbear.CertificateManager;
+import crossbear.PrecompressedData;
+import crossbear.storage.HuntingTaskEntry;
+import crossbear.storage.Storage;
+
+/**
+ * A HuntingTaskListSnapshot is a version of the HuntingTask-List as it is stored in the HuntingTaskListCache-table. Its version is the time until which the cache entry is valid (in milliseconds since
+ * 1970).
+ * 
+ * The recently used snapshots are kept in memory. That way the encoded HuntingTask-List doesn't need to be split into its HuntingTasks (or compressed) for every request and clients that already
+ * know one of the recent versions can be sent only the changes since that version (cf. HuntingTaskListVersion).
+ * 
+ * Only the HuntingTasks with the highest priority are handed to hunters. The priority of a HuntingTask depends on its age, the number of results that have been reported for it and its severity
+ * (i.e. how suspicious the observation was that caused its creation). It is calculated when the snapshot is created.
+ * 
+ * Hunters don't receive the complete HuntingTask-List but a shard of it (cf. getShard). Each shard is a HuntingTaskListSnapshot of its own. Its version is derived from its content so a client
+ * can be sent the changes since the shard it knows no matter which server calculated that shard.
+ */
+public class HuntingTaskListSnapshot {
+
+	// The maximal number of HuntingTasks that a shard contains
+	private static final int maxTasksPerShard = 50;
+
+	// The maximal number of HuntingTasks whose order fits into a HuntingTaskListVersion-message (larger HuntingTask-Lists are always sent completely)
+	private static final int maxDeltaTasks = (0xffff - 12) / 4;
+
+	// The maximal number of HuntingTasks (those with the highest priority) that are handed to hunters
+	private static final int maxRankedTasks = 500;
+
+	// The age in milliseconds after which the priority of a HuntingTask has decreased to 1/e
+	private static final double priorityDecayTime = 24 * 60 * 60 * 1000;
+
+	// The number of recent versions of the complete HuntingTask-List that are kept in memory
+	private static final int historyVersions = 1024;
+
+	// The number of recent versions of the complete HuntingTask-List whose shards are kept in memory and the number of networks (and IP-versions) per version that shards are kept for
+	private static final int shardHistoryVersions = 8, shardHistoryNetworks = 512;
+
+	// The recently used snapshots of the complete HuntingTask-List (key: version). A client whose version is not among them will receive the complete HuntingTask-List.
+	private static final BoundedCache<Long, HuntingTaskListSnapshot> listHistory = new BoundedCache<Long, HuntingTaskListSnapshot>(historyVersions);
+
+	// The recently used shards (key: version of the shard). They are kept apart from listHistory so the many shards of a version don't evict the versions of the complete HuntingTask-List (and vice versa).
+	// A client whose version is not among them will receive the complete shard.
+	private static final BoundedCache<Long, HuntingTaskListSnapshot> shardHistory = new BoundedCache<Long, HuntingTaskListSnapshot>(shardHistoryVersions * shardHistoryNetworks);
+
+	// The recently used shards (key: version of the complete HuntingTask-List and the shard's key)
+	private static final BoundedCache<String, HuntingTaskListSnapshot> shards = new BoundedCache<String, HuntingTaskListSnapshot>(shardHistoryVersions * shardHistoryNetworks);
+
+	/**
+	 * Get the HuntingTaskListSnapshot of a version of the HuntingTask-List. If it is not yet in memory it will be created from the encoded HuntingTask-List and the priorities of its HuntingTasks will
+	 * be calculated.
+	 * 
+	 * @param version The version of the HuntingTask-List
+	 * @param data The byte[]-representation of the HuntingTask-List (i.e. the concatenation of its HuntingTask-messages)
+	 * @param storage The Storage to use
+	 * @return The HuntingTaskListSnapshot of that version
+	 * @throws SQLException
+	 */
+	public static HuntingTaskListSnapshot get(long version, byte[] data, Storage storage) throws SQLException {
+		HuntingTaskListSnapshot snapshot = listHistory.get(version);
+		if (snapshot == null) {
+			snapshot = new HuntingTaskListSnapshot(version, data, listHistory);
+			snapshot.rankTasks(storage);
+			snapshot = listHistory.putIfAbsent(version, snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Get the network prefix of an IP-Address: The first three bytes of an IPv4-Address or the first six bytes of an IPv6-Address. Hunters within the same network receive the same shard.
+	 * 
+	 * @param ip The IP-Address
+	 * @return The prefix as Hex-String
+	 */
+	private static String getNetworkPrefix(InetAddress ip) {
+		byte[] address = ip.getAddress();
+		int prefixLength = (ip instanceof Inet4Address) ? 3 : 6;
+		return Message.byteArrayToHexString(Arrays.copyOf(address, prefixLength));
+	}
+
+	/**
+	 * Calculate the priority of a HuntingTask. The priority is
+	 * - proportional to the number of results that are still needed (the fewer results are known, the more a new result reduces the uncertainty about the target)
+	 * - decreasing exponentially with the HuntingTask's age (old observations are less likely to be still relevant)
+	 * - up to four times higher for HuntingTasks with a high severity
+	 * 
+	 * @param ageMillis The age of the HuntingTask in milliseconds
+	 * @param results The number of results that have been reported for the HuntingTask
+	 * @param severity The severity of the HuntingTask (0 to 255)
+	 * @return The priority of the HuntingTask (0 if it doesn't need any more results)
+	 */
+	private static double getPriority(long ageMillis, int results, int severity) {
+		int neededResults = Math.max(0, HuntingTask.MAX_RESULTS - results);
+		return neededResults * Math.exp(-Math.max(0, ageMillis) / priorityDecayTime) * (1 + 3 * severity / 255.0);
+	}
+
+	/**
+	 * Calculate a pseudo random number in (0,1] for a network and a HuntingTask. The same network and HuntingTask will always result in the same number (on every server).
+	 * 
+	 * @param networkSeed The seed derived from the network prefix
+	 * @param taskID The TaskID of the HuntingTask
+	 * @return The pseudo random number
+	 */
+	private static double getPseudoRandom(long networkSeed, int taskID) {
+
+		// Mix the seed and the TaskID (finalizer of the SplitMix64-generator)
+		long z = networkSeed + taskID * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+
+		// Use the upper 53 bits as mantissa
+		return ((z >>> 11) + 1) / (double) (1L << 53);
+	}
+
+	// The byte[]-representation of the HuntingTask-List along with its compressed form
+	private final PrecompressedData data;
+
+	// The recently used versions that the client's version is looked up in (listHistory for the complete HuntingTask-List and shardHistory for shards)
+	private final BoundedCache<Long, HuntingTaskListSnapshot> history;
+
+	// The priorities of the HuntingTasks with the highest priorities ordered by descending priority (key: TaskID). Only known for the complete HuntingTask-List.
+	private final LinkedHashMap<Integer, Double> rankedTasks = new LinkedHashMap<Integer, Double>();
+
+	// The byte[]-representations of the HuntingTask-messages of the HuntingTask-List (key: TaskID)
+	private final LinkedHashMap<Integer, ByteBuffer> tasks = new LinkedHashMap<Integer, ByteBuffer>();
+
+	// The version of the HuntingTask-List
+	private final long version;
+
+	// The HuntingTaskListVersion-message of the complete HuntingTask-List followed by the HuntingTask-List along with its compressed form (null until it is first needed; cf. getVersionedData)
+	private volatile PrecompressedData versionedData = null;
+
+	/**
+	 * Create a new HuntingTaskListSnapshot by splitting the encoded HuntingTask-List into its HuntingTask-messages
+	 * 
+	 * @param version The version of the HuntingTask-List
+	 * @param data The byte[]-representation of the HuntingTask-List (i.e. the concatenation of its HuntingTask-messages)
+	 * @param history The recently used versions that the snapshot belongs to (listHistory or shardHistory)
+	 */
+	private HuntingTaskListSnapshot(long version, byte[] data, BoundedCache<Long, HuntingTaskListSnapshot> history) {
+		this.version = version;
+		this.data = new PrecompressedData(data);
+		this.history = history;
+
+		// Each message starts with its type (1 byte) and its length (2 bytes). The length includes the header. The HuntingTask's content starts with its TaskID (4 bytes).
+		int pos = 0;
+		while (pos < data.length) {
+			int messageLength = ((data[pos + 1] & 0xff) << 8) | (data[pos + 2] & 0xff);
+			int taskID = ByteBuffer.wrap(data, pos + 3, 4).getInt();
+			tasks.put(taskID, ByteBuffer.wrap(data, pos, messageLength).slice());
+			pos += messageLength;
+		}
+	}
+
+	/**
+	 * Add the HuntingTask-List to a MessageList.
+	 * 
+	 * If the client didn't send a version (knownVersion < 0) only the HuntingTask-messages are added. Otherwise a HuntingTaskListVersion-message is added in front of them and if the client's version
+	 * is one of the recently used ones only the changes since that version are added (along with the order of all HuntingTasks so the client can restore their priority order).
+	 * 
+	 * Please note: The HuntingTask-List is added as precompressed Messages (or as already encoded Messages in case of a delta), so it precedes all Messages that are added to the MessageList
+	 * afterwards.
+	 * 
+	 * @param ml The MessageList to add the HuntingTask-List to
+	 * @param knownVersion The version of the HuntingTask-List that the client already knows (negative if the client didn't send a version)
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws SQLException
+	 * @throws IOException
+	 * @throws CertificateEncodingException
+	 */
+	public void addToMessageList(MessageList ml, long knownVersion) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, IOException, CertificateEncodingException {
+
+		// Clients that don't know about versions receive the complete HuntingTask-List without version
+		if (knownVersion < 0) {
+			ml.addPrecompressedMessages(data);
+			return;
+		}
+
+		// If the client's version is unknown it receives the complete HuntingTask-List
+		HuntingTaskListSnapshot known = (knownVersion == version) ? this : history.get(knownVersion);
+		if (known == null || tasks.size() > maxDeltaTasks) {
+			ml.addPrecompressedMessages(getVersionedData());
+			return;
+		}
+
+		// If it is known: Send the order of all HuntingTasks, ...
+		int[] taskOrder = new int[tasks.size()];
+		int i = 0;
+		for (Integer taskID : tasks.keySet()) {
+			taskOrder[i++] = taskID;
+		}
+		ml.add(new HuntingTaskListVersion(version, taskOrder));
+
+		// ... the HuntingTasks that were added or changed ...
+		ByteArrayOutputStream changedTasks = new ByteArrayOutputStream();
+		for (Map.Entry<Integer, ByteBuffer> task : tasks.entrySet()) {
+			if (!task.getValue().equals(known.tasks.get(task.getKey()))) {
+				ByteBuffer taskBytes = task.getValue();
+				changedTasks.write(taskBytes.array(), taskBytes.arrayOffset(), taskBytes.remaining());
+			}
+		}
+		ml.addAlreadyEncodedMessages(changedTasks.toByteArray());
+
+		// ... and the ones that were removed
+		for (Integer taskID : known.tasks.keySet()) {
+			if (!tasks.containsKey(taskID)) {
+				ml.add(new HuntingTaskRemoval(taskID));
+			}
+		}
+	}
+
+	/**
+	 * Create a shard of the HuntingTask-List
+	 * 
+	 * @param networkPrefix The network prefix of the hunters that will receive the shard
+	 * @param accept4 True if the shard should contain HuntingTasks with IPv4-targets
+	 * @param accept6 True if the shard should contain HuntingTasks with IPv6-targets
+	 * @return The shard
+	 * @throws NoSuchAlgorithmException
+	 */
+	private HuntingTaskListSnapshot createShard(String networkPrefix, boolean accept4, boolean accept6) throws NoSuchAlgorithmException {
+		final HashMap<Integer, Double> keys = new HashMap<Integer, Double>();
+		long networkSeed = networkPrefix.hashCode();
+
+		/*
+		 * Each network receives a weighted random sample of the ranked HuntingTasks. The weight of a HuntingTask is its priority. That way the HuntingTasks with a high priority are executed by many
+		 * networks and the ones with a low priority by few networks. Since the sample is drawn using a pseudo random number that depends on the network and the HuntingTask, different networks receive
+		 * different HuntingTasks (cf. Efraimidis and Spirakis, "Weighted random sampling with a reservoir").
+		 */
+		for (Map.Entry<Integer, Double> rankedTask : rankedTasks.entrySet()) {
+
+			// Skip HuntingTasks whose target can't be reached by the hunter
+			byte messageType = tasks.get(rankedTask.getKey()).get(0);
+			if ((messageType == Message.MESSAGE_TYPE_IPV4_SHA256_TASK && !accept4) || (messageType == Message.MESSAGE_TYPE_IPV6_SHA256_TASK && !accept6)) {
+				continue;
+			}
+
+			keys.put(rankedTask.getKey(), -Math.log(getPseudoRandom(networkSeed, rankedTask.getKey())) / rankedTask.getValue());
+		}
+
+		// Pick the HuntingTasks with the smallest keys
+		ArrayList<Integer> candidates = new ArrayList<Integer>(keys.keySet());
+		Collections.sort(candidates, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return keys.get(a).compareTo(keys.get(b));
+			}
+		});
+		HashSet<Integer> picked = new HashSet<Integer>(candidates.subList(0, Math.min(maxTasksPerShard, candidates.size())));
+
+		// Concatenate the picked HuntingTasks in the order of their priority (hunters execute them in that order)
+		ByteArrayOutputStream shardData = new ByteArrayOutputStream();
+		for (Map.Entry<Integer, Double> rankedTask : rankedTasks.entrySet()) {
+			if (picked.contains(rankedTask.getKey())) {
+				ByteBuffer taskBytes = tasks.get(rankedTask.getKey());
+				shardData.write(taskBytes.array(), taskBytes.arrayOffset(), taskBytes.remaining());
+			}
+		}
+
+		// The version of the shard is derived from its content (the first 63 bits of its SHA256-hash)
+		byte[] shardBytes = shardData.toByteArray();
+		long shardVersion = ByteBuffer.wrap(CertificateManager.SHA256(shardBytes)).getLong() & Long.MAX_VALUE;
+		return shardHistory.putIfAbsent(shardVersion, new HuntingTaskListSnapshot(shardVersion, shardBytes, shardHistory));
+	}
+
+	/**
+	 * Get the ETag of the HuntingTask-List. It is derived from the version of the HuntingTask-List and the content encoding of the reply (since the encoded replies differ).
+	 * 
+	 * Please note: Replies to the same request differ in the PublicIPNotification- and the CurrentServerTime-message but the HuntingTasks they contain are the same. Therefore it is fine for a client
+	 * to keep using the last HuntingTask-List as long as the ETag doesn't change.
+	 * 
+	 * @param contentEncoding The content encoding of the reply (PrecompressedData.ENCODING_GZIP, PrecompressedData.ENCODING_DEFLATE or null for no encoding)
+	 * @return The ETag of the HuntingTask-List (including the quotes)
+	 */
+	public String getETag(String contentEncoding) {
+		return "\"" + Long.toHexString(version) + ((contentEncoding != null) ? "-" + contentEncoding : "") + "\"";
+	}
+
+	/**
+	 * Get the shard of the HuntingTask-List for a hunter. The shard contains at most maxTasksPerShard of the HuntingTasks with the highest priority. They are chosen based on
+	 * - the network of the hunter (hunters in different networks receive different HuntingTasks)
+	 * - the IP-versions the hunter can use (its own IP-version and the ones it claims to have used successfully before)
+	 * - the priority of each HuntingTask
+	 * 
+	 * @param requesterIP IP address of the hunter
+	 * @param ipVersions The IP-versions that the hunter claims to be able to use (e.g. "4,6") or null if it didn't send any
+	 * @return The shard of the HuntingTask-List for the hunter
+	 * @throws NoSuchAlgorithmException
+	 */
+	public HuntingTaskListSnapshot getShard(InetAddress requesterIP, String ipVersions) throws NoSuchAlgorithmException {
+
+		// The hunter can use its own IP-version and the ones it claims to be able to use
+		boolean accept4 = requesterIP instanceof Inet4Address || (ipVersions != null && ipVersions.contains("4"));
+		boolean accept6 = !(requesterIP instanceof Inet4Address) || (ipVersions != null && ipVersions.contains("6"));
+
+		// Look up the shard and create it if it is not yet known
+		String networkPrefix = getNetworkPrefix(requesterIP);
+		String shardKey = version + "/" + networkPrefix + "/" + (accept4 ? "4" : "") + (accept6 ? "6" : "");
+		HuntingTaskListSnapshot shard = shards.get(shardKey);
+		if (shard == null) {
+			shard = shards.putIfAbsent(shardKey, createShard(networkPrefix, accept4, accept6));
+		}
+		return shard;
+	}
+
+	/**
+	 * @return The version of the HuntingTask-List
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the HuntingTaskListVersion-message of the complete HuntingTask-List followed by the HuntingTask-List. Both are precompressed together since precompressed Messages always precede the other
+	 * Messages of a MessageList. It is created on first use; if two threads do that at the same time both will come to the same result.
+	 * 
+	 * @return The HuntingTaskListVersion-message and the HuntingTask-List along with their compressed form
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws SQLException
+	 * @throws IOException
+	 * @throws CertificateEncodingException
+	 */
+	private PrecompressedData getVersionedData() throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, IOException, CertificateEncodingException {
+		if (versionedData == null) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			buffer.write(new HuntingTaskListVersion(version).getBytes());
+			buffer.write(data.getData());
+			versionedData = new PrecompressedData(buffer.toByteArray());
+		}
+		return versionedData;
+	}
+
+	/**
+	 * Calculate the priorities of the HuntingTasks of the HuntingTask-List and remember the maxRankedTasks HuntingTasks with the highest priority
+	 * 
+	 * @param storage The Storage to use
+	 * @throws SQLException
+	 */
+	private void rankTasks(Storage storage) throws SQLException {
+		final HashMap<Integer, Double> priorities = new HashMap<Integer, Double>();
+
+		// Load the age, the number of results and the severity of each HuntingTask and calculate its priority
+		long now = System.currentTimeMillis();
+		for (HuntingTaskEntry task : storage.getActiveHuntingTasks()) {
+			int taskID = task.getId();
+			double priority = getPriority(now - task.getTimeOfCreation().getTime(), task.getResults(), task.getSeverity());
+
+			// HuntingTasks that don't need any more results (or that are not part of the HuntingTask-List) are not handed to hunters
+			if (priority > 0 && tasks.containsKey(taskID)) {
+				priorities.put(taskID, priority);
+			}
+		}
+
+		// Put the HuntingTasks into a priority queue and take the ones with the highest priority
+		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, priorities.size()), new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return priorities.get(b).compareTo(priorities.get(a));
+			}
+		});
+		queue.addAll(priorities.keySet());
+		while (!queue.isEmpty() && rankedTasks.size() < maxRankedTasks) {
+			Integer taskID = queue.poll();
+			rankedTasks.put(taskID, priorities.get(taskID));
+		}
+	}
+
+}
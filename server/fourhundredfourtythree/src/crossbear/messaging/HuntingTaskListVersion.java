@@ -0,0 +1,154 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The HuntingTaskListVersion-message is sent to clients that requested the HuntingTask-List along with the version of the HuntingTask-List they already know. It tells the client the version of the
+ * HuntingTask-List it receives and whether it receives the complete list or only the changes since the version it already knows. In the latter case the HuntingTask-List contains all HuntingTasks
+ * that were added or changed and a HuntingTaskRemoval-message for each HuntingTask that was removed.
+ * 
+ * The HuntingTasks of the HuntingTask-List are ordered by their priority (cf. HuntingTaskListSnapshot). Since the changes alone don't tell the client where the added and changed HuntingTasks belong
+ * (and the priorities of the other HuntingTasks might have changed as well) the HuntingTaskListVersion-message of a delta contains the TaskIDs of the complete HuntingTask-List in their order.
+ * 
+ * Please note: Clients that don't send a version will neither receive this message nor HuntingTaskRemoval-messages (i.e. they always receive the complete list).
+ * 
+ * The structure of the HuntingTaskListVersion-message is
+ * - Header
+ * - Version of the HuntingTask-List (8 bytes)
+ * - Delta-flag (1 byte: 1 if only the changes are sent, 0 if the complete list is sent)
+ * - TaskIDs of the complete HuntingTask-List in the order of their priority (4 bytes each; only if the Delta-flag is 1)
+ */
+public class HuntingTaskListVersion extends Message {
+
+	// The version of the HuntingTask-List
+	private final long version;
+
+	// Flag telling if only the changes since the client's version are sent (true) or the complete list (false)
+	private final boolean delta;
+
+	// The TaskIDs of the complete HuntingTask-List in the order of their priority (only sent along with a delta; null otherwise)
+	private final int[] taskOrder;
+
+	/**
+	 * Create a HuntingTaskListVersion based on a byte[] that was sent by a server and is supposed to be a valid HuntingTaskListVersion-message. The validity is checked within this function.
+	 * 
+	 * @param raw The byte[] to create the HuntingTaskListVersion from
+	 */
+	public HuntingTaskListVersion(byte[] raw) {
+		super(Message.MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION);
+
+		// Make sure that the input - which is supposed to be a HuntingTaskListVersion-message - has the correct length
+		if (raw.length < 9 || (raw[8] == 0 && raw.length != 9) || (raw.length - 9) % 4 != 0) {
+			throw new IllegalArgumentException("The raw data array does not have the correct length: " + raw.length);
+		}
+
+		// Read the version and the delta-flag
+		ByteBuffer buffer = ByteBuffer.wrap(raw);
+		this.version = buffer.getLong();
+		this.delta = (buffer.get() != 0);
+
+		// Read the order of the HuntingTasks (if this is a delta)
+		if (delta) {
+			this.taskOrder = new int[buffer.remaining() / 4];
+			for (int i = 0; i < taskOrder.length; i++) {
+				taskOrder[i] = buffer.getInt();
+			}
+		} else {
+			this.taskOrder = null;
+		}
+	}
+
+	/**
+	 * Create a new Message of Type MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION for a complete HuntingTask-List
+	 * 
+	 * @param version The version of the HuntingTask-List
+	 */
+	public HuntingTaskListVersion(long version) {
+		super(Message.MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION);
+
+		this.version = version;
+		this.delta = false;
+		this.taskOrder = null;
+	}
+
+	/**
+	 * Create a new Message of Type MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION for a HuntingTask-List that only contains the changes since the client's version
+	 * 
+	 * @param version The version of the HuntingTask-List
+	 * @param taskOrder The TaskIDs of the complete HuntingTask-List in the order of their priority
+	 */
+	public HuntingTaskListVersion(long version, int[] taskOrder) {
+		super(Message.MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION);
+
+		this.version = version;
+		this.delta = true;
+		this.taskOrder = taskOrder;
+	}
+
+	/**
+	 * @return The TaskIDs of the complete HuntingTask-List in the order of their priority (null if the complete HuntingTask-List is sent)
+	 */
+	public int[] getTaskOrder() {
+		return taskOrder;
+	}
+
+	/**
+	 * @return The version of the HuntingTask-List
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return True if only the changes since the client's version are sent and false if the complete list is sent
+	 */
+	public boolean isDelta() {
+		return delta;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see crossbear.Message#writeContent(java.io.OutputStream)
+	 */
+	@Override
+	protected void writeContent(OutputStream out) throws IOException {
+
+		// Write the version (eight bytes long)
+		out.write(ByteBuffer.allocate(8).putLong(version).array());
+
+		// Write the delta-flag (one byte)
+		out.write(delta ? 1 : 0);
+
+		// Write the order of the HuntingTasks (four bytes per TaskID; only for deltas)
+		if (delta) {
+			ByteBuffer order = ByteBuffer.allocate(4 * taskOrder.length);
+			for (int taskID : taskOrder) {
+				order.putInt(taskID);
+			}
+			out.write(order.array());
+		}
+	}
+
+}
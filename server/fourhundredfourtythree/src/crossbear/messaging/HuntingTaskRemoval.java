@@ -0,0 +1,84 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The HuntingTaskRemoval-message is part of a HuntingTask-List that only contains the changes since the version the client already knows (cf. HuntingTaskListVersion). It tells the client that a
+ * HuntingTask is not active anymore and should be removed from its HuntingTask-List.
+ * 
+ * The structure of the HuntingTaskRemoval-message is
+ * - Header
+ * - TaskID of the removed HuntingTask (4 bytes)
+ */
+public class HuntingTaskRemoval extends Message {
+
+	// The identifier of the HuntingTask that was removed
+	private final int taskID;
+
+	/**
+	 * Create a HuntingTaskRemoval based on a byte[] that was sent by a server and is supposed to be a valid HuntingTaskRemoval-message. The validity is checked within this function.
+	 * 
+	 * @param raw The byte[] to create the HuntingTaskRemoval from
+	 */
+	public HuntingTaskRemoval(byte[] raw) {
+		super(Message.MESSAGE_TYPE_HUNTING_TASK_REMOVAL);
+
+		// Make sure that the input - which is supposed to be a HuntingTaskRemoval-message - has the correct length
+		if (raw.length != 4) {
+			throw new IllegalArgumentException("The raw data array does not have the correct length: " + raw.length);
+		}
+
+		this.taskID = Message.byteArrayToInt(raw);
+	}
+
+	/**
+	 * Create a new Message of Type MESSAGE_TYPE_HUNTING_TASK_REMOVAL
+	 * 
+	 * @param taskID The identifier of the HuntingTask that was removed
+	 */
+	public HuntingTaskRemoval(int taskID) {
+		super(Message.MESSAGE_TYPE_HUNTING_TASK_REMOVAL);
+
+		this.taskID = taskID;
+	}
+
+	/**
+	 * @return The identifier of the HuntingTask that was removed
+	 */
+	public int getTaskID() {
+		return taskID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see crossbear.Message#writeContent(java.io.OutputStream)
+	 */
+	@Override
+	protected void writeContent(OutputStream out) throws IOException {
+
+		// Write the taskID (four bytes integer)
+		out.write(Message.intToByteArray(taskID));
+	}
+
+}
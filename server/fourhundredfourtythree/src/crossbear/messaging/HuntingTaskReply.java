@@ -29,13 +29,12 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
-import java.util.Vector;
 
-import crossbear.Database;
+import crossbear.storage.HuntingTaskEntry;
+import crossbear.storage.Storage;
 
 /**
  * HuntingTaskReplies are sent by the Crossbear clients in reply to a HuntingTask. There are two different HuntingTaskReplies: The HuntingTaskReplyKnownCertChain and the HuntingTaskReplyNewCertChain. There is
@@ -51,6 +50,37 @@ import crossbear.Database;
  */
 public abstract class HuntingTaskReply extends Message {
 
+	// The maximal age in milliseconds (according to the server's clock) of a HuntingTaskReply that is accepted by the server
+	public static final long MAX_AGE = 1000 * 60 * 30;
+
+	/**
+	 * Read the Server-Time-Of-Execution-field of a HuntingTaskReply-message without decoding the message (e.g. to decide whether a spooled reply is still accepted by the server)
+	 * 
+	 * @param message The byte[]-representation of a HuntingTaskReply-message (including its type and length fields)
+	 * @return The time during which the HuntingTask was executed according to the server's clock
+	 */
+	public static Timestamp readServerTimeOfExecution(byte[] message) {
+
+		// The field follows the type (1 byte), the length (2 bytes) and the TaskID (4 bytes)
+		byte[] timestampBytes = new byte[4];
+		System.arraycopy(message, 7, timestampBytes, 0, 4);
+		return new Timestamp(1000 * (long) Message.byteArrayToInt(timestampBytes));
+	}
+
+	/**
+	 * Read the TaskID-field of a HuntingTaskReply-message without decoding the message
+	 * 
+	 * @param message The byte[]-representation of a HuntingTaskReply-message (including its type and length fields)
+	 * @return The ID of the HuntingTask that was executed
+	 */
+	public static int readTaskID(byte[] message) {
+
+		// The field follows the type (1 byte) and the length (2 bytes)
+		byte[] taskIDBytes = new byte[4];
+		System.arraycopy(message, 3, taskIDBytes, 0, 4);
+		return Message.byteArrayToInt(taskIDBytes);
+	}
+
 	/**
 	 * Each HuntingTaskReply contains a Timestamp representing the time during which the HuntingTask was executed by the client. This Timestamp is not recorded according to the client's local clock
 	 * but according to the server's clock. Therefore it should be not too far in the past and not in the future. If one of these constraints is not true this function throws an exception.
@@ -60,7 +90,7 @@ public abstract class HuntingTaskReply extends Message {
 	protected static void validateTimestamp(Timestamp ts) {
 
 		// Don't accept replies if their timestamps are older than 30 minutes
-		if (ts.before(new Timestamp(System.currentTimeMillis() - 1000 * 60 * 30))) {
+		if (ts.before(new Timestamp(System.currentTimeMillis() - MAX_AGE))) {
 			throw new IllegalArgumentException("HuntingTaskReply is too old according to its timestamp (" + ts + ")");
 		}
 
@@ -94,64 +124,58 @@ public abstract class HuntingTaskReply extends Message {
 		super(type);
 	}
 
+	/**
+	 * @return The Hostname and port of the server that the Hunting Task was executed for
+	 */
+	public String getServerHostPort() {
+		return serverHostPort;
+	}
+
+	/**
+	 * @return The ID of the Hunting Task that was executed
+	 */
+	public int getTaskID() {
+		return taskID;
+	}
+
 	/**
 	 * Get all Keys from the PublicIPHMacKeys-table that were used to create HMACs for PublicIPs during the last 30 minutes.
 	 * 
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @return An array of all keys that were used to create HMACs for PublicIPs during the last 30 minutes
 	 * @throws SQLException
 	 */
-	private byte[][] getPublicIPHMacKeys(Database db) throws SQLException {
-
-		// Create a empty result vector
-		Vector<byte[]> re = new Vector<byte[]>();
-
-		// Query the PublicIPHMacKeys-table for all Keys that very used during the last 30 minutes
-		Object[] params = { new Timestamp(System.currentTimeMillis() - 30 * 60 * 1000) };
-		ResultSet rs = db.executeQuery("SELECT Key FROM PublicIPHMacKeys WHERE ValidUntil > ?", params);
-
-		// Iterate over all results returned from the database
-		while (rs.next()) {
-			
-			// For each result: Read the "Key"-field ...
-			byte[] key = rs.getBytes("Key");
-
-			// ... and add it to the result-vector
-			if (key != null) {
-				re.add(key);
-			}
-		}
+	private byte[][] getPublicIPHMacKeys(Storage storage) throws SQLException {
 
-		// Convert the result into an array and return it
-		return re.toArray(new byte[][]{});
+		// Get all Keys that were valid during the last 30 minutes
+		return storage.getPublicIPHMacKeys(new Timestamp(System.currentTimeMillis() - 30 * 60 * 1000));
 
 	}
 
 	/**
-	 * Query the database for a entry in the HuntingTasks-table with a certain taskID
+	 * Get the HuntingTask with a certain taskID
 	 * 
 	 * @param taskID The ID to look for
-	 * @param db The Database connection to use
-	 * @return The result returned by the database (if non exists an exception is thrown)
+	 * @param storage The Storage to use
+	 * @return The HuntingTask (if none exists an exception is thrown)
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 */
-	protected ResultSet getTaskDetails(int taskID, Database db) throws InvalidParameterException, SQLException {
+	protected HuntingTaskEntry getTaskDetails(int taskID, Storage storage) throws InvalidParameterException, SQLException {
 
-		Object[] params = { taskID };
-		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTasks WHERE Id = ?", params);
+		HuntingTaskEntry task = storage.getHuntingTask(taskID);
 		
-		if (!rs.next()) {
+		if (task == null) {
 			throw new IllegalArgumentException("The task with ID "+taskID+" does not exist!");
 		}
 
-		return rs;
+		return task;
 	}
 
 	/**
 	 * After a HuntingTaskReply was successfully created without an exception being thrown it is ready to be inserted into the database. This function does exactly that.
 	 * 
-	 * @param The Database Connection to use for storing the data
+	 * @param storage The Storage to use for storing the data
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws KeyStoreException
 	 * @throws NoSuchAlgorithmException
@@ -160,7 +184,7 @@ public abstract class HuntingTaskReply extends Message {
 	 * @throws NoSuchProviderException
 	 * @throws SQLException
 	 */
-	public abstract void storeInDatabase(Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException, NoSuchProviderException, SQLException;
+	public abstract void storeInDatabase(Storage storage) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException, NoSuchProviderException, SQLException;
 
 	/**
 	 * Each HuntingTaskReply contains the result of the traceroute that the client executed for the scan-target. This result has to fulfill several constraints:
@@ -173,14 +197,14 @@ public abstract class HuntingTaskReply extends Message {
 	 * @param trace The Trace to check
 	 * @param hMac The HMAC that should match the first entry of the trace
 	 * @param serverIP The scan-target's IP
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @throws UnknownHostException
 	 * @throws InvalidKeyException
 	 * @throws NoSuchAlgorithmException
 	 * @throws NoSuchProviderException
 	 * @throws SQLException
 	 */
-	protected void validateTrace(String trace, byte[] hMac, InetAddress serverIP, Database db) throws UnknownHostException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException {
+	protected void validateTrace(String trace, byte[] hMac, InetAddress serverIP, Storage storage) throws UnknownHostException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException {
 
 		// Split the trace into its parts
 		String[] traceParts = trace.split("[\\n\\|]");
@@ -201,7 +225,7 @@ public abstract class HuntingTaskReply extends Message {
 		byte[] lastIPBytes = InetAddress.getByName(traceParts[0]).getAddress();
 		
 		// Get all keys that were used to create HMACs during the last 30 minutes
-		byte[][] hMacKeys = getPublicIPHMacKeys(db);
+		byte[][] hMacKeys = getPublicIPHMacKeys(storage);
 		
 		/*
 		 * Check if one of these keys can be used to create the HMAC sent within the HuntingTaskReply when inserted into HMAC(firstEntryOfTrace). This would prove that the first entry of the trace is
@@ -28,12 +28,12 @@ import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateEncodingException;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 
 import crossbear.CertificateManager;
-import crossbear.Database;
+import crossbear.storage.HuntingTaskEntry;
+import crossbear.storage.Storage;
 
 /**
  * A HuntingTaskReplyKnownCertChain-message is one of the two possible messages that could be sent in reply to a HuntingTask. It will be sent in case that the client observed a certificate chain that is already
@@ -62,7 +62,7 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 	 * Create a HuntingTaskReplyKnownCertChain based on a byte[] that was sent by a client and is supposed to be a valid HuntingTaskReplyKnownCertChain-message. The validity is checked within this function.
 	 * 
 	 * @param raw The byte[] to create the HuntingTaskReplyKnownCertChain from (it is supposed to be a valid HuntingTaskReplyKnownCertChain-message)
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 * @throws InvalidKeyException
@@ -70,7 +70,7 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 	 * @throws NoSuchAlgorithmException
 	 * @throws NoSuchProviderException
 	 */
-	public HuntingTaskReplyKnownCertChain(byte[] raw, Database db) throws InvalidParameterException, SQLException, InvalidKeyException, UnknownHostException, NoSuchAlgorithmException, NoSuchProviderException {
+	public HuntingTaskReplyKnownCertChain(byte[] raw, Storage storage) throws InvalidParameterException, SQLException, InvalidKeyException, UnknownHostException, NoSuchAlgorithmException, NoSuchProviderException {
 		// Create a HuntingTaskReply-Object of Type HuntingTaskReplyKnownCertChain
 		super(Message.MESSAGE_TYPE_TASK_REPLY_KNOWN_CERT);
 
@@ -85,10 +85,10 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 		taskID = Message.byteArrayToInt(taskIDBytes);
 
 		// Try to load the HuntingTask that belongs to that TaskID (will throw an exception if that Task doesn't exist)
-		ResultSet taskDetails = getTaskDetails(taskID,db);
+		HuntingTaskEntry taskDetails = getTaskDetails(taskID, storage);
 
 		// In case the task exists but is not active anymore: set taskIsActive to false so storeInDatabse won't do anything
-		if (!taskDetails.getBoolean("Active")) {
+		if (!taskDetails.isActive()) {
 			taskIsActive = false;
 			return;
 		}
@@ -97,8 +97,8 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 		taskIsActive = true;
 
 		// Extract the task's details (required to store the observation in the database)
-		serverHostPort = taskDetails.getString("TargetHostName") + ":" + taskDetails.getString("TargetPort");
-		serverIP = taskDetails.getString("TargetIP");
+		serverHostPort = taskDetails.getTargetHostName() + ":" + taskDetails.getTargetPort();
+		serverIP = taskDetails.getTargetIP();
 
 		// Cast the Message's Server-Time-Of-Execution-field into a Timestamp
 		byte[] timestampBytes = new byte[4];
@@ -126,10 +126,10 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 		validateTimestamp(serverTimeOfExecution);
 
 		// Second: check if the trace is valid
-		validateTrace(trace, pubIPHmac, InetAddress.getByName(taskDetails.getString("TargetIP")),db);
+		validateTrace(trace, pubIPHmac, InetAddress.getByName(taskDetails.getTargetIP()), storage);
 
 		// Third: check if the certificate chain hash is valid:
-		validateKnownCertChainHash(certChainHash, serverHostPort,db);
+		validateKnownCertChainHash(certChainHash, serverHostPort, storage);
 
 		/*
 		 * Perform more checks ( Sourcecode will not be published in order to make attacks on Crossbear harder)
@@ -162,17 +162,17 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 	 * @see crossbear.HuntingTaskReply#storeInDatabase()
 	 */
 	@Override
-	public void storeInDatabase(Database db) throws SQLException, CertificateEncodingException, InvalidParameterException, NoSuchAlgorithmException {
+	public void storeInDatabase(Storage storage) throws SQLException, CertificateEncodingException, InvalidParameterException, NoSuchAlgorithmException {
 		
 		// The HuntingTask might have been deactivated recently. This doesn't throw an exception but replies to those tasks will not be stored in the database anyway.
 		if (!taskIsActive)
 			return;
 
 		// Store the observation that was made by the client in the database
-		long observID = CertificateManager.rememberCertObservation(this.serverCertID, this.serverHostPort, this.serverIP, this.serverTimeOfExecution, "CrossbearHunter", this.observerIP, db);
+		long observID = CertificateManager.rememberCertObservation(this.serverCertID, this.serverHostPort, this.serverIP, this.serverTimeOfExecution, "CrossbearHunter", this.observerIP, storage);
 
 		// Store the HuntingTaskResult in the database
-		CertificateManager.storeHuntingTaskResult(this.taskID, this.trace, observID, db);
+		CertificateManager.storeHuntingTaskResult(this.taskID, this.trace, observID, storage);
 
 	}
 	
@@ -181,26 +181,25 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 	 * 
 	 * @param certificateChainHash The certificate-chain-hash to check
 	 * @param serverHostPort The Hostname and port of the server from which it has been observed by the client e.g. encrypted.google.com:443
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 * @throws NoSuchAlgorithmException 
 	 * @throws NumberFormatException 
 	 */
-	private void validateKnownCertChainHash(byte[] certificateChainHash, String serverHostPort, Database db) throws InvalidParameterException, SQLException, NumberFormatException, NoSuchAlgorithmException {
+	private void validateKnownCertChainHash(byte[] certificateChainHash, String serverHostPort, Storage storage) throws InvalidParameterException, SQLException, NumberFormatException, NoSuchAlgorithmException {
 		
 		// Calculate the textual representation of the certificateChainHash
 		String CCH = byteArrayToHexString(certificateChainHash);
 		
 		// Try to get the ID of the certificate chain that the client claims to have observed for the scan-target.
-		Object[] params = { serverHostPort,CCH };
-		ResultSet rs = db.executeQuery("SELECT sc.Id FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash = ? LIMIT 1", params);
+		long certID = storage.getCertIDByChainHash(serverHostPort, CCH);
 
-		// If there was an entry in the database ... 
-		if (rs.next()) {
+		// If there was such a certificate chain ... 
+		if (certID != -1) {
 			
 				// ... remember the ID of the certificate that the client observed
-				this.serverCertID = Long.valueOf(rs.getString("Id"));
+				this.serverCertID = certID;
 				return;
 		}
 		
@@ -35,13 +35,14 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.LinkedList;
 
+import crossbear.CertificateDerivatives;
 import crossbear.CertificateManager;
-import crossbear.Database;
+import crossbear.storage.HuntingTaskEntry;
+import crossbear.storage.Storage;
 
 /**
  * A HuntingTaskReplyNewCertChain-message is one of the two possible messages that could be sent in reply to a HuntingTask. It will be sent in case that the client observed a certificate chain that is NOT YET
@@ -72,7 +73,7 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 	 * 
 	 * @param raw The byte[] to create the HuntingTaskReplyNewCertChain from (it is supposed to be a valid HuntingTaskReplyNewCertChain-message)
 	 * @param cm The CertificateManager that will be used for processing or storing certificates
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @throws CertificateException
 	 * @throws InvalidParameterException
 	 * @throws SQLException
@@ -83,7 +84,7 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws KeyStoreException
 	 */
-	public HuntingTaskReplyNewCertChain(byte[] raw, CertificateManager cm, Database db) throws CertificateException, InvalidParameterException, SQLException, IOException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException, KeyStoreException {
+	public HuntingTaskReplyNewCertChain(byte[] raw, CertificateManager cm, Storage storage) throws CertificateException, InvalidParameterException, SQLException, IOException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException, KeyStoreException {
 		// Create a HuntingTaskReply-Object of Type HuntingTaskReplyNewCertChain
 		super(Message.MESSAGE_TYPE_TASK_REPLY_NEW_CERT);
 		
@@ -101,10 +102,10 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 		taskID = Message.byteArrayToInt(taskIDBytes);
 
 		// Try to load the HuntingTask that belongs to that TaskID (will throw an exception if that Task doesn't exist)
-		ResultSet taskDetails = getTaskDetails(taskID,db);
+		HuntingTaskEntry taskDetails = getTaskDetails(taskID, storage);
 
 		// In case the task exists but is not active anymore: set taskIsActive to false so storeInDatabse won't do anything
-		if (!taskDetails.getBoolean("Active")) {
+		if (!taskDetails.isActive()) {
 			taskIsActive = false;
 			return;
 		}
@@ -113,8 +114,8 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 		taskIsActive = true;
 
 		// Extract the task's details (required to store the observation in the database)
-		serverHostPort = taskDetails.getString("TargetHostName") + ":" + taskDetails.getString("TargetPort");
-		serverIP = taskDetails.getString("TargetIP");
+		serverHostPort = taskDetails.getTargetHostName() + ":" + taskDetails.getTargetPort();
+		serverIP = taskDetails.getTargetIP();
 
 		// Cast the Message's Server-Time-Of-Execution-field into a Timestamp
 		byte[] timestampBytes = new byte[4];
@@ -151,7 +152,7 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 		validateTimestamp(serverTimeOfExecution);
 
 		// Second: check if the trace is valid
-		validateTrace(trace, pubIPHmac, InetAddress.getByName(taskDetails.getString("TargetIP")),db);
+		validateTrace(trace, pubIPHmac, InetAddress.getByName(taskDetails.getTargetIP()), storage);
 
 		// Third: check if the certificate chain is valid within itself (i.e. can it be ordered in a way that it is sane?)
 		LinkedList<X509Certificate> validatedChain = cm.makeCertChainValid(certChain,50,false);
@@ -194,20 +195,20 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 	 * @see crossbear.HuntingTaskReply#storeInDatabase()
 	 */
 	@Override
-	public void storeInDatabase(Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException, NoSuchProviderException, SQLException {
+	public void storeInDatabase(Storage storage) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException, NoSuchProviderException, SQLException {
 
 		// The HuntingTask might have been deactivated recently. This doesn't throw an exception but replies to those tasks will not be stored in the database anyway.
 		if (!taskIsActive)
 			return;
 
 		// Store the newly observed chain in the database
-		Long serverCertID = cm.storeCertChain(this.certChain, db);
+		Long serverCertID = cm.storeCertChain(this.certChain, storage);
 
 		// Store the observation that was made by the client in the database
-		long observID = CertificateManager.rememberCertObservation(serverCertID, this.serverHostPort, this.serverIP, this.serverTimeOfExecution, "CrossbearHunter", observerIP, db);
+		long observID = CertificateManager.rememberCertObservation(serverCertID, this.serverHostPort, this.serverIP, this.serverTimeOfExecution, "CrossbearHunter", observerIP, storage);
 
 		// Store the HuntingTaskResult in the database
-		CertificateManager.storeHuntingTaskResult(this.taskID, this.trace, observID, db);
+		CertificateManager.storeHuntingTaskResult(this.taskID, this.trace, observID, storage);
 
 	}
 
@@ -231,7 +232,7 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 
 		// Fifth part: the certificate chain (beginning with the server certificate)
 		for (int i = 0; i < Math.min(this.certChain.length, 255); i++) {
-			out.write(this.certChain[i].getEncoded());
+			out.write(CertificateDerivatives.get(this.certChain[i]).getDER());
 		}
 
 		// Sixth part: the trace to the server
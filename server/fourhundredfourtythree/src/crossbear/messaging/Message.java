@@ -59,6 +59,13 @@ public abstract class Message {
 	// Message to request that Public IP Notification:
 	public static final byte MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST=2;
 	
+	// Messages to request a Public IP Notification along with a session ticket and to request one by presenting a session ticket
+	public static final byte MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_REQUEST = 3;
+	public static final byte MESSAGE_TYPE_PUBLIC_IP_NOTIF_RESUMPTION_REQUEST = 4;
+	
+	// Message containing a session ticket that allows the client to reuse its AES key for further Public IP Notification requests
+	public static final byte MESSAGE_TYPE_PUBLIC_IP_NOTIF_SESSION_TICKET = 6;
+	
 	// Message telling which is the current local time at the server (to loosely synchronize clocks)
 	public static final byte MESSAGE_TYPE_CURRENT_SERVER_TIME = 5;
 	
@@ -66,6 +73,10 @@ public abstract class Message {
 	public static final byte MESSAGE_TYPE_IPV4_SHA256_TASK = 10;
 	public static final byte MESSAGE_TYPE_IPV6_SHA256_TASK = 11;
 	
+	// Messages describing the changes of the hunting task list since a version known by the client
+	public static final byte MESSAGE_TYPE_HUNTING_TASK_LIST_VERSION = 15;
+	public static final byte MESSAGE_TYPE_HUNTING_TASK_REMOVAL = 16;
+	
 	// Messages representing replies for hunting tasks
 	public static final byte MESSAGE_TYPE_TASK_REPLY_NEW_CERT = 20;
 	public static final byte MESSAGE_TYPE_TASK_REPLY_KNOWN_CERT = 21;
@@ -74,6 +85,9 @@ public abstract class Message {
 	public static final byte MESSAGE_TYPE_CERT_VERIFY_REQUEST = 100;
 	public static final byte MESSAGE_TYPE_CERT_VERIFY_RESULT = 110;
 	
+	// The digits of the Hex-String representation (lower case since that's what the database and the clients expect)
+	private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+	
 	/**
 	 * Get The Hex-String representation of a byte[].
 	 * 
@@ -84,11 +98,12 @@ public abstract class Message {
 	 * @return The String that would be observed if one would look at the memory that stores b using a debugger (= the HEX-Representation of b)
 	 */
 	public static String byteArrayToHexString(byte[] b) {
-		String result = "";
+		char[] result = new char[2 * b.length];
 		for (int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+			result[2 * i] = hexDigits[(b[i] >> 4) & 0xf];
+			result[2 * i + 1] = hexDigits[b[i] & 0xf];
 		}
-		return result;
+		return new String(result);
 	}
 	
 	/**
@@ -141,7 +156,7 @@ public abstract class Message {
 	 * @throws NoSuchProviderException
 	 * @throws InvalidKeyException
 	 */
-	protected static byte[] HMAC(byte[] data, byte[] keyBytes) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException  {
+	public static byte[] HMAC(byte[] data, byte[] keyBytes) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException  {
 
 		SecretKey key = new SecretKeySpec(keyBytes, "HMac/SHA256");
 		Mac mac = Mac.getInstance("HMac/SHA256", "BC");
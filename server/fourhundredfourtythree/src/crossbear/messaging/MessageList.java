@@ -25,13 +25,14 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateEncodingException;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Iterator;
 import java.util.Vector;
 
-import crossbear.Database;
+import crossbear.PrecompressedData;
+import crossbear.storage.CacheEntry;
+import crossbear.storage.Storage;
 
 /**
  * A MessageList is a collection of Messages. On several occasions the Crossbear server send's more than one message to the client at the same time. These messages should be added to a MessageList
@@ -45,36 +46,35 @@ public class MessageList {
 	/**
 	 * Try to retrieve the currently active HuntingTaskList from the local cache i.e. the HuntingTaskListCache-table
 	 * 
-	 * @param db The Database connection to use
-	 * @return The byte[]-representation of the HuntingTaskList or null if there is no valid one in cache
+	 * @param storage The Storage to use
+	 * @return The HuntingTaskListSnapshot of the HuntingTaskList or null if there is no valid one in cache
 	 * @throws SQLException
 	 */
-	private static byte[] getHTLFromDBCache(Database db) throws SQLException{
+	private static HuntingTaskListSnapshot getHTLFromDBCache(Storage storage) throws SQLException{
 		
-		Object[] params = { };
-		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTaskListCache LIMIT 1", params);
-
-		// If the result is empty then there is no cache entry to return
-		if (!rs.next()) {
+		// If there is no cache entry that is currently valid then there is nothing to return
+		CacheEntry entry = storage.getCachedHuntingTaskList();
+		if (entry == null) {
 			return null;
 		}
-
-		// If the cache entry is not valid anymore then there is nothing to return
-		Timestamp validUntil = rs.getTimestamp("ValidUntil");
-		if (validUntil.before(new Timestamp(System.currentTimeMillis())))
-			return null;
 		
-		// If there is a cache entry that is currently valid: return its bytes.
-		return rs.getBytes("Data");
+		// If there is one: return it. Its version is the time until which it is valid.
+		return HuntingTaskListSnapshot.get(entry.getValidUntil().getTime(), entry.getData(), storage);
 	}
 
 	/**
 	 * Get the current HuntingTaskList and return it as MessageList. This function first attempts to load the HTL from the local cache and if that fails it generates a new one and stores it in the cache. Additionally it stores the IP of the requester in the database for statistical analysis.
 	 * 
+	 * The requester doesn't receive the whole HuntingTaskList but only its shard of it, i.e. the HuntingTasks it is most useful for (cf. HuntingTaskListSnapshot.getShard).
+	 * 
+	 * The shard is returned as HuntingTaskListSnapshot. The snapshot provides the ETag of the shard and adds either the complete shard or the changes since the version known by the requester to a
+	 * MessageList.
+	 * 
 	 * @param requesterIP IP address of the machine that requested the HuntingTaskList (will be stored for statistical analysis)
+	 * @param ipVersions The IP-versions that the requester claims to be able to use (e.g. "4,6") or null if it didn't send any
 	 * @param validity The validity that will be given to the HuntingTaskList if it is newly generated and added to the local cache
-	 * @param db The Database connection to use
-	 * @return The current HuntingTaskList as MessageList
+	 * @param storage The Storage to use
+	 * @return The requester's shard of the current HuntingTaskList as HuntingTaskListSnapshot
 	 * @throws InvalidKeyException
 	 * @throws NoSuchAlgorithmException
 	 * @throws NoSuchProviderException
@@ -82,37 +82,45 @@ public class MessageList {
 	 * @throws IOException
 	 * @throws CertificateEncodingException
 	 */
-	public static MessageList getCurrentHuntingTaskList( InetAddress requesterIP, long validity, Database db) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, IOException, CertificateEncodingException {
+	public static HuntingTaskListSnapshot getCurrentHuntingTaskList( InetAddress requesterIP, String ipVersions, long validity, Storage storage) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, IOException, CertificateEncodingException {
 
 		// Remember the fact that somebody requested the Hunting Task list
-		Object[] params = { requesterIP.getHostAddress(), new Timestamp(System.currentTimeMillis()) };
-		db.executeInsert("INSERT INTO HuntingTaskRequests (RequestingIP,TimeOfRequest) VALUES (?,?)", params);
-		
-		// Create a new MessageList
-		MessageList ml = new MessageList();
+		storage.addHuntingTaskRequest(requesterIP.getHostAddress(), new Timestamp(System.currentTimeMillis()));
 		
 		// Try to load the current HuntingTaskList from the cache
-		byte[] cachedData = getHTLFromDBCache(db);
-		if(cachedData!= null){
-			//If that succeeded add it to the MessageList and return it
-			ml.addAlreadyEncodedMessages(cachedData);
-			return ml;
+		HuntingTaskListSnapshot cachedHTL = getHTLFromDBCache(storage);
+		if(cachedHTL!= null){
+			//If that succeeded return the requester's shard of it
+			return cachedHTL.getShard(requesterIP, ipVersions);
 		}
 		
 		// If that failed calculate a new HTL
-		Vector<HuntingTask> htv = HuntingTask.getAllActive(db);
+		Vector<HuntingTask> htv = HuntingTask.getAllActive(storage);
 		
-		// Add all of its elements to the MessageList
+		// Add all of its elements to a MessageList
+		MessageList htl = new MessageList();
 		Iterator<HuntingTask> itr = htv.iterator();
 		while(itr.hasNext()){
-			ml.add(itr.next());
+			htl.add(itr.next());
 		}
 		
 		// Store the new HTL in the database
-		storeHTLInDBCache(ml.getBytes(), validity, db);
+		Timestamp validUntil = new Timestamp(System.currentTimeMillis() + validity);
+		byte[] htlBytes = htl.getBytes();
+		storeHTLInDBCache(htlBytes, validUntil, storage);
 		
 		// Return the list
-		return ml;
+		return HuntingTaskListSnapshot.get(validUntil.getTime(), htlBytes, storage).getShard(requesterIP, ipVersions);
+	}
+
+	/**
+	 * Invalidate the HuntingTaskList in the local cache (i.e. the HuntingTaskListCache-table). The next request will generate a new one. This is necessary whenever HuntingTasks are retired.
+	 * 
+	 * @param storage The Storage to use
+	 * @throws SQLException
+	 */
+	public static void invalidateHTLCache(Storage storage) throws SQLException {
+		storage.invalidateHuntingTaskListCache();
 	}
 
 	/**
@@ -120,47 +128,13 @@ public class MessageList {
 	 * getHuntingTaskList.jsp
 	 * 
 	 * @param messageBytes The byte[]-representation of the HuntingTaskList (which is essentially a MessageList)
-	 * @param validity The time in milliseconds that the entry should stay valid
-	 * @param db The Database connection to use
+	 * @param validUntil The time until which the entry should stay valid (which is also the version of the HuntingTaskList)
+	 * @param storage The Storage to use
 	 * @throws SQLException
 	 */
-	private static void storeHTLInDBCache(byte[] messageBytes, long validity, Database db) throws SQLException {
-
-		SQLException lastSQLException = null;
-
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-				
-				// First: Try to update an existing entry
-				Object[] params = { messageBytes, new Timestamp(System.currentTimeMillis() + validity) };
-				int updatedRows = db.executeUpdate("UPDATE HuntingTaskListCache SET Data = ?, ValidUntil = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO HuntingTaskListCache (Data,ValidUntil) VALUES (?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-				
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-				
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+	private static void storeHTLInDBCache(byte[] messageBytes, Timestamp validUntil, Storage storage) throws SQLException {
 
+		storage.cacheHuntingTaskList(messageBytes, validUntil);
 	}
 
 	// The List of Messages that have been added to this MessageList
@@ -169,6 +143,9 @@ public class MessageList {
 	// The List of Messages that have been added to this MessageList as byte[]s
 	private byte[] encodedMessages = new byte[0];
 
+	// Messages that have been added to this MessageList along with their compressed form (null if there are none). They precede all other Messages.
+	private PrecompressedData precompressedMessages = null;
+
 	/**
 	 * Add a single Message to the MessageList
 	 * 
@@ -199,7 +176,22 @@ public class MessageList {
 	
 	
 	/**
-	 * Generates a single byte[] out of the separate Messages and the encodedMessages
+	 * In case Messages are sent in many replies, their compressed form can be cached along with their byte[]-representation. These Messages can be added to a MessageList by calling this function.
+	 * They will precede all other Messages of the MessageList.
+	 * 
+	 * Please note: Only one PrecompressedData-object can be added to a MessageList.
+	 * 
+	 * @param messagesToAdd The byte[]-representation of the Messages to add along with their compressed form
+	 */
+	public void addPrecompressedMessages(PrecompressedData messagesToAdd) {
+		if (precompressedMessages != null) {
+			throw new IllegalStateException("The MessageList already contains precompressed Messages");
+		}
+		precompressedMessages = messagesToAdd;
+	}
+
+	/**
+	 * Generates a single byte[] out of the precompressed Messages, the separate Messages and the encodedMessages
 	 * 
 	 * @return A byte[] that is the concatenation of the byte[]-representation of all Messages that were added to this MessageList
 	 * @throws InvalidKeyException
@@ -210,6 +202,39 @@ public class MessageList {
 	 * @throws CertificateEncodingException
 	 */
 	public byte[] getBytes() throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException, CertificateEncodingException {
+		return getBytes(null);
+	}
+
+	/**
+	 * Generates a single byte[] out of the precompressed Messages, the separate Messages and the encodedMessages and encodes it using a content encoding. The precompressed Messages don't need to be
+	 * compressed again for that.
+	 * 
+	 * @param contentEncoding The content encoding to use (PrecompressedData.ENCODING_GZIP, PrecompressedData.ENCODING_DEFLATE or null for no encoding)
+	 * @return The encoded concatenation of the byte[]-representation of all Messages that were added to this MessageList
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws IOException
+	 * @throws SQLException
+	 * @throws CertificateEncodingException
+	 */
+	public byte[] getBytes(String contentEncoding) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException, CertificateEncodingException {
+		PrecompressedData prefix = (precompressedMessages != null) ? precompressedMessages : PrecompressedData.EMPTY;
+		return prefix.encode(contentEncoding, getBytesOfNotPrecompressedMessages());
+	}
+
+	/**
+	 * Generates a single byte[] out of the separate Messages and the encodedMessages (i.e. all Messages except the precompressed ones)
+	 * 
+	 * @return A byte[] that is the concatenation of the byte[]-representation of all Messages that were added to this MessageList except the precompressed ones
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws IOException
+	 * @throws SQLException
+	 * @throws CertificateEncodingException
+	 */
+	private byte[] getBytesOfNotPrecompressedMessages() throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException, CertificateEncodingException {
 
 		// Firstly get the Messages' bytes (of the Messages that are not yet encoded) and calculate the length of all concatenated messages
 		byte[][] messagesBytes = new byte[messages.size()][];
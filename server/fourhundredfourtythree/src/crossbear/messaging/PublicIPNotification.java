@@ -25,15 +25,11 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.InvalidKeyException;
-import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.SecureRandom;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 
-import crossbear.Database;
+import crossbear.storage.Storage;
 
 
 /**
@@ -56,6 +52,9 @@ import crossbear.Database;
  */
 public class PublicIPNotification extends Message {
 	
+	// The time in milliseconds during which a Key is used to generate HMACs
+	private static final long hMacKeyValidity = 15 * 60 * 1000;
+	
 	// The publicIP for which this Message is generated
 	private final InetAddress publicIP;
 	
@@ -91,19 +90,19 @@ public class PublicIPNotification extends Message {
 	 * Generate a PublicIPNotification of type MESSAGE_TYPE_PUBLIC_IP_NOTIF6 or MESSAGE_TYPE_PUBLIC_IP_NOTIF4 depending on the version of IP for which it is generated
 	 * 
 	 * @param publicIP The IP for which this PublicIPNotification is generated
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @throws SQLException 
 	 * @throws NoSuchProviderException 
 	 * @throws NoSuchAlgorithmException 
 	 * @throws InvalidKeyException 
 	 */
-	public PublicIPNotification(InetAddress publicIP, Database db) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException{
+	public PublicIPNotification(InetAddress publicIP, Storage storage) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException{
 		super((publicIP instanceof Inet6Address)?Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF6:Message.MESSAGE_TYPE_PUBLIC_IP_NOTIF4);
 		
 		this.publicIP = publicIP;
 
 		//Calculate and store the HMAC for the public IP
-		this.hMac = HMAC(publicIP.getAddress(),getHmacKey(db));
+		this.hMac = HMAC(publicIP.getAddress(),getHmacKey(storage));
 	}
 
 	/**
@@ -114,67 +113,15 @@ public class PublicIPNotification extends Message {
 	}
 	
 	/**
-	 * Get the Key that should currently be used to generate HMACs. To do so this function checks if the newest entry in the PublicIPHMacKeys-table is currently valid. If that is the case it is
-	 * returned. If not the newest entry and the second newest entry are swapped and the entry that is now in top position is updated with a new validity of 15 minutes and a newly generated Key. Finally this new
-	 * key is returned.
+	 * Get the Key that should currently be used to generate HMACs. If the current Key isn't valid anymore a new Key with a validity of 15 minutes is generated and returned (the old one stays available
+	 * for validating HMACs; cf. Storage.getCurrentPublicIPHMacKey).
 	 * 
-	 * @param db The Database connection to use
+	 * @param storage The Storage to use
 	 * @return The Key that should currently be used to generate HMACs
 	 * @throws SQLException
 	 */
-	private byte[] getHmacKey(Database db) throws SQLException {
-		SQLException lastSQLException = null;
-		byte[] re;
-
-		/*
-		 * "Updating-And-Reading" the key table requires more than one SQL statement. Since the state of the database might change in between the statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that during the process of updating the key table it has been updated by another thread. In that case try getting the newest key and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-
-				// Get the Key that is currently the newest one in the PublicIPHMacKeys-table
-				ResultSet latestKey = db.executeQuery("SELECT * FROM PublicIPHMacKeys WHERE Id = 1 LIMIT 1", new Object[]{});
-
-				// Since the table is initially filled there should ALWAYS be a key (if not throw an exception)
-				if (!latestKey.next()) {
-					throw new SQLException("PublicIPHMacKeys seems to be empty!");
-				}
-
-				// When the cache entry is still valid return the entry's key
-				Timestamp validUntil = latestKey.getTimestamp("ValidUntil");
-				if (validUntil.after(new Timestamp(System.currentTimeMillis()))) {
-					re = latestKey.getBytes("Key");
-
-				} else {
-					// If not generate a new key ...
-					SecureRandom srandom = new SecureRandom();
-					re = new byte[64];
-					srandom.nextBytes(re);
-
-					// ... and store it in the database
-					storeNewHmacKeyInDb(re,db);
-
-				}
-
-				// Try to commit the changes
-				db.commit();
-				
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return re;
-
-			} catch (SQLException e) {
-				
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
-
+	private byte[] getHmacKey(Storage storage) throws SQLException {
+		return storage.getCurrentPublicIPHMacKey(hMacKeyValidity).getData();
 	}
 
 	/**
@@ -184,27 +131,6 @@ public class PublicIPNotification extends Message {
 		return publicIP;
 	}
 	
-	/**
-	 * Store a new HMAC-Key in the PublicIPHMacKeys-table with a validity of 15 minutes. To do so the newest entry and the second newest entry in the table are swapped and the entry that is now in top
-	 * position is updated with a new validity and a new Key.
-	 * 
-	 * @param keyBytes The new Key to put at the front position of the PublicIPHMacKeys-table
-	 * @param db The Database connection to use
-	 * @throws InvalidParameterException
-	 * @throws SQLException
-	 */
-	private void storeNewHmacKeyInDb(byte[] keyBytes, Database db) throws InvalidParameterException, SQLException {
-
-		// Update the second entry in the table with the new key and a validity of 15 minutes
-		Object[] params = { keyBytes , new Timestamp(System.currentTimeMillis() + 15*60*1000) };
-		db.executeUpdate("UPDATE PublicIPHMacKeys SET Key = ?, ValidUntil = ?  WHERE Id = 2", params);
-
-		// Swap the first two rows so the row with ID 1 will always contain the most current entry
-		// The code was created by the use of http://www.microshell.com/database/sql/swap-values-in-2-rows-sql/
-		db.executeUpdate("UPDATE  PublicIPHMacKeys  SET key = piphmk.key, validuntil = piphmk.validuntil FROM PublicIPHMacKeys AS piphmk WHERE PublicIPHMacKeys.id <> piphmk.id;", new Object[]{});
-		
-	}
-
 	/* (non-Javadoc)
 	 * @see crossbear.Message#writeContent(java.io.OutputStream)
 	 */
@@ -0,0 +1,67 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.sql.Timestamp;
+
+/**
+ * A CacheEntry is an entry of one of the caches that are kept by a Storage (e.g. the HuntingTaskListCache-table). It consists of the cached data and the time until which it is valid.
+ */
+public class CacheEntry {
+
+	// The cached data
+	private final byte[] data;
+
+	// The time until which the entry is valid
+	private final Timestamp validUntil;
+
+	/**
+	 * Create a new CacheEntry
+	 *
+	 * @param data The cached data
+	 * @param validUntil The time until which the entry is valid
+	 */
+	public CacheEntry(byte[] data, Timestamp validUntil) {
+		this.data = data;
+		this.validUntil = validUntil;
+	}
+
+	/**
+	 * @return The cached data
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return The time until which the entry is valid
+	 */
+	public Timestamp getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * @return True if the entry is valid at the current time
+	 */
+	public boolean isValid() {
+		return validUntil.getTime() >= System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,423 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Vector;
+
+import crossbear.CertificateDerivatives;
+import crossbear.Database;
+import crossbear.convergence.ConvergenceCertObservation;
+import crossbear.convergence.ConvergenceNotary;
+
+/**
+ * The CachingStorage stores everything in the Crossbear database (using a SQLStorage) but answers the most frequent reads from the LocalCache of the server: cached server certificates,
+ * CertVerifyResults and the HuntingTask-List, the current PublicIPHMacKey and the IDs of the active HuntingTasks. The LocalCache is filled on reads and updated on writes.
+ * 
+ * Several Crossbear servers can use CachingStorages on the same database: Each change of a cached table is announced on the invalidation-channel of the database and the InvalidationListener of
+ * each server drops the affected entries from its LocalCache (cf. LocalCache). While the InvalidationListener isn't listening the LocalCache is disabled and all reads go to the database.
+ * 
+ * Please note: The CachingStorage closes its Database connection when it is closed.
+ */
+public class CachingStorage implements Storage {
+
+	// The LocalCache of the server
+	private final LocalCache localCache;
+
+	// The SQLStorage that is used for everything that can't be answered by the LocalCache
+	private final SQLStorage storage;
+
+	/**
+	 * Create a new CachingStorage
+	 * 
+	 * @param db The Database connection to use
+	 * @param localCache The LocalCache of the server (cf. InvalidationListener.getLocalCache)
+	 */
+	public CachingStorage(Database db, LocalCache localCache) {
+		this.localCache = localCache;
+		this.storage = new SQLStorage(db, localCache);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addHuntingTaskRequest(java.lang.String, java.sql.Timestamp)
+	 */
+	@Override
+	public void addHuntingTaskRequest(String requestingIP, Timestamp timeOfRequest) throws SQLException {
+		storage.addHuntingTaskRequest(requestingIP, timeOfRequest);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addHuntingTaskResult(int, java.lang.String, long, int)
+	 */
+	@Override
+	public boolean addHuntingTaskResult(int taskID, String trace, long observationID, int maxResults) throws SQLException {
+		boolean retired = storage.addHuntingTaskResult(taskID, trace, observationID, maxResults);
+
+		// The retired HuntingTask is not active anymore
+		if (retired) {
+			localCache.invalidate(LocalCache.huntingTasks, null);
+		}
+		return retired;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addCertObservation(long, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long addCertObservation(long certID, String serverHostPort, String serverIP, Timestamp timeOfObservation, String observerType, String observerIP) throws SQLException {
+		return storage.addCertObservation(certID, serverHostPort, serverIP, timeOfObservation, observerType, observerIP);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheCertVerifyResult(java.lang.String, byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheCertVerifyResult(String requestHash, byte[] result, Timestamp validUntil) throws SQLException {
+		storage.cacheCertVerifyResult(requestHash, result, validUntil);
+
+		// The result for a request is the same on all servers: There is no need to invalidate anything
+		if (localCache.isEnabled()) {
+			localCache.certVerifyResults.put(requestHash, new CacheEntry(result, validUntil));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheHuntingTaskList(byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheHuntingTaskList(byte[] data, Timestamp validUntil) throws SQLException {
+		storage.cacheHuntingTaskList(data, validUntil);
+
+		// Replace the local copy by the new entry
+		localCache.invalidate(LocalCache.huntingTaskListCache, null);
+		if (localCache.isEnabled()) {
+			localCache.put(localCache.huntingTaskList, new CacheEntry(data, validUntil), localCache.getVersion());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheServerCert(java.lang.String, byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheServerCert(String hostPort, byte[] der, Timestamp validUntil) throws SQLException {
+		storage.cacheServerCert(hostPort, der, validUntil);
+
+		// Replace the local copy by the new entry
+		localCache.invalidate(LocalCache.certCache, hostPort);
+		if (localCache.isEnabled()) {
+			localCache.put(localCache.serverCerts, hostPort, new CacheEntry(der, validUntil), localCache.getVersion());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#close()
+	 */
+	@Override
+	public void close() throws SQLException {
+		storage.close();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countActiveHuntingTasks()
+	 */
+	@Override
+	public int countActiveHuntingTasks() throws SQLException {
+		return storage.countActiveHuntingTasks();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countCertObservations(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long countCertObservations(String certSHA256, String serverHostPort, String observerType) throws SQLException {
+		return storage.countCertObservations(certSHA256, serverHostPort, observerType);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countHuntingTaskRequesters(java.sql.Timestamp)
+	 */
+	@Override
+	public int countHuntingTaskRequesters(Timestamp since) throws SQLException {
+		return storage.countHuntingTaskRequesters(since);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#createHuntingTask(java.lang.String, java.net.InetAddress, int, java.sql.Timestamp, int)
+	 */
+	@Override
+	public int createHuntingTask(String targetHostName, InetAddress targetIP, int targetPort, Timestamp timeOfCreation, int severity) throws SQLException {
+		int id = storage.createHuntingTask(targetHostName, targetIP, targetPort, timeOfCreation, severity);
+
+		// The scan-target has an active HuntingTask now
+		localCache.invalidate(LocalCache.huntingTasks, null);
+		return id;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getActiveHuntingTaskID(java.lang.String, java.net.InetAddress, int)
+	 */
+	@Override
+	public int getActiveHuntingTaskID(String targetHostName, InetAddress targetIP, int targetPort) throws SQLException {
+		if (!localCache.isEnabled()) {
+			return storage.getActiveHuntingTaskID(targetHostName, targetIP, targetPort);
+		}
+
+		// Look for the ID in the LocalCache (this includes the information that there is no active HuntingTask for the scan-target)
+		String target = targetHostName + "|" + targetIP.getHostAddress() + "|" + targetPort;
+		Integer id = localCache.activeHuntingTaskIDs.get(target);
+		if (id != null) {
+			return id;
+		}
+
+		// If it isn't there: Read it from the database and remember it
+		long version = localCache.getVersion();
+		id = storage.getActiveHuntingTaskID(targetHostName, targetIP, targetPort);
+		localCache.put(localCache.activeHuntingTaskIDs, target, id, version);
+		return id;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getActiveHuntingTasks()
+	 */
+	@Override
+	public Vector<HuntingTaskEntry> getActiveHuntingTasks() throws SQLException {
+		return storage.getActiveHuntingTasks();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedCertVerifyResult(java.lang.String)
+	 */
+	@Override
+	public CacheEntry getCachedCertVerifyResult(String requestHash) throws SQLException {
+		if (!localCache.isEnabled()) {
+			return storage.getCachedCertVerifyResult(requestHash);
+		}
+
+		// Look for a valid entry in the LocalCache
+		CacheEntry entry = localCache.certVerifyResults.get(requestHash);
+		if (entry != null && entry.isValid()) {
+			return entry;
+		}
+
+		// If there is none: Read it from the database and remember it
+		long version = localCache.getVersion();
+		entry = storage.getCachedCertVerifyResult(requestHash);
+		if (entry != null) {
+			localCache.put(localCache.certVerifyResults, requestHash, entry, version);
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedHuntingTaskList()
+	 */
+	@Override
+	public CacheEntry getCachedHuntingTaskList() throws SQLException {
+		if (!localCache.isEnabled()) {
+			return storage.getCachedHuntingTaskList();
+		}
+
+		// Look for a valid entry in the LocalCache
+		CacheEntry entry = localCache.huntingTaskList.get();
+		if (entry != null && entry.isValid()) {
+			return entry;
+		}
+
+		// If there is none: Read it from the database and remember it
+		long version = localCache.getVersion();
+		entry = storage.getCachedHuntingTaskList();
+		if (entry != null) {
+			localCache.put(localCache.huntingTaskList, entry, version);
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedServerCert(java.lang.String)
+	 */
+	@Override
+	public CacheEntry getCachedServerCert(String hostPort) throws SQLException {
+		if (!localCache.isEnabled()) {
+			return storage.getCachedServerCert(hostPort);
+		}
+
+		// Look for a valid entry in the LocalCache
+		CacheEntry entry = localCache.serverCerts.get(hostPort);
+		if (entry != null && entry.isValid()) {
+			return entry;
+		}
+
+		// If there is none: Read it from the database and remember it
+		long version = localCache.getVersion();
+		entry = storage.getCachedServerCert(hostPort);
+		if (entry != null) {
+			localCache.put(localCache.serverCerts, hostPort, entry, version);
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCertIDByChainHash(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long getCertIDByChainHash(String serverHostPort, String certChainSHA256) throws SQLException {
+		return storage.getCertIDByChainHash(serverHostPort, certChainSHA256);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getConvergenceCertObservation(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public ConvergenceCertObservation getConvergenceCertObservation(String hostPort, String certSHA1) throws SQLException {
+		return storage.getConvergenceCertObservation(hostPort, certSHA1);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCurrentPublicIPHMacKey(long)
+	 */
+	@Override
+	public CacheEntry getCurrentPublicIPHMacKey(long validity) throws SQLException {
+		if (!localCache.isEnabled()) {
+			return storage.getCurrentPublicIPHMacKey(validity);
+		}
+
+		// Use the key from the LocalCache as long as it is valid
+		CacheEntry entry = localCache.publicIPHMacKey.get();
+		if (entry != null && entry.isValid()) {
+			return entry;
+		}
+
+		// If it isn't valid anymore: Get the current key from the database (which will create a new one if necessary) and remember it
+		long version = localCache.getVersion();
+		entry = storage.getCurrentPublicIPHMacKey(validity);
+		localCache.put(localCache.publicIPHMacKey, entry, version);
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getHuntingTask(int)
+	 */
+	@Override
+	public HuntingTaskEntry getHuntingTask(int taskID) throws SQLException {
+		return storage.getHuntingTask(taskID);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getKnownCertChainHashes(java.lang.String, int)
+	 */
+	@Override
+	public Vector<String> getKnownCertChainHashes(String serverHostPort, int max) throws SQLException {
+		return storage.getKnownCertChainHashes(serverHostPort, max);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getLastObservationPeriod(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Timestamp[] getLastObservationPeriod(String certSHA256, String serverHostPort, String observerType) throws SQLException {
+		return storage.getLastObservationPeriod(certSHA256, serverHostPort, observerType);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getPublicIPHMacKeys(java.sql.Timestamp)
+	 */
+	@Override
+	public byte[][] getPublicIPHMacKeys(Timestamp validAfter) throws SQLException {
+
+		// The keys are read from the database: A PublicIPNotification might have been created by another server with a key that this one hasn't seen yet
+		return storage.getPublicIPHMacKeys(validAfter);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getRandomConvergenceNotary()
+	 */
+	@Override
+	public ConvergenceNotary getRandomConvergenceNotary() throws SQLException {
+		return storage.getRandomConvergenceNotary();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#invalidateHuntingTaskListCache()
+	 */
+	@Override
+	public void invalidateHuntingTaskListCache() throws SQLException {
+		storage.invalidateHuntingTaskListCache();
+		localCache.invalidate(LocalCache.huntingTaskListCache, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#purgeCertVerifyResultCache()
+	 */
+	@Override
+	public int purgeCertVerifyResultCache() throws SQLException {
+
+		// Expired entries of the LocalCache are never returned so they don't need to be removed here
+		return storage.purgeCertVerifyResultCache();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#raiseHuntingTaskSeverity(int, int)
+	 */
+	@Override
+	public void raiseHuntingTaskSeverity(int taskID, int severity) throws SQLException {
+		storage.raiseHuntingTaskSeverity(taskID, severity);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#retireHuntingTasks(java.sql.Timestamp)
+	 */
+	@Override
+	public int retireHuntingTasks(Timestamp createdBefore) throws SQLException {
+		int retired = storage.retireHuntingTasks(createdBefore);
+
+		// The retired HuntingTasks are not active anymore
+		if (retired > 0) {
+			localCache.invalidate(LocalCache.huntingTasks, null);
+		}
+		return retired;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeChainCert(crossbear.CertificateDerivatives)
+	 */
+	@Override
+	public long storeChainCert(CertificateDerivatives cert) throws SQLException {
+		return storage.storeChainCert(cert);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeConvergenceCertObservation(crossbear.convergence.ConvergenceCertObservation)
+	 */
+	@Override
+	public void storeConvergenceCertObservation(ConvergenceCertObservation cco) throws SQLException {
+		storage.storeConvergenceCertObservation(cco);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeServerCert(crossbear.CertificateDerivatives, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long storeServerCert(CertificateDerivatives cert, String certChainMD5, String certChainSHA256) throws SQLException {
+		return storage.storeServerCert(cert, certChainMD5, certChainSHA256);
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.sql.Timestamp;
+
+/**
+ * A HuntingTaskEntry is the Object-representation of a HuntingTask as it is kept by a Storage (i.e. of a row of the HuntingTasks-table). In contrast to the HuntingTask-message it contains the
+ * bookkeeping information of the HuntingTask (its age, its severity, the number of its results and whether it is still active).
+ *
+ * HuntingTaskEntries are snapshots: Changing the HuntingTask in the Storage does not change HuntingTaskEntries that have been read before.
+ */
+public class HuntingTaskEntry {
+
+	// The identifier of the HuntingTask (equals the Id-column in the HuntingTasks-table)
+	private final int id;
+
+	// The scan-target's Hostname
+	private final String targetHostName;
+
+	// The scan-target's IP in textual representation
+	private final String targetIP;
+
+	// The scan-target's Port
+	private final int targetPort;
+
+	// The time at which the HuntingTask was created
+	private final Timestamp timeOfCreation;
+
+	// True if the HuntingTask is still handed to Hunters
+	private final boolean active;
+
+	// The severity of the HuntingTask (0 to 255)
+	private final int severity;
+
+	// The number of results that have been reported for the HuntingTask
+	private final int results;
+
+	/**
+	 * Create a new HuntingTaskEntry
+	 *
+	 * @param id The ID of the HuntingTask
+	 * @param targetHostName The Hostname of the scan-target
+	 * @param targetIP The IP of the scan-target in textual representation
+	 * @param targetPort The port of the scan-target
+	 * @param timeOfCreation The time at which the HuntingTask was created
+	 * @param active True if the HuntingTask is still active
+	 * @param severity The severity of the HuntingTask (0 to 255)
+	 * @param results The number of results that have been reported for the HuntingTask
+	 */
+	public HuntingTaskEntry(int id, String targetHostName, String targetIP, int targetPort, Timestamp timeOfCreation, boolean active, int severity, int results) {
+		this.id = id;
+		this.targetHostName = targetHostName;
+		this.targetIP = targetIP;
+		this.targetPort = targetPort;
+		this.timeOfCreation = timeOfCreation;
+		this.active = active;
+		this.severity = severity;
+		this.results = results;
+	}
+
+	/**
+	 * @return The ID of the HuntingTask
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return The number of results that have been reported for the HuntingTask
+	 */
+	public int getResults() {
+		return results;
+	}
+
+	/**
+	 * @return The severity of the HuntingTask (0 to 255)
+	 */
+	public int getSeverity() {
+		return severity;
+	}
+
+	/**
+	 * @return The scan-target's Hostname
+	 */
+	public String getTargetHostName() {
+		return targetHostName;
+	}
+
+	/**
+	 * @return The scan-target's IP in textual representation
+	 */
+	public String getTargetIP() {
+		return targetIP;
+	}
+
+	/**
+	 * @return The scan-target's Port
+	 */
+	public int getTargetPort() {
+		return targetPort;
+	}
+
+	/**
+	 * @return The time at which the HuntingTask was created
+	 */
+	public Timestamp getTimeOfCreation() {
+		return timeOfCreation;
+	}
+
+	/**
+	 * @return True if the HuntingTask is still active
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+}
@@ -0,0 +1,742 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import crossbear.CertificateDerivatives;
+import crossbear.convergence.ConvergenceCertObservation;
+import crossbear.convergence.ConvergenceNotary;
+
+/**
+ * The InMemoryStorage keeps everything in the memory of the JVM. It is meant for tests, benchmarks and for a single-node deployment that doesn't need a database and answers requests with lower
+ * latency. Everything that it stores is lost when the JVM terminates.
+ *
+ * The data is organized for the queries that the Crossbear server performs most often:
+ * - Certificates are kept in concurrent maps that are keyed by their SHA256-hash. The IDs of all server certificates that share a hash are kept as sorted long[].
+ * - The observations of each server are kept in an ObservationLog: parallel arrays of primitives that are ordered by the time of observation. Judging the observation period of a certificate or
+ * finding the certificate chains that were observed most recently is a scan of these arrays from their end.
+ * - HuntingTasks are kept in concurrent maps keyed by their ID (one for all and one for the active ones) along with an index from the scan-target to the ID of its newest active HuntingTask.
+ *
+ * There is only one InMemoryStorage per JVM (cf. getInstance). All of its operations are thread-safe; closing it does nothing.
+ *
+ * Please note: The PublicIPNotifications that are created by the "eighty"-application are verified by the "fourhundredfourtythree"-application. Both of them have to share the same InMemoryStorage
+ * (i.e. its class has to be loaded by a class loader that both applications share) or Hunters will not be able to report results. That's why StorageFactory.open refuses to use an InMemoryStorage
+ * whose class was loaded from the WEB-INF-directory of a web application. The results that Hunters report are not kept; only their number is counted.
+ */
+public class InMemoryStorage implements Storage {
+
+	// The ObservationLog of servers for which no observations have been made. It is returned by reads so they don't create ObservationLogs.
+	private static final ObservationLog emptyObservationLog = new ObservationLog();
+
+	// The only InMemoryStorage of the JVM (null until it is first requested)
+	private static InMemoryStorage instance = null;
+
+	/**
+	 * Get the InMemoryStorage of the JVM. It is created when this function is first called.
+	 *
+	 * @param convergenceNotaries The Convergence Notaries that the InMemoryStorage should know when it is created as comma-separated list of "hostPort=certSHA256Hash"-pairs (e.g.
+	 *            "notary.thoughtcrime.org:443=3A2F..."). May be null. It is ignored if the InMemoryStorage has already been created.
+	 * @return The InMemoryStorage
+	 */
+	public static synchronized InMemoryStorage getInstance(String convergenceNotaries) {
+		if (instance == null) {
+			instance = new InMemoryStorage();
+
+			// Add the configured Convergence Notaries
+			if (convergenceNotaries != null) {
+				for (String notary : convergenceNotaries.split(",")) {
+					String[] parts = notary.trim().split("=");
+					if (parts.length == 2) {
+						instance.addConvergenceNotary(new ConvergenceNotary(parts[0].trim(), parts[1].trim()));
+					}
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Check if a sorted long[] contains a value
+	 *
+	 * @param sorted The sorted array
+	 * @param value The value to look for
+	 * @return True if "sorted" contains "value"
+	 */
+	private static boolean contains(long[] sorted, long value) {
+		return Arrays.binarySearch(sorted, value) >= 0;
+	}
+
+	/**
+	 * Get the key of an entry of the activeHuntingTaskIDs-index
+	 *
+	 * @param targetHostName The Hostname of the scan-target
+	 * @param targetIP The IP of the scan-target in textual representation
+	 * @param targetPort The port of the scan-target
+	 * @return The key
+	 */
+	private static String getTargetKey(String targetHostName, String targetIP, int targetPort) {
+		return targetHostName + "|" + targetIP + "|" + targetPort;
+	}
+
+	// The generators of the IDs of certificates, observations and HuntingTasks
+	private final AtomicLong nextCertID = new AtomicLong();
+	private final AtomicLong nextObservationID = new AtomicLong();
+	private final AtomicInteger nextHuntingTaskID = new AtomicInteger();
+
+	// The IDs of the chain certificates. The key is the certificate's SHA256-hash
+	private final ConcurrentHashMap<String, Long> chainCerts = new ConcurrentHashMap<String, Long>();
+
+	// The IDs of the server certificates. The key is the certificate's SHA256-hash concatenated with the md5-hash of its certificate chain
+	private final ConcurrentHashMap<String, Long> serverCerts = new ConcurrentHashMap<String, Long>();
+
+	// The sorted IDs of all server certificates that share a SHA256-hash. The key is that hash
+	private final ConcurrentHashMap<String, long[]> serverCertIDsByHash = new ConcurrentHashMap<String, long[]>();
+
+	// The SHA256ChainHashes of the server certificates whose chain could be validated. The key is the ID of the certificate
+	private final ConcurrentHashMap<Long, String> certChainHashes = new ConcurrentHashMap<Long, String>();
+
+	// The observations of certificates. The key is the Hostname and port of the server
+	private final ConcurrentHashMap<String, ObservationLog> observations = new ConcurrentHashMap<String, ObservationLog>();
+
+	// The HuntingTasks. The key is the ID of the HuntingTask
+	private final ConcurrentHashMap<Integer, HuntingTaskEntry> huntingTasks = new ConcurrentHashMap<Integer, HuntingTaskEntry>();
+
+	// The active HuntingTasks. The key is the ID of the HuntingTask
+	private final ConcurrentHashMap<Integer, HuntingTaskEntry> activeHuntingTasks = new ConcurrentHashMap<Integer, HuntingTaskEntry>();
+
+	// The ID of the newest active HuntingTask of each scan-target. The key is the scan-target (cf. getTargetKey)
+	private final ConcurrentHashMap<String, Integer> activeHuntingTaskIDs = new ConcurrentHashMap<String, Integer>();
+
+	// The time of the last request of the HuntingTask-List in milliseconds. The key is the IP of the requester
+	private final ConcurrentHashMap<String, Long> huntingTaskRequests = new ConcurrentHashMap<String, Long>();
+
+	// The certificate cache. The key is the Hostname and port of the server
+	private final ConcurrentHashMap<String, CacheEntry> serverCertCache = new ConcurrentHashMap<String, CacheEntry>();
+
+	// The CertVerifyResult cache. The key is the hash of the CertVerifyRequest
+	private final ConcurrentHashMap<String, CacheEntry> certVerifyResultCache = new ConcurrentHashMap<String, CacheEntry>();
+
+	// The HuntingTask-List cache (null if there is no cached HuntingTask-List)
+	private final AtomicReference<CacheEntry> huntingTaskListCache = new AtomicReference<CacheEntry>();
+
+	// The keys that are used to create the HMACs of PublicIPNotifications along with the time until which they are valid (current key first; null if there is none)
+	private final CacheEntry[] hMacKeys = new CacheEntry[2];
+
+	// The Convergence cache. The key is the Hostname and port of the server concatenated with the SHA1-hash of the certificate
+	private final ConcurrentHashMap<String, ConvergenceCertObservation> convergenceCertObservations = new ConcurrentHashMap<String, ConvergenceCertObservation>();
+
+	// The Convergence Notaries
+	private final CopyOnWriteArrayList<ConvergenceNotary> convergenceNotaries = new CopyOnWriteArrayList<ConvergenceNotary>();
+
+	/**
+	 * Create a new InMemoryStorage. There is only one per JVM (cf. getInstance).
+	 */
+	private InMemoryStorage() {
+	}
+
+	/**
+	 * Add a Convergence Notary unless a Notary with the same Hostname and port is already known
+	 *
+	 * @param notary The Notary to add
+	 */
+	public synchronized void addConvergenceNotary(ConvergenceNotary notary) {
+		for (ConvergenceNotary known : convergenceNotaries) {
+			if (known.getHostPort().equals(notary.getHostPort())) {
+				return;
+			}
+		}
+		convergenceNotaries.add(notary);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addHuntingTaskRequest(java.lang.String, java.sql.Timestamp)
+	 */
+	@Override
+	public void addHuntingTaskRequest(String requestingIP, Timestamp timeOfRequest) {
+		huntingTaskRequests.put(requestingIP, timeOfRequest.getTime());
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addHuntingTaskResult(int, java.lang.String, long, int)
+	 */
+	@Override
+	public boolean addHuntingTaskResult(int taskID, String trace, long observationID, int maxResults) {
+		// Only the number of results is kept: The Crossbear server never reads the results themselves (they are only analyzed in the database)
+
+		// Increment the HuntingTask's result counter and retire it if it has enough results
+		synchronized (huntingTasks) {
+			HuntingTaskEntry task = huntingTasks.get(taskID);
+			if (task == null) {
+				return false;
+			}
+			boolean retire = task.isActive() && task.getResults() + 1 >= maxResults;
+			replaceHuntingTask(task, task.isActive() && !retire, task.getSeverity(), task.getResults() + 1);
+			return retire;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addCertObservation(long, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long addCertObservation(long certID, String serverHostPort, String serverIP, Timestamp timeOfObservation, String observerType, String observerIP) {
+		getOrCreateObservationLog(serverHostPort).add(timeOfObservation.getTime(), certID, observerType);
+		return nextObservationID.incrementAndGet();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheCertVerifyResult(java.lang.String, byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheCertVerifyResult(String requestHash, byte[] result, Timestamp validUntil) {
+		certVerifyResultCache.put(requestHash, new CacheEntry(result, validUntil));
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheHuntingTaskList(byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheHuntingTaskList(byte[] data, Timestamp validUntil) {
+		huntingTaskListCache.set(new CacheEntry(data, validUntil));
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheServerCert(java.lang.String, byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheServerCert(String hostPort, byte[] der, Timestamp validUntil) {
+		serverCertCache.put(hostPort, new CacheEntry(der, validUntil));
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#close()
+	 */
+	@Override
+	public void close() {
+		// The InMemoryStorage is shared by all requests: There is nothing to close
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countActiveHuntingTasks()
+	 */
+	@Override
+	public int countActiveHuntingTasks() {
+		return activeHuntingTasks.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countCertObservations(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long countCertObservations(String certSHA256, String serverHostPort, String observerType) {
+		return getObservationLog(serverHostPort).count(getServerCertIDs(certSHA256), observerType);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countHuntingTaskRequesters(java.sql.Timestamp)
+	 */
+	@Override
+	public int countHuntingTaskRequesters(Timestamp since) {
+		int re = 0;
+
+		// Count the requesters that requested the HuntingTask-List since "since" and forget the others (they will never be counted again)
+		Iterator<Map.Entry<String, Long>> itr = huntingTaskRequests.entrySet().iterator();
+		while (itr.hasNext()) {
+			if (itr.next().getValue() > since.getTime()) {
+				re++;
+			} else {
+				itr.remove();
+			}
+		}
+
+		return re;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#createHuntingTask(java.lang.String, java.net.InetAddress, int, java.sql.Timestamp, int)
+	 */
+	@Override
+	public int createHuntingTask(String targetHostName, InetAddress targetIP, int targetPort, Timestamp timeOfCreation, int severity) {
+		synchronized (huntingTasks) {
+			int taskID = nextHuntingTaskID.incrementAndGet();
+			HuntingTaskEntry task = new HuntingTaskEntry(taskID, targetHostName, targetIP.getHostAddress(), targetPort, timeOfCreation, true, severity, 0);
+			huntingTasks.put(taskID, task);
+			activeHuntingTasks.put(taskID, task);
+			activeHuntingTaskIDs.put(getTargetKey(targetHostName, targetIP.getHostAddress(), targetPort), taskID);
+			return taskID;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getActiveHuntingTaskID(java.lang.String, java.net.InetAddress, int)
+	 */
+	@Override
+	public int getActiveHuntingTaskID(String targetHostName, InetAddress targetIP, int targetPort) {
+		Integer taskID = activeHuntingTaskIDs.get(getTargetKey(targetHostName, targetIP.getHostAddress(), targetPort));
+		return (taskID == null) ? -1 : taskID;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getActiveHuntingTasks()
+	 */
+	@Override
+	public Vector<HuntingTaskEntry> getActiveHuntingTasks() {
+		return new Vector<HuntingTaskEntry>(activeHuntingTasks.values());
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedCertVerifyResult(java.lang.String)
+	 */
+	@Override
+	public CacheEntry getCachedCertVerifyResult(String requestHash) {
+		CacheEntry entry = certVerifyResultCache.get(requestHash);
+		return (entry != null && entry.isValid()) ? entry : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedHuntingTaskList()
+	 */
+	@Override
+	public CacheEntry getCachedHuntingTaskList() {
+		CacheEntry entry = huntingTaskListCache.get();
+		return (entry != null && entry.isValid()) ? entry : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedServerCert(java.lang.String)
+	 */
+	@Override
+	public CacheEntry getCachedServerCert(String hostPort) {
+		CacheEntry entry = serverCertCache.get(hostPort);
+		return (entry != null && entry.isValid()) ? entry : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCertIDByChainHash(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long getCertIDByChainHash(String serverHostPort, String certChainSHA256) {
+		return getObservationLog(serverHostPort).getCertIDByChainHash(certChainSHA256, certChainHashes);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getConvergenceCertObservation(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public ConvergenceCertObservation getConvergenceCertObservation(String hostPort, String certSHA1) {
+		return convergenceCertObservations.get(hostPort + "|" + certSHA1);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCurrentPublicIPHMacKey(long)
+	 */
+	@Override
+	public synchronized CacheEntry getCurrentPublicIPHMacKey(long validity) {
+
+		// When the current key is still valid return it
+		if (hMacKeys[0] != null && hMacKeys[0].getValidUntil().getTime() > System.currentTimeMillis()) {
+			return hMacKeys[0];
+		}
+
+		// If not generate a new key and make the current key the previous one
+		byte[] key = new byte[64];
+		new SecureRandom().nextBytes(key);
+		hMacKeys[1] = hMacKeys[0];
+		hMacKeys[0] = new CacheEntry(key, new Timestamp(System.currentTimeMillis() + validity));
+
+		return hMacKeys[0];
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getHuntingTask(int)
+	 */
+	@Override
+	public HuntingTaskEntry getHuntingTask(int taskID) {
+		return huntingTasks.get(taskID);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getKnownCertChainHashes(java.lang.String, int)
+	 */
+	@Override
+	public Vector<String> getKnownCertChainHashes(String serverHostPort, int max) {
+		return getObservationLog(serverHostPort).getKnownCertChainHashes(max, certChainHashes);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getLastObservationPeriod(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Timestamp[] getLastObservationPeriod(String certSHA256, String serverHostPort, String observerType) {
+		long[] period = getObservationLog(serverHostPort).getLastObservationPeriod(getServerCertIDs(certSHA256), observerType);
+		return new Timestamp[] { new Timestamp(period[0]), new Timestamp(period[1]) };
+	}
+
+	/**
+	 * Get the ObservationLog of a server for reading. Servers without observations don't get an ObservationLog of their own, so looking them up doesn't consume memory.
+	 *
+	 * @param serverHostPort The Hostname and port of the server
+	 * @return The ObservationLog of the server or an empty ObservationLog if there is none. The result MUST NOT be modified.
+	 */
+	private ObservationLog getObservationLog(String serverHostPort) {
+		ObservationLog log = observations.get(serverHostPort);
+		return (log != null) ? log : emptyObservationLog;
+	}
+
+	/**
+	 * Get the ObservationLog of a server in order to add an observation. If there is none yet it is created.
+	 *
+	 * @param serverHostPort The Hostname and port of the server
+	 * @return The ObservationLog of the server
+	 */
+	private ObservationLog getOrCreateObservationLog(String serverHostPort) {
+		ObservationLog log = observations.get(serverHostPort);
+		if (log == null) {
+			ObservationLog newLog = new ObservationLog();
+			log = observations.putIfAbsent(serverHostPort, newLog);
+			if (log == null) {
+				log = newLog;
+			}
+		}
+		return log;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getPublicIPHMacKeys(java.sql.Timestamp)
+	 */
+	@Override
+	public synchronized byte[][] getPublicIPHMacKeys(Timestamp validAfter) {
+		Vector<byte[]> re = new Vector<byte[]>();
+		for (int i = 0; i < hMacKeys.length; i++) {
+			if (hMacKeys[i] != null && hMacKeys[i].getValidUntil().after(validAfter)) {
+				re.add(hMacKeys[i].getData());
+			}
+		}
+		return re.toArray(new byte[][] {});
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getRandomConvergenceNotary()
+	 */
+	@Override
+	public ConvergenceNotary getRandomConvergenceNotary() {
+		Object[] notaries = convergenceNotaries.toArray();
+		if (notaries.length == 0) {
+			return null;
+		}
+		return (ConvergenceNotary) notaries[ThreadLocalRandom.current().nextInt(notaries.length)];
+	}
+
+	/**
+	 * Get the IDs of all server certificates that share a SHA256-hash
+	 *
+	 * @param certSHA256 The SHA256-hash in Hex-String representation
+	 * @return The sorted IDs (empty if there is no such certificate)
+	 */
+	private long[] getServerCertIDs(String certSHA256) {
+		long[] ids = serverCertIDsByHash.get(certSHA256);
+		return (ids == null) ? new long[0] : ids;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#invalidateHuntingTaskListCache()
+	 */
+	@Override
+	public void invalidateHuntingTaskListCache() {
+		CacheEntry entry = huntingTaskListCache.get();
+		if (entry != null && entry.isValid()) {
+			huntingTaskListCache.compareAndSet(entry, new CacheEntry(entry.getData(), new Timestamp(System.currentTimeMillis())));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#purgeCertVerifyResultCache()
+	 */
+	@Override
+	public int purgeCertVerifyResultCache() {
+		int re = 0;
+		Iterator<CacheEntry> itr = certVerifyResultCache.values().iterator();
+		while (itr.hasNext()) {
+			if (!itr.next().isValid()) {
+				itr.remove();
+				re++;
+			}
+		}
+		return re;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#raiseHuntingTaskSeverity(int, int)
+	 */
+	@Override
+	public void raiseHuntingTaskSeverity(int taskID, int severity) {
+		synchronized (huntingTasks) {
+			HuntingTaskEntry task = huntingTasks.get(taskID);
+			if (task != null && task.getSeverity() < severity) {
+				replaceHuntingTask(task, task.isActive(), severity, task.getResults());
+			}
+		}
+	}
+
+	/**
+	 * Replace a HuntingTask by a copy with a different state. If the HuntingTask is retired by that it is removed from the active HuntingTasks.
+	 *
+	 * Please note: The caller has to hold the lock of the huntingTasks-map.
+	 *
+	 * @param task The HuntingTask to replace
+	 * @param active True if the HuntingTask should be active
+	 * @param severity The severity of the HuntingTask
+	 * @param results The number of results of the HuntingTask
+	 */
+	private void replaceHuntingTask(HuntingTaskEntry task, boolean active, int severity, int results) {
+		HuntingTaskEntry newTask = new HuntingTaskEntry(task.getId(), task.getTargetHostName(), task.getTargetIP(), task.getTargetPort(), task.getTimeOfCreation(), active, severity, results);
+		huntingTasks.put(task.getId(), newTask);
+		if (active) {
+			activeHuntingTasks.put(task.getId(), newTask);
+		} else if (task.isActive()) {
+			activeHuntingTasks.remove(task.getId());
+			activeHuntingTaskIDs.remove(getTargetKey(task.getTargetHostName(), task.getTargetIP(), task.getTargetPort()), task.getId());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#retireHuntingTasks(java.sql.Timestamp)
+	 */
+	@Override
+	public int retireHuntingTasks(Timestamp createdBefore) {
+		int re = 0;
+		synchronized (huntingTasks) {
+			for (HuntingTaskEntry task : getActiveHuntingTasks()) {
+				if (task.getTimeOfCreation().before(createdBefore)) {
+					replaceHuntingTask(task, false, task.getSeverity(), task.getResults());
+					re++;
+				}
+			}
+		}
+		return re;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeChainCert(crossbear.CertificateDerivatives)
+	 */
+	@Override
+	public long storeChainCert(CertificateDerivatives cert) {
+		Long id = chainCerts.get(cert.getSHA256Hex());
+		if (id == null) {
+			Long newID = nextCertID.incrementAndGet();
+			id = chainCerts.putIfAbsent(cert.getSHA256Hex(), newID);
+			if (id == null) {
+				id = newID;
+			}
+		}
+		return id;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeConvergenceCertObservation(crossbear.convergence.ConvergenceCertObservation)
+	 */
+	@Override
+	public void storeConvergenceCertObservation(ConvergenceCertObservation cco) {
+		convergenceCertObservations.put(cco.getHostPort() + "|" + cco.getCertHash(), cco);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeServerCert(crossbear.CertificateDerivatives, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long storeServerCert(CertificateDerivatives cert, String certChainMD5, String certChainSHA256) {
+		String key = cert.getSHA256Hex() + "|" + certChainMD5;
+		Long id = serverCerts.get(key);
+		if (id != null) {
+			return id;
+		}
+
+		// Inserting a new server certificate updates several maps: Make sure only one thread at a time does that
+		synchronized (serverCerts) {
+			id = serverCerts.get(key);
+			if (id != null) {
+				return id;
+			}
+			id = nextCertID.incrementAndGet();
+
+			// Remember the certificate chain hash (if any) and add the ID to the (sorted) IDs of the certificates that share the SHA256-hash
+			if (certChainSHA256 != null) {
+				certChainHashes.put(id, certChainSHA256);
+			}
+			long[] ids = getServerCertIDs(cert.getSHA256Hex());
+			long[] newIDs = Arrays.copyOf(ids, ids.length + 1);
+			newIDs[ids.length] = id;
+			serverCertIDsByHash.put(cert.getSHA256Hex(), newIDs);
+
+			// Finally make the certificate visible
+			serverCerts.put(key, id);
+			return id;
+		}
+	}
+
+	/**
+	 * An ObservationLog contains all observations of certificates that have been made for a server. The observations are stored in parallel arrays that are ordered by the time of observation (oldest
+	 * first). Since observations are usually added in the order in which they are made, adding an observation is amortized constant time.
+	 */
+	private static class ObservationLog {
+
+		// The times of the observations in milliseconds
+		private long[] times = new long[8];
+
+		// The IDs of the observed certificates
+		private long[] certIDs = new long[8];
+
+		// The types of the observers
+		private String[] observerTypes = new String[8];
+
+		// The number of observations
+		private int size = 0;
+
+		/**
+		 * Add an observation
+		 *
+		 * @param time The time of the observation in milliseconds
+		 * @param certID The ID of the observed certificate
+		 * @param observerType The type of the observer
+		 */
+		private synchronized void add(long time, long certID, String observerType) {
+
+			// Grow the arrays if they are full
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				certIDs = Arrays.copyOf(certIDs, size * 2);
+				observerTypes = Arrays.copyOf(observerTypes, size * 2);
+			}
+
+			// Find the position of the observation (usually the end) and make room for it
+			int pos = size;
+			while (pos > 0 && times[pos - 1] > time) {
+				pos--;
+			}
+			System.arraycopy(times, pos, times, pos + 1, size - pos);
+			System.arraycopy(certIDs, pos, certIDs, pos + 1, size - pos);
+			System.arraycopy(observerTypes, pos, observerTypes, pos + 1, size - pos);
+
+			times[pos] = time;
+			certIDs[pos] = certID;
+			observerTypes[pos] = observerType;
+			size++;
+		}
+
+		/**
+		 * Count the observations of certificates by a type of observer
+		 *
+		 * @param ids The sorted IDs of the certificates
+		 * @param observerType The type of the observer
+		 * @return The number of observations
+		 */
+		private synchronized long count(long[] ids, String observerType) {
+			long re = 0;
+			for (int i = 0; i < size; i++) {
+				if (contains(ids, certIDs[i]) && observerType.equals(observerTypes[i])) {
+					re++;
+				}
+			}
+			return re;
+		}
+
+		/**
+		 * Get the ID of the most recently observed certificate with a certain certificate chain hash
+		 *
+		 * @param certChainSHA256 The certificate chain hash
+		 * @param certChainHashes The certificate chain hashes of all certificates
+		 * @return The ID of the certificate or -1 if there is none
+		 */
+		private synchronized long getCertIDByChainHash(String certChainSHA256, Map<Long, String> certChainHashes) {
+			for (int i = size - 1; i >= 0; i--) {
+				if (certChainSHA256.equals(certChainHashes.get(certIDs[i]))) {
+					return certIDs[i];
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Get the certificate chain hashes of the certificates that have been observed most recently
+		 *
+		 * @param max The maximum number of hashes to return
+		 * @param certChainHashes The certificate chain hashes of all certificates
+		 * @return The hashes (newest first)
+		 */
+		private synchronized Vector<String> getKnownCertChainHashes(int max, Map<Long, String> certChainHashes) {
+			Vector<String> re = new Vector<String>();
+			for (int i = size - 1; i >= 0 && re.size() < max; i--) {
+				String hash = certChainHashes.get(certIDs[i]);
+				if (hash != null && !re.contains(hash)) {
+					re.add(hash);
+				}
+			}
+			return re;
+		}
+
+		/**
+		 * Get the last continuous observation period of certificates by a type of observer (cf. Storage.getLastObservationPeriod)
+		 *
+		 * @param ids The sorted IDs of the certificates
+		 * @param observerType The type of the observer
+		 * @return The begin and the end of the period in milliseconds
+		 */
+		private synchronized long[] getLastObservationPeriod(long[] ids, String observerType) {
+			long now = System.currentTimeMillis();
+
+			// Find the last observation of the certificates. If there is none the period starts and ends now
+			int end = size - 1;
+			while (end >= 0 && !(contains(ids, certIDs[end]) && observerType.equals(observerTypes[end]))) {
+				end--;
+			}
+			if (end < 0) {
+				return new long[] { now, now };
+			}
+
+			// Find the last observation of another certificate that was made before that
+			int other = end - 1;
+			while (other >= 0 && !(times[other] < times[end] && !contains(ids, certIDs[other]) && observerType.equals(observerTypes[other]))) {
+				other--;
+			}
+
+			// The period begins with the first observation of the certificates after that
+			int begin = other + 1;
+			while (!(times[begin] > ((other < 0) ? Long.MIN_VALUE : times[other]) && contains(ids, certIDs[begin]) && observerType.equals(observerTypes[begin]))) {
+				begin++;
+			}
+
+			return new long[] { times[begin], times[end] };
+		}
+	}
+
+}
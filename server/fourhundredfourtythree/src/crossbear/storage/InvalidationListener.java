@@ -0,0 +1,208 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import crossbear.Database;
+import crossbear.Logger;
+import crossbear.Properties;
+
+/**
+ * The InvalidationListener listens on the invalidation-channel of the database (cf. LocalCache.channel) and applies the invalidations that other Crossbear servers send to its LocalCache. It runs
+ * in a background thread within the server and uses a database connection of its own.
+ * 
+ * The LocalCache is only enabled while the InvalidationListener is listening. If its connection fails the LocalCache is disabled until it managed to reconnect.
+ * 
+ * The InvalidationListener checks for new invalidations every "storage.localCache.pollInterval" milliseconds (default: 500). That is the longest time for which a server might answer reads from an
+ * entry that another server has already changed.
+ * 
+ * A web application uses only one InvalidationListener. It is started by the first Storage that is opened with "storage.localCache" set to "true" (cf. StorageFactory) and stopped by the first page
+ * that calls stop (i.e. when the web application is shut down). Further InvalidationListeners (each with a LocalCache of its own) can be created to simulate several servers within one JVM.
+ */
+public class InvalidationListener implements Runnable {
+
+	// The default interval in milliseconds in which the InvalidationListener checks for new invalidations
+	private static final long defaultPollInterval = 500;
+
+	// The InvalidationListener of the web application (null if it is not running)
+	private static InvalidationListener instance = null;
+
+	/**
+	 * Start the InvalidationListener of the web application (unless that is already done)
+	 * 
+	 * @param properties The properties of the Crossbear server (needed to connect to the database and to log errors)
+	 * @return The InvalidationListener of the web application. Its LocalCache should be used by all CachingStorages of the web application.
+	 */
+	public static synchronized InvalidationListener start(Properties properties) {
+		if (instance == null) {
+			instance = new InvalidationListener(properties);
+			instance.startListening();
+		}
+		return instance;
+	}
+
+	/**
+	 * Stop the InvalidationListener of the web application (if it is running)
+	 */
+	public static synchronized void stop() {
+		if (instance == null) {
+			return;
+		}
+
+		instance.stopListening();
+		instance = null;
+	}
+
+	// Properties and settings of the Crossbear server
+	private final Properties properties;
+
+	// The interval in milliseconds in which the InvalidationListener checks for new invalidations
+	private final long pollInterval;
+
+	// The LocalCache that the invalidations are applied to
+	private final LocalCache localCache = new LocalCache();
+
+	// The executor that runs the InvalidationListener (null if it is not running)
+	private ScheduledExecutorService executor = null;
+
+	// The connection that listens on the invalidation-channel (null if there is none)
+	private Database db = null;
+
+	/**
+	 * Create a new InvalidationListener. It doesn't listen until startListening is called.
+	 * 
+	 * @param properties The properties of the Crossbear server (needed to connect to the database, to log errors and for the "storage.localCache.pollInterval")
+	 */
+	public InvalidationListener(Properties properties) {
+		this.properties = properties;
+
+		String pollInterval = properties.getProperty("storage.localCache.pollInterval");
+		this.pollInterval = (pollInterval != null) ? Long.parseLong(pollInterval.trim()) : defaultPollInterval;
+	}
+
+	/**
+	 * Disable the LocalCache and close the connection that listens on the invalidation-channel (if there is one)
+	 */
+	private synchronized void disconnect() {
+		localCache.disable();
+		if (db == null) {
+			return;
+		}
+
+		try {
+			db.close();
+		} catch (SQLException e) {
+			Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.invalidationListener.error", e);
+		}
+		db = null;
+	}
+
+	/**
+	 * @return The LocalCache that the InvalidationListener keeps consistent (to be passed to the CachingStorages of this server)
+	 */
+	public LocalCache getLocalCache() {
+		return localCache;
+	}
+
+	/**
+	 * @return The interval in milliseconds in which the InvalidationListener checks for new invalidations
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public synchronized void run() {
+		try {
+
+			// (Re)connect to the database if necessary. Invalidations might have been missed until then so the LocalCache starts empty (cf. LocalCache.enable)
+			if (db == null) {
+				db = new Database(properties.getProperty("database.url"), properties.getProperty("database.user"), properties.getProperty("database.password"));
+				db.listen(LocalCache.channel);
+				localCache.enable();
+			}
+
+			// Apply all invalidations that have been received since the last run
+			for (String invalidation : db.getNotifications()) {
+				localCache.apply(invalidation);
+			}
+
+		} catch (Exception e) {
+
+			// Exceptions must not stop the periodic execution: Log them, disable the LocalCache and reconnect next time
+			Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.invalidationListener.error", e);
+			disconnect();
+		}
+	}
+
+	/**
+	 * Start listening for invalidations in a background thread (unless that is already done)
+	 */
+	public synchronized void startListening() {
+		if (executor != null) {
+			return;
+		}
+
+		// Use a daemon thread so the InvalidationListener doesn't keep the JVM from terminating
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "InvalidationListener");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleWithFixedDelay(this, 0, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop listening for invalidations and stop using the LocalCache
+	 */
+	public void stopListening() {
+		ScheduledExecutorService stopped;
+		synchronized (this) {
+			if (executor == null) {
+				return;
+			}
+			stopped = executor;
+			executor = null;
+		}
+
+		// Wait for the current run to finish so the connection can be closed safely (run holds the lock of the InvalidationListener, so this must not)
+		stopped.shutdownNow();
+		try {
+			stopped.awaitTermination(Math.max(pollInterval, 1000), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		disconnect();
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import crossbear.BoundedCache;
+
+/**
+ * The LocalCache holds the node-local copies of the Storage's caches (CertCache, CertVerifyResultCache, HuntingTaskListCache, the current PublicIPHMacKey and the IDs of the active HuntingTasks).
+ * Each LocalCache is owned by an InvalidationListener and represents one node, i.e. one Crossbear server. A web application uses the LocalCache of the InvalidationListener of its JVM (cf.
+ * InvalidationListener.start) for all of its CachingStorages. Several LocalCaches can be used in the same JVM (e.g. to simulate several servers in a test).
+ * 
+ * When several Crossbear servers share one database their local copies are kept consistent by invalidations: Each SQLStorage that changes a cached table announces that on the
+ * invalidation-channel of the database (cf. Database.sendNotification) and the InvalidationListener of every server applies the invalidations to its LocalCache (cf. apply). An invalidation is a
+ * String of the form "&lt;nodeID&gt; &lt;table&gt;[ &lt;key&gt;]".
+ * 
+ * Please note: As long as the InvalidationListener isn't listening on the channel the LocalCache might miss invalidations. It is therefore disabled in that time and the CachingStorages read
+ * everything from the database. When it is enabled again it starts empty.
+ * 
+ * Please note: Entries of the CertVerifyResultCache are never invalidated. Their keys are hashes of the requests so two servers can't have different results for the same key.
+ */
+public class LocalCache {
+
+	// The name of the notification-channel on which the invalidations are sent
+	public static final String channel = "crossbear_invalidation";
+
+	// The names of the tables whose changes are announced
+	public static final String certCache = "CertCache";
+	public static final String huntingTaskListCache = "HuntingTaskListCache";
+	public static final String huntingTasks = "HuntingTasks";
+	public static final String publicIPHMacKeys = "PublicIPHMacKeys";
+
+	// The identifier of this node (used to ignore the invalidations that it sent itself)
+	private final String nodeID = Long.toHexString(new SecureRandom().nextLong());
+
+	// True if the InvalidationListener is listening on the channel and the LocalCache may therefore be used
+	private volatile boolean enabled = false;
+
+	// Counter that is incremented on each invalidation (used to detect entries that were read from the database before they were invalidated; cf. put)
+	private final AtomicLong version = new AtomicLong();
+
+	// The local copy of the CertCache-table (HostPort -> CacheEntry)
+	final BoundedCache<String, CacheEntry> serverCerts = new BoundedCache<String, CacheEntry>(10000);
+
+	// The local copy of the CertVerifyResultCache-table (Hash -> CacheEntry)
+	final BoundedCache<String, CacheEntry> certVerifyResults = new BoundedCache<String, CacheEntry>(10000);
+
+	// The IDs of the active HuntingTasks ("TargetHostName|TargetIP|TargetPort" -> ID or -1 if there is none)
+	final BoundedCache<String, Integer> activeHuntingTaskIDs = new BoundedCache<String, Integer>(10000);
+
+	// The local copy of the HuntingTaskListCache-table (null if there is none)
+	final AtomicReference<CacheEntry> huntingTaskList = new AtomicReference<CacheEntry>();
+
+	// The PublicIPHMacKey that is currently used (null if there is none)
+	final AtomicReference<CacheEntry> publicIPHMacKey = new AtomicReference<CacheEntry>();
+
+	/**
+	 * Create a new LocalCache. It is disabled until its InvalidationListener is listening (cf. enable).
+	 */
+	LocalCache() {
+	}
+
+	/**
+	 * Apply an invalidation that has been received on the invalidation-channel. Invalidations that were sent by this node are ignored since it applied them when it sent them.
+	 * 
+	 * @param invalidation The invalidation in the form "&lt;nodeID&gt; &lt;table&gt;[ &lt;key&gt;]"
+	 */
+	public void apply(String invalidation) {
+		String[] parts = invalidation.split(" ", 3);
+
+		// Ignore invalidations that are malformed or that have been sent by this server
+		if (parts.length < 2 || parts[0].equals(nodeID)) {
+			return;
+		}
+
+		invalidate(parts[1], parts.length > 2 ? parts[2] : null);
+	}
+
+	/**
+	 * Create an invalidation of this node that can be sent on the invalidation-channel
+	 * 
+	 * @param table The name of the table that changed
+	 * @param key The key of the entry that changed or null if all entries of the table should be invalidated
+	 * @return The invalidation in the form "&lt;nodeID&gt; &lt;table&gt;[ &lt;key&gt;]"
+	 */
+	public String createInvalidation(String table, String key) {
+		return nodeID + " " + table + (key != null ? " " + key : "");
+	}
+
+	/**
+	 * Stop using the LocalCache (e.g. because the InvalidationListener lost its connection to the database) and drop all of its entries
+	 */
+	public void disable() {
+		enabled = false;
+		invalidateAll();
+	}
+
+	/**
+	 * Start using the LocalCache. It will be empty when it is enabled since invalidations might have been missed before.
+	 */
+	public void enable() {
+		invalidateAll();
+		enabled = true;
+	}
+
+	/**
+	 * @return The current value of the invalidation-counter (to be passed to put)
+	 */
+	long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Drop the entries of the LocalCache that are affected by a change of a table
+	 * 
+	 * @param table The name of the table that changed
+	 * @param key The key of the entry that changed or null if all entries of the table should be invalidated
+	 */
+	void invalidate(String table, String key) {
+
+		// Increment the counter first so concurrent reads of the database won't store an outdated entry (cf. put)
+		version.incrementAndGet();
+
+		if (certCache.equals(table)) {
+			if (key != null) {
+				serverCerts.remove(key);
+			} else {
+				serverCerts.clear();
+			}
+		} else if (huntingTaskListCache.equals(table)) {
+			huntingTaskList.set(null);
+		} else if (huntingTasks.equals(table)) {
+			activeHuntingTaskIDs.clear();
+		} else if (publicIPHMacKeys.equals(table)) {
+			publicIPHMacKey.set(null);
+		} else {
+
+			// Tables that are unknown to this server might still be cached by it: Better drop everything
+			invalidateAll();
+		}
+	}
+
+	/**
+	 * Drop all entries of the LocalCache
+	 */
+	private void invalidateAll() {
+		version.incrementAndGet();
+		serverCerts.clear();
+		certVerifyResults.clear();
+		activeHuntingTaskIDs.clear();
+		huntingTaskList.set(null);
+		publicIPHMacKey.set(null);
+	}
+
+	/**
+	 * @return True if the LocalCache may be used
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Store an entry that has been read from the database in the LocalCache unless it has been invalidated in the meantime
+	 * 
+	 * @param cache The part of the LocalCache to store the entry in
+	 * @param key The key of the entry
+	 * @param value The entry
+	 * @param versionBeforeRead The value of getVersion before the entry has been read from the database
+	 */
+	<K, V> void put(BoundedCache<K, V> cache, K key, V value, long versionBeforeRead) {
+		cache.put(key, value);
+
+		// If there was an invalidation in the meantime the entry might be outdated: Remove it again
+		if (version.get() != versionBeforeRead) {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * Store an entry that has been read from the database in the LocalCache unless it has been invalidated in the meantime
+	 * 
+	 * @param cache The part of the LocalCache to store the entry in
+	 * @param value The entry
+	 * @param versionBeforeRead The value of getVersion before the entry has been read from the database
+	 */
+	<V> void put(AtomicReference<V> cache, V value, long versionBeforeRead) {
+		cache.set(value);
+
+		// If there was an invalidation in the meantime the entry might be outdated: Remove it again
+		if (version.get() != versionBeforeRead) {
+			cache.compareAndSet(value, null);
+		}
+	}
+
+}
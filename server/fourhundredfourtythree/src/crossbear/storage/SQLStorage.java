@@ -0,0 +1,730 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Vector;
+
+import crossbear.CertificateDerivatives;
+import crossbear.Database;
+import crossbear.convergence.ConvergenceCertObservation;
+import crossbear.convergence.ConvergenceNotary;
+
+/**
+ * The SQLStorage stores everything in the Crossbear database. Each operation is executed as one or more SQL-statements on a Database connection. Operations that require more than one statement
+ * are executed as transactions.
+ *
+ * Please note: The SQLStorage closes its Database connection when it is closed.
+ *
+ * Please note: If several Crossbear servers keep local copies of the cached tables (cf. CachingStorage) the SQLStorage has to announce its changes of these tables on the invalidation-channel of
+ * the database (cf. LocalCache). Changes that are made within a transaction are announced when the transaction is committed.
+ */
+public class SQLStorage implements Storage {
+
+	/**
+	 * Read the current row of a ResultSet of the HuntingTasks-table
+	 *
+	 * @param rs The ResultSet positioned on a row
+	 * @return The HuntingTaskEntry for that row
+	 * @throws SQLException
+	 */
+	private static HuntingTaskEntry readHuntingTask(ResultSet rs) throws SQLException {
+		return new HuntingTaskEntry(rs.getInt("Id"), rs.getString("TargetHostName"), rs.getString("TargetIP"), rs.getInt("TargetPort"), rs.getTimestamp("TimeOfCreation"),
+				rs.getBoolean("Active"), rs.getInt("Severity"), rs.getInt("Results"));
+	}
+
+	// The Database connection to use
+	private final Database db;
+
+	// The LocalCache of the server on whose behalf changes of the cached tables are announced on the invalidation-channel (null if they are not announced)
+	private final LocalCache localCache;
+
+	/**
+	 * Create a new SQLStorage that doesn't announce its changes
+	 *
+	 * @param db The Database connection to use
+	 */
+	public SQLStorage(Database db) {
+		this(db, null);
+	}
+
+	/**
+	 * Create a new SQLStorage
+	 *
+	 * @param db The Database connection to use
+	 * @param localCache The LocalCache of the server on whose behalf changes of the cached tables should be announced on the invalidation-channel (null if they should not be announced)
+	 */
+	public SQLStorage(Database db, LocalCache localCache) {
+		this.db = db;
+		this.localCache = localCache;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addHuntingTaskRequest(java.lang.String, java.sql.Timestamp)
+	 */
+	@Override
+	public void addHuntingTaskRequest(String requestingIP, Timestamp timeOfRequest) throws SQLException {
+		Object[] params = { requestingIP, timeOfRequest };
+		db.executeInsert("INSERT INTO HuntingTaskRequests (RequestingIP,TimeOfRequest) VALUES (?,?)", params);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addHuntingTaskResult(int, java.lang.String, long, int)
+	 */
+	@Override
+	public boolean addHuntingTaskResult(int taskID, String trace, long observationID, int maxResults) throws SQLException {
+
+		// Store the result and increment the HuntingTask's result counter within the same transaction so the counter is always accurate
+		db.setAutoCommit(false);
+		try {
+			Object[] params = { taskID, trace, observationID };
+			db.executeInsert("INSERT INTO HuntingTaskResults ( HuntingTaskID, Trace, Observation) VALUES (?,?,?)", params);
+
+			// Increment the HuntingTask's result counter
+			Object[] countParams = { taskID };
+			db.executeUpdate("UPDATE HuntingTasks SET Results = Results + 1 WHERE Id = ?", countParams);
+
+			// Retire it if it has enough results. Only the request that actually retires it reports that.
+			Object[] retireParams = { taskID, maxResults };
+			boolean retired = db.executeUpdate("UPDATE HuntingTasks SET Active = 'false' WHERE Id = ? AND Active = 'true' AND Results >= ?", retireParams) > 0;
+			if (retired) {
+				announceInvalidation(LocalCache.huntingTasks, null);
+			}
+
+			db.commit();
+			return retired;
+		} catch (SQLException e) {
+			db.rollback();
+			throw e;
+		} finally {
+			db.setAutoCommit(true);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#addCertObservation(long, java.lang.String, java.lang.String, java.sql.Timestamp, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long addCertObservation(long certID, String serverHostPort, String serverIP, Timestamp timeOfObservation, String observerType, String observerIP) throws SQLException {
+		Object[] params = { certID, serverHostPort, serverIP, timeOfObservation, observerType, observerIP };
+		return Long.valueOf(db.executeInsert("INSERT INTO CertObservations ( CertID, ServerHostPort, ServerIP, TimeOfObservation, ObserverType, ObserverIP) VALUES (?,?,?,?,?,?)", params));
+	}
+
+	/**
+	 * Announce a change of a cached table on the invalidation-channel (if the SQLStorage announces its changes)
+	 *
+	 * @param table The name of the table that changed
+	 * @param key The key of the entry that changed or null if all entries of the table are affected
+	 * @throws SQLException
+	 */
+	private void announceInvalidation(String table, String key) throws SQLException {
+		if (localCache != null) {
+			db.sendNotification(LocalCache.channel, localCache.createInvalidation(table, key));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheCertVerifyResult(java.lang.String, byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheCertVerifyResult(String requestHash, byte[] result, Timestamp validUntil) throws SQLException {
+		Object[] params = { result, validUntil, requestHash };
+		upsert("UPDATE CertVerifyResultCache SET Bytes = ?, ValidUntil = ? WHERE Hash = ?", "INSERT INTO CertVerifyResultCache (Bytes,ValidUntil,Hash) VALUES (?,?,?)", params);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheHuntingTaskList(byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheHuntingTaskList(byte[] data, Timestamp validUntil) throws SQLException {
+		Object[] params = { data, validUntil };
+		upsert("UPDATE HuntingTaskListCache SET Data = ?, ValidUntil = ?", "INSERT INTO HuntingTaskListCache (Data,ValidUntil) VALUES (?,?)", params);
+		announceInvalidation(LocalCache.huntingTaskListCache, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#cacheServerCert(java.lang.String, byte[], java.sql.Timestamp)
+	 */
+	@Override
+	public void cacheServerCert(String hostPort, byte[] der, Timestamp validUntil) throws SQLException {
+		Object[] params = { der, validUntil, hostPort };
+		upsert("UPDATE CertCache SET Certificate = ?, ValidUntil = ? WHERE HostPort = ?", "INSERT INTO CertCache (Certificate,ValidUntil,HostPort) VALUES (?,?,?)", params);
+		announceInvalidation(LocalCache.certCache, hostPort);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#close()
+	 */
+	@Override
+	public void close() throws SQLException {
+		db.close();
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countActiveHuntingTasks()
+	 */
+	@Override
+	public int countActiveHuntingTasks() throws SQLException {
+		Object[] params = {};
+		ResultSet rs = db.executeQuery("SELECT COUNT(*) AS c FROM HuntingTasks WHERE active = 'true'", params);
+
+		// If the result is empty then something went wrong
+		if (!rs.next()) {
+			throw new SQLException("ResultSet was empty!");
+		}
+		return rs.getInt("c");
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countCertObservations(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long countCertObservations(String certSHA256, String serverHostPort, String observerType) throws SQLException {
+
+		// Get all certificate ID's that share that hash
+		String IDs = getServerCertIDs(certSHA256);
+
+		// Get the total number of how often the certificate has been observed for serverHostPort by observerType
+		Object[] params = { serverHostPort, observerType };
+		    // WARNING (Ralph): you're interpolating a string
+		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
+		    // And you're using prepared statements, of course
+		ResultSet rs = db.executeQuery("SELECT COUNT(Id) as Num FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+") AND ObserverType = ?", params);
+
+		if (!rs.next()) {
+			throw new SQLException("Query returned invalid result.");
+		}
+		return rs.getLong("Num");
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#countHuntingTaskRequesters(java.sql.Timestamp)
+	 */
+	@Override
+	public int countHuntingTaskRequesters(Timestamp since) throws SQLException {
+		Object[] params = { since };
+		ResultSet rs = db.executeQuery("SELECT COUNT(DISTINCT RequestingIP) AS c FROM HuntingTaskRequests WHERE TimeOfRequest > ?", params);
+
+		// If the result is empty then something went wrong
+		if (!rs.next()) {
+			throw new SQLException("ResultSet was empty!");
+		}
+		return rs.getInt("c");
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#createHuntingTask(java.lang.String, java.net.InetAddress, int, java.sql.Timestamp, int)
+	 */
+	@Override
+	public int createHuntingTask(String targetHostName, InetAddress targetIP, int targetPort, Timestamp timeOfCreation, int severity) throws SQLException {
+		Object[] params = { targetHostName, targetIP, targetPort, timeOfCreation, severity };
+		String key = db.executeInsert("INSERT INTO HuntingTasks (TargetHostName, TargetIP, TargetPort, TimeOfCreation, Active, Severity) VALUES (?,?,?,?, 'true', ?)", params);
+		announceInvalidation(LocalCache.huntingTasks, null);
+
+		return Integer.valueOf(key);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getActiveHuntingTaskID(java.lang.String, java.net.InetAddress, int)
+	 */
+	@Override
+	public int getActiveHuntingTaskID(String targetHostName, InetAddress targetIP, int targetPort) throws SQLException {
+		Object[] params = { targetHostName, targetIP, targetPort };
+		ResultSet rs = db.executeQuery("SELECT Id FROM HuntingTasks WHERE TargetHostName = ? AND TargetIP = ? AND TargetPort = ? AND Active = 'true' ORDER BY Id DESC LIMIT 1", params);
+
+		if (rs.next()) {
+			return rs.getInt("Id");
+		} else {
+			return -1;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getActiveHuntingTasks()
+	 */
+	@Override
+	public Vector<HuntingTaskEntry> getActiveHuntingTasks() throws SQLException {
+		Vector<HuntingTaskEntry> re = new Vector<HuntingTaskEntry>();
+
+		// Query the Database for all currently active HuntingTasks and add them to the result vector
+		Object[] params = {};
+		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTasks WHERE Active = 'true'", params);
+		while (rs.next()) {
+			re.add(readHuntingTask(rs));
+		}
+
+		return re;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedCertVerifyResult(java.lang.String)
+	 */
+	@Override
+	public CacheEntry getCachedCertVerifyResult(String requestHash) throws SQLException {
+		Object[] params = { requestHash };
+		ResultSet rs = db.executeQuery("SELECT * FROM CertVerifyResultCache WHERE Hash = ? LIMIT 1", params);
+
+		// If the result is empty then there is no cache entry to return
+		if (!rs.next()) {
+			return null;
+		}
+
+		// If the cache entry is not valid anymore then there is nothing to return
+		CacheEntry entry = new CacheEntry(rs.getBytes("Bytes"), rs.getTimestamp("ValidUntil"));
+		return entry.isValid() ? entry : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedHuntingTaskList()
+	 */
+	@Override
+	public CacheEntry getCachedHuntingTaskList() throws SQLException {
+		Object[] params = {};
+		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTaskListCache LIMIT 1", params);
+
+		// If the result is empty then there is no cache entry to return
+		if (!rs.next()) {
+			return null;
+		}
+
+		// If the cache entry is not valid anymore then there is nothing to return
+		CacheEntry entry = new CacheEntry(rs.getBytes("Data"), rs.getTimestamp("ValidUntil"));
+		return entry.isValid() ? entry : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCachedServerCert(java.lang.String)
+	 */
+	@Override
+	public CacheEntry getCachedServerCert(String hostPort) throws SQLException {
+		Object[] params = { hostPort };
+		ResultSet rs = db.executeQuery("SELECT * FROM CertCache WHERE HostPort = ? LIMIT 1", params);
+
+		// If the result is empty then there is no cache entry to return
+		if (!rs.next()) {
+			return null;
+		}
+
+		// If the cache entry is not valid anymore then there is nothing to return
+		CacheEntry entry = new CacheEntry(rs.getBytes("Certificate"), rs.getTimestamp("ValidUntil"));
+		return entry.isValid() ? entry : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCertIDByChainHash(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long getCertIDByChainHash(String serverHostPort, String certChainSHA256) throws SQLException {
+		Object[] params = { serverHostPort, certChainSHA256 };
+		ResultSet rs = db.executeQuery("SELECT sc.Id FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash = ? LIMIT 1", params);
+
+		if (rs.next()) {
+			return Long.valueOf(rs.getString("Id"));
+		} else {
+			return -1;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getConvergenceCertObservation(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public ConvergenceCertObservation getConvergenceCertObservation(String hostPort, String certSHA1) throws SQLException {
+		Object[] params = { hostPort, certSHA1 };
+		ResultSet rs = db.executeQuery("SELECT * FROM ConvergenceCertObservations WHERE ServerHostPort = ? AND SHA1Hash = ? LIMIT 1", params);
+
+		// If the result is empty then there is no cache entry to return
+		if (!rs.next()) {
+			return null;
+		}
+
+		return new ConvergenceCertObservation(rs.getString("ServerHostPort"), rs.getString("SHA1Hash"), rs.getTimestamp("FirstObservation"), rs.getTimestamp("LastObservation"),
+				rs.getTimestamp("LastUpdate"));
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getCurrentPublicIPHMacKey(long)
+	 */
+	@Override
+	public CacheEntry getCurrentPublicIPHMacKey(long validity) throws SQLException {
+		SQLException lastSQLException = null;
+		CacheEntry re;
+
+		/*
+		 * "Updating-And-Reading" the key table requires more than one SQL statement. Since the state of the database might change in between the statements transactions are used. Transactions might fail on commit. The only
+		 * legal reason for that is that during the process of updating the key table it has been updated by another thread. In that case try getting the newest key and if that succeeded go on. If that failed
+		 * again then there is a real problem and an exception is thrown.
+		 */
+		db.setAutoCommit(false);
+		for (int i = 0; i < 2; i++) {
+			try {
+
+				// Get the Key that is currently the newest one in the PublicIPHMacKeys-table
+				ResultSet latestKey = db.executeQuery("SELECT * FROM PublicIPHMacKeys WHERE Id = 1 LIMIT 1", new Object[]{});
+
+				// Since the table is initially filled there should ALWAYS be a key (if not throw an exception)
+				if (!latestKey.next()) {
+					throw new SQLException("PublicIPHMacKeys seems to be empty!");
+				}
+
+				// When the cache entry is still valid return the entry's key
+				Timestamp validUntil = latestKey.getTimestamp("ValidUntil");
+				if (validUntil.after(new Timestamp(System.currentTimeMillis()))) {
+					re = new CacheEntry(latestKey.getBytes("Key"), validUntil);
+
+				} else {
+					// If not generate a new key ...
+					re = new CacheEntry(generatePublicIPHMacKey(), new Timestamp(System.currentTimeMillis() + validity));
+
+					// ... update the second entry in the table with it ...
+					Object[] params = { re.getData(), re.getValidUntil() };
+					db.executeUpdate("UPDATE PublicIPHMacKeys SET Key = ?, ValidUntil = ?  WHERE Id = 2", params);
+
+					// ... and swap the first two rows so the row with ID 1 will always contain the most current entry
+					// The code was created by the use of http://www.microshell.com/database/sql/swap-values-in-2-rows-sql/
+					db.executeUpdate("UPDATE  PublicIPHMacKeys  SET key = piphmk.key, validuntil = piphmk.validuntil FROM PublicIPHMacKeys AS piphmk WHERE PublicIPHMacKeys.id <> piphmk.id;", new Object[]{});
+					announceInvalidation(LocalCache.publicIPHMacKeys, null);
+				}
+
+				// Try to commit the changes
+				db.commit();
+
+				// Reenable auto-commit
+				db.setAutoCommit(true);
+				return re;
+
+			} catch (SQLException e) {
+
+				// Commit failed. If that was the first time: Try again
+				db.rollback();
+				lastSQLException = e;
+			}
+		}
+		throw lastSQLException;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getHuntingTask(int)
+	 */
+	@Override
+	public HuntingTaskEntry getHuntingTask(int taskID) throws SQLException {
+		Object[] params = { taskID };
+		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTasks WHERE Id = ?", params);
+
+		if (!rs.next()) {
+			return null;
+		}
+		return readHuntingTask(rs);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getKnownCertChainHashes(java.lang.String, int)
+	 */
+	@Override
+	public Vector<String> getKnownCertChainHashes(String serverHostPort, int max) throws SQLException {
+		Vector<String> re = new Vector<String>();
+
+		// Get the SHA256ChainHash of all certificates that have ever been observed for the server. Order them by their most recent observation.
+		Object[] params = { serverHostPort };
+		ResultSet rs = db.executeQuery("SELECT sc.SHA256ChainHash , Max(co.TimeOfObservation) as LastSeen FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash IS NOT NULL GROUP BY sc.SHA256ChainHash ORDER BY LastSeen DESC LIMIT "+String.valueOf(max), params);
+		while (rs.next()) {
+			re.add(rs.getString("SHA256ChainHash"));
+		}
+
+		return re;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getLastObservationPeriod(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Timestamp[] getLastObservationPeriod(String certSHA256, String serverHostPort, String observerType) throws SQLException {
+
+		// Get all certificate ID's that share that hash
+		String IDs = getServerCertIDs(certSHA256);
+
+		// Get the Timestamp of the last observation of the certificate for the host or the current time if it has never been observed (which would result in a period of 0 days)
+		Object[] params = { serverHostPort, observerType };
+		    // WARNING (Ralph): you're interpolating a string
+		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
+		    // And you're using prepared statements, of course
+		ResultSet rs = db.executeQuery("SELECT coalesce(MAX(Timeofobservation), 'NOW') AS Time FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+") AND ObserverType = ?", params);
+
+		if (!rs.next()) {
+			throw new SQLException("Query returned invalid result.");
+		}
+
+		// Remember that Timestamp as endOfObservationPeriod
+		Timestamp endOfObservationPeriod = rs.getTimestamp("Time");
+
+		Object[] params2 = { serverHostPort, observerType, serverHostPort, observerType, endOfObservationPeriod };
+		// Get the newest Timestamp of any certificate observation for the host that was not on the current certificate but is older than endOfObservationPeriod (or alternatively a very old dummy timestamp if there is none).
+		String sqlSubQuery = "SELECT coalesce(MAX(TimeOfObservation), TIMESTAMP '1900-01-01 00:00') as Time FROM CertObservations WHERE ServerHostPort = ? AND CertID NOT IN ("+IDs+") AND ObserverType = ? and TimeOfObservation < ?";
+
+		// Get the oldest Timestamp of any observation of the current certificate that is still newer than the Timestamp of the sub-querry
+		    // WARNING (Ralph): you're interpolating a string
+		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
+		    // And you're using prepared statements, of course
+		rs = db.executeQuery("SELECT coalesce(MIN(TimeOfObservation), 'NOW') as Time FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+")  AND ObserverType = ? AND TimeOfObservation > (" + sqlSubQuery + ")", params2);
+
+		if (!rs.next()) {
+			throw new SQLException("Query returned invalid result.");
+		}
+
+		// Remember that Timestamp as beginOfObservationPeriod
+		Timestamp beginOfObservationPeriod = rs.getTimestamp("Time");
+
+		return new Timestamp[] { beginOfObservationPeriod, endOfObservationPeriod };
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getPublicIPHMacKeys(java.sql.Timestamp)
+	 */
+	@Override
+	public byte[][] getPublicIPHMacKeys(Timestamp validAfter) throws SQLException {
+		Vector<byte[]> re = new Vector<byte[]>();
+
+		// Query the PublicIPHMacKeys-table for all Keys that were valid after validAfter
+		Object[] params = { validAfter };
+		ResultSet rs = db.executeQuery("SELECT Key FROM PublicIPHMacKeys WHERE ValidUntil > ?", params);
+		while (rs.next()) {
+			byte[] key = rs.getBytes("Key");
+			if (key != null) {
+				re.add(key);
+			}
+		}
+
+		return re.toArray(new byte[][] {});
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#getRandomConvergenceNotary()
+	 */
+	@Override
+	public ConvergenceNotary getRandomConvergenceNotary() throws SQLException {
+		ResultSet rs = db.executeQuery("SELECT * FROM ConvergenceNotaries ORDER BY RANDOM() LIMIT 1", new Object[] {});
+
+		// If the result is empty then there is no ConvergenceNotary Crossbear could use
+		if (!rs.next()) {
+			return null;
+		}
+
+		return new ConvergenceNotary(rs.getString("HostPort"), rs.getString("CertID"));
+	}
+
+	/**
+	 * Get all IDs of server certificates with a certain SHA256DERHash
+	 *
+	 * @param certSHA256 The hash that the certificates need to share in Hex-String representation
+	 * @return A comma-separated list of the IDs of the certificates that share "certSHA256" as SHA256DERHash
+	 * @throws SQLException
+	 */
+	private String getServerCertIDs(String certSHA256) throws SQLException {
+		Object[] params = { certSHA256 };
+		ResultSet rs = db.executeQuery("SELECT array_to_string(array_agg(DISTINCT Id),', ') AS IDs FROM ServerCerts WHERE SHA256DERHash = ?", params);
+
+		// If the result is empty then there is no certificate that has that hash -> return an empty String
+		if (!rs.next()) {
+			return "";
+		}
+
+		return rs.getString("IDs");
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#invalidateHuntingTaskListCache()
+	 */
+	@Override
+	public void invalidateHuntingTaskListCache() throws SQLException {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		Object[] params = { now, now };
+		db.executeUpdate("UPDATE HuntingTaskListCache SET ValidUntil = ? WHERE ValidUntil > ?", params);
+		announceInvalidation(LocalCache.huntingTaskListCache, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#purgeCertVerifyResultCache()
+	 */
+	@Override
+	public int purgeCertVerifyResultCache() throws SQLException {
+		Object[] params = { new Timestamp(System.currentTimeMillis()) };
+		return db.executeUpdate("DELETE FROM CertVerifyResultCache WHERE ValidUntil < ?", params);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#raiseHuntingTaskSeverity(int, int)
+	 */
+	@Override
+	public void raiseHuntingTaskSeverity(int taskID, int severity) throws SQLException {
+		Object[] params = { severity, taskID, severity };
+		db.executeUpdate("UPDATE HuntingTasks SET Severity = ? WHERE Id = ? AND (Severity IS NULL OR Severity < ?)", params);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#retireHuntingTasks(java.sql.Timestamp)
+	 */
+	@Override
+	public int retireHuntingTasks(Timestamp createdBefore) throws SQLException {
+		Object[] params = { createdBefore };
+		int retired = db.executeUpdate("UPDATE HuntingTasks SET Active = 'false' WHERE Active = 'true' AND TimeOfCreation < ?", params);
+		if (retired > 0) {
+			announceInvalidation(LocalCache.huntingTasks, null);
+		}
+		return retired;
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeChainCert(crossbear.CertificateDerivatives)
+	 */
+	@Override
+	public long storeChainCert(CertificateDerivatives cert) throws SQLException {
+		Object[] queryParams = { cert.getSHA256Hex() };
+		Object[] insertParams = { cert.getSHA256Hex(), cert.getSHA1Hex(), cert.getDER(), cert.getPEMMD5Hex(), cert.getPEM() };
+		return insertIfNotExists("SELECT Id FROM ChainCerts WHERE SHA256DERHash = ? LIMIT 1", queryParams,
+				"INSERT INTO ChainCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES (?,?,?,?,?)", insertParams);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeConvergenceCertObservation(crossbear.convergence.ConvergenceCertObservation)
+	 */
+	@Override
+	public void storeConvergenceCertObservation(ConvergenceCertObservation cco) throws SQLException {
+		Object[] params = { cco.getFirstObservation(), cco.getLastObservation(), cco.getLastUpdate(), cco.getHostPort(), cco.getCertHash() };
+		upsert("UPDATE ConvergenceCertObservations SET FirstObservation = ?, LastObservation = ?, LastUpdate = ? WHERE ServerHostPort = ? AND SHA1Hash = ?",
+				"INSERT INTO ConvergenceCertObservations (FirstObservation,LastObservation,LastUpdate,ServerHostPort,SHA1Hash) VALUES (?,?,?,?,?)", params);
+	}
+
+	/* (non-Javadoc)
+	 * @see crossbear.storage.Storage#storeServerCert(crossbear.CertificateDerivatives, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long storeServerCert(CertificateDerivatives cert, String certChainMD5, String certChainSHA256) throws SQLException {
+		if (certChainMD5 == null) {
+			Object[] queryParams = { cert.getSHA256Hex() };
+			Object[] insertParams = { cert.getSHA256Hex(), cert.getSHA1Hex(), cert.getDER(), cert.getPEMMD5Hex(), cert.getPEM() };
+			return insertIfNotExists("SELECT Id FROM ServerCerts WHERE SHA256DERHash = ? AND CertChainMD5 IS NULL LIMIT 1", queryParams,
+					"INSERT INTO ServerCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES (?,?,?,?,?)", insertParams);
+		} else {
+			Object[] queryParams = { cert.getSHA256Hex(), certChainMD5 };
+			Object[] insertParams = { cert.getSHA256Hex(), cert.getSHA1Hex(), cert.getDER(), cert.getPEMMD5Hex(), cert.getPEM(), certChainMD5, certChainSHA256 };
+			return insertIfNotExists("SELECT Id FROM ServerCerts WHERE SHA256DERHash = ? AND CertChainMD5 = ? LIMIT 1", queryParams,
+					"INSERT INTO ServerCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw, CertChainMD5, SHA256ChainHash) VALUES (?,?,?,?,?,?,?)", insertParams);
+		}
+	}
+
+	/**
+	 * Generate a new random key for the HMACs of PublicIPNotifications
+	 *
+	 * @return A new key of 64 bytes
+	 */
+	private byte[] generatePublicIPHMacKey() {
+		byte[] key = new byte[64];
+		new SecureRandom().nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * Insert a row unless a row with the same key already exists.
+	 *
+	 * @param query The statement that looks for the existing row (must return its "Id")
+	 * @param queryParams The parameters of the query
+	 * @param insert The statement that inserts the row
+	 * @param insertParams The parameters of the insert
+	 * @return The ID of the row after it has been inserted. If it was already inserted, the old ID is returned
+	 * @throws SQLException
+	 */
+	private long insertIfNotExists(String query, Object[] queryParams, String insert, Object[] insertParams) throws SQLException {
+		SQLException lastSQLException = null;
+
+		/*
+		 * "Insert-if-not-exists" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The
+		 * only legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try getting that entry and if that succeeded go on. If that
+		 * failed again then there is a real problem and an exception is thrown.
+		 */
+		db.setAutoCommit(false);
+		for (int i = 0; i < 2; i++) {
+			try {
+
+				// First: Check if the entry already exists. If not add a new entry to the database
+				ResultSet rs = db.executeQuery(query, queryParams);
+				long re = rs.next() ? Long.valueOf(rs.getString("Id")) : Long.valueOf(db.executeInsert(insert, insertParams));
+
+				// Try to commit the changes
+				db.commit();
+
+				// Reenable auto-commit
+				db.setAutoCommit(true);
+				return re;
+			} catch (SQLException e) {
+
+				// Commit failed. If that was the first time: Try again
+				db.rollback();
+				lastSQLException = e;
+			}
+		}
+		throw lastSQLException;
+	}
+
+	/**
+	 * Update a row and insert it if it doesn't exist yet. Both statements have to take the same parameters in the same order.
+	 *
+	 * @param update The statement that updates the existing row
+	 * @param insert The statement that inserts the row
+	 * @param params The parameters of both statements
+	 * @throws SQLException
+	 */
+	private void upsert(String update, String insert, Object[] params) throws SQLException {
+		SQLException lastSQLException = null;
+
+		/*
+		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
+		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
+		 * again then there is a real problem and an exception is thrown.
+		 */
+		db.setAutoCommit(false);
+		for (int i = 0; i < 2; i++) {
+			try {
+
+				// First: Try to update an existing entry. If there isn't any try to insert a new one.
+				if (db.executeUpdate(update, params) == 0) {
+					db.executeInsert(insert, params);
+				}
+
+				// Try to commit the changes
+				db.commit();
+
+				// Reenable auto-commit
+				db.setAutoCommit(true);
+				return;
+			} catch (SQLException e) {
+
+				// Commit failed. If that was the first time: Try again
+				db.rollback();
+				lastSQLException = e;
+			}
+		}
+		throw lastSQLException;
+	}
+
+}
@@ -0,0 +1,342 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Vector;
+
+import crossbear.CertificateDerivatives;
+import crossbear.convergence.ConvergenceCertObservation;
+import crossbear.convergence.ConvergenceNotary;
+
+/**
+ * A Storage provides all persistence operations of the Crossbear server: Storing certificates and their observations, managing HuntingTasks and their results, the server's caches, the keys that
+ * are used to create the HMACs of PublicIPNotifications and the data about the Convergence Notaries.
+ *
+ * There are three implementations:
+ * - SQLStorage stores everything in the Crossbear database (this is the default)
+ * - CachingStorage stores everything in the Crossbear database but answers the most frequent reads from a cache that is local to the server and kept consistent with the other servers (cf. LocalCache)
+ * - InMemoryStorage keeps everything in the memory of the JVM (for tests, benchmarks and a single-node deployment that doesn't need a database)
+ *
+ * Which implementation is used is decided by the "storage.engine"-property (cf. StorageFactory). Each operation of a Storage is atomic; callers don't need to care about transactions.
+ *
+ * Please note: Like Database-objects, Storage-objects are not thread-safe and a new one should be opened every time a page is being processed (cf. StorageFactory.open). Don't forget to close it.
+ */
+public interface Storage {
+
+	/**
+	 * Remember that somebody requested the HuntingTask-List (for statistical analysis)
+	 *
+	 * @param requestingIP The IP of the requester
+	 * @param timeOfRequest The time of the request
+	 * @throws SQLException
+	 */
+	public void addHuntingTaskRequest(String requestingIP, Timestamp timeOfRequest) throws SQLException;
+
+	/**
+	 * Store the result of a HuntingTask and count it. If the HuntingTask reached maxResults by that it is retired within the same operation.
+	 *
+	 * @param taskID The ID of the HuntingTask
+	 * @param trace The trace that was observed
+	 * @param observationID The ID of the certificate observation that was made
+	 * @param maxResults The number of results after which a HuntingTask is retired
+	 * @return True if the HuntingTask was retired by this call (i.e. the HuntingTask-List cache needs to be invalidated)
+	 * @throws SQLException
+	 */
+	public boolean addHuntingTaskResult(int taskID, String trace, long observationID, int maxResults) throws SQLException;
+
+	/**
+	 * Store the observation of a certificate
+	 *
+	 * @param certID The ID of the server certificate (cf. storeServerCert)
+	 * @param serverHostPort The Hostname and port of the server for which the certificate has been observed (e.g. encrypted.google.com:443)
+	 * @param serverIP The IP of the server for which the certificate has been observed
+	 * @param timeOfObservation The time of the observation (always the server's time - never the client's local time)
+	 * @param observerType An Identifier for the observer's type (e.g. "CrossbearServer" or "CrossbearCVR")
+	 * @param observerIP The IP from which the observation was made (might be partially anonymized)
+	 * @return The ID of the observation
+	 * @throws SQLException
+	 */
+	public long addCertObservation(long certID, String serverHostPort, String serverIP, Timestamp timeOfObservation, String observerType, String observerIP) throws SQLException;
+
+	/**
+	 * Store a CertVerifyResult in the CertVerifyResult cache (replacing an older entry for the same CertVerifyRequest)
+	 *
+	 * @param requestHash The hash of the CertVerifyRequest in Hex-String representation
+	 * @param result The bytes of the CertVerifyResult
+	 * @param validUntil The time until which the entry should stay valid
+	 * @throws SQLException
+	 */
+	public void cacheCertVerifyResult(String requestHash, byte[] result, Timestamp validUntil) throws SQLException;
+
+	/**
+	 * Store a HuntingTask-List in the HuntingTask-List cache (replacing the one that is currently cached)
+	 *
+	 * @param data The byte[]-representation of the HuntingTask-List
+	 * @param validUntil The time until which the entry should stay valid (which is also the version of the HuntingTask-List)
+	 * @throws SQLException
+	 */
+	public void cacheHuntingTaskList(byte[] data, Timestamp validUntil) throws SQLException;
+
+	/**
+	 * Store a server's certificate in the certificate cache (replacing an older entry for the same server)
+	 *
+	 * @param hostPort The Hostname and port of the server (e.g. encrypted.google.com:443)
+	 * @param der The DER-encoding of the server's certificate
+	 * @param validUntil The time until which the entry should stay valid
+	 * @throws SQLException
+	 */
+	public void cacheServerCert(String hostPort, byte[] der, Timestamp validUntil) throws SQLException;
+
+	/**
+	 * Close the Storage. It must not be used afterwards.
+	 *
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException;
+
+	/**
+	 * Count the HuntingTasks that are currently active
+	 *
+	 * @return The number of active HuntingTasks
+	 * @throws SQLException
+	 */
+	public int countActiveHuntingTasks() throws SQLException;
+
+	/**
+	 * Count how often a certificate has been observed for a server by a type of observer
+	 *
+	 * @param certSHA256 The SHA256-hash of the certificate's DER-encoding in Hex-String representation
+	 * @param serverHostPort The Hostname and port of the server (e.g. encrypted.google.com:443)
+	 * @param observerType The type of the observer (e.g. "CrossbearServer")
+	 * @return The number of observations
+	 * @throws SQLException
+	 */
+	public long countCertObservations(String certSHA256, String serverHostPort, String observerType) throws SQLException;
+
+	/**
+	 * Count the distinct IPs that requested the HuntingTask-List since a point in time
+	 *
+	 * @param since The point in time
+	 * @return The number of distinct requesters
+	 * @throws SQLException
+	 */
+	public int countHuntingTaskRequesters(Timestamp since) throws SQLException;
+
+	/**
+	 * Create a new active HuntingTask
+	 *
+	 * @param targetHostName The Hostname of the scan-target
+	 * @param targetIP The IP of the scan-target
+	 * @param targetPort The port of the scan-target
+	 * @param timeOfCreation The time of the creation
+	 * @param severity The severity of the HuntingTask (0 to 255)
+	 * @return The ID of the new HuntingTask
+	 * @throws SQLException
+	 */
+	public int createHuntingTask(String targetHostName, InetAddress targetIP, int targetPort, Timestamp timeOfCreation, int severity) throws SQLException;
+
+	/**
+	 * Get the ID of the active HuntingTask for a scan-target
+	 *
+	 * @param targetHostName The Hostname of the scan-target
+	 * @param targetIP The IP of the scan-target
+	 * @param targetPort The port of the scan-target
+	 * @return The ID of the newest active HuntingTask for the scan-target or -1 if there is none
+	 * @throws SQLException
+	 */
+	public int getActiveHuntingTaskID(String targetHostName, InetAddress targetIP, int targetPort) throws SQLException;
+
+	/**
+	 * Get all HuntingTasks that are currently active
+	 *
+	 * @return The active HuntingTasks
+	 * @throws SQLException
+	 */
+	public Vector<HuntingTaskEntry> getActiveHuntingTasks() throws SQLException;
+
+	/**
+	 * Get a CertVerifyResult from the CertVerifyResult cache
+	 *
+	 * @param requestHash The hash of the CertVerifyRequest in Hex-String representation
+	 * @return The bytes of the CertVerifyResult along with the time until which they are valid or null if there is no valid entry for the request
+	 * @throws SQLException
+	 */
+	public CacheEntry getCachedCertVerifyResult(String requestHash) throws SQLException;
+
+	/**
+	 * Get the HuntingTask-List from the HuntingTask-List cache
+	 *
+	 * @return The cached HuntingTask-List or null if there is no valid one
+	 * @throws SQLException
+	 */
+	public CacheEntry getCachedHuntingTaskList() throws SQLException;
+
+	/**
+	 * Get a server's certificate from the certificate cache
+	 *
+	 * @param hostPort The Hostname and port of the server (e.g. encrypted.google.com:443)
+	 * @return The DER-encoding of the server's certificate along with the time until which it is valid or null if there is no valid entry for the server
+	 * @throws SQLException
+	 */
+	public CacheEntry getCachedServerCert(String hostPort) throws SQLException;
+
+	/**
+	 * Get the ID of a server certificate with a certain certificate chain hash that has been observed for a server
+	 *
+	 * @param serverHostPort The Hostname and port of the server (e.g. encrypted.google.com:443)
+	 * @param certChainSHA256 The SHA256ChainHash of the certificate in Hex-String representation
+	 * @return The ID of the server certificate or -1 if no such certificate has been observed for the server
+	 * @throws SQLException
+	 */
+	public long getCertIDByChainHash(String serverHostPort, String certChainSHA256) throws SQLException;
+
+	/**
+	 * Get a ConvergenceCertObservation from the Convergence cache
+	 *
+	 * @param hostPort The Hostname and port of the server
+	 * @param certSHA1 The SHA1-hash of the certificate in Hex-String representation
+	 * @return The ConvergenceCertObservation or null if there is none (no matter how old it is)
+	 * @throws SQLException
+	 */
+	public ConvergenceCertObservation getConvergenceCertObservation(String hostPort, String certSHA1) throws SQLException;
+
+	/**
+	 * Get the key that should currently be used to create the HMACs of PublicIPNotifications. If the current key is not valid anymore a new one is generated. It replaces the older one of the two
+	 * keys that are kept (i.e. the previous key stays available for validating HMACs).
+	 *
+	 * @param validity The time in milliseconds that a newly generated key is valid
+	 * @return The key that should currently be used along with the time until which it is valid
+	 * @throws SQLException
+	 */
+	public CacheEntry getCurrentPublicIPHMacKey(long validity) throws SQLException;
+
+	/**
+	 * Get a HuntingTask
+	 *
+	 * @param taskID The ID of the HuntingTask
+	 * @return The HuntingTask or null if it doesn't exist
+	 * @throws SQLException
+	 */
+	public HuntingTaskEntry getHuntingTask(int taskID) throws SQLException;
+
+	/**
+	 * Get the SHA256ChainHashes of the certificate chains that have been observed for a server ordered by their most recent observation
+	 *
+	 * @param serverHostPort The Hostname and port of the server (e.g. encrypted.google.com:443)
+	 * @param max The maximum number of hashes to return
+	 * @return The hashes in Hex-String representation (newest first)
+	 * @throws SQLException
+	 */
+	public Vector<String> getKnownCertChainHashes(String serverHostPort, int max) throws SQLException;
+
+	/**
+	 * Get the last continuous observation period of a certificate for a server i.e. the time between the first and the last observation of the certificate that were not interrupted by the
+	 * observation of another certificate. If the certificate has never been observed the period starts and ends now.
+	 *
+	 * @param certSHA256 The SHA256-hash of the certificate's DER-encoding in Hex-String representation
+	 * @param serverHostPort The Hostname and port of the server (e.g. encrypted.google.com:443)
+	 * @param observerType The type of the observer whose observations are taken into account (e.g. "CrossbearServer")
+	 * @return An array containing the begin and the end of the period
+	 * @throws SQLException
+	 */
+	public Timestamp[] getLastObservationPeriod(String certSHA256, String serverHostPort, String observerType) throws SQLException;
+
+	/**
+	 * Get all keys that have been used to create the HMACs of PublicIPNotifications and that were valid after a point in time
+	 *
+	 * @param validAfter The point in time
+	 * @return The keys
+	 * @throws SQLException
+	 */
+	public byte[][] getPublicIPHMacKeys(Timestamp validAfter) throws SQLException;
+
+	/**
+	 * Get a random Convergence Notary
+	 *
+	 * @return A random Convergence Notary or null if there is none
+	 * @throws SQLException
+	 */
+	public ConvergenceNotary getRandomConvergenceNotary() throws SQLException;
+
+	/**
+	 * Invalidate the HuntingTask-List cache so the next request will generate a new HuntingTask-List
+	 *
+	 * @throws SQLException
+	 */
+	public void invalidateHuntingTaskListCache() throws SQLException;
+
+	/**
+	 * Remove all entries from the CertVerifyResult cache that are no longer valid
+	 *
+	 * @return The number of removed entries
+	 * @throws SQLException
+	 */
+	public int purgeCertVerifyResultCache() throws SQLException;
+
+	/**
+	 * Raise the severity of a HuntingTask (if it is lower than the new severity)
+	 *
+	 * @param taskID The ID of the HuntingTask
+	 * @param severity The new severity (0 to 255)
+	 * @throws SQLException
+	 */
+	public void raiseHuntingTaskSeverity(int taskID, int severity) throws SQLException;
+
+	/**
+	 * Retire all active HuntingTasks that have been created before a point in time
+	 *
+	 * @param createdBefore The point in time
+	 * @return The number of retired HuntingTasks
+	 * @throws SQLException
+	 */
+	public int retireHuntingTasks(Timestamp createdBefore) throws SQLException;
+
+	/**
+	 * Store a chain certificate unless it is already stored
+	 *
+	 * @param cert The derivatives of the certificate
+	 * @return The ID of the certificate (if it was already stored, the old ID)
+	 * @throws SQLException
+	 */
+	public long storeChainCert(CertificateDerivatives cert) throws SQLException;
+
+	/**
+	 * Store a ConvergenceCertObservation in the Convergence cache (replacing an older entry for the same server and certificate)
+	 *
+	 * @param cco The ConvergenceCertObservation to store
+	 * @throws SQLException
+	 */
+	public void storeConvergenceCertObservation(ConvergenceCertObservation cco) throws SQLException;
+
+	/**
+	 * Store a server certificate unless it is already stored along with the same certificate chain
+	 *
+	 * @param cert The derivatives of the certificate
+	 * @param certChainMD5 The md5-hash of the validated certificate chain or null if the chain could not be validated
+	 * @param certChainSHA256 The SHA256ChainHash of the certificate in Hex-String representation or null if certChainMD5 is null
+	 * @return The ID of the certificate (if it was already stored, the old ID)
+	 * @throws SQLException
+	 */
+	public long storeServerCert(CertificateDerivatives cert, String certChainMD5, String certChainSHA256) throws SQLException;
+
+}
@@ -0,0 +1,92 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+
+package crossbear.storage;
+
+import java.net.URL;
+import java.security.CodeSource;
+import java.sql.SQLException;
+
+import crossbear.Database;
+import crossbear.Properties;
+
+/**
+ * The StorageFactory opens the Storage that is configured in the properties of the Crossbear server. The engine is selected by the "storage.engine"-property:
+ * 
+ * - "sql" (or no value): A SQLStorage that uses a new connection to the database that is configured by the "database.url", "database.user" and "database.password"-properties. If the
+ * "storage.localCache"-property is "true" a CachingStorage is used instead and the InvalidationListener of the web application is started (needed if several servers share the database and should keep local caches). It polls
+ * for invalidations every "storage.localCache.pollInterval" milliseconds (default: 500).
+ * 
+ * - "memory": The InMemoryStorage of the JVM. The Convergence Notaries that it knows are configured by the optional "storage.memory.convergenceNotaries"-property (cf. InMemoryStorage.getInstance).
+ * The "eighty"- and the "fourhundredfourtythree"-application only share the InMemoryStorage if its class is loaded by a class loader that both of them share (e.g. because the Crossbear classes are
+ * installed in the lib-directory of the servlet container). If it is loaded from the WEB-INF-directory of a web application, each application would get an InMemoryStorage of its own and Hunters
+ * couldn't report results. That's why the "memory"-engine is refused in that case (cf. checkInMemoryStorageIsShared).
+ */
+public class StorageFactory {
+
+	/**
+	 * Make sure that the InMemoryStorage is shared by all web applications of the servlet container, i.e. that its class has not been loaded from the WEB-INF-directory of a web application
+	 * 
+	 * @throws IllegalStateException If the class of the InMemoryStorage has been loaded from the WEB-INF-directory of a web application
+	 */
+	private static void checkInMemoryStorageIsShared() {
+
+		// Find out where the class of the InMemoryStorage has been loaded from (there is no CodeSource if it has been loaded by the bootstrap class loader)
+		CodeSource source = InMemoryStorage.class.getProtectionDomain().getCodeSource();
+		URL location = (source != null) ? source.getLocation() : null;
+
+		// Classes in WEB-INF/classes and WEB-INF/lib are loaded by the class loader of their web application
+		if (location != null && location.toString().contains("/WEB-INF/")) {
+			throw new IllegalStateException("The storage engine \"memory\" requires that the eighty- and the fourhundredfourtythree-application share the InMemoryStorage, but it has been loaded from "
+					+ location + " which is private to a single web application. Install the Crossbear classes in the lib-directory of the servlet container instead of WEB-INF or set storage.engine=sql.");
+		}
+	}
+
+	/**
+	 * Open the Storage that is configured in the properties of the Crossbear server
+	 * 
+	 * @param properties The properties of the Crossbear server
+	 * @return A Storage that has to be closed after it has been used
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws IllegalStateException If the "memory"-engine is configured but the web applications can't share the InMemoryStorage (cf. checkInMemoryStorageIsShared)
+	 */
+	public static Storage open(Properties properties) throws ClassNotFoundException, SQLException {
+		String engine = properties.getProperty("storage.engine");
+
+		// Keep everything in the memory of the JVM ...
+		if ("memory".equals(engine)) {
+			checkInMemoryStorageIsShared();
+			return InMemoryStorage.getInstance(properties.getProperty("storage.memory.convergenceNotaries"));
+		}
+
+		// ... or in the database (which is the default)
+		if (engine != null && !"sql".equals(engine)) {
+			throw new IllegalArgumentException("Unknown storage engine: " + engine);
+		}
+		Database db = new Database(properties.getProperty("database.url"), properties.getProperty("database.user"), properties.getProperty("database.password"));
+
+		// Answer the most frequent reads from the LocalCache if that is configured (the LocalCache is only used while the InvalidationListener is listening)
+		if ("true".equals(properties.getProperty("storage.localCache"))) {
+			return new CachingStorage(db, InvalidationListener.start(properties).getLocalCache());
+		}
+		return new SQLStorage(db);
+	}
+
+}
@@ -1,2 +0,0 @@
-#!/bin/bash
-psql -f update_hunting_tasks.sql crossbear